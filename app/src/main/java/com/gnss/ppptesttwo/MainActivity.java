@@ -22,6 +22,9 @@ import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 
+import com.gnss.ppptesttwo.adjust.ExtendedKalmanFilter;
+import com.gnss.ppptesttwo.adjust.PositionSolution;
+import com.gnss.ppptesttwo.adjust.PositioningEngine;
 import com.gnss.ppptesttwo.adjust.WeightedLeastSquares;
 import com.gnss.ppptesttwo.constellations.Constellation;
 import com.gnss.ppptesttwo.constellations.GalileoConstellation;
@@ -47,7 +50,7 @@ public class MainActivity extends AppCompatActivity {
 
     private Button bt_ftp, bt_start, bt_stop;
     private TextView textview_log;
-    private CheckBox cb_gps, cb_glonass, cb_galileo, cb_beidou;
+    private CheckBox cb_gps, cb_glonass, cb_galileo, cb_beidou, cb_ekf;
     private TextView textView7,textView6,textView8,textView9;
     /**
      * 是否开始进行gnss数据记录
@@ -82,7 +85,7 @@ public class MainActivity extends AppCompatActivity {
     private RinexNavigationGps mRinexNavigationGps;
     private RinexNavigationGalileo mRinexNavigationGalileo;
     private GpsConstellation mGpsConstellation;
-    private WeightedLeastSquares mWeightedLeastSquares;
+    private PositioningEngine mPositioningEngine;
 
     private GnssConstellation mGnssConstellation;
 
@@ -122,7 +125,7 @@ public class MainActivity extends AppCompatActivity {
         mGpsConstellation = new GpsConstellation();
         mRinexNavigationGps = new RinexNavigationGps();
         mRinexNavigationGalileo=new RinexNavigationGalileo();
-        mWeightedLeastSquares = new WeightedLeastSquares();
+        mPositioningEngine = new WeightedLeastSquares();
 
 
 
@@ -136,6 +139,7 @@ public class MainActivity extends AppCompatActivity {
         cb_glonass = findViewById(R.id.cb_glonass);
         cb_galileo = findViewById(R.id.cb_galileo);
         cb_beidou = findViewById(R.id.cb_beidou);
+        cb_ekf = findViewById(R.id.cb_ekf);
 
         // 获取TextView对象
         textView7 = findViewById(R.id.textView7);
@@ -200,6 +204,14 @@ public class MainActivity extends AppCompatActivity {
 
             }
         });
+        //定位算法:扩展卡尔曼滤波或逐历元加权最小二乘
+        cb_ekf.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                mPositioningEngine = isChecked ? new ExtendedKalmanFilter() : new WeightedLeastSquares();
+                Toast.makeText(MainActivity.this, mPositioningEngine.getName(), Toast.LENGTH_SHORT).show();
+            }
+        });
         mGnssConstellation=new GnssConstellation(isGps, isGalileo, isGlonass, isBeidou);
 
     }
@@ -263,9 +275,16 @@ public class MainActivity extends AppCompatActivity {
                 if(mGnssConstellation.getUsedConstellationSize()>=5)
                 {
 
-                    pose=mWeightedLeastSquares.calculatePose(mGnssConstellation,pose);
+                    PositionSolution solution = mPositioningEngine.solve(mGnssConstellation,pose);
+                    pose=solution.getPosition();
                     //**************************************************************//
-                    textView8.setText(String.format("X: %.6f  Y: %.6f  Z: %.2f", pose.getX(), pose.getY(), pose.getZ()));
+                    textView9.setText(String.format("PDOP: %.1f  HDOP: %.1f", solution.getPdop(), solution.getHdop()));
+                    double[] velocity = solution.getVelocity();
+                    if (velocity != null)
+                        textView8.setText(String.format("X: %.6f  Y: %.6f  Z: %.2f\nVx: %.2f  Vy: %.2f  Vz: %.2f",
+                                pose.getX(), pose.getY(), pose.getZ(), velocity[0], velocity[1], velocity[2]));
+                    else
+                        textView8.setText(String.format("X: %.6f  Y: %.6f  Z: %.2f", pose.getX(), pose.getY(), pose.getZ()));
                     //**************************************************************//
                     try {
                         out.write(currenttime+","+pose.getX()+","+pose.getY()+","+pose.getZ());
@@ -6,6 +6,7 @@ import android.hardware.SensorEvent;
 
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.List;
 
@@ -688,15 +689,18 @@ public class PositioningData {
 
         private int layers;//电离层层数
 
-        private double[] height=new double[layers];//电离层高度
+        private double[] height=new double[0];//电离层高度
 
-        private int []degree=new int[layers];
+        private int []degree=new int[0];
 
-        private int []order=new int[layers];
+        private int []order=new int[0];
 
-        private double[][] cosineC=new double[100][100];//余弦系数C
+        //球谐系数按下三角压缩存储，(n,m)位于n(n+1)/2+m，只按实际阶数分配
+        private double[] cosineC=new double[0];//余弦系数C
 
-        private double[][] sineS=new double[100][100];//正弦系数S
+        private double[] sineS=new double[0];//正弦系数S
+
+        private int coefficientDegree=-1;//已设置系数的最大阶数
 
         public void setEphTime(Time ephTime){
             this.ephTime=ephTime;
@@ -724,6 +728,9 @@ public class PositioningData {
 
         public void setLayers(int layers){
             this.layers=layers;
+            this.height=Arrays.copyOf(height,layers);
+            this.degree=Arrays.copyOf(degree,layers);
+            this.order=Arrays.copyOf(order,layers);
         }
 
         public int getLayers(){
@@ -740,6 +747,7 @@ public class PositioningData {
 
         public void setDegree(int degree,int i){
             this.degree[i]=degree;
+            ensureDegree(degree);
         }
 
         public int getDegree(int i){
@@ -752,26 +760,84 @@ public class PositioningData {
 
         public int getOrder(int i){ return order[i];}
 
+        /**
+         * @param n degree
+         * @param m order, 0 to n
+         * @return index of the coefficient in the packed arrays
+         */
+        public int packedIndex(int n,int m){
+            if(m<0||m>n)
+                throw new IllegalArgumentException("Order "+m+" out of degree "+n);
+            return n*(n+1)/2+m;
+        }
+
+        /**
+         * Grow the packed arrays to hold the coefficients up to degree n
+         */
+        private void ensureDegree(int n){
+            int size=(n+1)*(n+2)/2;
+            if(cosineC.length<size){
+                cosineC=Arrays.copyOf(cosineC,size);
+                sineS=Arrays.copyOf(sineS,size);
+            }
+        }
+
         public void setCosineC(double[][] cosineC,int i,int j){
-            this.cosineC[i][j]=cosineC[i][j];
+            setCosineC1(cosineC[i][j],i,j);
         }
         public void setCosineC1(double cosineC,int i,int j){
-            this.cosineC[i][j]=cosineC;
+            int k=packedIndex(i,j);
+            ensureDegree(i);
+            this.cosineC[k]=cosineC;
+            if(i>coefficientDegree) coefficientDegree=i;
         }
 
+        /**
+         * @param i degree
+         * @param j order
+         * @return coefficient, 0 if not set
+         */
         public double getCosineC(int i,int j){
-            return cosineC[i][j];
+            int k=packedIndex(i,j);
+            return k<cosineC.length?cosineC[k]:0;
         }
 
         public void setSineS(double[][] sineS,int i,int j){
-            this.sineS[i][j]=sineS[i][j];
+            setSineS1(sineS[i][j],i,j);
         }
         public void setSineS1(double sineS,int i,int j){
-            this.sineS[i][j]=sineS;
+            int k=packedIndex(i,j);
+            ensureDegree(i);
+            this.sineS[k]=sineS;
+            if(i>coefficientDegree) coefficientDegree=i;
         }
 
         public double getSineS(int i,int j){
-            return sineS[i][j];
+            int k=packedIndex(i,j);
+            return k<sineS.length?sineS[k]:0;
+        }
+
+        /**
+         * @return highest degree with a coefficient set, -1 if none
+         */
+        public int getCoefficientDegree(){
+            return coefficientDegree;
+        }
+
+        /**
+         * @return cosine coefficients in the packed layout of {@link #packedIndex}, may be
+         * longer than needed
+         */
+        public double[] getPackedCosineC(){
+            return cosineC;
+        }
+
+        /**
+         * @return sine coefficients in the packed layout of {@link #packedIndex}, may be
+         * longer than needed
+         */
+        public double[] getPackedSineS(){
+            return sineS;
         }
 
     }
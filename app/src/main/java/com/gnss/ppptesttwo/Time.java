@@ -170,7 +170,7 @@ public class Time {
 	 * @return GPS time in seconds
 	 */
 	//返回GPS周内秒
-	private static double unixToGpsTime(double time) {
+	public static double unixToGpsTime(double time) {
 		// Shift from UNIX time (January 1, 1970 - msec)
 		// to GPS time (January 6, 1980 - sec)
 		time = time / Constants.MILLISEC_IN_SEC - Constants.UNIX_GPS_DAYS_DIFF * Constants.SEC_IN_DAY;
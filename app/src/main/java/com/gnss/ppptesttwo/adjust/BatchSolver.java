@@ -0,0 +1,150 @@
+package com.gnss.ppptesttwo.adjust;
+
+import com.gnss.ppptesttwo.navifromftp.Coordinates;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>
+ * Weighted least squares on recorded epochs, in parallel on a ForkJoin pool
+ * </p>
+ *
+ * The epochs are split into chunks of consecutive epochs; a chunk is solved in order by
+ * the {@link WeightedLeastSquares} workspace of its thread, so nothing is shared between
+ * threads but the input and the output array. With warm starts enabled, the first epoch
+ * of a chunk starts from the given pose and the next ones from the previous solution,
+ * as in real time; otherwise every epoch starts from the pose. The results are the same
+ * for any number of threads.
+ */
+public class BatchSolver {
+
+    private final static int DEFAULT_CHUNK_SIZE = 256;
+
+    private final ForkJoinPool pool;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private boolean warmStart = true;
+    private boolean faultDetection = true;
+
+    private final ThreadLocal<WeightedLeastSquares> workspace = new ThreadLocal<WeightedLeastSquares>() {
+        @Override
+        protected WeightedLeastSquares initialValue() {
+            return new WeightedLeastSquares();
+        }
+    };
+
+    /**
+     * Solve on all the available processors
+     */
+    public BatchSolver() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param parallelism number of threads
+     */
+    public BatchSolver(int parallelism) {
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * @param epochs observations of each epoch, not modified but for their weights
+     * @param times  epoch times (ms since 1970.1.1), in increasing order
+     * @param pose   approximate receiver position
+     * @return solutions, in the order of the epochs
+     */
+    public PositionSolution[] solve(List<ObservationBuffer> epochs, long[] times, Coordinates pose) {
+        if (times.length != epochs.size())
+            throw new IllegalArgumentException("one time per epoch expected");
+        PositionSolution[] solutions = new PositionSolution[epochs.size()];
+        pool.invoke(new ChunkTask(workspace, chunkSize, warmStart, faultDetection,
+                epochs, times, pose, solutions, 0, epochs.size()));
+        return solutions;
+    }
+
+    /**
+     * Range of epochs, split down to the chunk size, with the settings of the solve call
+     */
+    private static final class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ThreadLocal<WeightedLeastSquares> workspace;
+        private final int chunkSize;
+        private final boolean warmStart;
+        private final boolean faultDetection;
+        private final List<ObservationBuffer> epochs;
+        private final long[] times;
+        private final Coordinates pose;
+        private final PositionSolution[] solutions;
+        private final int from;
+        private final int to;
+
+        ChunkTask(ThreadLocal<WeightedLeastSquares> workspace, int chunkSize, boolean warmStart,
+                  boolean faultDetection, List<ObservationBuffer> epochs, long[] times, Coordinates pose,
+                  PositionSolution[] solutions, int from, int to) {
+            this.workspace = workspace;
+            this.chunkSize = chunkSize;
+            this.warmStart = warmStart;
+            this.faultDetection = faultDetection;
+            this.epochs = epochs;
+            this.times = times;
+            this.pose = pose;
+            this.solutions = solutions;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            int chunks = (to - from + chunkSize - 1) / chunkSize;
+            if (chunks > 1) {
+                // split on a chunk boundary so the chunks do not depend on the splitting
+                int middle = from + chunks / 2 * chunkSize;
+                invokeAll(new ChunkTask(workspace, chunkSize, warmStart, faultDetection,
+                                epochs, times, pose, solutions, from, middle),
+                        new ChunkTask(workspace, chunkSize, warmStart, faultDetection,
+                                epochs, times, pose, solutions, middle, to));
+                return;
+            }
+            WeightedLeastSquares wls = workspace.get();
+            wls.setFaultDetection(faultDetection);
+            wls.resetWarmStart();
+            for (int e = from; e < to; e++) {
+                solutions[e] = wls.solve(epochs.get(e), warmStart ? times[e] : 0, pose);
+            }
+        }
+    }
+
+    /**
+     * @param chunkSize consecutive epochs solved by one thread, 256 by default
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(chunkSize, 1);
+    }
+
+    /**
+     * @param warmStart start each epoch of a chunk from the previous solution, the default
+     */
+    public void setWarmStart(boolean warmStart) {
+        this.warmStart = warmStart;
+    }
+
+    /**
+     * @param faultDetection run fault detection and exclusion on each epoch, the default
+     */
+    public void setFaultDetection(boolean faultDetection) {
+        this.faultDetection = faultDetection;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Stop the threads of the pool
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,374 @@
+package com.gnss.ppptesttwo.adjust;
+
+import android.util.Log;
+
+import com.gnss.ppptesttwo.constellations.GnssConstellation;
+import com.gnss.ppptesttwo.navifromftp.Coordinates;
+
+/**
+ * <p>
+ * Extended Kalman filter on position, velocity, clock bias, clock drift and the
+ * inter-system clock biases
+ * </p>
+ *
+ * Every epoch the state is propagated with a constant velocity / constant drift model
+ * and corrected with one linearization of the pseudoranges at the predicted state.
+ * The observations are uncorrelated, so they are processed one at a time (scalar
+ * updates): each costs O(m^2) on the m = 11 states and no matrix is inverted.
+ *
+ * The filter starts, and restarts after a gap or when most of the pseudoranges are
+ * rejected, from a {@link WeightedLeastSquares} solution. The clock state is the GPS
+ * one; the clock of each other system is the GPS clock plus a bias state, started from
+ * the offset of that solution and modelled as a slow random walk.
+ */
+public class ExtendedKalmanFilter implements PositioningEngine {
+
+    private final static String NAME = "Extended Kalman Filter";
+    private final static String TAG = "EKF";
+
+    /* x, y, z, vx, vy, vz (m, m/s), clock bias (m), clock drift (m/s), then the clock of
+       each system but GPS minus the GPS one (m) */
+    private final static int CLOCK = 6;
+    private final static int DRIFT = 7;
+    private final static int SYSTEM_BIAS = 8;
+    private final static int STATES = SYSTEM_BIAS + ObservationBuffer.SYSTEMS - 1;
+
+    /* states of the position and clock block of the covariance */
+    private final static int[] POSITION_CLOCK = {0, 1, 2, CLOCK};
+
+    /* longest prediction interval before restarting (ms) */
+    private final static long MAX_GAP = 10000;
+
+    /* initial variances after a restart */
+    private final static double INITIAL_POSITION_VARIANCE = 100;   // m^2
+    private final static double INITIAL_VELOCITY_VARIANCE = 100;   // (m/s)^2
+    private final static double INITIAL_CLOCK_VARIANCE = 100;      // m^2
+    private final static double INITIAL_DRIFT_VARIANCE = 1e6;      // (m/s)^2
+    private final static double INITIAL_SYSTEM_BIAS_VARIANCE = 100; // m^2
+    private final static double DOPPLER_VELOCITY_VARIANCE = 1;     // (m/s)^2
+
+    /* pseudoranges whose normalized innovation squared exceeds this are rejected */
+    private final static double INNOVATION_GATE = 100;
+
+    // Process noise spectral densities
+    private double accelerationNoise = 1.0;  // m^2/s^3, per axis
+    private double clockBiasNoise = 10.0;    // m^2/s
+    private double clockDriftNoise = 1.0;    // m^2/s^3
+    private double systemBiasNoise = 0.01;   // m^2/s
+
+    private final double[] state = new double[STATES];
+    private final double[] covariance = new double[STATES * STATES];
+
+    /* predicted state of the epoch, the linearization point */
+    private final double[] predicted = new double[STATES];
+    private final double[] ph = new double[STATES];
+
+    private final WeightedLeastSquares initializer = new WeightedLeastSquares();
+    private final ObservationBuffer buffer = new ObservationBuffer();
+
+    /* position and clock block of the covariance, DOP work arrays */
+    private final double[] block = new double[16];
+    private final double[] unitNormal = new double[16];
+    private final double[] unitFactor = new double[16];
+    private final double[] work = new double[16];
+    private final double[] row = new double[4];
+    private double latitude;
+    private double longitude;
+
+    private boolean initialized = false;
+    private long lastTime;
+    private int acceptedObservations;
+
+    @Override
+    public Coordinates calculatePose(GnssConstellation gnssConstellation, Coordinates pose) {
+        return solve(gnssConstellation, pose).getPosition();
+    }
+
+    @Override
+    public PositionSolution solve(GnssConstellation gnssConstellation, Coordinates pose) {
+
+        long time = gnssConstellation.getTime() != null ? gnssConstellation.getTime().getMsec() : 0;
+
+        try {
+            buffer.load(gnssConstellation);
+        }
+        catch(NullPointerException | IndexOutOfBoundsException e){
+            e.printStackTrace();
+
+            if(e.getClass() == IndexOutOfBoundsException.class){
+                Log.e(TAG, "calculatePose: Satellites cleared before calculating result!");
+            }
+            buffer.clear();
+        }
+        return solve(buffer, time, pose);
+    }
+
+    @Override
+    public PositionSolution solve(ObservationBuffer observations, long time, Coordinates pose) {
+
+        if (!initialized || time == 0 || time <= lastTime || time - lastTime > MAX_GAP) {
+            return initialize(observations, pose, time);
+        }
+
+        predict((time - lastTime) / 1000.0);
+        lastTime = time;
+        System.arraycopy(state, 0, predicted, 0, STATES);
+
+        update(observations);
+
+        if (acceptedObservations < 4) {
+            Log.e(TAG, "calculatePose: " + acceptedObservations + " pseudoranges accepted, restarting");
+            initialized = false;
+        }
+
+        Log.d(TAG, "calculatePose: state (ECEF): " + state[0] + ", " + state[1] + ", " + state[2] + ";");
+
+        PositionSolution solution = new PositionSolution(Coordinates.globalXYZInstance(state[0], state[1], state[2]),
+                state[CLOCK], acceptedObservations >= 4, acceptedObservations);
+        solution.setVelocity(getVelocity(), state[DRIFT]);
+
+        // Position and clock block of the filter covariance
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                block[i * 4 + j] = covariance[POSITION_CLOCK[i] * STATES + POSITION_CLOCK[j]];
+            }
+        }
+        solution.setCovariance(block, 4);
+        if (acceptedObservations >= 4 && LeastSquaresKernel.cholesky(unitNormal, unitFactor, 4)) {
+            LeastSquaresKernel.invertFactored(unitFactor, 4, block, work);
+            solution.setDilution(block, 4, latitude, longitude);
+        }
+        return solution;
+    }
+
+    /**
+     * Restart the filter from a least squares fix
+     */
+    private PositionSolution initialize(ObservationBuffer observations, Coordinates pose, long time) {
+        PositionSolution solution = initializer.solve(observations, time, pose);
+        Coordinates fix = solution.getPosition();
+        if (!initializer.isSolved() || time == 0) {
+            initialized = false;
+            return solution;
+        }
+
+        for (int k = 0; k < STATES * STATES; k++) {
+            covariance[k] = 0;
+        }
+        state[0] = fix.getX();
+        state[1] = fix.getY();
+        state[2] = fix.getZ();
+        state[CLOCK] = initializer.getClockBias();
+        for (int sys = 1; sys < ObservationBuffer.SYSTEMS; sys++) {
+            int k = SYSTEM_BIAS + sys - 1;
+            state[k] = initializer.getClockBias(sys) - state[CLOCK];
+            covariance[k * STATES + k] = INITIAL_SYSTEM_BIAS_VARIANCE;
+        }
+        for (int i = 0; i < 3; i++) {
+            state[3 + i] = 0;
+            covariance[i * STATES + i] = INITIAL_POSITION_VARIANCE;
+            covariance[(3 + i) * STATES + 3 + i] = INITIAL_VELOCITY_VARIANCE;
+        }
+        state[DRIFT] = 0;
+        covariance[CLOCK * STATES + CLOCK] = INITIAL_CLOCK_VARIANCE;
+        covariance[DRIFT * STATES + DRIFT] = INITIAL_DRIFT_VARIANCE;
+
+        // Doppler velocity of the fix, when the pseudorange rates are available
+        double[] velocity = initializer.getVelocity();
+        if (velocity != null) {
+            for (int i = 0; i < 3; i++) {
+                state[3 + i] = velocity[i];
+                covariance[(3 + i) * STATES + 3 + i] = DOPPLER_VELOCITY_VARIANCE;
+            }
+            state[DRIFT] = initializer.getClockDrift();
+            covariance[DRIFT * STATES + DRIFT] = DOPPLER_VELOCITY_VARIANCE;
+        }
+
+        initialized = true;
+        lastTime = time;
+        Log.d(TAG, "initialize: state (ECEF): " + state[0] + ", " + state[1] + ", " + state[2] + ";");
+        return solution;
+    }
+
+    /**
+     * Propagate the state and its covariance, P = F P F' + Q
+     *
+     * @param dt prediction interval (s)
+     */
+    void predict(double dt) {
+        int m = STATES;
+        for (int i = 0; i < 3; i++) {
+            state[i] += state[3 + i] * dt;
+        }
+        state[CLOCK] += state[DRIFT] * dt;
+
+        // F P: position rows take the velocity rows, the clock row the drift row
+        for (int j = 0; j < m; j++) {
+            for (int i = 0; i < 3; i++) {
+                covariance[i * m + j] += dt * covariance[(3 + i) * m + j];
+            }
+            covariance[CLOCK * m + j] += dt * covariance[DRIFT * m + j];
+        }
+        // (F P) F'
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < 3; j++) {
+                covariance[i * m + j] += dt * covariance[i * m + 3 + j];
+            }
+            covariance[i * m + CLOCK] += dt * covariance[i * m + DRIFT];
+        }
+
+        double dt2 = dt * dt;
+        double dt3 = dt2 * dt;
+        for (int i = 0; i < 3; i++) {
+            covariance[i * m + i] += accelerationNoise * dt3 / 3;
+            covariance[i * m + 3 + i] += accelerationNoise * dt2 / 2;
+            covariance[(3 + i) * m + i] += accelerationNoise * dt2 / 2;
+            covariance[(3 + i) * m + 3 + i] += accelerationNoise * dt;
+        }
+        covariance[CLOCK * m + CLOCK] += clockBiasNoise * dt + clockDriftNoise * dt3 / 3;
+        covariance[CLOCK * m + DRIFT] += clockDriftNoise * dt2 / 2;
+        covariance[DRIFT * m + CLOCK] += clockDriftNoise * dt2 / 2;
+        covariance[DRIFT * m + DRIFT] += clockDriftNoise * dt;
+        for (int k = SYSTEM_BIAS; k < m; k++) {
+            covariance[k * m + k] += systemBiasNoise * dt;
+        }
+    }
+
+    /**
+     * Scalar measurement updates with all the pseudoranges of the epoch, linearized at
+     * the predicted state
+     */
+    private void update(ObservationBuffer observations) {
+        int m = STATES;
+        acceptedObservations = 0;
+        for (int k = 0; k < 16; k++) {
+            unitNormal[k] = 0;
+        }
+
+        // Local vertical at the predicted position, for the elevation weights
+        Coordinates origin = Coordinates.globalXYZInstance(predicted[0], predicted[1], predicted[2]);
+        latitude = Math.toRadians(origin.getGeodeticLatitude());
+        longitude = Math.toRadians(origin.getGeodeticLongitude());
+        double upX = Math.cos(latitude) * Math.cos(longitude);
+        double upY = Math.cos(latitude) * Math.sin(longitude);
+        double upZ = Math.sin(latitude);
+
+        for (int k = 0; k < observations.size; k++) {
+            double dx = observations.x[k] - predicted[0];
+            double dy = observations.y[k] - predicted[1];
+            double dz = observations.z[k] - predicted[2];
+            double dist = Math.sqrt(dx * dx + dy * dy + dz * dz);
+
+            double elevation = Math.asin((dx * upX + dy * upY + dz * upZ) / dist);
+            double measVar = initializer.getMeasurementVariance(observations.cn0[k], elevation);
+            observations.weight[k] = 1.0 / measVar;
+
+            // Observation row h: line of sight, clock bias and the bias of the system
+            double h0 = -dx / dist;
+            double h1 = -dy / dist;
+            double h2 = -dz / dist;
+            int bias = observations.system[k] == ObservationBuffer.SYSTEM_GPS ? -1
+                    : SYSTEM_BIAS + observations.system[k] - 1;
+
+            // Innovation at the predicted state, minus the corrections already applied
+            double measPred = dist + observations.correction[k] - observations.clock[k] + predicted[CLOCK];
+            double innovation = observations.pseudorange[k] - measPred
+                    - h0 * (state[0] - predicted[0])
+                    - h1 * (state[1] - predicted[1])
+                    - h2 * (state[2] - predicted[2])
+                    - (state[CLOCK] - predicted[CLOCK]);
+            if (bias >= 0)
+                innovation -= state[bias];
+
+            // P h' and h P h' + r
+            for (int i = 0; i < m; i++) {
+                ph[i] = covariance[i * m] * h0 + covariance[i * m + 1] * h1
+                        + covariance[i * m + 2] * h2 + covariance[i * m + CLOCK];
+                if (bias >= 0)
+                    ph[i] += covariance[i * m + bias];
+            }
+            double s = h0 * ph[0] + h1 * ph[1] + h2 * ph[2] + ph[CLOCK] + measVar;
+            if (bias >= 0)
+                s += ph[bias];
+
+            if (innovation * innovation > INNOVATION_GATE * s) {
+                Log.d(TAG, "update: pseudorange of satellite " + observations.satID[k] + " rejected, innovation " + innovation);
+                continue;
+            }
+
+            // x += K v, P -= K h P with K = P h' / s; the lower triangle is updated and
+            // mirrored, so that round-off cannot make P asymmetric over the epochs
+            for (int i = 0; i < m; i++) {
+                state[i] += ph[i] / s * innovation;
+            }
+            for (int i = 0; i < m; i++) {
+                double ki = ph[i] / s;
+                for (int j = 0; j <= i; j++) {
+                    double p = covariance[i * m + j] - ki * ph[j];
+                    covariance[i * m + j] = p;
+                    covariance[j * m + i] = p;
+                }
+            }
+            acceptedObservations++;
+
+            // unit weight normal matrix of the accepted geometry, for the DOP
+            row[0] = h0;
+            row[1] = h1;
+            row[2] = h2;
+            row[3] = 1;
+            for (int i = 0; i < 4; i++) {
+                for (int j = 0; j <= i; j++) {
+                    unitNormal[i * 4 + j] += row[i] * row[j];
+                }
+            }
+        }
+    }
+
+    /**
+     * @param accelerationNoise per axis acceleration spectral density (m^2/s^3)
+     * @param clockBiasNoise    clock bias spectral density (m^2/s)
+     * @param clockDriftNoise   clock drift spectral density (m^2/s^3)
+     */
+    public void setProcessNoise(double accelerationNoise, double clockBiasNoise, double clockDriftNoise) {
+        this.accelerationNoise = accelerationNoise;
+        this.clockBiasNoise = clockBiasNoise;
+        this.clockDriftNoise = clockDriftNoise;
+    }
+
+    /**
+     * @param systemBiasNoise inter-system clock bias spectral density (m^2/s)
+     */
+    public void setSystemBiasNoise(double systemBiasNoise) {
+        this.systemBiasNoise = systemBiasNoise;
+    }
+
+    @Override
+    public double[] getVelocity() {
+        return new double[]{state[3], state[4], state[5]};
+    }
+
+    @Override
+    public double getClockDrift() {
+        return state[DRIFT];
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public double getClockBias() {
+        return state[CLOCK];
+    }
+
+    /**
+     * @param system one of the ObservationBuffer systems
+     * @return receiver clock bias of the last epoch against the time of that system (m)
+     */
+    public double getClockBias(int system) {
+        if (system == ObservationBuffer.SYSTEM_GPS)
+            return state[CLOCK];
+        return state[CLOCK] + state[SYSTEM_BIAS + system - 1];
+    }
+}
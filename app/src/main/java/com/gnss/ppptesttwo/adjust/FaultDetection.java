@@ -0,0 +1,366 @@
+package com.gnss.ppptesttwo.adjust;
+
+/**
+ * <p>
+ * Receiver autonomous integrity monitoring with fault detection and exclusion (FDE)
+ * on a solved {@link LeastSquaresKernel}
+ * </p>
+ *
+ * The weighted sum of squared residuals is tested against the chi-square threshold of
+ * the redundancy. On a failure, the leave-one-out sums of all the observations follow
+ * from the inverse of the normal matrix with one matrix-vector product each, and the
+ * observation whose removal lowers the sum the most is excluded by a rank-one downdate
+ * of the factor. The horizontal and vertical protection levels are the largest fault
+ * slopes (Walter and Enge, weighted RAIM) times the bias detectable with the given
+ * false alarm and missed detection probabilities. All of it costs O(n m^2): with one
+ * exclusion, about three times a solve of the epoch instead of n re-solves.
+ *
+ * The design matrix is expected to hold the ECEF position partials in its first three
+ * columns.
+ */
+public class FaultDetection {
+
+    /* standard normal quantiles of the false alarm (1e-3) and missed detection (1e-3) probabilities */
+    private double falseAlarmQuantile = 3.090;
+    private double missedDetectionQuantile = 3.090;
+
+    private int maxExclusions = 3;
+
+    private int unknowns;
+    private int observations;
+
+    private final double[] factor = new double[LeastSquaresKernel.MAX_UNKNOWNS * LeastSquaresKernel.MAX_UNKNOWNS];
+    private final double[] downdated = new double[LeastSquaresKernel.MAX_UNKNOWNS * LeastSquaresKernel.MAX_UNKNOWNS];
+    /* inverse of the normal matrix, from the factor, and the work array of the inversion */
+    private final double[] inverse = new double[LeastSquaresKernel.MAX_UNKNOWNS * LeastSquaresKernel.MAX_UNKNOWNS];
+    private final double[] work = new double[LeastSquaresKernel.MAX_UNKNOWNS * LeastSquaresKernel.MAX_UNKNOWNS];
+    private final double[] rhs = new double[LeastSquaresKernel.MAX_UNKNOWNS];
+    private final double[] solution = new double[LeastSquaresKernel.MAX_UNKNOWNS];
+    private final double[] h = new double[LeastSquaresKernel.MAX_UNKNOWNS];
+    private final double[] u = new double[LeastSquaresKernel.MAX_UNKNOWNS];
+
+    /* residuals of the current solution, from the last sumOfSquares() */
+    private double[] residuals = new double[0];
+
+    private boolean[] excluded = new boolean[0];
+    private int[] exclusions = new int[0];
+    private int excludedCount;
+
+    private double testStatistic;
+    private double threshold;
+    private boolean available;
+    private boolean consistent;
+    private double horizontalProtectionLevel;
+    private double verticalProtectionLevel;
+
+    /**
+     * Test the observations of the last solve of the kernel, exclude faulty ones and
+     * compute the protection levels
+     *
+     * @param kernel    solved kernel, left unchanged
+     * @param latitude  geodetic latitude of the receiver (rad)
+     * @param longitude geodetic longitude of the receiver (rad)
+     * @return true if the remaining observations are consistent
+     */
+    public boolean check(LeastSquaresKernel kernel, double latitude, double longitude) {
+        int m = kernel.getUnknowns();
+        int n = kernel.getObservations();
+        unknowns = m;
+        observations = n;
+        if (excluded.length < n) {
+            residuals = new double[n];
+            excluded = new boolean[n];
+            exclusions = new int[n];
+        }
+        for (int i = 0; i < n; i++) {
+            excluded[i] = false;
+        }
+        excludedCount = 0;
+        available = false;
+        consistent = false;
+        horizontalProtectionLevel = Double.NaN;
+        verticalProtectionLevel = Double.NaN;
+
+        System.arraycopy(kernel.getFactor(), 0, factor, 0, m * m);
+        System.arraycopy(kernel.getRhs(), 0, rhs, 0, m);
+        for (int j = 0; j < m; j++) {
+            solution[j] = kernel.getSolution(j);
+        }
+
+        while (true) {
+            testStatistic = sumOfSquares(kernel);
+            int redundancy = n - excludedCount - m;
+            if (redundancy < 1) {
+                threshold = Double.NaN;
+                return false;
+            }
+            available = true;
+            threshold = chiSquareThreshold(redundancy, falseAlarmQuantile);
+            if (testStatistic <= threshold) {
+                consistent = true;
+                break;
+            }
+
+            // a fault can only be identified with two redundant observations
+            if (redundancy < 2 || excludedCount == maxExclusions)
+                break;
+            int worst = findWorst(kernel);
+            if (worst < 0 || !exclude(kernel, worst))
+                break;
+        }
+
+        computeProtectionLevels(kernel, latitude, longitude);
+        return consistent;
+    }
+
+    /**
+     * @return weighted sum of the squared residuals of the retained observations, kept
+     * in {@link #residuals}
+     */
+    private double sumOfSquares(LeastSquaresKernel kernel) {
+        double sum = 0;
+        for (int i = 0; i < observations; i++) {
+            if (excluded[i])
+                continue;
+            double v = residual(kernel, i);
+            residuals[i] = v;
+            sum += kernel.getWeight(i) * v * v;
+        }
+        return sum;
+    }
+
+    private double residual(LeastSquaresKernel kernel, int i) {
+        double v = kernel.getPrefit(i);
+        for (int j = 0; j < unknowns; j++) {
+            v -= kernel.getDesign(i, j) * solution[j];
+        }
+        return v;
+    }
+
+    /**
+     * @return retained observation whose removal lowers the test statistic the most,
+     * -1 if none can be removed without losing observability
+     */
+    private int findWorst(LeastSquaresKernel kernel) {
+        int worst = -1;
+        double best = testStatistic;
+        LeastSquaresKernel.invertFactored(factor, unknowns, inverse, work);
+        for (int i = 0; i < observations; i++) {
+            if (excluded[i])
+                continue;
+            double w = kernel.getWeight(i);
+            double redundancy = 1 - w * leverage(kernel, i);
+            if (redundancy < 1e-9)
+                continue;
+            double v = residuals[i];
+            double leaveOneOut = testStatistic - w * v * v / redundancy;
+            if (leaveOneOut < best) {
+                best = leaveOneOut;
+                worst = i;
+            }
+        }
+        return worst;
+    }
+
+    /**
+     * Unweighted leverage of an observation with the current {@link #inverse}
+     *
+     * @return h N^-1 h', with u = N^-1 h'
+     */
+    private double leverage(LeastSquaresKernel kernel, int i) {
+        loadRow(kernel, i);
+        double q = 0;
+        for (int j = 0; j < unknowns; j++) {
+            double s = 0;
+            for (int k = 0; k < unknowns; k++) {
+                s += inverse[j * unknowns + k] * h[k];
+            }
+            u[j] = s;
+            q += h[j] * s;
+        }
+        return q;
+    }
+
+    /**
+     * Remove an observation from the factor and the solution
+     */
+    private boolean exclude(LeastSquaresKernel kernel, int i) {
+        loadRow(kernel, i);
+        double w = kernel.getWeight(i);
+        double sw = Math.sqrt(w);
+        double z = kernel.getPrefit(i);
+        for (int j = 0; j < unknowns; j++) {
+            u[j] = sw * h[j];
+        }
+        System.arraycopy(factor, 0, downdated, 0, unknowns * unknowns);
+        if (!LeastSquaresKernel.choleskyDowndate(downdated, unknowns, u))
+            return false;
+        System.arraycopy(downdated, 0, factor, 0, unknowns * unknowns);
+        for (int j = 0; j < unknowns; j++) {
+            rhs[j] -= h[j] * w * z;
+        }
+        LeastSquaresKernel.solveFactored(factor, unknowns, rhs, solution);
+        excluded[i] = true;
+        exclusions[excludedCount++] = i;
+        return true;
+    }
+
+    /**
+     * Largest horizontal and vertical slopes of the retained observations times the
+     * detectable bias
+     */
+    private void computeProtectionLevels(LeastSquaresKernel kernel, double latitude, double longitude) {
+        double sinPhi = Math.sin(latitude);
+        double cosPhi = Math.cos(latitude);
+        double sinLam = Math.sin(longitude);
+        double cosLam = Math.cos(longitude);
+
+        double maxHorizontal = 0;
+        double maxVertical = 0;
+        LeastSquaresKernel.invertFactored(factor, unknowns, inverse, work);
+        for (int i = 0; i < observations; i++) {
+            if (excluded[i])
+                continue;
+            double w = kernel.getWeight(i);
+            double redundancy = 1 - w * leverage(kernel, i);
+            if (redundancy < 1e-9)
+                continue;
+            double e = -sinLam * u[0] + cosLam * u[1];
+            double nn = -sinPhi * cosLam * u[0] - sinPhi * sinLam * u[1] + cosPhi * u[2];
+            double up = cosPhi * cosLam * u[0] + cosPhi * sinLam * u[1] + sinPhi * u[2];
+            double scale = Math.sqrt(w / redundancy);
+            maxHorizontal = Math.max(maxHorizontal, Math.sqrt(e * e + nn * nn) * scale);
+            maxVertical = Math.max(maxVertical, Math.abs(up) * scale);
+        }
+
+        double bias = Math.sqrt(threshold) + missedDetectionQuantile;
+        horizontalProtectionLevel = maxHorizontal * bias;
+        verticalProtectionLevel = maxVertical * bias;
+    }
+
+    private void loadRow(LeastSquaresKernel kernel, int i) {
+        for (int j = 0; j < unknowns; j++) {
+            h[j] = kernel.getDesign(i, j);
+        }
+    }
+
+    /**
+     * Wilson-Hilferty approximation of a chi-square quantile
+     *
+     * @param dof      degrees of freedom
+     * @param quantile standard normal quantile of the probability
+     * @return threshold exceeded with that probability
+     */
+    static double chiSquareThreshold(int dof, double quantile) {
+        double a = 2.0 / (9.0 * dof);
+        double c = 1 - a + quantile * Math.sqrt(a);
+        return dof * c * c * c;
+    }
+
+    /**
+     * Solve another set of observations with the geometry of the last check, without
+     * the excluded rows, see {@link LeastSquaresKernel#solveObservations}
+     *
+     * @param kernel   kernel of the last check
+     * @param values   observations, one per row of the design matrix
+     * @param solution estimated unknowns
+     */
+    public void solveObservations(LeastSquaresKernel kernel, double[] values, double[] solution) {
+        for (int j = 0; j < unknowns; j++) {
+            u[j] = 0;
+        }
+        for (int i = 0; i < observations; i++) {
+            if (excluded[i])
+                continue;
+            double wy = kernel.getWeight(i) * values[i];
+            for (int j = 0; j < unknowns; j++) {
+                u[j] += kernel.getDesign(i, j) * wy;
+            }
+        }
+        LeastSquaresKernel.solveFactored(factor, unknowns, u, solution);
+    }
+
+    /**
+     * @return Cholesky factor of the normal matrix without the excluded rows
+     */
+    double[] getFactor() {
+        return factor;
+    }
+
+    /**
+     * @param falseAlarmQuantile      standard normal quantile of the false alarm probability
+     * @param missedDetectionQuantile standard normal quantile of the missed detection probability
+     */
+    public void setProbabilities(double falseAlarmQuantile, double missedDetectionQuantile) {
+        this.falseAlarmQuantile = falseAlarmQuantile;
+        this.missedDetectionQuantile = missedDetectionQuantile;
+    }
+
+    /**
+     * @param maxExclusions largest number of observations excluded per epoch, 3 by default
+     */
+    public void setMaxExclusions(int maxExclusions) {
+        this.maxExclusions = maxExclusions;
+    }
+
+    /**
+     * @param j unknown
+     * @return correction of unknown j without the excluded observations, relative to
+     * the linearization point of the kernel
+     */
+    public double getSolution(int j) {
+        return solution[j];
+    }
+
+    public int getExcludedCount() {
+        return excludedCount;
+    }
+
+    /**
+     * @param k exclusion, in the order they were made
+     * @return kernel index of the excluded observation
+     */
+    public int getExcluded(int k) {
+        return exclusions[k];
+    }
+
+    public boolean isExcluded(int i) {
+        return i < observations && excluded[i];
+    }
+
+    /**
+     * @return weighted sum of squared residuals after the exclusions
+     */
+    public double getTestStatistic() {
+        return testStatistic;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @return false if there were not enough observations to test
+     */
+    public boolean isAvailable() {
+        return available;
+    }
+
+    public boolean isConsistent() {
+        return consistent;
+    }
+
+    /**
+     * @return horizontal protection level (m), NaN if not available
+     */
+    public double getHorizontalProtectionLevel() {
+        return horizontalProtectionLevel;
+    }
+
+    /**
+     * @return vertical protection level (m), NaN if not available
+     */
+    public double getVerticalProtectionLevel() {
+        return verticalProtectionLevel;
+    }
+}
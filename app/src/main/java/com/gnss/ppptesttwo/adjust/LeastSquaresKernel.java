@@ -0,0 +1,364 @@
+package com.gnss.ppptesttwo.adjust;
+
+/**
+ * <p>
+ * Weighted least squares on primitive arrays
+ * </p>
+ *
+ * The observations are uncorrelated, so the weight matrix is kept as its diagonal and
+ * the normal equations N = H'WH, b = H'Wz are accumulated row by row; N is solved
+ * with a Cholesky factorization. All the buffers are reused, so an instance kept by
+ * the caller solves epoch after epoch without allocating.
+ */
+public class LeastSquaresKernel {
+
+    /* largest number of unknowns (position, clocks, ...) */
+    public static final int MAX_UNKNOWNS = 8;
+
+    private int unknowns;
+    private int observations;
+
+    /* row-major observations x unknowns design matrix */
+    private double[] design = new double[0];
+    private double[] prefit = new double[0];
+    private double[] weight = new double[0];
+
+    private final double[] normal = new double[MAX_UNKNOWNS * MAX_UNKNOWNS];
+    private final double[] factor = new double[MAX_UNKNOWNS * MAX_UNKNOWNS];
+    private final double[] rhs = new double[MAX_UNKNOWNS];
+    private final double[] solution = new double[MAX_UNKNOWNS];
+    private final double[] secondaryRhs = new double[MAX_UNKNOWNS];
+
+    /* unit weight normal matrix, for the dilutions of precision */
+    private final double[] unitNormal = new double[MAX_UNKNOWNS * MAX_UNKNOWNS];
+    private final double[] unitFactor = new double[MAX_UNKNOWNS * MAX_UNKNOWNS];
+    private final double[] work = new double[MAX_UNKNOWNS * MAX_UNKNOWNS];
+
+    /**
+     * Start a new system; the design matrix rows are cleared
+     *
+     * @param unknowns     number of unknowns, at most MAX_UNKNOWNS
+     * @param observations number of observations
+     */
+    public void reset(int unknowns, int observations) {
+        if (unknowns < 1 || unknowns > MAX_UNKNOWNS)
+            throw new IllegalArgumentException("Unsupported number of unknowns: " + unknowns);
+        this.unknowns = unknowns;
+        this.observations = observations;
+        if (weight.length < observations) {
+            int capacity = Math.max(observations, 2 * weight.length);
+            design = new double[capacity * MAX_UNKNOWNS];
+            prefit = new double[capacity];
+            weight = new double[capacity];
+        }
+        for (int k = 0; k < observations * unknowns; k++) {
+            design[k] = 0;
+        }
+    }
+
+    /**
+     * @param i      observation
+     * @param prefit observed minus computed
+     * @param weight inverse of the observation variance
+     */
+    public void setObservation(int i, double prefit, double weight) {
+        this.prefit[i] = prefit;
+        this.weight[i] = weight;
+    }
+
+    /**
+     * @param i     observation
+     * @param j     unknown
+     * @param value partial derivative of observation i with respect to unknown j
+     */
+    public void setDesign(int i, int j, double value) {
+        design[i * unknowns + j] = value;
+    }
+
+    /**
+     * Form and solve the normal equations
+     *
+     * @return false if the normal matrix is not positive definite (e.g. fewer
+     * observations than unknowns or a degenerate geometry)
+     */
+    public boolean solve() {
+        int m = unknowns;
+        for (int k = 0; k < m * m; k++) {
+            normal[k] = 0;
+        }
+        for (int j = 0; j < m; j++) {
+            rhs[j] = 0;
+        }
+
+        // lower triangle of H'WH and H'Wz
+        for (int i = 0; i < observations; i++) {
+            int row = i * m;
+            double w = weight[i];
+            double wz = w * prefit[i];
+            for (int j = 0; j < m; j++) {
+                double whj = w * design[row + j];
+                rhs[j] += design[row + j] * wz;
+                for (int k = 0; k <= j; k++) {
+                    normal[j * m + k] += whj * design[row + k];
+                }
+            }
+        }
+
+        if (!cholesky(normal, factor, m))
+            return false;
+        solveFactored(factor, m, rhs, solution);
+        return true;
+    }
+
+    /**
+     * Solve another set of observations with the same design matrix and weights, e.g.
+     * the pseudorange rates of the epoch, reusing the factor of the last solve
+     *
+     * @param values   observations, one per row of the design matrix
+     * @param solution estimated unknowns
+     */
+    public void solveObservations(double[] values, double[] solution) {
+        int m = unknowns;
+        for (int j = 0; j < m; j++) {
+            secondaryRhs[j] = 0;
+        }
+        for (int i = 0; i < observations; i++) {
+            double wy = weight[i] * values[i];
+            for (int j = 0; j < m; j++) {
+                secondaryRhs[j] += design[i * m + j] * wy;
+            }
+        }
+        solveFactored(factor, m, secondaryRhs, solution);
+    }
+
+    /**
+     * Covariance (H'WH)^-1 of the unknowns, from the factor of the last solve
+     *
+     * @param exclusions excluded rows, null for none; their factor is used
+     * @param covariance row-major, getUnknowns() columns
+     */
+    public void computeCovariance(FaultDetection exclusions, double[] covariance) {
+        invertFactored(exclusions != null ? exclusions.getFactor() : factor, unknowns, covariance, work);
+    }
+
+    /**
+     * Cofactor matrix (H'H)^-1 of the geometry of the last solve, as used by the
+     * dilutions of precision. With equal weights it is the covariance times the weight,
+     * from the factor of the solve; otherwise the unit weight normal matrix is formed and
+     * factored once, outside the iterations, which costs about as much as one more
+     * normal matrix: O(n m^2 / 2).
+     *
+     * @param exclusions excluded rows, null for none
+     * @param cofactor   row-major, getUnknowns() columns
+     * @return false if the geometry is singular
+     */
+    public boolean computeCofactor(FaultDetection exclusions, double[] cofactor) {
+        int m = unknowns;
+        double w = Double.NaN;
+        for (int i = 0; i < observations; i++) {
+            if (exclusions != null && exclusions.isExcluded(i))
+                continue;
+            if (Double.isNaN(w)) {
+                w = weight[i];
+            } else if (weight[i] != w) {
+                w = Double.NaN;
+                break;
+            }
+        }
+        if (!Double.isNaN(w)) {
+            computeCovariance(exclusions, cofactor);
+            for (int k = 0; k < m * m; k++) {
+                cofactor[k] *= w;
+            }
+            return true;
+        }
+
+        for (int k = 0; k < m * m; k++) {
+            unitNormal[k] = 0;
+        }
+        for (int i = 0; i < observations; i++) {
+            if (exclusions != null && exclusions.isExcluded(i))
+                continue;
+            int row = i * m;
+            for (int j = 0; j < m; j++) {
+                for (int k = 0; k <= j; k++) {
+                    unitNormal[j * m + k] += design[row + j] * design[row + k];
+                }
+            }
+        }
+        if (!cholesky(unitNormal, unitFactor, m))
+            return false;
+        invertFactored(unitFactor, m, cofactor, work);
+        return true;
+    }
+
+    /**
+     * @param j unknown
+     * @return estimated correction of unknown j
+     */
+    public double getSolution(int j) {
+        return solution[j];
+    }
+
+    double getDesign(int i, int j) {
+        return design[i * unknowns + j];
+    }
+
+    double getPrefit(int i) {
+        return prefit[i];
+    }
+
+    double getWeight(int i) {
+        return weight[i];
+    }
+
+    /**
+     * @return Cholesky factor of the normal matrix of the last solve, row-major with
+     * getUnknowns() columns
+     */
+    double[] getFactor() {
+        return factor;
+    }
+
+    /**
+     * @return right-hand side H'Wz of the last solve
+     */
+    double[] getRhs() {
+        return rhs;
+    }
+
+    public int getUnknowns() {
+        return unknowns;
+    }
+
+    public int getObservations() {
+        return observations;
+    }
+
+    /**
+     * Cholesky factorization a = l l' of a symmetric positive definite matrix
+     *
+     * @param a lower triangle of the m x m matrix, row-major
+     * @param l lower triangular factor, row-major
+     * @param m
+     * @return false if a is not positive definite
+     */
+    static boolean cholesky(double[] a, double[] l, int m) {
+        for (int j = 0; j < m; j++) {
+            double d = a[j * m + j];
+            for (int k = 0; k < j; k++) {
+                d -= l[j * m + k] * l[j * m + k];
+            }
+            if (!(d > 0))
+                return false;
+            double ljj = Math.sqrt(d);
+            l[j * m + j] = ljj;
+            for (int i = j + 1; i < m; i++) {
+                double s = a[i * m + j];
+                for (int k = 0; k < j; k++) {
+                    s -= l[i * m + k] * l[j * m + k];
+                }
+                l[i * m + j] = s / ljj;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rank-one downdate of a Cholesky factor: l l' becomes l l' - v v'
+     *
+     * @param l lower triangular factor, row-major, updated in place
+     * @param m
+     * @param v removed vector, overwritten
+     * @return false if l l' - v v' is not positive definite; l is then invalid
+     */
+    static boolean choleskyDowndate(double[] l, int m, double[] v) {
+        for (int k = 0; k < m; k++) {
+            double lkk = l[k * m + k];
+            double r2 = lkk * lkk - v[k] * v[k];
+            if (!(r2 > 0))
+                return false;
+            double r = Math.sqrt(r2);
+            double c = r / lkk;
+            double s = v[k] / lkk;
+            l[k * m + k] = r;
+            for (int i = k + 1; i < m; i++) {
+                l[i * m + k] = (l[i * m + k] - s * v[i]) / c;
+                v[i] = c * v[i] - s * l[i * m + k];
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Inverse of l l' from its Cholesky factor, (l^-1)' l^-1
+     *
+     * @param l       lower triangular factor, row-major
+     * @param m
+     * @param inverse full symmetric inverse, row-major
+     * @param work    m x m scratch
+     */
+    static void invertFactored(double[] l, int m, double[] inverse, double[] work) {
+        // work = l^-1, lower triangular
+        for (int j = 0; j < m; j++) {
+            for (int i = 0; i < m; i++) {
+                if (i < j) {
+                    work[i * m + j] = 0;
+                    continue;
+                }
+                double s = i == j ? 1 : 0;
+                for (int k = j; k < i; k++) {
+                    s -= l[i * m + k] * work[k * m + j];
+                }
+                work[i * m + j] = s / l[i * m + i];
+            }
+        }
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j <= i; j++) {
+                double s = 0;
+                for (int k = i; k < m; k++) {
+                    s += work[k * m + i] * work[k * m + j];
+                }
+                inverse[i * m + j] = s;
+                inverse[j * m + i] = s;
+            }
+        }
+    }
+
+    /**
+     * Solve l y = b by forward substitution
+     *
+     * @param l lower triangular factor, row-major
+     * @param m
+     * @param b right-hand side
+     * @param y solution (may be b)
+     */
+    static void solveLower(double[] l, int m, double[] b, double[] y) {
+        for (int i = 0; i < m; i++) {
+            double s = b[i];
+            for (int k = 0; k < i; k++) {
+                s -= l[i * m + k] * y[k];
+            }
+            y[i] = s / l[i * m + i];
+        }
+    }
+
+    /**
+     * Solve l l' x = b by forward and back substitution
+     *
+     * @param l lower triangular factor, row-major
+     * @param m
+     * @param b right-hand side
+     * @param x solution (may be b)
+     */
+    static void solveFactored(double[] l, int m, double[] b, double[] x) {
+        solveLower(l, m, b, x);
+        for (int i = m - 1; i >= 0; i--) {
+            double s = x[i];
+            for (int k = i + 1; k < m; k++) {
+                s -= l[k * m + i] * x[k];
+            }
+            x[i] = s / l[i * m + i];
+        }
+    }
+}
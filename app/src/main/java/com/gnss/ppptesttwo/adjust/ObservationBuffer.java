@@ -0,0 +1,233 @@
+package com.gnss.ppptesttwo.adjust;
+
+import android.location.GnssStatus;
+
+import com.gnss.ppptesttwo.Constants;
+import com.gnss.ppptesttwo.GNSSData;
+import com.gnss.ppptesttwo.PositioningData;
+import com.gnss.ppptesttwo.Time;
+import com.gnss.ppptesttwo.constellations.GnssConstellation;
+import com.gnss.ppptesttwo.constellations.SatelliteParameters;
+import com.gnss.ppptesttwo.navifromftp.BroadcastGGTO;
+import com.gnss.ppptesttwo.navifromftp.SatellitePosition;
+
+import java.util.List;
+
+/**
+ * <p>
+ * Struct-of-arrays buffer for the pseudoranges of one epoch, as read by the
+ * {@link PositioningEngine} solvers
+ * </p>
+ *
+ * The data models of the app are copied in once per epoch by the load methods, so the
+ * solver iterations only touch primitive arrays. The arrays only grow, so a buffer
+ * reused from epoch to epoch does not allocate.
+ */
+public class ObservationBuffer {
+
+    /* satellite systems, each with its own receiver clock */
+    public static final int SYSTEM_GPS = 0;
+    public static final int SYSTEM_GALILEO = 1;
+    public static final int SYSTEM_BEIDOU = 2;
+    public static final int SYSTEM_GLONASS = 3;
+    public static final int SYSTEMS = 4;
+
+    public int size;
+
+    public int[] satID;
+    public int[] system;
+
+    /* satellite ECEF position (m) and velocity (m/s) */
+    public double[] x;
+    public double[] y;
+    public double[] z;
+    public double[] vx;
+    public double[] vy;
+    public double[] vz;
+
+    /* pseudorange (m) and pseudorange rate (m/s), 0 if not measured */
+    public double[] pseudorange;
+    public double[] rate;
+
+    /* satellite clock bias (m) and accumulated propagation corrections (m) */
+    public double[] clock;
+    public double[] correction;
+
+    /* carrier to noise density (dB-Hz), 0 if unknown */
+    public double[] cn0;
+
+    /* inverse variance of the pseudorange (1/m^2), set by the solver */
+    public double[] weight;
+
+    /* broadcast receiver clock offset of each system from GPS time (m), e.g. -c GGTO for
+       Galileo; used for a system with too few satellites to estimate its own clock */
+    public final double[] systemOffset = new double[SYSTEMS];
+
+    public ObservationBuffer() {
+        this(32);
+    }
+
+    public ObservationBuffer(int capacity) {
+        allocate(Math.max(capacity, 1));
+    }
+
+    private void allocate(int capacity) {
+        satID = grow(satID, capacity);
+        system = grow(system, capacity);
+        x = grow(x, capacity);
+        y = grow(y, capacity);
+        z = grow(z, capacity);
+        vx = grow(vx, capacity);
+        vy = grow(vy, capacity);
+        vz = grow(vz, capacity);
+        pseudorange = grow(pseudorange, capacity);
+        rate = grow(rate, capacity);
+        clock = grow(clock, capacity);
+        correction = grow(correction, capacity);
+        cn0 = grow(cn0, capacity);
+        weight = grow(weight, capacity);
+    }
+
+    private double[] grow(double[] array, int capacity) {
+        double[] grown = new double[capacity];
+        if (array != null)
+            System.arraycopy(array, 0, grown, 0, size);
+        return grown;
+    }
+
+    private int[] grow(int[] array, int capacity) {
+        int[] grown = new int[capacity];
+        if (array != null)
+            System.arraycopy(array, 0, grown, 0, size);
+        return grown;
+    }
+
+    public void clear() {
+        size = 0;
+        for (int s = 0; s < SYSTEMS; s++) {
+            systemOffset[s] = 0;
+        }
+    }
+
+    /**
+     * @param capacity number of observations the arrays must hold
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > satID.length)
+            allocate(Math.max(capacity, 2 * satID.length));
+    }
+
+    /**
+     * @return index of a new GPS observation with zero velocity, rate, clock, corrections
+     * and unknown CN0
+     */
+    public int add(int satID, double x, double y, double z, double pseudorange) {
+        if (size == this.satID.length)
+            allocate(2 * size);
+        int i = size++;
+        this.satID[i] = satID;
+        system[i] = SYSTEM_GPS;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.z[i] = z;
+        vx[i] = 0;
+        vy[i] = 0;
+        vz[i] = 0;
+        this.pseudorange[i] = pseudorange;
+        rate[i] = 0;
+        clock[i] = 0;
+        correction[i] = 0;
+        cn0[i] = 0;
+        weight[i] = 0;
+        return i;
+    }
+
+    /**
+     * Copy the used satellites of a constellation, under its lock so that the epoch
+     * cannot be cleared halfway
+     *
+     * @throws NullPointerException if a satellite has no position yet
+     */
+    public void load(GnssConstellation gnssConstellation) {
+        synchronized (gnssConstellation) {
+            int n = gnssConstellation.getUsedConstellationSize();
+            clear();
+            ensureCapacity(n);
+            for (int k = 0; k < n; k++) {
+                SatelliteParameters satellite = gnssConstellation.getSatellite(k);
+                SatellitePosition position = satellite.getSatellitePosition();
+                int i = add(satellite.getSatId(), position.getX(), position.getY(), position.getZ(),
+                        satellite.getPseudorange());
+                vx[i] = position.getSpeed().get(0);
+                vy[i] = position.getSpeed().get(1);
+                vz[i] = position.getSpeed().get(2);
+                system[i] = toSystem(satellite.getConstellationType());
+                rate[i] = satellite.getPseudorangeRate();
+                clock[i] = satellite.getClockBias();
+                correction[i] = satellite.getAccumulatedCorrection();
+                cn0[i] = satellite.getSignalStrength();
+            }
+            BroadcastGGTO ggto = gnssConstellation.getGgto();
+            Time time = gnssConstellation.getTime();
+            if (ggto != null && time != null) {
+                // Galileo clock = GPS clock - GGTO
+                systemOffset[SYSTEM_GALILEO] = -Constants.SPEED_OF_LIGHT
+                        * ggto.getOffset(time.getGpsWeek(), time.getGpsWeekSec() + time.getMsec() % 1000 / 1000.0);
+            }
+        }
+    }
+
+    /**
+     * Copy the data of {@link PositioningData#computDataList}
+     */
+    public void load(PositioningData positioningData) {
+        List<GNSSData> data = positioningData.computDataList;
+        int n = data.size();
+        clear();
+        ensureCapacity(n);
+        for (int k = 0; k < n; k++) {
+            GNSSData gnssData = data.get(k);
+            SatellitePosition position = gnssData.getSp();
+            int i = add(gnssData.getSATID(), position.getX(), position.getY(), position.getZ(),
+                    gnssData.getpseudorange());
+            system[i] = toSystem(gnssData.getGnssType());
+            clock[i] = position.getSatelliteClockError();
+            correction[i] = gnssData.getAccumulatedCorrection();
+            cn0[i] = gnssData.getSnr();
+        }
+    }
+
+    /**
+     * @param constellationType as defined by {@code GnssStatus}
+     * @return system of the receiver clock, GPS for the unknown ones
+     */
+    public static int toSystem(int constellationType) {
+        switch (constellationType) {
+            case GnssStatus.CONSTELLATION_GALILEO:
+                return SYSTEM_GALILEO;
+            case GnssStatus.CONSTELLATION_BEIDOU:
+                return SYSTEM_BEIDOU;
+            case GnssStatus.CONSTELLATION_GLONASS:
+                return SYSTEM_GLONASS;
+            default:
+                return SYSTEM_GPS;
+        }
+    }
+
+    /**
+     * @param satType RINEX system letter
+     * @return system of the receiver clock, GPS for the unknown ones
+     */
+    public static int toSystem(char satType) {
+        switch (satType) {
+            case 'E':
+                return SYSTEM_GALILEO;
+            case 'C':
+                return SYSTEM_BEIDOU;
+            case 'R':
+                return SYSTEM_GLONASS;
+            default:
+                return SYSTEM_GPS;
+        }
+    }
+}
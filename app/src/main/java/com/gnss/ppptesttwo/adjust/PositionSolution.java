@@ -0,0 +1,193 @@
+package com.gnss.ppptesttwo.adjust;
+
+import com.gnss.ppptesttwo.navifromftp.Coordinates;
+
+/**
+ * <p>
+ * Result of a {@link PositioningEngine} epoch
+ * </p>
+ *
+ * Position, clock, velocity, the covariance of the position and clock bias and the
+ * dilutions of precision of the satellites used.
+ *
+ * With one clock per system the covariance and the time dilution of precision are those
+ * of the first clock column of the solver, the clock of the reference system (the first
+ * system with enough satellites), which is not always the GPS clock of
+ * {@link #getClockBias()}.
+ */
+public class PositionSolution {
+
+    private final Coordinates position;
+    private final double clockBias;
+    private final boolean valid;
+    private final int satellites;
+
+    private double[] velocity;
+    private double clockDrift;
+
+    /* x, y, z (ECEF), reference clock bias, row-major 4 x 4 (m^2) */
+    private final double[] covariance = new double[16];
+
+    private double gdop = Double.NaN;
+    private double pdop = Double.NaN;
+    private double hdop = Double.NaN;
+    private double vdop = Double.NaN;
+    private double tdop = Double.NaN;
+
+    /**
+     * @param position   estimated receiver position
+     * @param clockBias  receiver clock bias (m)
+     * @param valid      false if the epoch could not be solved
+     * @param satellites number of satellites used
+     */
+    PositionSolution(Coordinates position, double clockBias, boolean valid, int satellites) {
+        this.position = position;
+        this.clockBias = clockBias;
+        this.valid = valid;
+        this.satellites = satellites;
+        for (int k = 0; k < 16; k++) {
+            covariance[k] = Double.NaN;
+        }
+    }
+
+    void setVelocity(double[] velocity, double clockDrift) {
+        this.velocity = velocity;
+        this.clockDrift = clockDrift;
+    }
+
+    /**
+     * @param cov row-major covariance of x, y, z, then the clocks, the reference system first
+     * @param m   row length of cov, at least 4; the other clocks are left out
+     */
+    void setCovariance(double[] cov, int m) {
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                covariance[i * 4 + j] = cov[i * m + j];
+            }
+        }
+    }
+
+    /**
+     * Dilutions of precision from the cofactor matrix (H'H)^-1 of the geometry
+     *
+     * @param q         row-major cofactor matrix of x, y, z, then the clocks, the reference
+     *                  system first
+     * @param m         row length of q, at least 4; TDOP and GDOP take the first clock only
+     * @param latitude  geodetic latitude (rad)
+     * @param longitude geodetic longitude (rad)
+     */
+    void setDilution(double[] q, int m, double latitude, double longitude) {
+        double sinPhi = Math.sin(latitude);
+        double cosPhi = Math.cos(latitude);
+        double sinLam = Math.sin(longitude);
+        double cosLam = Math.cos(longitude);
+
+        // rows of the ECEF to ENU rotation
+        double[] e = {-sinLam, cosLam, 0};
+        double[] n = {-sinPhi * cosLam, -sinPhi * sinLam, cosPhi};
+        double[] u = {cosPhi * cosLam, cosPhi * sinLam, sinPhi};
+
+        double qe = 0, qn = 0, qu = 0;
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                double qij = q[i * m + j];
+                qe += e[i] * qij * e[j];
+                qn += n[i] * qij * n[j];
+                qu += u[i] * qij * u[j];
+            }
+        }
+        double qp = q[0] + q[m + 1] + q[2 * m + 2];
+        double qt = q[3 * m + 3];
+
+        pdop = Math.sqrt(qp);
+        hdop = Math.sqrt(qe + qn);
+        vdop = Math.sqrt(qu);
+        tdop = Math.sqrt(qt);
+        gdop = Math.sqrt(qp + qt);
+    }
+
+    public Coordinates getPosition() {
+        return position;
+    }
+
+    /**
+     * @return receiver clock bias (m)
+     */
+    public double getClockBias() {
+        return clockBias;
+    }
+
+    /**
+     * @return false if the epoch could not be solved; the position is then the
+     * starting point
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    public int getSatelliteCount() {
+        return satellites;
+    }
+
+    /**
+     * @return receiver ECEF velocity (m/s), null if not available
+     */
+    public double[] getVelocity() {
+        return velocity;
+    }
+
+    /**
+     * @return receiver clock drift (m/s)
+     */
+    public double getClockDrift() {
+        return clockDrift;
+    }
+
+    /**
+     * @param i x, y, z, clock bias of the reference system
+     * @param j x, y, z, clock bias of the reference system
+     * @return covariance element (m^2), NaN if not available
+     */
+    public double getCovariance(int i, int j) {
+        return covariance[i * 4 + j];
+    }
+
+    /**
+     * @return 3 x 3 ECEF position covariance, row-major (m^2)
+     */
+    public double[] getPositionCovariance() {
+        double[] p = new double[9];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                p[i * 3 + j] = covariance[i * 4 + j];
+            }
+        }
+        return p;
+    }
+
+    /**
+     * @return geometric dilution of precision, with the clock of the reference system
+     */
+    public double getGdop() {
+        return gdop;
+    }
+
+    public double getPdop() {
+        return pdop;
+    }
+
+    public double getHdop() {
+        return hdop;
+    }
+
+    public double getVdop() {
+        return vdop;
+    }
+
+    /**
+     * @return time dilution of precision of the clock of the reference system
+     */
+    public double getTdop() {
+        return tdop;
+    }
+}
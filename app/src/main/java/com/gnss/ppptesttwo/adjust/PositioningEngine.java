@@ -0,0 +1,52 @@
+package com.gnss.ppptesttwo.adjust;
+
+import com.gnss.ppptesttwo.constellations.GnssConstellation;
+import com.gnss.ppptesttwo.navifromftp.Coordinates;
+
+/**
+ * Receiver position estimator fed with the observations of a {@link GnssConstellation}
+ * epoch by epoch, see {@link WeightedLeastSquares} and {@link ExtendedKalmanFilter}
+ */
+public interface PositioningEngine {
+
+    /**
+     * @param gnssConstellation satellites used at the current epoch
+     * @param pose              approximate receiver position
+     * @return solution of the epoch
+     */
+    PositionSolution solve(GnssConstellation gnssConstellation, Coordinates pose);
+
+    /**
+     * Solver core, shared by the data models through their {@link ObservationBuffer} load
+     *
+     * @param observations pseudoranges of the current epoch; their weights are set
+     * @param time         epoch (ms since 1970.1.1), 0 if unknown
+     * @param pose         approximate receiver position
+     * @return solution of the epoch
+     */
+    PositionSolution solve(ObservationBuffer observations, long time, Coordinates pose);
+
+    /**
+     * @param gnssConstellation satellites used at the current epoch
+     * @param pose              approximate receiver position
+     * @return estimated receiver position, see {@link #solve}
+     */
+    Coordinates calculatePose(GnssConstellation gnssConstellation, Coordinates pose);
+
+    String getName();
+
+    /**
+     * @return receiver clock bias of the last epoch (m)
+     */
+    double getClockBias();
+
+    /**
+     * @return receiver ECEF velocity of the last epoch (m/s), null if not available
+     */
+    double[] getVelocity();
+
+    /**
+     * @return receiver clock drift of the last epoch (m/s)
+     */
+    double getClockDrift();
+}
@@ -0,0 +1,145 @@
+package com.gnss.ppptesttwo.adjust;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Iteratively reweighted least squares with the Huber or IGG-III equivalent weights
+ * </p>
+ *
+ * After each solve of a {@link LeastSquaresKernel}, the post-fit residuals are
+ * standardized by their a-priori sigma and by a robust scale, 1.4826 times their median
+ * absolute value, and each a-priori weight is multiplied by the factor of the chosen
+ * function:
+ * <pre>
+ *   Huber:   1 for |u| &lt;= k0, k0 / |u| above
+ *   IGG-III: 1 for |u| &lt;= k0, k0 / |u| ((k1 - |u|) / (k1 - k0))^2 up to k1, ~0 above
+ * </pre>
+ * The buffers only grow, so an instance reused from epoch to epoch does not allocate.
+ */
+public class RobustEstimator {
+
+    public static final int HUBER = 1;
+    public static final int IGG_III = 2;
+
+    /* factor of the rejected observations, keeps the normal matrix definite */
+    private static final double MIN_FACTOR = 1e-4;
+
+    /* largest change of a factor for the weights to be considered converged */
+    private static final double FACTOR_TOLERANCE = 1e-3;
+
+    private final int function;
+    private double k0 = 1.5;
+    private double k1 = 3.0;
+
+    private int observations;
+    private double[] factor = new double[0];
+    private double[] standardized = new double[0];
+    private double[] sorted = new double[0];
+    private double scale;
+
+    /**
+     * @param function HUBER or IGG_III
+     */
+    public RobustEstimator(int function) {
+        if (function != HUBER && function != IGG_III)
+            throw new IllegalArgumentException("Unknown robust function: " + function);
+        this.function = function;
+    }
+
+    /**
+     * Start an epoch with unit factors
+     *
+     * @param observations number of observations
+     */
+    public void reset(int observations) {
+        this.observations = observations;
+        if (factor.length < observations) {
+            factor = new double[observations];
+            standardized = new double[observations];
+            sorted = new double[observations];
+        }
+        for (int i = 0; i < observations; i++) {
+            factor[i] = 1;
+        }
+    }
+
+    /**
+     * Update the factors from the residuals of the last solve of the kernel
+     *
+     * @param kernel solved kernel
+     * @param weight a-priori weights of the observations
+     * @return true if a factor changed, i.e. the kernel has to be solved again
+     */
+    public boolean reweight(LeastSquaresKernel kernel, double[] weight) {
+        int n = observations;
+        int m = kernel.getUnknowns();
+        // the scale of the residuals is meaningless without redundancy
+        if (n < m + 2)
+            return false;
+
+        for (int i = 0; i < n; i++) {
+            double v = kernel.getPrefit(i);
+            for (int j = 0; j < m; j++) {
+                v -= kernel.getDesign(i, j) * kernel.getSolution(j);
+            }
+            standardized[i] = Math.abs(v) * Math.sqrt(weight[i]);
+            sorted[i] = standardized[i];
+        }
+        Arrays.sort(sorted, 0, n);
+        double median = n % 2 == 1 ? sorted[n / 2] : 0.5 * (sorted[n / 2 - 1] + sorted[n / 2]);
+        scale = 1.4826 * median;
+        if (!(scale > 1e-9))
+            return false;
+
+        boolean changed = false;
+        for (int i = 0; i < n; i++) {
+            double f = factor(standardized[i] / scale);
+            if (Math.abs(f - factor[i]) > FACTOR_TOLERANCE)
+                changed = true;
+            factor[i] = f;
+        }
+        return changed;
+    }
+
+    /**
+     * @param u absolute standardized residual
+     * @return weight factor
+     */
+    double factor(double u) {
+        if (u <= k0)
+            return 1;
+        if (function == HUBER)
+            return k0 / u;
+        if (u >= k1)
+            return MIN_FACTOR;
+        double t = (k1 - u) / (k1 - k0);
+        return Math.max(k0 / u * t * t, MIN_FACTOR);
+    }
+
+    /**
+     * @param k0 standardized residual up to which the weight is kept, 1.5 by default
+     * @param k1 standardized residual from which IGG-III rejects, 3.0 by default
+     */
+    public void setThresholds(double k0, double k1) {
+        if (!(k0 > 0) || !(k1 > k0))
+            throw new IllegalArgumentException("Expected 0 < k0 < k1");
+        this.k0 = k0;
+        this.k1 = k1;
+    }
+
+    /**
+     * @param i observation
+     * @return factor of its a-priori weight
+     */
+    public double getFactor(int i) {
+        return factor[i];
+    }
+
+    /**
+     * @return robust scale of the standardized residuals of the last reweighting
+     */
+    public double getScale() {
+        return scale;
+    }
+}
@@ -20,23 +20,18 @@ import android.util.Log;
 
 
 import com.gnss.ppptesttwo.constellations.GnssConstellation;
-import com.gnss.ppptesttwo.constellations.GpsConstellation;
-import com.gnss.ppptesttwo.corrections.TopocentricCoordinates;
 import com.gnss.ppptesttwo.navifromftp.Coordinates;
 
-import org.ejml.data.SingularMatrixException;
-import org.ejml.simple.SimpleMatrix;
-
 /**
  * Created by Mateusz Krainski on 17/02/2018.
  * This class is for...
  */
 
-public class WeightedLeastSquares  {
+public class WeightedLeastSquares implements PositioningEngine {
 
     private final static String NAME = "Weighted Least Squares";
 
-    private final int NUMBER_OF_ITERATIONS = 10;
+    private final int NUMBER_OF_ITERATIONS = 10; // upper limit of the Gauss-Newton iterations
     private final static String TAG="WLS";
 
     private final static Coordinates ZERO_POSE = Coordinates.globalGeodInstance(51.000, 3.000, 0.000); // Right at the edge of the plot
@@ -48,93 +43,90 @@ public class WeightedLeastSquares  {
     private double b = 0.53;
     private double sigma2Meas = Math.pow(5,2);
 
-
-
+    // CN0 dependent weighting, off by default; when enabled and the CN0 is known:
+    // sigma2Meas at CN0_REFERENCE, scaled by the inverse of the carrier to noise density ratio
+    private final static double CN0_REFERENCE = 40; // dB-Hz
+    private boolean cn0Weighting = false;
+
+    /**
+     * Iteratively reweighted least squares, null if disabled. The weights are updated
+     * once the steps are below ROBUST_START_STEP, where the residuals are no longer
+     * dominated by the linearization error.
+     */
+    private final static int ROBUST_ITERATIONS = 20;
+    private final static double ROBUST_START_STEP = 10; // m
+    private RobustEstimator robust;
+
+
+
+    /**
+     * Satellite data of the current epoch: the buffer loaded from the constellation,
+     * reused between calls, or the one passed to {@link #solve(ObservationBuffer, long, Coordinates)}
+     */
+    private final ObservationBuffer buffer = new ObservationBuffer();
+    private ObservationBuffer observations = buffer;
+    private double[] rateObs = new double[0];     // pseudorange rates minus the satellite motion
+
+    /**
+     * Receiver clocks: one state per system with at least MIN_CLOCK_SATELLITES
+     * pseudoranges, after x, y, z. A system with fewer shares the clock of the reference
+     * system, the first estimated one, shifted by the broadcast offset between the two.
+     */
+    private final static int MIN_CLOCK_SATELLITES = 2;
+    private int unknowns = 4;
+    private final int[] systemCount = new int[ObservationBuffer.SYSTEMS];
+    private final int[] clockColumn = new int[ObservationBuffer.SYSTEMS];     // state index of the clock of each system
+    private final double[] clockOffset = new double[ObservationBuffer.SYSTEMS]; // added to that state (m)
+    private final int[] columnSystem = new int[ObservationBuffer.SYSTEMS];    // system of each estimated clock
+    private final double[] systemClock = new double[ObservationBuffer.SYSTEMS];
+
+    private final LeastSquaresKernel kernel = new LeastSquaresKernel();
+    private final double[] rxState = new double[3 + ObservationBuffer.SYSTEMS]; // x, y, z, clock biases
+    private final double[] rxVelocity = new double[3 + ObservationBuffer.SYSTEMS]; // vx, vy, vz, clock drifts
+    private final double[] covariance = new double[LeastSquaresKernel.MAX_UNKNOWNS * LeastSquaresKernel.MAX_UNKNOWNS];
+    private final double[] cofactor = new double[LeastSquaresKernel.MAX_UNKNOWNS * LeastSquaresKernel.MAX_UNKNOWNS];
+    private boolean hasVelocity = false;
+
+    // Iterations stop once the correction of the state is below this norm (m)
+    private double convergenceThreshold = 1e-3;
+    private int iterations;
+
+    /**
+     * Solution of the previous epoch, to warm start the next one
+     */
+    private final static long MAX_WARM_START_GAP = 30000; // ms
+    private boolean hasPrevious = false;
+    private long previousTime;
+    private final double[] previousState = new double[3];
+    private final double[] previousClock = new double[ObservationBuffer.SYSTEMS];
+    private double clockDrift; // m/s
+
+    private boolean solved = false;
+
+    // Geodetic latitude and longitude (rad) of the approximate position
+    private double latitude;
+    private double longitude;
+
+    /**
+     * Fault detection and exclusion on the final normal equations, null if disabled
+     */
+    private FaultDetection faultDetection = new FaultDetection();
+
+
+    @Override
     public Coordinates calculatePose(GnssConstellation gnssConstellation,Coordinates pose) {
+        return solve(gnssConstellation, pose).getPosition();
+    }
 
-        final int CONSTELLATION_SIZE = gnssConstellation.getUsedConstellationSize();
-
-        // Initialize matrices for data storage
-
-        //初始化接收机位置矩阵,x,y,z,钟差
-        SimpleMatrix rxPosSimpleVector =new SimpleMatrix(4, 1);
-        rxPosSimpleVector.set(0, pose.getX());
-        rxPosSimpleVector.set(1,  pose.getY());
-        rxPosSimpleVector.set(2,  pose.getZ());
-        rxPosSimpleVector.set(3, 0);
-
-
-        SimpleMatrix satPosMat = new SimpleMatrix(CONSTELLATION_SIZE, 3);//卫星的位置矩阵
-        SimpleMatrix tropoCorr = new SimpleMatrix(CONSTELLATION_SIZE, 1);//对流层延迟校正矩阵
-        SimpleMatrix svClkBias = new SimpleMatrix(CONSTELLATION_SIZE, 1);//卫星时钟偏差矩阵
-        SimpleMatrix ionoCorr = new SimpleMatrix(CONSTELLATION_SIZE, 1);//电离层延迟校正矩阵
-        SimpleMatrix shapiroCorr = new SimpleMatrix(CONSTELLATION_SIZE, 1);//相对论效应校正矩阵
-        SimpleMatrix sigma2 = new SimpleMatrix(CONSTELLATION_SIZE, 1);//测量误差方差矩阵
-        SimpleMatrix prVect = new SimpleMatrix(CONSTELLATION_SIZE, 1);//伪距向量
-        SimpleMatrix vcvMeasurement;//测量误差协方差矩阵
-        SimpleMatrix PDOP = new SimpleMatrix(1,1);//位置精度衰减因子（PDOP）矩阵
-
-        double elevation, measVar,  measVarC1;//卫星的仰角，测量误差方差，C1频段测量误差方差
-        int CN0;//载噪比
+    @Override
+    public PositionSolution solve(GnssConstellation gnssConstellation, Coordinates pose) {
 
-        TopocentricCoordinates topo = new TopocentricCoordinates();
-        Coordinates origin; // = new Coordinates(){};
-        Coordinates target; // = new Coordinates(){};
+        long time = gnssConstellation.getTime() != null ? gnssConstellation.getTime().getMsec() : 0;
 
-        ///////////////////////////// SV coordinates/velocities + PR corrections computation ////////////////////////////////////////////////////
+        ///////////////////////////// SV coordinates/velocities + PR corrections ////////////////////////////////////////////////////
 
         try {
-
-            for (int ii = 0; ii < CONSTELLATION_SIZE; ii++) {
-
-                // Set the measurements into a vector
-                prVect.set(ii, gnssConstellation.getSatellite(ii).getPseudorange());
-
-                // Compute the satellite coordinates
-                svClkBias.set(ii, gnssConstellation.getSatellite(ii).getClockBias());
-
-                ///////////////////////////// PR corrections computations ////////////////////////////////////////////////////
-
-
-                // Assign the computed SV coordinates into a matrix
-                satPosMat.set(ii, 0, gnssConstellation.getSatellite(ii).getSatellitePosition().getX());
-                satPosMat.set(ii, 1, gnssConstellation.getSatellite(ii).getSatellitePosition().getY());
-                satPosMat.set(ii, 2, gnssConstellation.getSatellite(ii).getSatellitePosition().getZ());
-
-
-                // Compute the elevation and azimuth angles for each satellite
-                origin = Coordinates.globalXYZInstance(rxPosSimpleVector.get(0), rxPosSimpleVector.get(1), rxPosSimpleVector.get(2));
-                target = Coordinates.globalXYZInstance(satPosMat.get(ii, 0),satPosMat.get(ii, 1),satPosMat.get(ii, 2) );
-//                origin.setXYZ(rxPosSimpleVector.get(0), rxPosSimpleVector.get(1),rxPosSimpleVector.get(2));
-//                target.setXYZ(satPosMat.get(ii, 0),satPosMat.get(ii, 1),satPosMat.get(ii, 2) );
-                topo.computeTopocentric(origin, target);
-                elevation = topo.getElevation() * (Math.PI / 180.0);
-
-                // Set the variance of the measurement for each satellite
-                measVar = sigma2Meas * Math.pow(a + b * Math.exp(-elevation/10.0),2);
-                sigma2.set(ii, measVar);
-
-                ///////////////////////////// Printing results  ////////////////////////////////////////////////////
-
-                // Print the computed satellite coordinates \ velocities
-                /*
-                System.out.println();
-                System.out.println();
-                System.out.println("The GPS ECEF coordinates of " + "SV" + constellation.getSatellite(ii).getSatId() + " are:");
-                System.out.printf("%.4f", satPosMat.get(ii, 0));
-                System.out.println();
-                System.out.printf("%.4f", satPosMat.get(ii, 1));
-                System.out.println();
-                System.out.printf("%.4f", satPosMat.get(ii, 2));
-                System.out.println();
-                System.out.printf("Tropo corr: %.4f", tropoCorr.get(ii));
-                System.out.println();
-                System.out.printf("Iono corr: %.4f", ionoCorr.get(ii));
-                System.out.println();
-                */
-                //System.out.printf("Shapiro corr: %.4f", shapiroCorr.get(ii));
-
-            }
+            buffer.load(gnssConstellation);
         }
         catch(NullPointerException | IndexOutOfBoundsException e){
             e.printStackTrace();
@@ -144,115 +136,462 @@ public class WeightedLeastSquares  {
             }
 
             gnssConstellation.setRxPos(ZERO_POSE); // Right at the edge of the plot
-            //rxPosSimpleVector = Constellation.getRxPosAsVector(gpsconstellation.getRxPos());
-            return Coordinates.globalXYZInstance(rxPosSimpleVector.get(0), rxPosSimpleVector.get(1), rxPosSimpleVector.get(2));
+            solved = false;
+            hasVelocity = false;
+            initState(time, pose, rxState);
+            return new PositionSolution(Coordinates.globalXYZInstance(rxState[0], rxState[1], rxState[2]), rxState[3], false, 0);
+        }
+
+        PositionSolution solution = solve(buffer, time, pose);
+        if (!solved) {
+            gnssConstellation.setRxPos(ZERO_POSE); // Right at the edge of the plot
+        }
+        return solution;
+    }
+
+    @Override
+    public PositionSolution solve(ObservationBuffer observations, long time, Coordinates pose) {
+
+        this.observations = observations;
+        final int size = observations.size;
+        ensureCapacity(size);
+        assignClocks();
+
+        // Initialize the receiver state: x, y, z, clock biases
+        initState(time, pose, rxState);
+
+        // Local vertical at the approximate position, for the elevation angles
+        Coordinates origin = Coordinates.globalXYZInstance(rxState[0], rxState[1], rxState[2]);
+        latitude = Math.toRadians(origin.getGeodeticLatitude());
+        longitude = Math.toRadians(origin.getGeodeticLongitude());
+        double upX = Math.cos(latitude) * Math.cos(longitude);
+        double upY = Math.cos(latitude) * Math.sin(longitude);
+        double upZ = Math.sin(latitude);
+
+        for (int ii = 0; ii < size; ii++) {
+            double dx = observations.x[ii] - rxState[0];
+            double dy = observations.y[ii] - rxState[1];
+            double dz = observations.z[ii] - rxState[2];
+            double elevation = Math.asin((dx * upX + dy * upY + dz * upZ) / Math.sqrt(dx * dx + dy * dy + dz * dz));
+
+            // Set the variance of the measurement for each satellite
+            observations.weight[ii] = 1.0 / getMeasurementVariance(observations.cn0[ii], elevation);
         }
 
 		/*
 		 * [WEIGHTED LEAST SQUARES] Determination of the position + clock bias
 		 */
 
-        try{
-            // VCV matrix of the pseudorange measurements
-            //生成对角线元素矩阵
-            vcvMeasurement = sigma2.diag();
+        solved = estimate(rxState);
+        if (solved && faultDetection != null) {
+            excludeFaults();
+        }
+        hasVelocity = solved && estimateVelocity();
+        if (solved) {
+            for (int sys = 0; sys < ObservationBuffer.SYSTEMS; sys++) {
+                systemClock[sys] = rxState[clockColumn[sys]] + clockOffset[sys];
+            }
+            clockBias = systemClock[ObservationBuffer.SYSTEM_GPS];
+            updatePrevious(time, rxState);
+        } else {
+            Log.e(TAG, "calculatePose: singular normal matrix!");
+            hasPrevious = false;
+        }
 
-            SimpleMatrix W = vcvMeasurement.invert();
+        Log.d(TAG, "calculatePose: rxPosSimpleVector (ECEF): " + rxState[0] + ", " + rxState[1] + ", " + rxState[2] + ";");
+        Log.d(TAG, "calculatePose: iterations: " + iterations);
+        if (hasVelocity)
+            Log.d(TAG, "calculatePose: velocity (ECEF): " + rxVelocity[0] + ", " + rxVelocity[1] + ", " + rxVelocity[2] + ";");
+
+        FaultDetection exclusions = faultDetection != null && faultDetection.getExcludedCount() > 0 ? faultDetection : null;
+        int used = exclusions != null ? size - exclusions.getExcludedCount() : size;
+        PositionSolution solution = new PositionSolution(
+                Coordinates.globalXYZInstance(rxState[0], rxState[1], rxState[2]), solved ? clockBias : rxState[3], solved, used);
+        if (solved) {
+            solution.setVelocity(getVelocity(), getClockDrift());
+
+            // Covariance and DOP, once from the converged system
+            kernel.computeCovariance(exclusions, covariance);
+            solution.setCovariance(covariance, unknowns);
+            if (kernel.computeCofactor(exclusions, cofactor))
+                solution.setDilution(cofactor, unknowns, latitude, longitude);
+            Log.d(TAG, "calculatePose: PDOP " + solution.getPdop() + ", HDOP " + solution.getHdop());
+        }
+        return solution;
+    }
 
-            // Initialization of the required matrices and vectors
-            SimpleMatrix xHat = new SimpleMatrix(4, 1); 			 // vector holding the WLS estimates
-            SimpleMatrix z = new SimpleMatrix(CONSTELLATION_SIZE, 1);        // observation vector
-            SimpleMatrix H = new SimpleMatrix(CONSTELLATION_SIZE, 4);        // observation matrix
-            SimpleMatrix distPred = new SimpleMatrix(CONSTELLATION_SIZE, 1); // predicted distances
-            SimpleMatrix measPred = new SimpleMatrix(CONSTELLATION_SIZE, 1); // predicted measurements
+    /**
+     * Elevation dependent variance of the pseudoranges
+     *
+     * @param elevation satellite elevation (rad)
+     * @return measurement variance (m^2)
+     */
+    double getMeasurementVariance(double elevation) {
+        return sigma2Meas * Math.pow(a + b * Math.exp(-elevation/10.0),2);
+    }
 
+    /**
+     * A-priori variance of the pseudoranges: CN0 dependent when the CN0 is known and the
+     * CN0 weighting is enabled, elevation dependent otherwise
+     *
+     * @param cn0       carrier to noise density (dB-Hz), 0 if unknown
+     * @param elevation satellite elevation (rad)
+     * @return measurement variance (m^2)
+     */
+    double getMeasurementVariance(double cn0, double elevation) {
+        if (cn0Weighting && cn0 > 0)
+            return sigma2Meas * Math.pow(10, (CN0_REFERENCE - cn0) / 10);
+        return getMeasurementVariance(elevation);
+    }
 
-            // Start the estimation (10 loops)
-            for (int iter = 0; iter < NUMBER_OF_ITERATIONS; iter++){
+    /**
+     * Give a clock state to each system with enough pseudoranges in the epoch; the
+     * others share the reference clock
+     */
+    private void assignClocks() {
+        final int size = observations.size;
+        for (int sys = 0; sys < ObservationBuffer.SYSTEMS; sys++) {
+            systemCount[sys] = 0;
+        }
+        for (int k = 0; k < size; k++) {
+            systemCount[observations.system[k]]++;
+        }
+        int clocks = 0;
+        for (int sys = 0; sys < ObservationBuffer.SYSTEMS; sys++) {
+            if (systemCount[sys] >= MIN_CLOCK_SATELLITES)
+                columnSystem[clocks++] = sys;
+        }
+        if (clocks == 0) {
+            int most = 0;
+            for (int sys = 1; sys < ObservationBuffer.SYSTEMS; sys++) {
+                if (systemCount[sys] > systemCount[most])
+                    most = sys;
+            }
+            columnSystem[clocks++] = most;
+        }
+        unknowns = 3 + clocks;
 
-                // Calculation of the components within the observation matrix (H)
-                for (int k = 0; k < CONSTELLATION_SIZE; k++ ){
+        int reference = columnSystem[0];
+        for (int sys = 0; sys < ObservationBuffer.SYSTEMS; sys++) {
+            clockColumn[sys] = 3;
+            clockOffset[sys] = observations.systemOffset[sys] - observations.systemOffset[reference];
+        }
+        for (int c = 0; c < clocks; c++) {
+            clockColumn[columnSystem[c]] = 3 + c;
+            clockOffset[columnSystem[c]] = 0;
+        }
+    }
 
-                    // Computation of the geometric distance
-                    distPred.set(k, Math.sqrt(
-                            Math.pow( satPosMat.get(k, 0) - rxPosSimpleVector.get(0), 2 )
-                            + Math.pow( satPosMat.get(k, 1) - rxPosSimpleVector.get(1), 2 )
-                            + Math.pow( satPosMat.get(k, 2) - rxPosSimpleVector.get(2), 2 )
-                    ));
+    /**
+     * Start from the previous solution when it is recent enough, with the clock biases
+     * extrapolated by the drift; otherwise from the given pose and zero clock biases
+     *
+     * @param time  epoch (ms since 1970.1.1), 0 if unknown
+     * @param pose
+     * @param state initial x, y, z (m) and the clock biases (m) of the epoch systems
+     */
+    void initState(long time, Coordinates pose, double[] state) {
+        if (hasPrevious && time > previousTime && time - previousTime <= MAX_WARM_START_GAP) {
+            System.arraycopy(previousState, 0, state, 0, 3);
+            double dt = (time - previousTime) / 1000.0;
+            for (int c = 3; c < unknowns; c++) {
+                state[c] = previousClock[columnSystem[c - 3]] + clockDrift * dt;
+            }
+        } else {
+            state[0] = pose.getX();
+            state[1] = pose.getY();
+            state[2] = pose.getZ();
+            for (int c = 3; c < unknowns; c++) {
+                state[c] = 0;
+            }
+        }
+    }
 
+    /**
+     * Start the next epoch from the given pose, whatever its time
+     */
+    void resetWarmStart() {
+        hasPrevious = false;
+    }
 
-                    // Measurement prediction
-                    measPred.set( k, distPred.get(k)
-                                    + gnssConstellation.getSatellite(k).getAccumulatedCorrection() - svClkBias.get(k) );
+    /**
+     * Keep the solution of an epoch for the next one
+     */
+    void updatePrevious(long time, double[] state) {
+        if (time == 0) {
+            hasPrevious = false;
+            return;
+        }
+        if (hasVelocity) {
+            clockDrift = rxVelocity[3];
+        } else if (hasPrevious && time > previousTime && time - previousTime <= MAX_WARM_START_GAP) {
+            clockDrift = (state[3] - previousClock[columnSystem[0]]) / ((time - previousTime) / 1000.0);
+        } else {
+            clockDrift = 0;
+        }
+        System.arraycopy(state, 0, previousState, 0, 3);
+        for (int sys = 0; sys < ObservationBuffer.SYSTEMS; sys++) {
+            previousClock[sys] = state[clockColumn[sys]] + clockOffset[sys];
+        }
+        previousTime = time;
+        hasPrevious = true;
+    }
 
-                    // Compute the observation matrix (H)
-                    H.set(k, 0, ( pose.getX() - satPosMat.get(k, 0)) / distPred.get(k));
-                    H.set(k, 1, ( pose.getY() - satPosMat.get(k, 1)) / distPred.get(k));
-                    H.set(k, 2, ( pose.getZ() - satPosMat.get(k, 2)) / distPred.get(k));
-                    H.set(k, 3, 1.0);
+    /**
+     * Gauss-Newton iterations of the weighted least squares position and clock biases,
+     * on the satellite data of the epoch, until the norm of the correction is below
+     * the convergence threshold or NUMBER_OF_ITERATIONS is reached. With a robust
+     * estimator, the weights are updated in the same loop and have to settle too.
+     *
+     * @param state initial x, y, z (m) and clock biases (m), updated with the estimate
+     * @return false if the normal matrix became singular
+     */
+    boolean estimate(double[] state) {
+
+        final int size = observations.size;
+        final int m = unknowns;
+        final int[] system = observations.system;
+        final double[] satX = observations.x;
+        final double[] satY = observations.y;
+        final double[] satZ = observations.z;
+        final double[] prVect = observations.pseudorange;
+        final double[] clock = observations.clock;
+        final double[] correction = observations.correction;
+        final double[] weights = observations.weight;
+
+        if (robust != null)
+            robust.reset(size);
+        final int maxIterations = robust != null ? ROBUST_ITERATIONS : NUMBER_OF_ITERATIONS;
+
+        iterations = 0;
+        for (int iter = 0; iter < maxIterations; iter++){
+
+            kernel.reset(m, size);
+
+            // Observation matrix (H) and prefit residuals (z) at the current estimate
+            for (int k = 0; k < size; k++) {
+
+                double dx = satX[k] - state[0];
+                double dy = satY[k] - state[1];
+                double dz = satZ[k] - state[2];
+
+                // Computation of the geometric distance
+                double distPred = Math.sqrt(dx * dx + dy * dy + dz * dz);
+
+                // Measurement prediction
+                int sys = system[k];
+                double measPred = distPred + correction[k] - clock[k] + state[clockColumn[sys]] + clockOffset[sys];
+
+                double weight = robust != null ? weights[k] * robust.getFactor(k) : weights[k];
+                kernel.setObservation(k, prVect[k] - measPred, weight);
+                kernel.setDesign(k, 0, -dx / distPred);
+                kernel.setDesign(k, 1, -dy / distPred);
+                kernel.setDesign(k, 2, -dz / distPred);
+                kernel.setDesign(k, clockColumn[sys], 1.0);
+            }
 
-                }
+            // Estimate the corrections of the unknowns
+            iterations++;
+            if (!kernel.solve())
+                return false;
 
-                // Compute the prefit vector (z)
-                z.set(prVect.minus(measPred));
+            double step = 0;
+            for (int j = 0; j < m; j++) {
+                double dx = kernel.getSolution(j);
+                state[j] += dx;
+                step += dx * dx;
+            }
+            step = Math.sqrt(step);
+            boolean converged = step < convergenceThreshold;
+            if (robust != null && step < ROBUST_START_STEP && robust.reweight(kernel, weights))
+                converged = false;
+            if (converged)
+                break;
+        }
+        return true;
+    }
 
-                // Estimate the unknowns (dxHat)
-                SimpleMatrix Cov = H.transpose().mult(W).mult(H);
-                SimpleMatrix CovDOP = H.transpose().mult(H);
-                SimpleMatrix dopMatrix = CovDOP.invert();
+    /**
+     * Test the pseudoranges of the converged solution and remove the excluded ones from it.
+     * The exclusions are applied as one more step from the last linearization point.
+     */
+    private void excludeFaults() {
+        faultDetection.check(kernel, latitude, longitude);
+        for (int k = 0; k < faultDetection.getExcludedCount(); k++) {
+            int i = faultDetection.getExcluded(k);
+            Log.d(TAG, "excludeFaults: satellite " + observations.satID[i] + " excluded");
+        }
+        if (faultDetection.getExcludedCount() > 0) {
+            for (int j = 0; j < unknowns; j++) {
+                rxState[j] += faultDetection.getSolution(j) - kernel.getSolution(j);
+            }
+        }
+        if (faultDetection.isAvailable() && !faultDetection.isConsistent()) {
+            Log.e(TAG, "excludeFaults: inconsistent pseudoranges, test statistic " + faultDetection.getTestStatistic()
+                    + " > " + faultDetection.getThreshold());
+        }
+        Log.d(TAG, "excludeFaults: HPL " + faultDetection.getHorizontalProtectionLevel()
+                + ", VPL " + faultDetection.getVerticalProtectionLevel());
+    }
 
-                xHat.set(Cov.invert().mult(H.transpose()).mult(W).mult(z));
-                PDOP.set(Math.sqrt(dopMatrix.get(0,0) + dopMatrix.get(1,1)));
+    /**
+     * Receiver velocity and clock drift from the pseudorange rates. The rates have the
+     * same partials as the pseudoranges, so the factor of the final position solve is
+     * reused; only the right-hand side is formed. The rates are weighted like the
+     * pseudoranges, i.e. assuming a common ratio of their standard deviations.
+     * The satellite clock drift (mm/s) is neglected.
+     *
+     * @return false if the pseudorange rates are not available
+     */
+    private boolean estimateVelocity() {
+        final int size = observations.size;
+        final double[] prRate = observations.rate;
+        for (int k = 0; k < size; k++) {
+            if (prRate[k] == 0)
+                return false;
+        }
+        for (int k = 0; k < size; k++) {
+            // rate = (satellite velocity - receiver velocity) . los + drift, h = -los
+            rateObs[k] = prRate[k] + observations.vx[k] * kernel.getDesign(k, 0)
+                    + observations.vy[k] * kernel.getDesign(k, 1) + observations.vz[k] * kernel.getDesign(k, 2);
+        }
+        if (faultDetection != null && faultDetection.getExcludedCount() > 0) {
+            faultDetection.solveObservations(kernel, rateObs, rxVelocity);
+        } else {
+            kernel.solveObservations(rateObs, rxVelocity);
+        }
+        return true;
+    }
 
-                // Update the receiver position
-                // rxPosSimpleVector.set(rxPosSimpleVector.plus(xHat));
-                rxPosSimpleVector.set(0, rxPosSimpleVector.get(0)+ xHat.get(0));
-                rxPosSimpleVector.set(1, rxPosSimpleVector.get(1)+ xHat.get(1));
-                rxPosSimpleVector.set(2, rxPosSimpleVector.get(2)+ xHat.get(2));
-                rxPosSimpleVector.set(3, xHat.get(3));
+    /**
+     * Load the satellite data of an epoch directly, see {@link #estimate}
+     *
+     * @param n          number of satellites
+     * @param satPos     satellite ECEF coordinates, x, y, z per satellite
+     * @param pseudorange
+     * @param correction accumulated corrections minus satellite clock bias (m)
+     * @param variance   pseudorange variances (m^2)
+     */
+    void setEpoch(int n, double[] satPos, double[] pseudorange, double[] correction, double[] variance) {
+        observations = buffer;
+        buffer.clear();
+        for (int i = 0; i < n; i++) {
+            int k = buffer.add(i + 1, satPos[3 * i], satPos[3 * i + 1], satPos[3 * i + 2], pseudorange[i]);
+            buffer.correction[k] = correction[i];
+            buffer.weight[k] = 1.0 / variance[i];
+        }
+        ensureCapacity(n);
+        assignClocks();
+    }
 
+    private void ensureCapacity(int n) {
+        if (rateObs.length < n)
+            rateObs = new double[n];
+    }
 
-            }
-            //System.out.println("平差结果:"+rxPosSimpleVector.get(0)+"   "+rxPosSimpleVector.get(1)+"   "+rxPosSimpleVector.get(2));
 
-            clockBias = rxPosSimpleVector.get(3);
+    /**
+     * @return false if the last epoch could not be solved
+     */
+    boolean isSolved() {
+        return solved;
+    }
 
-        } catch (SingularMatrixException | IndexOutOfBoundsException e) {
-            if(e.getClass() == IndexOutOfBoundsException.class){
-                Log.e(TAG, "calculatePose: Satellites cleared before calculating result!");
-            } else if (e.getClass() == SingularMatrixException.class) {
-                Log.e(TAG, "calculatePose: SingularMatrixException caught!");
-            }
-            gnssConstellation.setRxPos(ZERO_POSE); // Right at the edge of the plot
-            //rxPosSimpleVector = Constellation.getRxPosAsVector(gpsconstellation.getRxPos());
-            e.printStackTrace();
-        }
-        System.out.println();
+    @Override
+    public String getName() {
+        return NAME;
+    }
 
-        // Print the estimated receiver position
-//        rxPosSimpleVector.print();
 
-        Log.d(TAG, "calculatePose: rxPosSimpleVector (ECEF): " + rxPosSimpleVector.get(0) + ", " + rxPosSimpleVector.get(1) + ", " + rxPosSimpleVector.get(2) + ";");
+    /**
+     * @return receiver clock bias of the last epoch against GPS time (m)
+     */
+    @Override
+    public double getClockBias() {
+        return clockBias;
+    }
 
-        Coordinates spppose = Coordinates.globalXYZInstance(rxPosSimpleVector.get(0), rxPosSimpleVector.get(1), rxPosSimpleVector.get(2));
-//        Log.d(TAG, "calculatePose: pose (ECEF): " + pose.getX() + ", " + pose.getY() + ", " + pose.getZ() + ";");
-//        Log.d(TAG, "calculatePose: pose (lat-lon): " + pose.getGeodeticLatitude() + ", " + pose.getGeodeticLongitude() + ", " + pose.getGeodeticHeight() + ";");
-//        Log.d(TAG, "calculated PDOP:" + PDOP.get(0) + ";");
+    /**
+     * @param system one of the ObservationBuffer systems
+     * @return receiver clock bias of the last epoch against the time of that system (m),
+     * estimated or from the broadcast offset
+     */
+    public double getClockBias(int system) {
+        return systemClock[system];
+    }
 
-        return spppose;
+    /**
+     * @return number of receiver clocks estimated at the last epoch
+     */
+    public int getClockCount() {
+        return unknowns - 3;
     }
 
+    /**
+     * @return receiver ECEF velocity (m/s) of the last epoch, null if the pseudorange
+     * rates were not available
+     */
+    @Override
+    public double[] getVelocity() {
+        if (!hasVelocity)
+            return null;
+        return new double[]{rxVelocity[0], rxVelocity[1], rxVelocity[2]};
+    }
 
+    /**
+     * @return receiver clock drift (m/s) of the last epoch, from the pseudorange rates
+     * when available, else from the clock biases of the last two epochs
+     */
+    @Override
+    public double getClockDrift() {
+        return hasVelocity ? rxVelocity[3] : clockDrift;
+    }
 
+    /**
+     * @param convergenceThreshold norm (m) of the position and clock correction below
+     *                             which the iterations stop, 1 mm by default
+     */
+    public void setConvergenceThreshold(double convergenceThreshold) {
+        this.convergenceThreshold = convergenceThreshold;
+    }
 
+    /**
+     * @param enabled run fault detection and exclusion after each solution, the default
+     */
+    public void setFaultDetection(boolean enabled) {
+        if (!enabled) {
+            faultDetection = null;
+        } else if (faultDetection == null) {
+            faultDetection = new FaultDetection();
+        }
+    }
 
-    public String getName() {
-        return NAME;
+    /**
+     * @param robust iteratively reweighted least squares, null to disable, the default
+     */
+    public void setRobustEstimator(RobustEstimator robust) {
+        this.robust = robust;
     }
 
+    /**
+     * @param enabled weight by the CN0 when known; by the elevation otherwise, the default
+     */
+    public void setCn0Weighting(boolean enabled) {
+        cn0Weighting = enabled;
+    }
 
-    public double getClockBias() {
-        return clockBias;
+    /**
+     * @return integrity results of the last epoch, null if disabled
+     */
+    public FaultDetection getFaultDetection() {
+        return faultDetection;
+    }
+
+    /**
+     * @return number of Gauss-Newton iterations of the last epoch
+     */
+    public int getIterations() {
+        return iterations;
     }
 
 }
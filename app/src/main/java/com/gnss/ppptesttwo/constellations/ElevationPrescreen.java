@@ -0,0 +1,112 @@
+package com.gnss.ppptesttwo.constellations;
+
+import com.gnss.ppptesttwo.navifromftp.Coordinates;
+import com.gnss.ppptesttwo.navifromftp.EphemerisStore;
+
+/**
+ * Predicts the elevation of a satellite from its position and velocity at a previous
+ * epoch, so that satellites clearly below the elevation mask can be excluded before
+ * their orbit and corrections are computed. Satellites within the margin of the mask,
+ * or whose last exact state is too old, always take the exact path.
+ */
+public class ElevationPrescreen {
+
+    private static final int MAX_SAT_ID = EphemerisStore.MAX_SAT_ID;
+
+    /* receivers closer than this to the geocentre have no usable position yet (m) */
+    private static final double MIN_RECEIVER_RADIUS = 6.0e6;
+
+    private final double maskElevation; /* degrees */
+    private final double margin; /* degrees */
+    private final long maxAgeMsec;
+
+    /* last exact state per satellite ID, time 0 if none */
+    private final long[] time = new long[MAX_SAT_ID + 1];
+    private final double[] state = new double[6 * (MAX_SAT_ID + 1)];
+
+    private long skipped = 0;
+
+    /**
+     * @param maskElevation elevation mask (degrees)
+     * @param margin        predicted elevations within this margin (degrees) of the mask
+     *                      are not screened
+     * @param maxAgeMsec    maximum extrapolation interval of a previous exact state
+     */
+    public ElevationPrescreen(double maskElevation, double margin, long maxAgeMsec) {
+        this.maskElevation = maskElevation;
+        this.margin = margin;
+        this.maxAgeMsec = maxAgeMsec;
+    }
+
+    /**
+     * @param satId
+     * @param unixTime reception time (ms since 1970.1.1)
+     * @param rxPos    approximate receiver position
+     * @return true if the extrapolated elevation is below the mask by more than the
+     * margin; the satellite is then counted as skipped
+     */
+    public boolean isBelowMask(int satId, long unixTime, Coordinates rxPos) {
+        if (satId < 0 || satId > MAX_SAT_ID || time[satId] == 0)
+            return false;
+        long age = unixTime - time[satId];
+        if (age < 0 || age > maxAgeMsec)
+            return false;
+
+        if (!isKnownPosition(rxPos))
+            return false;
+        double rx = rxPos.getX();
+        double ry = rxPos.getY();
+        double rz = rxPos.getZ();
+        double rr = Math.sqrt(rx * rx + ry * ry + rz * rz);
+
+        // Line of sight to the extrapolated satellite position
+        double dt = age / 1000.0;
+        int k = 6 * satId;
+        double dx = state[k] + state[k + 3] * dt - rx;
+        double dy = state[k + 1] + state[k + 4] * dt - ry;
+        double dz = state[k + 2] + state[k + 5] * dt - rz;
+        double d = Math.sqrt(dx * dx + dy * dy + dz * dz);
+
+        // Elevation above the geocentric horizon, within 0.2 degrees of the geodetic one
+        double elevation = Math.toDegrees(Math.asin((dx * rx + dy * ry + dz * rz) / (d * rr)));
+        if (elevation < maskElevation - margin) {
+            skipped++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param rxPos
+     * @return false if the receiver position is still unset (near the geocentre)
+     */
+    static boolean isKnownPosition(Coordinates rxPos) {
+        double rx = rxPos.getX();
+        double ry = rxPos.getY();
+        double rz = rxPos.getZ();
+        return rx * rx + ry * ry + rz * rz > MIN_RECEIVER_RADIUS * MIN_RECEIVER_RADIUS;
+    }
+
+    /**
+     * Store the exact state of a satellite for the next epochs
+     */
+    public void update(int satId, long unixTime, double x, double y, double z, double vx, double vy, double vz) {
+        if (satId < 0 || satId > MAX_SAT_ID)
+            return;
+        int k = 6 * satId;
+        time[satId] = unixTime;
+        state[k] = x;
+        state[k + 1] = y;
+        state[k + 2] = z;
+        state[k + 3] = vx;
+        state[k + 4] = vy;
+        state[k + 5] = vz;
+    }
+
+    /**
+     * @return number of satellite-epochs excluded without computing their orbit
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+}
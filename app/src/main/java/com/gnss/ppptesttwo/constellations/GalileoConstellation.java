@@ -11,13 +11,16 @@ import android.util.Log;
 import com.gnss.ppptesttwo.Constants;
 import com.gnss.ppptesttwo.Time;
 import com.gnss.ppptesttwo.corrections.Correction;
+import com.gnss.ppptesttwo.corrections.EpochCorrections;
 import com.gnss.ppptesttwo.corrections.IonoCorrection;
+import com.gnss.ppptesttwo.corrections.SatelliteGeometry;
 import com.gnss.ppptesttwo.corrections.ShapiroCorrection;
 import com.gnss.ppptesttwo.corrections.TopocentricCoordinates;
 import com.gnss.ppptesttwo.corrections.TropoCorrection;
 import com.gnss.ppptesttwo.navifromftp.Coordinates;
 import com.gnss.ppptesttwo.navifromftp.RinexNavigationGalileo;
 import com.gnss.ppptesttwo.navifromftp.RinexNavigationGps;
+import com.gnss.ppptesttwo.navifromftp.SatelliteBatch;
 import com.gnss.ppptesttwo.navifromftp.SatellitePosition;
 
 import java.util.ArrayList;
@@ -86,6 +89,35 @@ public class GalileoConstellation extends Constellation{
      */
     private ArrayList<Correction> corrections = new ArrayList<>();
 
+    /**
+     * Satellites of the current epoch, propagated as a batch
+     */
+    private final SatelliteBatch satelliteBatch = new SatelliteBatch();
+
+    /**
+     * Observed satellites in batch order
+     */
+    private final List<SatelliteParameters> batchSatellites = new ArrayList<>();
+
+    /**
+     * Receiver to satellite geometry shared by the corrections
+     */
+    private final SatelliteGeometry geometry = new SatelliteGeometry();
+
+    /**
+     * Satellites above the mask and their corrections, computed once for the epoch
+     */
+    private final EpochCorrections epochCorrections = new EpochCorrections();
+
+    /**
+     * Observed satellites in the order of {@link #epochCorrections}
+     */
+    private final List<SatelliteParameters> correctedSatellites = new ArrayList<>();
+
+    /**
+     * Elevation prediction from the previous epochs, see {@link ElevationPrescreen}
+     */
+    private final ElevationPrescreen elevationPrescreen = new ElevationPrescreen(MASK_ELEVATION, 2, 60000);
 
 
     public GalileoConstellation() {
@@ -216,7 +248,7 @@ public class GalileoConstellation extends Constellation{
 
                     SatelliteParameters satelliteParameters = new SatelliteParameters(
                             measurement.getSvid(),
-                            new Pseudorange(pseudorangeTOW, 0.0));
+                            new Pseudorange(pseudorangeTOW, measurement.getPseudorangeRateMetersPerSecond()));
 
                     satelliteParameters.setUniqueSatId("E" + satelliteParameters.getSatId() + "_E1");
 
@@ -235,7 +267,7 @@ public class GalileoConstellation extends Constellation{
                 } else if (codeLockE1C) {
                     SatelliteParameters satelliteParameters = new SatelliteParameters(
                             measurement.getSvid(),
-                            new Pseudorange(pseudorangeE1_2nd, 0.0)
+                            new Pseudorange(pseudorangeE1_2nd, measurement.getPseudorangeRateMetersPerSecond())
                     );
 
                     satelliteParameters.setUniqueSatId("E" + satelliteParameters.getSatId() + "_E1");
@@ -282,61 +314,77 @@ public class GalileoConstellation extends Constellation{
 
             //System.out.println("接收机近似位置：" + position.getX() + "," + position.getY() + "," + position.getZ());
 
-            for (SatelliteParameters observedSatellite : observedSatellites) {
-                // Computation of the GPS satellite coordinates in ECEF frame
-
-                // Determine the current GPS week number
-                int galileoWeek =(int) weekNumber;
+            // Determine the current GPS week number
+            int galileoWeek =(int) weekNumber;
 
-                double galileoSow = (tRxGalileoTOW) * 1e-9;
-                Time tGalileo = new Time(galileoWeek, galileoSow);
+            double galileoSow = (tRxGalileoTOW) * 1e-9;
+            Time tGalileo = new Time(galileoWeek, galileoSow);
 
-                // Convert the time of reception from GPS SoW to UNIX time (milliseconds)
-                long timeRx = tGalileo.getMsec();
-                System.out.println("卫星"+observedSatellite.getUniqueSatId()+"   "+timeRx);
+            // Convert the time of reception from GPS SoW to UNIX time (milliseconds)
+            long timeRx = tGalileo.getMsec();
 
+            // Computation of the Galileo satellite coordinates in ECEF frame, for the whole epoch at once
+            // Satellites that were clearly below the mask at a recent epoch skip the orbit computation
+            satelliteBatch.clear();
+            batchSatellites.clear();
+            // Signal travel times from the geometric range once the receiver position is known
+            if (ElevationPrescreen.isKnownPosition(rxPos)) {
+                satelliteBatch.setReceiverPosition(rxPos.getX(), rxPos.getY(), rxPos.getZ());
+            } else {
+                satelliteBatch.clearReceiverPosition();
+            }
+            for (SatelliteParameters observedSatellite : observedSatellites) {
+                if (elevationPrescreen.isBelowMask(observedSatellite.getSatId(), timeRx, rxPos)) {
+                    // no correction is computed for it at this epoch
+                    observedSatellite.setAccumulatedCorrection(0);
+                    excludedSatellites.add(observedSatellite);
+                    continue;
+                }
+                satelliteBatch.add(observedSatellite.getSatId(), observedSatellite.getPseudorange());
+                batchSatellites.add(observedSatellite);
+            }
+            rinexNavGalileo.computeSatStates(timeRx, satType, 0.0, satelliteBatch);
 
-                SatellitePosition rnp = rinexNavGalileo.getSatPositionAndVelocities(
-                        timeRx,
-                        observedSatellite.getPseudorange(),
-                        observedSatellite.getSatId(),
-                        satType,
-                        0.0
-                );
+            geometry.setReceiver(rxPos);
+            Time correctionTime = new Time(timeRx);
+            epochCorrections.clear();
+            correctedSatellites.clear();
+            for (int i = 0; i < satelliteBatch.size; i++) {
+                SatelliteParameters observedSatellite = batchSatellites.get(i);
 
-                if (rnp == null) {
+                if (!satelliteBatch.valid[i]) {
+                    observedSatellite.setAccumulatedCorrection(0);
                     excludedSatellites.add(observedSatellite);
                     //GnssCoreService.notifyUser("Failed getting ephemeris data!", Snackbar.LENGTH_SHORT, RNP_NULL_MESSAGE);
                     continue;
                 }
 
+                elevationPrescreen.update(satelliteBatch.satID[i], timeRx,
+                        satelliteBatch.x[i], satelliteBatch.y[i], satelliteBatch.z[i],
+                        satelliteBatch.vx[i], satelliteBatch.vy[i], satelliteBatch.vz[i]);
+
+                SatellitePosition rnp = satelliteBatch.toSatellitePosition(i, timeRx, satType);
                 observedSatellite.setSatellitePosition(rnp);
 
-                observedSatellite.setRxTopo(
-                        new TopocentricCoordinates(
-                                rxPos,
-                                observedSatellite.getSatellitePosition()));
+                geometry.setSatellite(rnp);
+                observedSatellite.setRxTopo(new TopocentricCoordinates().computeTopocentric(geometry));
 
                 //Add to the exclusion list the satellites that do not pass the masking criteria
                 if (observedSatellite.getRxTopo().getElevation() < MASK_ELEVATION) {
+                    observedSatellite.setAccumulatedCorrection(0);
                     excludedSatellites.add(observedSatellite);
+                    continue;
                 }
-                double accumulatedCorrection = 0;
-                //计算累计的误差，包括对流层延迟和电离层延迟
-                for (Correction correction : corrections) {
-
-                    correction.calculateCorrection(
-                            new Time(timeRx),
-                            rxPos,
-                            observedSatellite.getSatellitePosition(),
-                            rinexNavGalileo);
-
-                    accumulatedCorrection += correction.getCorrection();
+                epochCorrections.add(rnp, geometry.getAzimuth(), geometry.getElevation());
+                correctedSatellites.add(observedSatellite);
+            }
 
-                }
+            //计算累计的误差，包括对流层延迟和电离层延迟，每种误差整个历元计算一次
+            epochCorrections.apply(corrections, correctionTime, geometry, rinexNavGalileo);
+            for (int i = 0; i < epochCorrections.size; i++) {
+                SatelliteParameters observedSatellite = correctedSatellites.get(i);
+                double accumulatedCorrection = epochCorrections.total[i];
                 System.out.println("galileo此卫星误差为：" + observedSatellite.getSatId() + "," + accumulatedCorrection);
-
-
                 observedSatellite.setAccumulatedCorrection(accumulatedCorrection);
             }
 
@@ -416,5 +464,13 @@ public class GalileoConstellation extends Constellation{
     }
 
 
+    /**
+     * @return number of satellite-epochs excluded by the elevation pre-screen
+     */
+    public long getPrescreenedSatelliteCount() {
+        synchronized (this) {
+            return elevationPrescreen.getSkipped();
+        }
+    }
 
 }
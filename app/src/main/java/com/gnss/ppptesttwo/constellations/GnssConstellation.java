@@ -6,6 +6,7 @@ import com.gnss.ppptesttwo.Constants;
 import com.gnss.ppptesttwo.Time;
 import com.gnss.ppptesttwo.corrections.Correction;
 import com.gnss.ppptesttwo.corrections.TopocentricCoordinates;
+import com.gnss.ppptesttwo.navifromftp.BroadcastGGTO;
 import com.gnss.ppptesttwo.navifromftp.Coordinates;
 import com.gnss.ppptesttwo.navifromftp.RinexNavigationGalileo;
 import com.gnss.ppptesttwo.navifromftp.RinexNavigationGps;
@@ -169,6 +170,14 @@ public class GnssConstellation extends Constellation{
         }
     }
 
+    /**
+     * @return GPS to Galileo time offset broadcast in the Galileo navigation file, null
+     * if Galileo is not used or the file is not loaded
+     */
+    public BroadcastGGTO getGgto() {
+        return isgalileo ? rinexNavigationGalileo.getRnpGgto() : null;
+    }
+
     @Override
     public String getName() {
         return NAME;
@@ -10,12 +10,15 @@ import com.gnss.ppptesttwo.Constants;
 import com.gnss.ppptesttwo.PositioningData;
 import com.gnss.ppptesttwo.Time;
 import com.gnss.ppptesttwo.corrections.Correction;
+import com.gnss.ppptesttwo.corrections.EpochCorrections;
 import com.gnss.ppptesttwo.corrections.IonoCorrection;
+import com.gnss.ppptesttwo.corrections.SatelliteGeometry;
 import com.gnss.ppptesttwo.corrections.ShapiroCorrection;
 import com.gnss.ppptesttwo.corrections.TopocentricCoordinates;
 import com.gnss.ppptesttwo.corrections.TropoCorrection;
 import com.gnss.ppptesttwo.navifromftp.Coordinates;
 import com.gnss.ppptesttwo.navifromftp.RinexNavigationGps;
+import com.gnss.ppptesttwo.navifromftp.SatelliteBatch;
 import com.gnss.ppptesttwo.navifromftp.SatellitePosition;
 
 import java.util.ArrayList;
@@ -78,6 +81,36 @@ public class GpsConstellation extends Constellation{
 
     private RinexNavigationGps rinexNavGps = null;
 
+    /**
+     * Satellites of the current epoch, propagated as a batch
+     */
+    private final SatelliteBatch satelliteBatch = new SatelliteBatch();
+
+    /**
+     * Observed satellites in batch order
+     */
+    private final List<SatelliteParameters> batchSatellites = new ArrayList<>();
+
+    /**
+     * Receiver to satellite geometry shared by the corrections
+     */
+    private final SatelliteGeometry geometry = new SatelliteGeometry();
+
+    /**
+     * Satellites above the mask and their corrections, computed once for the epoch
+     */
+    private final EpochCorrections epochCorrections = new EpochCorrections();
+
+    /**
+     * Observed satellites in the order of {@link #epochCorrections}
+     */
+    private final List<SatelliteParameters> correctedSatellites = new ArrayList<>();
+
+    /**
+     * Elevation prediction from the previous epochs, see {@link ElevationPrescreen}
+     */
+    private final ElevationPrescreen elevationPrescreen = new ElevationPrescreen(MASK_ELEVATION, 2, 60000);
+
     /**
      * List holding observed satellites
      */
@@ -293,7 +326,7 @@ public class GpsConstellation extends Constellation{
                     //存储卫星参数的对象
                     SatelliteParameters satelliteParameters = new SatelliteParameters(
                             measurement.getSvid(),
-                            new Pseudorange(pseudorange, 0.0));
+                            new Pseudorange(pseudorange, measurement.getPseudorangeRateMetersPerSecond()));
 
                     satelliteParameters.setUniqueSatId("G" + satelliteParameters.getSatId() + "_L1");//唯一的ID可能用于标识特定的卫星及其信号频段
 
@@ -384,64 +417,81 @@ public class GpsConstellation extends Constellation{
 
             System.out.println("接收机近似位置：" + position.getX() + "," + position.getY() + "," + position.getZ());
 
+            //观测数据的时间
+            // Determine the current GPS week number
+            int gpsWeek = (int) (weekNumberNanos / Constants.NUMBER_NANO_SECONDS_PER_WEEK);
+
+            // Time of signal reception in GPS Seconds of the Week (SoW)
+            double gpsSow = (tRxGPS - weekNumberNanos) * 1e-9;
+            Time tGPS = new Time(gpsWeek, gpsSow);
+
+            // Convert the time of reception from GPS SoW to UNIX time (milliseconds)
+            long timeRx = tGPS.getMsec();//UNIX time (milliseconds)
+
+            // Computation of the GPS satellite coordinates in ECEF frame, for the whole epoch at once
+            //计算GPS卫星在ECEF坐标系中的坐标 地心地固系
+            // Satellites that were clearly below the mask at a recent epoch skip the orbit computation
+            satelliteBatch.clear();
+            batchSatellites.clear();
+            // Signal travel times from the geometric range once the receiver position is known
+            if (ElevationPrescreen.isKnownPosition(rxPos)) {
+                satelliteBatch.setReceiverPosition(rxPos.getX(), rxPos.getY(), rxPos.getZ());
+            } else {
+                satelliteBatch.clearReceiverPosition();
+            }
             for (SatelliteParameters observedSatellite : observedSatellites) {
-                // Computation of the GPS satellite coordinates in ECEF frame
-                //计算GPS卫星在ECEF坐标系中的坐标 地心地固系
-
-                //观测数据的时间
-                // Determine the current GPS week number
-                int gpsWeek = (int) (weekNumberNanos / Constants.NUMBER_NANO_SECONDS_PER_WEEK);
-
-                // Time of signal reception in GPS Seconds of the Week (SoW)
-                double gpsSow = (tRxGPS - weekNumberNanos) * 1e-9;
-                Time tGPS = new Time(gpsWeek, gpsSow);
-
-                // Convert the time of reception from GPS SoW to UNIX time (milliseconds)
-                long timeRx = tGPS.getMsec();//UNIX time (milliseconds)
+                if (elevationPrescreen.isBelowMask(observedSatellite.getSatId(), timeRx, rxPos)) {
+                    // no correction is computed for it at this epoch
+                    observedSatellite.setAccumulatedCorrection(0);
+                    excludedSatellites.add(observedSatellite);
+                    continue;
+                }
+                satelliteBatch.add(observedSatellite.getSatId(), observedSatellite.getPseudorange());
+                batchSatellites.add(observedSatellite);
+            }
+            rinexNavGps.computeSatStates(timeRx, satType, 0.0, satelliteBatch);
 
-                SatellitePosition rnp = rinexNavGps.getSatPositionAndVelocities(
-                        timeRx,//观测数据的时间
-                        observedSatellite.getPseudorange(),
-                        observedSatellite.getSatId(),
-                        satType,
-                        0.0
-                );
+            geometry.setReceiver(rxPos);
+            Time correctionTime = new Time(timeRx);
+            epochCorrections.clear();
+            correctedSatellites.clear();
+            for (int i = 0; i < satelliteBatch.size; i++) {
+                SatelliteParameters observedSatellite = batchSatellites.get(i);
 
-                if (rnp == null) {
+                if (!satelliteBatch.valid[i]) {
+                    observedSatellite.setAccumulatedCorrection(0);
                     excludedSatellites.add(observedSatellite);
                     //GnssCoreService.notifyUser("Failed getting ephemeris data!", Snackbar.LENGTH_SHORT, RNP_NULL_MESSAGE);
                     continue;
                 }
 
+                elevationPrescreen.update(satelliteBatch.satID[i], timeRx,
+                        satelliteBatch.x[i], satelliteBatch.y[i], satelliteBatch.z[i],
+                        satelliteBatch.vx[i], satelliteBatch.vy[i], satelliteBatch.vz[i]);
+
+                SatellitePosition rnp = satelliteBatch.toSatellitePosition(i, timeRx, satType);
                 observedSatellite.setSatellitePosition(rnp);
 
                 //设置卫星相对于用户的方位角和仰角，并根据这些角度来设置伪距测量方差
-                observedSatellite.setRxTopo(
-                        new TopocentricCoordinates(
-                                rxPos,
-                                observedSatellite.getSatellitePosition()));
+                geometry.setSatellite(rnp);
+                observedSatellite.setRxTopo(new TopocentricCoordinates().computeTopocentric(geometry));
 
                 //Add to the exclusion list the satellites that do not pass the masking criteria
                 if (observedSatellite.getRxTopo().getElevation() < MASK_ELEVATION) {
+                    observedSatellite.setAccumulatedCorrection(0);
                     excludedSatellites.add(observedSatellite);
+                    continue;
                 }
-                double accumulatedCorrection = 0;
-                //计算累计的误差，包括对流层延迟和电离层延迟
-                //遍历计算三种误差并累加
-                for (Correction correction : corrections) {
-
-                    correction.calculateCorrection(
-                            new Time(timeRx),
-                            rxPos,
-                            observedSatellite.getSatellitePosition(),
-                            rinexNavGps);
-
-                    accumulatedCorrection += correction.getCorrection();
+                epochCorrections.add(rnp, geometry.getAzimuth(), geometry.getElevation());
+                correctedSatellites.add(observedSatellite);
+            }
 
-                }
+            //计算累计的误差，包括对流层延迟和电离层延迟，每种误差整个历元计算一次
+            epochCorrections.apply(corrections, correctionTime, geometry, rinexNavGps);
+            for (int i = 0; i < epochCorrections.size; i++) {
+                SatelliteParameters observedSatellite = correctedSatellites.get(i);
+                double accumulatedCorrection = epochCorrections.total[i];
                 System.out.println("此卫星误差为：" + observedSatellite.getSatId() + "," + accumulatedCorrection);
-
-
                 observedSatellite.setAccumulatedCorrection(accumulatedCorrection);
             }
 
@@ -505,4 +555,14 @@ public class GpsConstellation extends Constellation{
         }
     }
 
+
+    /**
+     * @return number of satellite-epochs excluded by the elevation pre-screen
+     */
+    public long getPrescreenedSatelliteCount() {
+        synchronized (this) {
+            return elevationPrescreen.getSkipped();
+        }
+    }
+
 }
@@ -32,6 +32,10 @@ public class SatelliteParameters {
         return pseudorange.getPseudorange();
     }
 
+    public double getPseudorangeRate() {
+        return pseudorange.getPseudorangeRate();
+    }
+
     public void setPseudorange(Pseudorange pseudorange) {
         this.pseudorange = pseudorange;
     }
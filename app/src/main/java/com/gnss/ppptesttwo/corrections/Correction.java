@@ -49,6 +49,48 @@ public abstract class Correction {
             NavigationIono navigationIono
             );
 
+    /**
+     * Calculates current correction from the geometry shared by all the corrections of a
+     * satellite. Corrections that do not override it fall back to the coordinates.
+     * @param currentTime current timestamp
+     * @param geometry receiver to satellite geometry of the current epoch
+     * @param navigationIono Klobuchar coefficients from the naivgation message (ephemeris)
+     */
+    public void calculateCorrection(
+            Time currentTime,
+            SatelliteGeometry geometry,
+            NavigationIono navigationIono) {
+        calculateCorrection(currentTime, geometry.getReceiver(), geometry.getSatellite(), navigationIono);
+    }
+
+    /**
+     * Calculates the corrections of all the satellites of an epoch at once. Corrections that
+     * do not override it are calculated one satellite at a time.
+     * @param currentTime current timestamp
+     * @param geometry geometry with the receiver of the epoch set; its satellite part is overwritten
+     * @param satellites satellite positions
+     * @param azimuth satellite azimuths (deg)
+     * @param elevation satellite elevations (deg)
+     * @param n number of satellites
+     * @param navigationIono Klobuchar coefficients from the naivgation message (ephemeris)
+     * @param corrections output, correction of each satellite
+     */
+    public void calculateCorrections(
+            Time currentTime,
+            SatelliteGeometry geometry,
+            SatellitePosition[] satellites,
+            double[] azimuth,
+            double[] elevation,
+            int n,
+            NavigationIono navigationIono,
+            double[] corrections) {
+        for (int i = 0; i < n; i++) {
+            geometry.setSatellite(satellites[i]);
+            calculateCorrection(currentTime, geometry, navigationIono);
+            corrections[i] = getCorrection();
+        }
+    }
+
     /**
      *
      * @return calculated correction
@@ -0,0 +1,105 @@
+package com.gnss.ppptesttwo.corrections;
+
+import com.gnss.ppptesttwo.Time;
+import com.gnss.ppptesttwo.navifromftp.NavigationIono;
+import com.gnss.ppptesttwo.navifromftp.SatellitePosition;
+
+import java.util.List;
+
+/**
+ * <p>
+ * Satellites of an epoch and the sum of their {@link Correction}s
+ * </p>
+ *
+ * The satellites above the mask are added with their azimuth and elevation, then
+ * {@link #apply} calls each correction once for the whole epoch, see
+ * {@link Correction#calculateCorrections}. The arrays only grow, so an instance is meant
+ * to be reused from epoch to epoch.
+ */
+public class EpochCorrections {
+
+    public int size;
+
+    public SatellitePosition[] satellite;
+
+    /* degrees */
+    public double[] azimuth;
+    public double[] elevation;
+
+    /* sum of the corrections of each satellite (m) */
+    public double[] total;
+
+    /* output of one correction */
+    private double[] term;
+
+    public EpochCorrections() {
+        this(32);
+    }
+
+    public EpochCorrections(int capacity) {
+        allocate(Math.max(capacity, 1));
+    }
+
+    private void allocate(int capacity) {
+        SatellitePosition[] grown = new SatellitePosition[capacity];
+        if (satellite != null)
+            System.arraycopy(satellite, 0, grown, 0, size);
+        satellite = grown;
+        azimuth = grow(azimuth, capacity);
+        elevation = grow(elevation, capacity);
+        total = grow(total, capacity);
+        term = grow(term, capacity);
+    }
+
+    private double[] grow(double[] array, int capacity) {
+        double[] grown = new double[capacity];
+        if (array != null)
+            System.arraycopy(array, 0, grown, 0, size);
+        return grown;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            satellite[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * @param satellitePosition  satellite position
+     * @param satelliteAzimuth   azimuth from the receiver (deg)
+     * @param satelliteElevation elevation from the receiver (deg)
+     * @return index of the satellite
+     */
+    public int add(SatellitePosition satellitePosition, double satelliteAzimuth, double satelliteElevation) {
+        if (size == satellite.length)
+            allocate(2 * size);
+        satellite[size] = satellitePosition;
+        azimuth[size] = satelliteAzimuth;
+        elevation[size] = satelliteElevation;
+        return size++;
+    }
+
+    /**
+     * Sum the corrections of all the satellites into {@link #total}
+     *
+     * @param corrections    corrections to apply
+     * @param currentTime    epoch time
+     * @param geometry       geometry with the receiver of the epoch set; its satellite part
+     *                       is overwritten
+     * @param navigationIono navigation data
+     */
+    public void apply(List<Correction> corrections, Time currentTime, SatelliteGeometry geometry,
+                      NavigationIono navigationIono) {
+        for (int i = 0; i < size; i++) {
+            total[i] = 0;
+        }
+        for (Correction correction : corrections) {
+            correction.calculateCorrections(currentTime, geometry, satellite, azimuth, elevation, size,
+                    navigationIono, term);
+            for (int i = 0; i < size; i++) {
+                total[i] += term[i];
+            }
+        }
+    }
+}
@@ -16,15 +16,11 @@
 
 package com.gnss.ppptesttwo.corrections;
 
-import com.gnss.ppptesttwo.Constants;
 import com.gnss.ppptesttwo.Time;
 import com.gnss.ppptesttwo.navifromftp.Coordinates;
-import com.gnss.ppptesttwo.navifromftp.IonoGps;
 import com.gnss.ppptesttwo.navifromftp.NavigationIono;
 import com.gnss.ppptesttwo.navifromftp.SatellitePosition;
 
-import java.util.Date;
-
 
 /**
  * Created by Sebastian Ciuban on 10/02/2018.
@@ -37,6 +33,8 @@ import java.util.Date;
  *
  * It accounts for roughly 50% of the total ionospheric error affecting the pseudoranges
  *
+ * The model itself is {@link KlobucharModel}
+ *
  *
  */
 
@@ -54,109 +52,47 @@ public  class IonoCorrection extends Correction {
         super();
     }
 
-    @Override
-    public void calculateCorrection(Time currentTime, Coordinates approximatedPose, SatellitePosition satelliteCoordinates, NavigationIono navigationIono) {
-
-        IonoGps iono = navigationIono.getIonoGps();
-
-        if (iono.getBeta(0) == 0){
-
-            correctionValue = 0.0;
-        }
-        else {
-
-
-            // Compute the elevation and azimuth angles for each satellite
-            TopocentricCoordinates topo = new TopocentricCoordinates();
-            topo.computeTopocentric(approximatedPose, satelliteCoordinates);
-
-            // Assign the elevation and azimuth information to new variables
-            double elevation = topo.getElevation();
-            double azimuth = topo.getAzimuth();
-
-            double ionoCorr = 0;
-
-            if (iono == null)
-                return;
-            //		    double a0 = navigation.getIono(currentTime.getMsec(),0);
-            //		    double a1 = navigation.getIono(currentTime.getMsec(),1);
-            //		    double a2 = navigation.getIono(currentTime.getMsec(),2);
-            //		    double a3 = navigation.getIono(currentTime.getMsec(),3);
-            //		    double b0 = navigation.getIono(currentTime.getMsec(),4);
-            //		    double b1 = navigation.getIono(currentTime.getMsec(),5);
-            //		    double b2 = navigation.getIono(currentTime.getMsec(),6);
-            //		    double b3 = navigation.getIono(currentTime.getMsec(),7);
-
-            elevation = Math.abs(elevation);
-
-            // Parameter conversion to semicircles
-            double lon = approximatedPose.getGeodeticLongitude() / 180; // geod.get(0)
-            double lat = approximatedPose.getGeodeticLatitude() / 180; //geod.get(1)
-            azimuth = azimuth / 180;
-            elevation = elevation / 180;
-
-            // Klobuchar algorithm
-
-            // Compute the slant factor
-            double f = 1 + 16 * Math.pow((0.53 - elevation), 3);
-
-            // Compute the earth-centred angle
-            double psi = 0.0137 / (elevation + 0.11) - 0.022;
+    private final SatelliteGeometry localGeometry = new SatelliteGeometry();
 
-            // Compute the latitude of the Ionospheric Pierce Point (IPP)
-            double phi = lat + psi * Math.cos(azimuth * Math.PI);
+    private final KlobucharModel model = new KlobucharModel();
 
-            if (phi > 0.416) {
-                phi = 0.416;
-
-            }
-            if (phi < -0.416) {
-                phi = -0.416;
-            }
-
-            // Compute the longitude of the IPP
-            double lambda = lon + (psi * Math.sin(azimuth * Math.PI))
-                    / Math.cos(phi * Math.PI);
-
-            // Find the geomagnetic latitude of the IPP
-            double ro = phi + 0.064 * Math.cos((lambda - 1.617) * Math.PI);
-
-            // Find the local time at the IPP
-            double t = lambda * 43200 + currentTime.getGpsTime();
-
-            while (t >= 86400)
-                t = t - 86400;
-
-            while (t < 0)
-                t = t + 86400;
-
-            // Compute the period of ionospheric delay
-            double p = iono.getBeta(0) + iono.getBeta(1) * ro + iono.getBeta(2) * Math.pow(ro, 2) + iono.getBeta(3) * Math.pow(ro, 3);
-
-            if (p < 72000)
-                p = 72000;
-
-            // Compute the amplitude of ionospheric delay
-            double a = iono.getAlpha(0) + iono.getAlpha(1) * ro + iono.getAlpha(2) * Math.pow(ro, 2) + iono.getAlpha(3) * Math.pow(ro, 3);
-
-            if (a < 0)
-                a = 0;
+    @Override
+    public void calculateCorrection(Time currentTime, Coordinates approximatedPose, SatellitePosition satelliteCoordinates, NavigationIono navigationIono) {
+        calculateCorrection(currentTime, localGeometry.compute(approximatedPose, satelliteCoordinates), navigationIono);
+    }
 
-            // Compute the phase of ionospheric delay
-            double x = (2 * Math.PI * (t - 50400)) / p;
+    @Override
+    public void calculateCorrection(Time currentTime, SatelliteGeometry geometry, NavigationIono navigationIono) {
+
+        // Coefficients are copied only when the navigation data changed; without them the
+        // correction is 0
+        model.update(navigationIono);
+
+        correctionValue = model.getDelay(
+                geometry.getLatitude(),
+                geometry.getLongitude(),
+                currentTime.getGpsTime(),
+                geometry.getAzimuth(),
+                geometry.getElevation());
+    }
 
-            // Compute the ionospheric correction
-            if (Math.abs(x) < 1.57) {
-                ionoCorr = Constants.SPEED_OF_LIGHT
-                        * f
-                        * (5e-9 + a
-                        * (1 - (Math.pow(x, 2)) / 2 + (Math.pow(x, 4)) / 24));
-            } else {
-                ionoCorr = Constants.SPEED_OF_LIGHT * f * 5e-9;
-            }
+    /**
+     * One {@link KlobucharModel#evaluate} for the epoch
+     */
+    @Override
+    public void calculateCorrections(Time currentTime, SatelliteGeometry geometry, SatellitePosition[] satellites,
+                                     double[] azimuth, double[] elevation, int n,
+                                     NavigationIono navigationIono, double[] corrections) {
+        model.update(navigationIono);
+        model.evaluate(geometry.getLatitude(), geometry.getLongitude(), currentTime.getGpsTime(),
+                azimuth, elevation, n, corrections);
+    }
 
-            correctionValue = ionoCorr;
-        }
+    /**
+     * @return model holding the broadcast coefficients, for a batch evaluation of an epoch
+     */
+    public KlobucharModel getModel() {
+        return model;
     }
 
 
@@ -0,0 +1,129 @@
+package com.gnss.ppptesttwo.corrections;
+
+import com.gnss.ppptesttwo.Constants;
+import com.gnss.ppptesttwo.navifromftp.IonoGps;
+import com.gnss.ppptesttwo.navifromftp.NavigationIono;
+
+/**
+ * <p>
+ * Klobuchar ionospheric delay on L1 for all the satellites of an epoch
+ * </p>
+ *
+ * The broadcast alpha and beta coefficients are copied once per navigation file, i.e.
+ * whenever {@link NavigationIono#getIonoGps()} returns another object, and the
+ * amplitude and period polynomials are evaluated with Horner's scheme. Without
+ * coefficients the model is invalid and every delay is 0.
+ *
+ * Angles are in semicircles inside the model, as in IS-GPS-200.
+ */
+public class KlobucharModel {
+
+    private static final double SECONDS_PER_DAY = 86400;
+
+    /* coefficients of the last update, null if none */
+    private IonoGps iono;
+    private final double[] alpha = new double[4];
+    private final double[] beta = new double[4];
+    private boolean valid;
+
+    /**
+     * Copy the coefficients if the navigation data changed
+     *
+     * @param navigationIono navigation data, may be null
+     * @return true if the model has coefficients
+     */
+    public boolean update(NavigationIono navigationIono) {
+        IonoGps ionoGps = navigationIono == null ? null : navigationIono.getIonoGps();
+        if (ionoGps == iono)
+            return valid;
+        iono = ionoGps;
+        valid = ionoGps != null && ionoGps.getBeta(0) != 0;
+        if (valid) {
+            for (int i = 0; i < 4; i++) {
+                alpha[i] = ionoGps.getAlpha(i);
+                beta[i] = ionoGps.getBeta(i);
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * @param latitude  receiver geodetic latitude (deg)
+     * @param longitude receiver geodetic longitude (deg)
+     * @param gpsTime   GPS time of the epoch (s)
+     * @param azimuth   satellite azimuths (deg)
+     * @param elevation satellite elevations (deg)
+     * @param n         number of satellites
+     * @param delay     output, ionospheric delay of each satellite (m), 0 without coefficients
+     */
+    public void evaluate(double latitude, double longitude, double gpsTime,
+                         double[] azimuth, double[] elevation, int n, double[] delay) {
+        if (!valid) {
+            for (int i = 0; i < n; i++) {
+                delay[i] = 0;
+            }
+            return;
+        }
+        double lat = latitude / 180;
+        double lon = longitude / 180;
+        for (int i = 0; i < n; i++) {
+            delay[i] = delay(lat, lon, gpsTime, azimuth[i] / 180, Math.abs(elevation[i]) / 180);
+        }
+    }
+
+    /**
+     * One satellite, see {@link #evaluate}
+     *
+     * @return ionospheric delay (m), 0 without coefficients
+     */
+    public double getDelay(double latitude, double longitude, double gpsTime, double azimuth, double elevation) {
+        if (!valid)
+            return 0;
+        return delay(latitude / 180, longitude / 180, gpsTime, azimuth / 180, Math.abs(elevation) / 180);
+    }
+
+    /**
+     * All angles in semicircles
+     */
+    private double delay(double lat, double lon, double gpsTime, double azimuth, double elevation) {
+        // Slant factor
+        double s = 0.53 - elevation;
+        double f = 1 + 16 * s * s * s;
+
+        // Earth-centred angle and ionospheric pierce point
+        double psi = 0.0137 / (elevation + 0.11) - 0.022;
+        double phi = lat + psi * Math.cos(azimuth * Math.PI);
+        if (phi > 0.416)
+            phi = 0.416;
+        if (phi < -0.416)
+            phi = -0.416;
+        double lambda = lon + psi * Math.sin(azimuth * Math.PI) / Math.cos(phi * Math.PI);
+
+        // Geomagnetic latitude and local time of the pierce point
+        double ro = phi + 0.064 * Math.cos((lambda - 1.617) * Math.PI);
+        double t = lambda * 43200 + gpsTime;
+        t -= SECONDS_PER_DAY * Math.floor(t / SECONDS_PER_DAY);
+
+        // Period and amplitude
+        double p = beta[0] + ro * (beta[1] + ro * (beta[2] + ro * beta[3]));
+        if (p < 72000)
+            p = 72000;
+        double a = alpha[0] + ro * (alpha[1] + ro * (alpha[2] + ro * alpha[3]));
+        if (a < 0)
+            a = 0;
+
+        double x = 2 * Math.PI * (t - 50400) / p;
+        if (Math.abs(x) < 1.57) {
+            double x2 = x * x;
+            return Constants.SPEED_OF_LIGHT * f * (5e-9 + a * (1 + x2 * (-0.5 + x2 / 24)));
+        }
+        return Constants.SPEED_OF_LIGHT * f * 5e-9;
+    }
+
+    /**
+     * @return true if the last update found coefficients
+     */
+    public boolean isValid() {
+        return valid;
+    }
+}
@@ -0,0 +1,28 @@
+package com.gnss.ppptesttwo.corrections;
+
+/**
+ * Tropospheric mapping function, ratio of the slant to the zenith delay, evaluated for
+ * all the satellites of an epoch at once.
+ *
+ * Implementations keep no state between calls, so one instance can be shared by
+ * parallel solvers.
+ */
+public interface MappingFunction {
+
+    /**
+     * @param latitude    receiver geodetic latitude (rad)
+     * @param height      receiver ellipsoidal height (m)
+     * @param dayOfYear   day of year, fractional
+     * @param elevation   satellite elevations (rad)
+     * @param n           number of satellites
+     * @param hydrostatic output, hydrostatic mapping of each satellite
+     * @param wet         output, wet mapping of each satellite
+     */
+    void map(double latitude, double height, double dayOfYear,
+             double[] elevation, int n, double[] hydrostatic, double[] wet);
+
+    /**
+     * @return name of the mapping function
+     */
+    String getName();
+}
@@ -0,0 +1,100 @@
+package com.gnss.ppptesttwo.corrections;
+
+/**
+ * <p>
+ * Niell mapping functions (Niell, 1996)
+ * </p>
+ *
+ * Continued fraction in sin(elevation) with coefficients tabulated every 15 degrees of
+ * latitude, a seasonal term for the hydrostatic part and a height correction. The
+ * coefficients are interpolated once per call, then each satellite only evaluates the
+ * continued fractions.
+ */
+public class NiellMapping implements MappingFunction {
+
+    private static final String NAME = "Niell";
+
+    /* hydrostatic average a, b, c at latitudes 15, 30, 45, 60, 75 degrees */
+    private static final double[][] HYDROSTATIC_AVERAGE = {
+            {1.2769934e-3, 1.2683230e-3, 1.2465397e-3, 1.2196049e-3, 1.2045996e-3},
+            {2.9153695e-3, 2.9152299e-3, 2.9288445e-3, 2.9022565e-3, 2.9024912e-3},
+            {62.610505e-3, 62.837393e-3, 63.721774e-3, 63.824265e-3, 64.258455e-3}};
+
+    /* hydrostatic seasonal amplitude a, b, c */
+    private static final double[][] HYDROSTATIC_AMPLITUDE = {
+            {0.0, 1.2709626e-5, 2.6523662e-5, 3.4000452e-5, 4.1202191e-5},
+            {0.0, 2.1414979e-5, 3.0160779e-5, 7.2562722e-5, 11.723375e-5},
+            {0.0, 9.0128400e-5, 4.3497037e-5, 84.795348e-5, 170.37206e-5}};
+
+    /* wet a, b, c */
+    private static final double[][] WET = {
+            {5.8021897e-4, 5.6794847e-4, 5.8118019e-4, 5.9727542e-4, 6.1641693e-4},
+            {1.4275268e-3, 1.5138625e-3, 1.4572752e-3, 1.5007428e-3, 1.7599082e-3},
+            {4.3472961e-2, 4.6729510e-2, 4.3908931e-2, 4.4626982e-2, 5.4736038e-2}};
+
+    /* height correction a, b, c */
+    private static final double A_HT = 2.53e-5;
+    private static final double B_HT = 5.49e-3;
+    private static final double C_HT = 1.14e-3;
+
+    /* day of year of the hydrostatic minimum in the northern hemisphere */
+    private static final double DOY_PHASE = 28;
+
+    @Override
+    public void map(double latitude, double height, double dayOfYear,
+                    double[] elevation, int n, double[] hydrostatic, double[] wet) {
+        double lat = Math.toDegrees(Math.abs(latitude));
+        // seasons are shifted by half a year in the southern hemisphere
+        double y = (dayOfYear - DOY_PHASE) / 365.25 + (latitude < 0 ? 0.5 : 0);
+        double cosy = Math.cos(2 * Math.PI * y);
+
+        double ah = interpolate(HYDROSTATIC_AVERAGE[0], lat) - interpolate(HYDROSTATIC_AMPLITUDE[0], lat) * cosy;
+        double bh = interpolate(HYDROSTATIC_AVERAGE[1], lat) - interpolate(HYDROSTATIC_AMPLITUDE[1], lat) * cosy;
+        double ch = interpolate(HYDROSTATIC_AVERAGE[2], lat) - interpolate(HYDROSTATIC_AMPLITUDE[2], lat) * cosy;
+        double aw = interpolate(WET[0], lat);
+        double bw = interpolate(WET[1], lat);
+        double cw = interpolate(WET[2], lat);
+
+        double nh = normalization(ah, bh, ch);
+        double nw = normalization(aw, bw, cw);
+        double nht = normalization(A_HT, B_HT, C_HT);
+        double km = height / 1000;
+
+        for (int i = 0; i < n; i++) {
+            double sin = Math.sin(TroposphereModel.clampElevation(elevation[i]));
+            double dm = (1 / sin - nht / fraction(sin, A_HT, B_HT, C_HT)) * km;
+            hydrostatic[i] = nh / fraction(sin, ah, bh, ch) + dm;
+            wet[i] = nw / fraction(sin, aw, bw, cw);
+        }
+    }
+
+    /**
+     * @return numerator of the continued fraction, which makes the mapping 1 at zenith
+     */
+    private static double normalization(double a, double b, double c) {
+        return 1 + a / (1 + b / (1 + c));
+    }
+
+    private static double fraction(double sin, double a, double b, double c) {
+        return sin + a / (sin + b / (sin + c));
+    }
+
+    /**
+     * @param coefficients at latitudes 15 to 75 degrees
+     * @param lat          absolute latitude (degrees)
+     * @return linear interpolation, constant beyond the table
+     */
+    private static double interpolate(double[] coefficients, double lat) {
+        int i = (int) (lat / 15.0);
+        if (i < 1)
+            return coefficients[0];
+        if (i > 4)
+            return coefficients[4];
+        return coefficients[i - 1] * (1.0 - lat / 15.0 + i) + coefficients[i] * (lat / 15.0 - i);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+}
@@ -0,0 +1,116 @@
+package com.gnss.ppptesttwo.corrections;
+
+import com.gnss.ppptesttwo.Constants;
+
+/**
+ * <p>
+ * Saastamoinen tropospheric delay with the receiver terms cached
+ * </p>
+ *
+ * Pressure, temperature, water vapour pressure and the interpolated B term only depend
+ * on the receiver height. They are computed by {@link #setHeight(double)} and kept until
+ * the receiver moves vertically by more than the height threshold, so each satellite
+ * only costs its elevation dependent part.
+ */
+public class SaastamoinenModel {
+
+    /* heights above which the model is not applied (m) */
+    public static final double MAX_HEIGHT = 5000;
+
+    /* relative humidity at sea level (%) */
+    private static final double HR = 50.0;
+
+    /* B term of the model, tabulated by height */
+    private static final int[] HA = {0, 500, 1000, 1500, 2000, 2500, 3000, 4000, 5000};
+    private static final double[] BA = {1.156, 1.079, 1.006, 0.938, 0.874, 0.813, 0.757, 0.654, 0.563};
+
+    private double heightThreshold = 1.0;
+
+    /* height of the cached terms (m), NaN before the first call */
+    private double height = Double.NaN;
+
+    /* P + (1255 / T + 0.05) e and B of the cached height */
+    private double zenith;
+    private double b;
+
+    private int updates;
+
+    /**
+     * Update the receiver terms if the height moved by more than the threshold
+     *
+     * @param height receiver ellipsoidal height (m)
+     */
+    public void setHeight(double height) {
+        if (Math.abs(height - this.height) <= heightThreshold)
+            return;
+        this.height = height;
+        updates++;
+        if (height > MAX_HEIGHT)
+            return;
+
+        double p = Constants.STANDARD_PRESSURE * Math.pow((1 - 0.0000226 * height), 5.225);
+        double t = Constants.STANDARD_TEMPERATURE - 0.0065 * height;
+        double h = HR * Math.exp(-0.0006396 * height);
+
+        // If height is below zero, keep the maximum correction value
+        b = BA[0];
+        // Otherwise, interpolate the tables
+        if (height >= 0) {
+            int i = 1;
+            while (height > HA[i]) {
+                i++;
+            }
+            double m = (BA[i] - BA[i - 1]) / (HA[i] - HA[i - 1]);
+            b = BA[i - 1] + m * (height - HA[i - 1]);
+        }
+
+        double e = 0.01 * h * Math.exp(-37.2465 + 0.213166 * t - 0.000256908 * t * t);
+        zenith = p + (1255 / t + 0.05) * e;
+    }
+
+    /**
+     * Requires {@link #setHeight(double)}
+     *
+     * @param elevation satellite elevation (rad)
+     * @return slant tropospheric delay (m), 0 above {@link #MAX_HEIGHT}
+     */
+    public double getDelay(double elevation) {
+        if (!(height <= MAX_HEIGHT))
+            return 0;
+        elevation = Math.abs(elevation);
+        if (elevation == 0)
+            elevation = 0.01;
+        // B / tan^2 = B cos^2 / sin^2
+        double sin = Math.sin(elevation);
+        double sin2 = sin * sin;
+        return 0.002277 / sin * (zenith - b * (1 - sin2) / sin2);
+    }
+
+    /**
+     * @param heightThreshold vertical motion (m) above which the receiver terms are
+     *                        recomputed, 1 m by default
+     */
+    public void setHeightThreshold(double heightThreshold) {
+        if (!(heightThreshold >= 0))
+            throw new IllegalArgumentException("Negative height threshold: " + heightThreshold);
+        this.heightThreshold = heightThreshold;
+    }
+
+    public double getHeightThreshold() {
+        return heightThreshold;
+    }
+
+    /**
+     * @return height of the cached receiver terms (m)
+     */
+    public double getHeight() {
+        return height;
+    }
+
+    /**
+     * @return number of times the receiver terms were computed
+     */
+    public int getUpdates() {
+        return updates;
+    }
+}
@@ -0,0 +1,180 @@
+package com.gnss.ppptesttwo.corrections;
+
+import com.gnss.ppptesttwo.navifromftp.Coordinates;
+import com.gnss.ppptesttwo.navifromftp.SatellitePosition;
+
+/**
+ * <p>
+ * Geometry between the receiver and one satellite, shared by the {@link Correction}s
+ * </p>
+ *
+ * The receiver part (geodetic coordinates, ENU rotation, geocentric radius) is computed
+ * once per epoch by {@link #setReceiver(Coordinates)}; the satellite part (ENU vector,
+ * azimuth, elevation, range) once per satellite by {@link #setSatellite(SatellitePosition)}.
+ * An instance is meant to be reused, it does not allocate.
+ */
+public class SatelliteGeometry {
+
+    private Coordinates receiver;
+    private SatellitePosition satellite;
+
+    /* receiver geodetic coordinates, degrees and m */
+    private double latitude;
+    private double longitude;
+    private double height;
+
+    /* global to local (ENU) rotation, row major */
+    private final double[] rotation = new double[9];
+
+    /* geocentric distances of the receiver and of the satellite (m) */
+    private double receiverRadius;
+    private double satelliteRadius;
+
+    /* receiver to satellite: ENU vector (m), azimuth and elevation (degrees), range (m) */
+    private double e;
+    private double n;
+    private double u;
+    private double azimuth;
+    private double elevation;
+    private double range;
+
+    /**
+     * @param receiver approximate receiver position, its geodetic coordinates are
+     *                 recomputed from the ECEF ones
+     */
+    public void setReceiver(Coordinates receiver) {
+        this.receiver = receiver;
+        receiver.computeGeodetic();
+        latitude = receiver.getGeodeticLatitude();
+        longitude = receiver.getGeodeticLongitude();
+        height = receiver.getGeodeticHeight();
+
+        double lam = Math.toRadians(longitude);
+        double phi = Math.toRadians(latitude);
+        double cosLam = Math.cos(lam);
+        double cosPhi = Math.cos(phi);
+        double sinLam = Math.sin(lam);
+        double sinPhi = Math.sin(phi);
+        rotation[0] = -sinLam;
+        rotation[1] = cosLam;
+        rotation[2] = 0;
+        rotation[3] = -sinPhi * cosLam;
+        rotation[4] = -sinPhi * sinLam;
+        rotation[5] = cosPhi;
+        rotation[6] = cosPhi * cosLam;
+        rotation[7] = cosPhi * sinLam;
+        rotation[8] = sinPhi;
+
+        double x = receiver.getX(), y = receiver.getY(), z = receiver.getZ();
+        receiverRadius = Math.sqrt(x * x + y * y + z * z);
+    }
+
+    /**
+     * Requires {@link #setReceiver(Coordinates)} for the current epoch
+     *
+     * @param satellite satellite position
+     */
+    public void setSatellite(SatellitePosition satellite) {
+        this.satellite = satellite;
+        double sx = satellite.getX(), sy = satellite.getY(), sz = satellite.getZ();
+        satelliteRadius = Math.sqrt(sx * sx + sy * sy + sz * sz);
+
+        double dx = sx - receiver.getX();
+        double dy = sy - receiver.getY();
+        double dz = sz - receiver.getZ();
+        range = Math.sqrt(dx * dx + dy * dy + dz * dz);
+
+        e = rotation[0] * dx + rotation[1] * dy + rotation[2] * dz;
+        n = rotation[3] * dx + rotation[4] * dy + rotation[5] * dz;
+        u = rotation[6] * dx + rotation[7] * dy + rotation[8] * dz;
+
+        // same conventions as TopocentricCoordinates
+        double hDist = Math.sqrt(e * e + n * n);
+        if (hDist < 1e-20) {
+            azimuth = 0;
+            elevation = 90;
+        } else {
+            azimuth = Math.toDegrees(Math.atan2(e, n));
+            elevation = Math.toDegrees(Math.atan2(u, hDist));
+            if (azimuth < 0)
+                azimuth += 360;
+        }
+    }
+
+    /**
+     * Receiver and satellite part at once
+     */
+    public SatelliteGeometry compute(Coordinates receiver, SatellitePosition satellite) {
+        setReceiver(receiver);
+        setSatellite(satellite);
+        return this;
+    }
+
+    public Coordinates getReceiver() {
+        return receiver;
+    }
+
+    public SatellitePosition getSatellite() {
+        return satellite;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    /**
+     * @return element of the global to local (ENU) rotation
+     */
+    public double getRotation(int row, int column) {
+        return rotation[3 * row + column];
+    }
+
+    public double getReceiverRadius() {
+        return receiverRadius;
+    }
+
+    public double getSatelliteRadius() {
+        return satelliteRadius;
+    }
+
+    public double getE() {
+        return e;
+    }
+
+    public double getN() {
+        return n;
+    }
+
+    public double getU() {
+        return u;
+    }
+
+    /**
+     * @return azimuth in degrees, 0 to 360 from the north
+     */
+    public double getAzimuth() {
+        return azimuth;
+    }
+
+    /**
+     * @return elevation in degrees
+     */
+    public double getElevation() {
+        return elevation;
+    }
+
+    /**
+     * @return geometric distance from the receiver to the satellite (m)
+     */
+    public double getRange() {
+        return range;
+    }
+}
@@ -0,0 +1,40 @@
+package com.gnss.ppptesttwo.corrections;
+
+/**
+ * <p>
+ * Global closed form mapping function of the SBAS tropospheric model (RTCA DO-229)
+ * </p>
+ *
+ * m(E) = 1.001 / sqrt(0.002001 + sin^2(E)), times 1 + 0.015 (4 - E)^2 below 4 degrees,
+ * with E in degrees; the same for the hydrostatic and the wet delay. It needs no
+ * latitude, season or height, and costs one square root per satellite.
+ */
+public class SbasMapping implements MappingFunction {
+
+    private static final String NAME = "SBAS";
+
+    /* elevation below which the low elevation factor applies (deg) */
+    private static final double LOW_ELEVATION = 4;
+
+    @Override
+    public void map(double latitude, double height, double dayOfYear,
+                    double[] elevation, int n, double[] hydrostatic, double[] wet) {
+        for (int i = 0; i < n; i++) {
+            double e = TroposphereModel.clampElevation(elevation[i]);
+            double sin = Math.sin(e);
+            double m = 1.001 / Math.sqrt(0.002001 + sin * sin);
+            double deg = Math.toDegrees(e);
+            if (deg < LOW_ELEVATION) {
+                double d = LOW_ELEVATION - deg;
+                m *= 1 + 0.015 * d * d;
+            }
+            hydrostatic[i] = m;
+            wet[i] = m;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+}
@@ -25,8 +25,6 @@ import com.gnss.ppptesttwo.navifromftp.Coordinates;
 import com.gnss.ppptesttwo.navifromftp.NavigationIono;
 import com.gnss.ppptesttwo.navifromftp.SatellitePosition;
 
-import org.ejml.simple.SimpleMatrix;
-
 /**
  * Created by Sebastian Ciuban on 10/02/2018.
  *
@@ -44,21 +42,21 @@ public class ShapiroCorrection extends Correction {
         super();
     }
 
+    private final SatelliteGeometry localGeometry = new SatelliteGeometry();
+
     @Override
     public void calculateCorrection(Time currentTime, Coordinates approximatedPose, SatellitePosition satelliteCoordinates, NavigationIono navigationIono) {
-        // Compute the difference vector between the receiver and the satellite
-        SimpleMatrix diff = approximatedPose.minusXYZ(satelliteCoordinates);
-
-        // Compute the geometric distance between the receiver and the satellite
-
-        double geomDist = Math.sqrt(Math.pow(diff.get(0), 2) + Math.pow(diff.get(1), 2) + Math.pow(diff.get(2), 2));
-
-        // Compute the geocentric distance of the receiver
-        double geoDistRx = Math.sqrt(Math.pow(approximatedPose.getX(), 2) + Math.pow(approximatedPose.getY(), 2) + Math.pow(approximatedPose.getZ(), 2));
+        calculateCorrection(currentTime, localGeometry.compute(approximatedPose, satelliteCoordinates), navigationIono);
+    }
 
-        // Compute the geocentric distance of the satellite
-        double geoDistSv = Math.sqrt(Math.pow(satelliteCoordinates.getX(), 2) + Math.pow(satelliteCoordinates.getY(), 2) + Math.pow(satelliteCoordinates.getZ(), 2));
+    @Override
+    public void calculateCorrection(Time currentTime, SatelliteGeometry geometry, NavigationIono navigationIono) {
+        // Geometric distance between the receiver and the satellite
+        double geomDist = geometry.getRange();
 
+        // Geocentric distances of the receiver and of the satellite
+        double geoDistRx = geometry.getReceiverRadius();
+        double geoDistSv = geometry.getSatelliteRadius();
 
         // Compute the shapiro correction
         correctionValue = ((2.0 * Constants.EARTH_GRAVITATIONAL_CONSTANT)/ Math.pow(Constants.SPEED_OF_LIGHT, 2)) * Math.log((geoDistSv + geoDistRx + geomDist ) / (geoDistSv + geoDistRx - geomDist));
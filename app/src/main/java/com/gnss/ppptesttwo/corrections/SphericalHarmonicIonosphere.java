@@ -0,0 +1,242 @@
+package com.gnss.ppptesttwo.corrections;
+
+import com.gnss.ppptesttwo.Constants;
+import com.gnss.ppptesttwo.PositioningData;
+
+/**
+ * <p>
+ * VTEC of the SSR spherical harmonic ionosphere at the pierce points of all the
+ * satellites of an epoch
+ * </p>
+ *
+ * Single layer model of the RTCM SSR VTEC message:
+ * <pre>
+ *   VTEC = sum over n &lt;= N, m &lt;= min(n, M) of
+ *          (C_nm cos(m lambda_s) + S_nm sin(m lambda_s)) P_nm(sin phi_pp)
+ * </pre>
+ * with P_nm the fully normalized associated Legendre functions, computed by the stable
+ * column recursion from P_mm, and lambda_s the sun-fixed longitude of the pierce point.
+ * The recursion factors and the coefficients are kept in the packed triangular layout
+ * of {@link PositioningData.IonoData}, sized to the degree of the coefficients, so the
+ * evaluation does not allocate once the largest degree has been seen. An instance holds
+ * scratch arrays and is not thread-safe.
+ */
+public class SphericalHarmonicIonosphere {
+
+    private static final double EARTH_RADIUS = 6370000;
+
+    /* single layer height (m) when the message has none */
+    private static final double DEFAULT_LAYER_HEIGHT = 450000;
+
+    /* L1 delay (m) of 1 TECU */
+    private static final double TECU_TO_L1 = 40.3e16 / (Constants.FL1 * Constants.FL1);
+
+    private int degree = -1;
+    private int order = -1;
+    private double layerHeight = DEFAULT_LAYER_HEIGHT;
+
+    private double[] cosine = new double[0];
+    private double[] sine = new double[0];
+
+    /* recursion factors of P_nm for n > m + 1, and of P_mm */
+    private double[] a = new double[0];
+    private double[] b = new double[0];
+    private double[] diagonal = new double[0];
+
+    /* scratch: P_nm of one pierce point, cos and sin of m lambda_s */
+    private double[] legendre = new double[0];
+    private double[] cosm = new double[0];
+    private double[] sinm = new double[0];
+
+    /* pierce point of the last satellite: latitude, longitude (rad) and mapping */
+    private double pierceLatitude;
+    private double pierceLongitude;
+    private double mapping;
+
+    /**
+     * Copy the coefficients of an SSR message
+     *
+     * @param ionoData coefficients, degree, order and height of the first layer; without
+     *                 layers, all the coefficients set at 450 km
+     */
+    public void setCoefficients(PositioningData.IonoData ionoData) {
+        int n = ionoData.getCoefficientDegree();
+        int m = n;
+        layerHeight = DEFAULT_LAYER_HEIGHT;
+        if (ionoData.getLayers() > 0) {
+            if (ionoData.getDegree(0) > 0) {
+                n = Math.min(n, ionoData.getDegree(0));
+                m = ionoData.getOrder(0);
+            }
+            if (ionoData.getHeight(0) > 0)
+                layerHeight = ionoData.getHeight(0);
+        }
+        resize(n);
+        order = Math.min(m, n);
+        int size = (n + 1) * (n + 2) / 2;
+        System.arraycopy(ionoData.getPackedCosineC(), 0, cosine, 0, size);
+        System.arraycopy(ionoData.getPackedSineS(), 0, sine, 0, size);
+    }
+
+    /**
+     * Grow the tables to a degree, the recursion factors only depend on it
+     */
+    private void resize(int n) {
+        if (n == degree)
+            return;
+        degree = n;
+        if (n < 0)
+            return;
+        int size = (n + 1) * (n + 2) / 2;
+        if (cosine.length < size) {
+            cosine = new double[size];
+            sine = new double[size];
+            a = new double[size];
+            b = new double[size];
+            legendre = new double[size];
+            diagonal = new double[n + 1];
+            cosm = new double[n + 1];
+            sinm = new double[n + 1];
+        }
+        for (int j = 1; j <= n; j++) {
+            diagonal[j] = j == 1 ? Math.sqrt(3) : Math.sqrt((2.0 * j + 1) / (2.0 * j));
+        }
+        for (int i = 2; i <= n; i++) {
+            for (int j = 0; j <= i - 2; j++) {
+                int k = i * (i + 1) / 2 + j;
+                double d = (double) (i - j) * (i + j);
+                a[k] = Math.sqrt((2.0 * i - 1) * (2.0 * i + 1) / d);
+                b[k] = Math.sqrt((2.0 * i + 1) * (i + j - 1) * (i - j - 1) / (d * (2.0 * i - 3)));
+            }
+        }
+    }
+
+    /**
+     * @param latitude  receiver geodetic latitude (deg)
+     * @param longitude receiver geodetic longitude (deg)
+     * @param gpsTime   GPS time of the epoch (s)
+     * @param azimuth   satellite azimuths (deg)
+     * @param elevation satellite elevations (deg)
+     * @param n         number of satellites
+     * @param vtec      output, VTEC at each pierce point (TECU)
+     * @param delay     output, slant delay of each satellite on L1 (m), may be null
+     */
+    public void evaluate(double latitude, double longitude, double gpsTime,
+                         double[] azimuth, double[] elevation, int n,
+                         double[] vtec, double[] delay) {
+        double phi = Math.toRadians(latitude);
+        double lam = Math.toRadians(longitude);
+        double sinPhi = Math.sin(phi);
+        double cosPhi = Math.cos(phi);
+        for (int i = 0; i < n; i++) {
+            double e = Math.toRadians(Math.abs(elevation[i]));
+            pierce(sinPhi, cosPhi, lam, Math.toRadians(azimuth[i]), e);
+            vtec[i] = vtec(pierceLatitude, pierceLongitude, gpsTime);
+            if (delay != null)
+                delay[i] = TECU_TO_L1 * vtec[i] * mapping;
+        }
+    }
+
+    /**
+     * Pierce point of the layer and the slant factor
+     */
+    private void pierce(double sinPhi, double cosPhi, double lam, double azimuth, double elevation) {
+        double cosE = Math.cos(elevation);
+        double psi = Math.PI / 2 - elevation - Math.asin(EARTH_RADIUS / (EARTH_RADIUS + layerHeight) * cosE);
+        double sinPsi = Math.sin(psi);
+        double cosPsi = Math.cos(psi);
+        double sinPp = sinPhi * cosPsi + cosPhi * sinPsi * Math.cos(azimuth);
+        pierceLatitude = Math.asin(sinPp);
+        double dLam = Math.asin(sinPsi * Math.sin(azimuth) / Math.cos(pierceLatitude));
+        // across the pole, towards the north from the northern hemisphere and towards the
+        // south from the southern one; exact for any layer height and elevation
+        double tanPhi = sinPhi / cosPhi;
+        if (tanPhi * Math.cos(azimuth) > Math.tan(Math.PI / 2 - psi))
+            dLam = Math.PI - dLam;
+        pierceLongitude = lam + dLam;
+        mapping = 1 / Math.sin(elevation + psi);
+    }
+
+    /**
+     * @param phi     pierce point latitude (rad)
+     * @param lam     pierce point longitude (rad)
+     * @param gpsTime GPS time (s)
+     * @return VTEC (TECU), 0 without coefficients
+     */
+    double vtec(double phi, double lam, double gpsTime) {
+        if (degree < 0)
+            return 0;
+        double sunFixed = lam + (gpsTime - 50400) * Math.PI / 43200;
+        legendre(Math.sin(phi), Math.cos(phi));
+
+        double c = Math.cos(sunFixed);
+        double s = Math.sin(sunFixed);
+        cosm[0] = 1;
+        sinm[0] = 0;
+        for (int m = 1; m <= order; m++) {
+            cosm[m] = cosm[m - 1] * c - sinm[m - 1] * s;
+            sinm[m] = sinm[m - 1] * c + cosm[m - 1] * s;
+        }
+
+        double sum = 0;
+        for (int i = 0; i <= degree; i++) {
+            int row = i * (i + 1) / 2;
+            int top = Math.min(i, order);
+            for (int j = 0; j <= top; j++) {
+                int k = row + j;
+                sum += (cosine[k] * cosm[j] + sine[k] * sinm[j]) * legendre[k];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Fully normalized P_nm(t), u = sqrt(1 - t^2), into the packed scratch
+     */
+    void legendre(double t, double u) {
+        legendre[0] = 1;
+        for (int j = 0; j <= order; j++) {
+            int kmm = j * (j + 3) / 2;
+            if (j > 0)
+                legendre[kmm] = diagonal[j] * u * legendre[kmm - j - 1];
+            if (j + 1 <= degree)
+                legendre[kmm + j + 1] = Math.sqrt(2.0 * j + 3) * t * legendre[kmm];
+            for (int i = j + 2; i <= degree; i++) {
+                int k = i * (i + 1) / 2 + j;
+                legendre[k] = a[k] * t * legendre[k - i] - b[k] * legendre[k - 2 * i + 1];
+            }
+        }
+    }
+
+    /**
+     * @return P_nm of the last {@link #legendre} call
+     */
+    double normalizedLegendre(int n, int m) {
+        return legendre[n * (n + 1) / 2 + m];
+    }
+
+    /**
+     * @return degree of the coefficients, -1 if none
+     */
+    public int getDegree() {
+        return degree;
+    }
+
+    public int getOrder() {
+        return order;
+    }
+
+    /**
+     * @return pierce point latitude of the last satellite evaluated (rad)
+     */
+    public double getPierceLatitude() {
+        return pierceLatitude;
+    }
+
+    /**
+     * @return pierce point longitude of the last satellite evaluated (rad)
+     */
+    public double getPierceLongitude() {
+        return pierceLongitude;
+    }
+}
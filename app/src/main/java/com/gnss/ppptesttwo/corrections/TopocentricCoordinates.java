@@ -88,6 +88,16 @@ public class TopocentricCoordinates {
 		return this;
 	}
 
+	/**
+	 * @param geometry geometry already computed for the corrections
+	 */
+	public TopocentricCoordinates computeTopocentric(SatelliteGeometry geometry) {
+		topocentric.set(0, 0, geometry.getAzimuth());
+		topocentric.set(1, 0, geometry.getElevation());
+		topocentric.set(2, 0, geometry.getRange());
+		return this;
+	}
+
 	public double getAzimuth(){
 		return topocentric.get(0);
 	}
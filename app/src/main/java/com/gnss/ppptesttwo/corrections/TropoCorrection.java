@@ -16,7 +16,6 @@
 
 package com.gnss.ppptesttwo.corrections;
 
-import com.gnss.ppptesttwo.Constants;
 import com.gnss.ppptesttwo.Time;
 import com.gnss.ppptesttwo.navifromftp.Coordinates;
 import com.gnss.ppptesttwo.navifromftp.NavigationIono;
@@ -28,7 +27,8 @@ import com.gnss.ppptesttwo.navifromftp.SatellitePosition;
  *
  * Correction for the delay caused by the troposphere to the pseudoranges
  *
- * The implemented model is Saastamoinen's
+ * The implemented model is Saastamoinen's, see {@link SaastamoinenModel}, unless a
+ * {@link TroposphereModel} with its mapping function is set
  *
  */
 
@@ -37,66 +37,102 @@ public class TropoCorrection extends Correction {
     private final static String NAME = "Tropospheric correction";
 
     private double correctionValue;
-    @Override
-    public void calculateCorrection(Time currentTime, Coordinates approximatedPose, SatellitePosition satelliteCoordinates, NavigationIono  navigationIono) {
 
-        // Compute also the geodetic version of the user position (latitude, longitude, height)
-        approximatedPose.computeGeodetic();
+    private final SatelliteGeometry localGeometry = new SatelliteGeometry();
 
-        // Get the user's height
-        double height = approximatedPose.getGeodeticHeight();
+    private final SaastamoinenModel model = new SaastamoinenModel();
 
-        // Compute the elevation and azimuth angles for each satellite
-        TopocentricCoordinates topo = new TopocentricCoordinates();
-        topo.computeTopocentric(approximatedPose, satelliteCoordinates);
+    /* batch model replacing Saastamoinen when set, null by default */
+    private TroposphereModel troposphereModel;
 
-        // Assign the elevation information to a new variable
-        double elevation = topo.getElevation();
+    /* ZWD given to the batch model (m), NaN for the a-priori one */
+    private double zenithWetDelay = Double.NaN;
 
-        double tropoCorr = 0;
+    /* one satellite for the batch model */
+    private final double[] satelliteElevation = new double[1];
+    private final double[] satelliteDelay = new double[1];
+    private final double[] satelliteWetMapping = new double[1];
 
-        if (height > 5000)
-            return;
+    /* elevations (rad) and wet mappings of an epoch for the batch model */
+    private double[] epochElevation = new double[0];
+    private double[] epochWetMapping = new double[0];
+
+    @Override
+    public void calculateCorrection(Time currentTime, Coordinates approximatedPose, SatellitePosition satelliteCoordinates, NavigationIono  navigationIono) {
+        calculateCorrection(currentTime, localGeometry.compute(approximatedPose, satelliteCoordinates), navigationIono);
+    }
 
-        elevation = Math.toRadians(Math.abs(elevation));
-        if (elevation == 0){
-            elevation = elevation + 0.01;
+    @Override
+    public void calculateCorrection(Time currentTime, SatelliteGeometry geometry, NavigationIono navigationIono) {
+
+        if (troposphereModel != null) {
+            satelliteElevation[0] = Math.toRadians(geometry.getElevation());
+            troposphereModel.evaluate(Math.toRadians(geometry.getLatitude()), geometry.getHeight(),
+                    TroposphereModel.getDayOfYear(currentTime.getMsec()),
+                    satelliteElevation, 1, zenithWetDelay, satelliteDelay, satelliteWetMapping);
+            correctionValue = satelliteDelay[0];
+            return;
         }
 
-        // Numerical constants and tables for Saastamoinen algorithm
-        // (troposphere correction)
-        final double hr = 50.0;
-        final int[] ha = {0, 500, 1000, 1500, 2000, 2500, 3000, 4000, 5000 };
-        final double[] ba = { 1.156, 1.079, 1.006, 0.938, 0.874, 0.813, 0.757, 0.654, 0.563 };
-
-        // Saastamoinen algorithm
-        double P = Constants.STANDARD_PRESSURE * Math.pow((1 - 0.0000226 * height), 5.225);
-        double T = Constants.STANDARD_TEMPERATURE - 0.0065 * height;
-        double H = hr * Math.exp(-0.0006396 * height);
-
-        // If height is below zero, keep the maximum correction value
-        double B = ba[0];
-        // Otherwise, interpolate the tables
-        if (height >= 0) {
-            int i = 1;
-            while (height > ha[i]) {
-                i++;
+        // Receiver terms, recomputed only when the height changed
+        model.setHeight(geometry.getHeight());
+
+        // Elevation dependent part of each satellite
+        correctionValue = model.getDelay(Math.toRadians(geometry.getElevation()));
+    }
+
+    /**
+     * The receiver terms once for the epoch, then the elevation dependent part of each
+     * satellite; one {@link TroposphereModel#evaluate} when a model is set
+     */
+    @Override
+    public void calculateCorrections(Time currentTime, SatelliteGeometry geometry, SatellitePosition[] satellites,
+                                     double[] azimuth, double[] elevation, int n,
+                                     NavigationIono navigationIono, double[] corrections) {
+        if (troposphereModel == null) {
+            model.setHeight(geometry.getHeight());
+            for (int i = 0; i < n; i++) {
+                corrections[i] = model.getDelay(Math.toRadians(elevation[i]));
             }
-            double m = (ba[i] - ba[i - 1]) / (ha[i] - ha[i - 1]);
-            B = ba[i - 1] + m * (height - ha[i - 1]);
+            return;
+        }
+        if (epochElevation.length < n) {
+            epochElevation = new double[n];
+            epochWetMapping = new double[n];
         }
+        for (int i = 0; i < n; i++) {
+            epochElevation[i] = Math.toRadians(elevation[i]);
+        }
+        troposphereModel.evaluate(Math.toRadians(geometry.getLatitude()), geometry.getHeight(),
+                TroposphereModel.getDayOfYear(currentTime.getMsec()),
+                epochElevation, n, zenithWetDelay, corrections, epochWetMapping);
+    }
 
-        double e = 0.01
-                * H
-                * Math.exp(-37.2465 + 0.213166 * T - 0.000256908
-                * Math.pow(T, 2));
+    /**
+     * @return model holding the receiver terms, e.g. to set its height threshold
+     */
+    public SaastamoinenModel getModel() {
+        return model;
+    }
 
-        tropoCorr = ((0.002277 / Math.sin(elevation))
-                * (P - (B / Math.pow(Math.tan(elevation), 2))) + (0.002277 / Math.sin(elevation))
-                * (1255 / T + 0.05) * e);
+    /**
+     * @param troposphereModel model used instead of Saastamoinen, e.g. with a
+     *                         {@link NiellMapping}; null for Saastamoinen
+     */
+    public void setTroposphereModel(TroposphereModel troposphereModel) {
+        this.troposphereModel = troposphereModel;
+    }
 
-        correctionValue = tropoCorr;
+    public TroposphereModel getTroposphereModel() {
+        return troposphereModel;
+    }
 
+    /**
+     * @param zenithWetDelay ZWD of the {@link TroposphereModel} (m), e.g. estimated by the
+     *                       solver; NaN for the a-priori one, the default
+     */
+    public void setZenithWetDelay(double zenithWetDelay) {
+        this.zenithWetDelay = zenithWetDelay;
     }
 
 
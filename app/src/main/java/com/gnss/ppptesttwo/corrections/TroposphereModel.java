@@ -0,0 +1,113 @@
+package com.gnss.ppptesttwo.corrections;
+
+import com.gnss.ppptesttwo.Constants;
+
+/**
+ * <p>
+ * Slant tropospheric delays of all the satellites of an epoch
+ * </p>
+ *
+ * delay = ZHD mh(E) + ZWD mw(E), with the zenith hydrostatic delay (ZHD) of Saastamoinen
+ * for the standard atmosphere at the receiver height, and a zenith wet delay (ZWD) either
+ * a-priori or estimated by the caller, for which the wet mapping mw(E) is the partial
+ * derivative.
+ *
+ * Unlike a {@link Correction}, the model keeps no result between calls: everything is
+ * written to the arrays of the caller, so one instance can serve parallel solvers.
+ */
+public class TroposphereModel {
+
+    /* lowest elevation the mapping functions are evaluated at (rad) */
+    static final double MIN_ELEVATION = 0.01;
+
+    private static final long MS_PER_DAY = 86400000L;
+
+    /* relative humidity at sea level (%) */
+    private static final double HR = 50.0;
+
+    private final MappingFunction mappingFunction;
+
+    public TroposphereModel() {
+        this(new NiellMapping());
+    }
+
+    public TroposphereModel(MappingFunction mappingFunction) {
+        if (mappingFunction == null)
+            throw new IllegalArgumentException("No mapping function");
+        this.mappingFunction = mappingFunction;
+    }
+
+    /**
+     * @param latitude       receiver geodetic latitude (rad)
+     * @param height         receiver ellipsoidal height (m)
+     * @param dayOfYear      day of year, fractional, see {@link #getDayOfYear(long)}
+     * @param elevation      satellite elevations (rad)
+     * @param n              number of satellites
+     * @param zenithWetDelay ZWD (m), e.g. the current estimate, NaN for the a-priori one
+     * @param delay          output, slant delay of each satellite (m)
+     * @param wetMapping     output, partial derivative of each delay with respect to the ZWD
+     */
+    public void evaluate(double latitude, double height, double dayOfYear,
+                         double[] elevation, int n, double zenithWetDelay,
+                         double[] delay, double[] wetMapping) {
+        double zhd = getZenithHydrostaticDelay(latitude, height);
+        double zwd = Double.isNaN(zenithWetDelay) ? getZenithWetDelay(height) : zenithWetDelay;
+        mappingFunction.map(latitude, height, dayOfYear, elevation, n, delay, wetMapping);
+        for (int i = 0; i < n; i++) {
+            delay[i] = zhd * delay[i] + zwd * wetMapping[i];
+        }
+    }
+
+    /**
+     * @param latitude receiver geodetic latitude (rad)
+     * @param height   receiver ellipsoidal height (m)
+     * @return Saastamoinen zenith hydrostatic delay in the standard atmosphere (m)
+     */
+    public static double getZenithHydrostaticDelay(double latitude, double height) {
+        double pressure = Constants.STANDARD_PRESSURE * Math.pow(1 - 0.0000226 * height, 5.225);
+        return 0.0022768 * pressure / (1 - 0.00266 * Math.cos(2 * latitude) - 0.00028 * height / 1000);
+    }
+
+    /**
+     * @param height receiver ellipsoidal height (m)
+     * @return Saastamoinen zenith wet delay in the standard atmosphere (m)
+     */
+    public static double getZenithWetDelay(double height) {
+        double t = Constants.STANDARD_TEMPERATURE - 0.0065 * height;
+        double h = HR * Math.exp(-0.0006396 * height);
+        double e = 0.01 * h * Math.exp(-37.2465 + 0.213166 * t - 0.000256908 * t * t);
+        return 0.002277 * (1255 / t + 0.05) * e;
+    }
+
+    /**
+     * Gregorian calendar arithmetic, no allocation
+     *
+     * @param unixTime milliseconds since 1970, UTC, not negative
+     * @return day of year, 1 at January 1st 0h
+     */
+    public static double getDayOfYear(long unixTime) {
+        long day = unixTime / MS_PER_DAY;
+        // a lower bound of the year, off by at most one for the next centuries
+        int year = (int) (1970 + day / 366);
+        while (getDaysBefore(year + 1) <= day)
+            year++;
+        return 1 + (unixTime - getDaysBefore(year) * MS_PER_DAY) / (double) MS_PER_DAY;
+    }
+
+    /**
+     * @return days from 1970.1.1 to January 1st of the year, 1970 or later
+     */
+    private static long getDaysBefore(int year) {
+        int y = year - 1;
+        return 365L * (year - 1970) + (y / 4 - 1969 / 4) - (y / 100 - 1969 / 100) + (y / 400 - 1969 / 400);
+    }
+
+    static double clampElevation(double elevation) {
+        elevation = Math.abs(elevation);
+        return elevation < MIN_ELEVATION ? MIN_ELEVATION : elevation;
+    }
+
+    public MappingFunction getMappingFunction() {
+        return mappingFunction;
+    }
+}
@@ -78,6 +78,16 @@ public class BroadcastGGTO {
 		this.ggtoT0G = ggtoT0G;
 	}
 	
+	/**
+	 * @param gpsWeek        GPS week
+	 * @param gpsWeekSeconds seconds of the GPS week
+	 * @return GGTO, Galileo system time minus GPS time (s)
+	 */
+	public double getOffset(int gpsWeek, double gpsWeekSeconds) {
+		double dt = gpsWeekSeconds - ggtoT0G + 604800.0 * (gpsWeek - ggtoWN0G);
+		return ggtoA0G + ggtoA1G * dt;
+	}
+	
 	
 	
 
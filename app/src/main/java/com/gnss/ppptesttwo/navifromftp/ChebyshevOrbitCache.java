@@ -0,0 +1,320 @@
+package com.gnss.ppptesttwo.navifromftp;
+
+import com.gnss.ppptesttwo.Constants;
+import com.gnss.ppptesttwo.Time;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>
+ * Chebyshev interpolation cache of broadcast orbits
+ * </p>
+ *
+ * The validity window of every ephemeris record is split into segments. On first use a
+ * segment is fitted with Chebyshev polynomials of the satellite position (before the
+ * Earth rotation correction) and clock error, as functions of the uncorrected
+ * transmission time; the velocity is the derivative of the position polynomials.
+ * Every fit is checked against the exact Keplerian solution between the interpolation
+ * nodes and the degree is raised until the error bound holds. Segments that cannot
+ * meet the bound are answered by the exact propagation.
+ *
+ * Fitted segments are kept in a bounded LRU; the last segment of each satellite is
+ * also reachable without a map lookup, so a hit does not allocate.
+ */
+public class ChebyshevOrbitCache {
+
+    private static final int[] DEGREES = {8, 12, 16, 20};
+
+    /* margin (s) around each segment for the signal travel time */
+    private static final double SEGMENT_PAD = 1.0;
+
+    private final double maxPositionError; /* m */
+    private final double maxClockError; /* s */
+    private final long segmentMsec;
+    private final int maxSegments;
+
+    private final LinkedHashMap<SegmentKey, Segment> segments;
+
+    /* last segment used per satellite, see EphemerisStore.slotIndex() */
+    private final AtomicReferenceArray<Segment> lastSegments =
+            new AtomicReferenceArray<Segment>(EphemerisStore.SLOT_COUNT);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong fits = new AtomicLong();
+    private final AtomicLong rejectedFits = new AtomicLong();
+
+    /**
+     * Fitted polynomials of one segment of an ephemeris record
+     */
+    static final class Segment {
+        final KeplerianEphemeris eph;
+        final long index;
+        final long startMsec; /* time origin of tau */
+        final double a; /* tau domain (s) */
+        final double b;
+        final double[][] coefficients; /* x, y, z, clock; null if the fit was rejected */
+
+        Segment(KeplerianEphemeris eph, long index, long startMsec, double a, double b, double[][] coefficients) {
+            this.eph = eph;
+            this.index = index;
+            this.startMsec = startMsec;
+            this.a = a;
+            this.b = b;
+            this.coefficients = coefficients;
+        }
+    }
+
+    static final class SegmentKey {
+        final KeplerianEphemeris eph;
+        final long index;
+
+        SegmentKey(KeplerianEphemeris eph, long index) {
+            this.eph = eph;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SegmentKey))
+                return false;
+            SegmentKey other = (SegmentKey) o;
+            return eph == other.eph && index == other.index;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(eph) + (int) (index ^ (index >>> 32));
+        }
+    }
+
+    public ChebyshevOrbitCache() {
+        this(1e-3, 1800, 2048);
+    }
+
+    /**
+     * @param maxPositionError error bound (m) of the position fits; the clock fits are
+     *                         held to the same bound expressed as range
+     * @param segmentSeconds   length of the fitted segments
+     * @param maxSegments      number of fitted segments kept in memory
+     */
+    public ChebyshevOrbitCache(double maxPositionError, int segmentSeconds, final int maxSegments) {
+        this.maxPositionError = maxPositionError;
+        this.maxClockError = maxPositionError / Constants.SPEED_OF_LIGHT;
+        this.segmentMsec = segmentSeconds * 1000L;
+        this.maxSegments = maxSegments;
+        this.segments = new LinkedHashMap<SegmentKey, Segment>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SegmentKey, Segment> eldest) {
+                return size() > maxSegments;
+            }
+        };
+    }
+
+    /**
+     * Orbit and clock at the transmission time of a signal received at unixTime, before
+     * the Earth rotation correction (see {@link EphemerisSystem#computeOrbit}).
+     *
+     * @param system         exact propagator, used for fitting
+     * @param unixTime       reception time (ms since 1970.1.1)
+     * @param obsPseudorange
+     * @param eph
+     * @param state          filled on success
+     * @return false if the time is outside the record's window or the segment could not
+     * be fitted within the error bound
+     */
+    public boolean evaluate(EphemerisSystem system, long unixTime, double obsPseudorange,
+                            KeplerianEphemeris eph, SatelliteState state) {
+
+        long refTime = eph.getRefTime().getMsec();
+        long windowStart = refTime - EphemerisStore.getMaxAge(eph) * 1000;
+        long windowEnd = refTime + EphemerisStore.getMaxAge(eph) * 1000;
+        if (unixTime < windowStart || unixTime > windowEnd)
+            return false;
+        long index = (unixTime - windowStart) / segmentMsec;
+
+        int slot = EphemerisStore.slotIndex(eph.getSatType(), eph.getSatID());
+        Segment segment = slot < 0 ? null : lastSegments.get(slot);
+        if (segment == null || segment.eph != eph || segment.index != index) {
+            segment = getSegment(system, eph, index, windowStart + index * segmentMsec);
+            if (slot >= 0)
+                lastSegments.set(slot, segment);
+        } else {
+            hits.incrementAndGet();
+        }
+        if (segment.coefficients == null)
+            return false;
+
+        double tau = (unixTime - segment.startMsec) / 1000.0 - obsPseudorange / Constants.SPEED_OF_LIGHT;
+        if (tau < segment.a || tau > segment.b)
+            return false;
+
+        double[][] c = segment.coefficients;
+        double s = (2 * tau - segment.a - segment.b) / (segment.b - segment.a);
+        double scale = 2 / (segment.b - segment.a);
+        state.x = clenshaw(c[0], s);
+        state.y = clenshaw(c[1], s);
+        state.z = clenshaw(c[2], s);
+        state.vx = clenshawDerivative(c[0], s) * scale;
+        state.vy = clenshawDerivative(c[1], s) * scale;
+        state.vz = clenshawDerivative(c[2], s) * scale;
+        state.satelliteClockError = clenshaw(c[3], s);
+        state.transmissionTime = Time.unixToGpsTime(segment.startMsec) + tau - state.satelliteClockError;
+        return true;
+    }
+
+    private Segment getSegment(EphemerisSystem system, KeplerianEphemeris eph, long index, long startMsec) {
+        SegmentKey key = new SegmentKey(eph, index);
+        synchronized (segments) {
+            Segment segment = segments.get(key);
+            if (segment != null) {
+                hits.incrementAndGet();
+                return segment;
+            }
+        }
+        // fitted outside the lock; a concurrent duplicate fit is harmless
+        Segment segment = fit(system, eph, index, startMsec);
+        synchronized (segments) {
+            segments.put(key, segment);
+        }
+        return segment;
+    }
+
+    private Segment fit(EphemerisSystem system, KeplerianEphemeris eph, long index, long startMsec) {
+        double a = -SEGMENT_PAD;
+        double b = segmentMsec / 1000.0 + SEGMENT_PAD;
+        double startSow = Time.unixToGpsTime(startMsec);
+        SatelliteState exact = new SatelliteState();
+
+        fits.incrementAndGet();
+        for (int degree : DEGREES) {
+            int nodes = degree + 1;
+            double[][] values = new double[4][nodes];
+            for (int k = 0; k < nodes; k++) {
+                double s = Math.cos(Math.PI * (k + 0.5) / nodes);
+                system.computeOrbit(startSow + tauOf(s, a, b), eph, exact);
+                values[0][k] = exact.x;
+                values[1][k] = exact.y;
+                values[2][k] = exact.z;
+                values[3][k] = exact.satelliteClockError;
+            }
+            double[][] coefficients = new double[4][];
+            for (int q = 0; q < 4; q++) {
+                coefficients[q] = chebyshevCoefficients(values[q]);
+            }
+            if (withinBound(system, eph, coefficients, startSow, a, b, exact))
+                return new Segment(eph, index, startMsec, a, b, coefficients);
+        }
+        rejectedFits.incrementAndGet();
+        return new Segment(eph, index, startMsec, a, b, null);
+    }
+
+    /**
+     * Compare the fit with the exact solution halfway between the nodes, where the
+     * interpolation error peaks, and at the domain ends
+     */
+    private boolean withinBound(EphemerisSystem system, KeplerianEphemeris eph, double[][] c,
+                                double startSow, double a, double b, SatelliteState exact) {
+        int nodes = c[0].length;
+        for (int k = 0; k <= nodes; k++) {
+            double s = Math.cos(Math.PI * k / nodes);
+            system.computeOrbit(startSow + tauOf(s, a, b), eph, exact);
+            double dx = clenshaw(c[0], s) - exact.x;
+            double dy = clenshaw(c[1], s) - exact.y;
+            double dz = clenshaw(c[2], s) - exact.z;
+            if (Math.sqrt(dx * dx + dy * dy + dz * dz) > maxPositionError)
+                return false;
+            if (Math.abs(clenshaw(c[3], s) - exact.satelliteClockError) > maxClockError)
+                return false;
+        }
+        return true;
+    }
+
+    private static double tauOf(double s, double a, double b) {
+        return 0.5 * (a + b) + 0.5 * (b - a) * s;
+    }
+
+    /**
+     * @param values function values at the Chebyshev nodes of the first kind
+     * @return coefficients c such that f(s) = sum c[j] T_j(s)
+     */
+    static double[] chebyshevCoefficients(double[] values) {
+        int n = values.length;
+        double[] c = new double[n];
+        for (int j = 0; j < n; j++) {
+            double sum = 0;
+            for (int k = 0; k < n; k++) {
+                sum += values[k] * Math.cos(Math.PI * j * (k + 0.5) / n);
+            }
+            c[j] = 2.0 * sum / n;
+        }
+        c[0] /= 2;
+        return c;
+    }
+
+    /**
+     * @return sum c[j] T_j(s)
+     */
+    static double clenshaw(double[] c, double s) {
+        double b1 = 0;
+        double b2 = 0;
+        for (int k = c.length - 1; k >= 1; k--) {
+            double b0 = c[k] + 2 * s * b1 - b2;
+            b2 = b1;
+            b1 = b0;
+        }
+        return c[0] + s * b1 - b2;
+    }
+
+    /**
+     * @return d/ds of sum c[j] T_j(s)
+     */
+    static double clenshawDerivative(double[] c, double s) {
+        double b1 = 0;
+        double b2 = 0;
+        double d1 = 0;
+        double d2 = 0;
+        for (int k = c.length - 1; k >= 1; k--) {
+            double d0 = 2 * b1 + 2 * s * d1 - d2;
+            double b0 = c[k] + 2 * s * b1 - b2;
+            d2 = d1;
+            d1 = d0;
+            b2 = b1;
+            b1 = b0;
+        }
+        return b1 + s * d1 - d2;
+    }
+
+    /**
+     * @return number of evaluations answered by an already fitted segment
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of fitted segments
+     */
+    public long getFits() {
+        return fits.get();
+    }
+
+    /**
+     * @return number of segments that could not meet the error bound
+     */
+    public long getRejectedFits() {
+        return rejectedFits.get();
+    }
+
+    public int getMaxSegments() {
+        return maxSegments;
+    }
+
+    public int size() {
+        synchronized (segments) {
+            return segments.size();
+        }
+    }
+}
@@ -36,7 +36,7 @@ import java.io.IOException;
  * adapted from goGps by: Sebastian Ciuban
  */
 
-public class EphGalileo {
+public class EphGalileo implements KeplerianEphemeris {
 	private final static int STREAM_V = 1;
 
 	private Time refTime; /* Reference time of the dataset */
@@ -35,7 +35,7 @@ import java.io.IOException;
  * @author Eugenio Realini, Cryms.com, Daisuke Yoshida 
  */
 
-public class EphGps  {
+public class EphGps implements KeplerianEphemeris {
 	private final static int STREAM_V = 1;
 
 	private Time refTime; /* Reference time of the dataset */
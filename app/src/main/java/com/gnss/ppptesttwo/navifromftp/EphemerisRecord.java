@@ -0,0 +1,20 @@
+package com.gnss.ppptesttwo.navifromftp;
+
+import com.gnss.ppptesttwo.Time;
+
+/**
+ * Common view of a broadcast ephemeris record, used to index
+ * {@link EphGps} and {@link EphGalileo} sets in an {@link EphemerisStore}.
+ */
+public interface EphemerisRecord {
+
+    public Time getRefTime();
+
+    public char getSatType();
+
+    public int getSatID();
+
+    public int getSvHealth();
+
+    public long getFitInt();
+}
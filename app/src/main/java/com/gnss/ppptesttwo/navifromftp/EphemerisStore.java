@@ -0,0 +1,301 @@
+package com.gnss.ppptesttwo.navifromftp;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>
+ * Broadcast ephemerides indexed by (satType, satID) and sorted by reference time.
+ * </p>
+ *
+ * A lookup is a direct slot access plus a binary search over the reference times of
+ * that satellite, independently of how many navigation files have been loaded.
+ * Every slot is an immutable snapshot that is replaced on write (copy-on-write), so
+ * readers never lock and records can be added while positioning is running.
+ *
+ * {@link #select} also remembers, per satellite, the record chosen at the last epoch
+ * together with the time window in which it stays the valid choice, so that
+ * consecutive epochs only cost a range check.
+ */
+public class EphemerisStore<E extends EphemerisRecord> {
+
+    /* Satellite systems that can be indexed, in slot order */
+    private static final String SAT_TYPES = "GRECJSI";
+
+    /* Highest satellite ID per system (SBAS PRNs go up to 158) */
+    public static final int MAX_SAT_ID = 160;
+
+    /* Number of slot indices, for per-satellite tables indexed by slotIndex() */
+    public static final int SLOT_COUNT = SAT_TYPES.length() * (MAX_SAT_ID + 1);
+
+    private final AtomicReferenceArray<Slot> slots =
+            new AtomicReferenceArray<Slot>(SLOT_COUNT);
+
+    /* last selection per slot, see select() */
+    private final AtomicReferenceArray<Selection> selections =
+            new AtomicReferenceArray<Selection>(slots.length());
+
+    private final AtomicLong selectionHits = new AtomicLong();
+    private final AtomicLong selectionMisses = new AtomicLong();
+
+    private int size = 0;
+
+    /**
+     * Immutable, time sorted list of the records of one satellite
+     */
+    static final class Slot {
+        final long[] refTimes; /* reference times in msec, ascending */
+        final EphemerisRecord[] records;
+
+        Slot(long[] refTimes, EphemerisRecord[] records) {
+            this.refTimes = refTimes;
+            this.records = records;
+        }
+    }
+
+    /**
+     * Record selected for a satellite and the times (msec, inclusive) in which it is
+     * both the nearest record of its slot snapshot and within its fit interval
+     */
+    static final class Selection {
+        final Slot slot;
+        final EphemerisRecord record;
+        final long from;
+        final long to;
+
+        Selection(Slot slot, EphemerisRecord record, long from, long to) {
+            this.slot = slot;
+            this.record = record;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * @param satType
+     * @param satID
+     * @return slot index of the satellite, -1 if it cannot be indexed
+     */
+    static int slotIndex(char satType, int satID) {
+        int system = SAT_TYPES.indexOf(satType);
+        if (system < 0 || satID < 0 || satID > MAX_SAT_ID)
+            return -1;
+        return system * (MAX_SAT_ID + 1) + satID;
+    }
+
+    /**
+     * Index a complete ephemeris record. Records with the same reference time are
+     * kept in insertion order.
+     *
+     * @param eph
+     * @return false if the record has no reference time or an unknown satellite
+     */
+    public synchronized boolean add(E eph) {
+        if (eph == null || eph.getRefTime() == null)
+            return false;
+        int index = slotIndex(eph.getSatType(), eph.getSatID());
+        if (index < 0)
+            return false;
+
+        long refTime = eph.getRefTime().getMsec();
+        Slot slot = slots.get(index);
+        Slot updated;
+        if (slot == null) {
+            updated = new Slot(new long[]{refTime}, new EphemerisRecord[]{eph});
+        } else {
+            int n = slot.refTimes.length;
+            int pos = n;
+            while (pos > 0 && slot.refTimes[pos - 1] > refTime)
+                pos--;
+            long[] refTimes = new long[n + 1];
+            EphemerisRecord[] records = new EphemerisRecord[n + 1];
+            System.arraycopy(slot.refTimes, 0, refTimes, 0, pos);
+            System.arraycopy(slot.records, 0, records, 0, pos);
+            refTimes[pos] = refTime;
+            records[pos] = eph;
+            System.arraycopy(slot.refTimes, pos, refTimes, pos + 1, n - pos);
+            System.arraycopy(slot.records, pos, records, pos + 1, n - pos);
+            updated = new Slot(refTimes, records);
+        }
+        slots.set(index, updated);
+        size++;
+        return true;
+    }
+
+    /**
+     * Index all the records of a list, e.g. after a navigation file has been parsed.
+     *
+     * @param ephs
+     */
+    public synchronized void addAll(List<? extends E> ephs) {
+        for (int i = 0; i < ephs.size(); i++) {
+            add(ephs.get(i));
+        }
+    }
+
+    /**
+     * @param satType
+     * @param satID
+     * @param unixTime
+     * @return record of the satellite whose reference time is closest to unixTime
+     * (the earlier record wins ties), null if none
+     */
+    @SuppressWarnings("unchecked")
+    public E findNearest(char satType, int satID, long unixTime) {
+        int index = slotIndex(satType, satID);
+        if (index < 0)
+            return null;
+        Slot slot = slots.get(index);
+        if (slot == null)
+            return null;
+        return (E) slot.records[nearestIndex(slot.refTimes, unixTime)];
+    }
+
+    /**
+     * Nearest record of the satellite, provided unixTime is inside its fit interval.
+     * The choice is memoized with its validity window: from the midpoint to the
+     * previous reference time to the midpoint to the next one, limited by the fit
+     * interval. Adding a record for the satellite invalidates the memo.
+     *
+     * @param satType
+     * @param satID
+     * @param unixTime
+     * @return selected record, null if there is none or it is out of its fit interval
+     */
+    @SuppressWarnings("unchecked")
+    public E select(char satType, int satID, long unixTime) {
+        int index = slotIndex(satType, satID);
+        if (index < 0)
+            return null;
+        Slot slot = slots.get(index);
+        if (slot == null)
+            return null;
+
+        Selection selection = selections.get(index);
+        if (selection != null && selection.slot == slot
+                && unixTime >= selection.from && unixTime <= selection.to) {
+            selectionHits.incrementAndGet();
+            return (E) selection.record;
+        }
+        selectionMisses.incrementAndGet();
+
+        long[] refTimes = slot.refTimes;
+        int k = nearestIndex(refTimes, unixTime);
+        EphemerisRecord record = slot.records[k];
+        long refTime = refTimes[k];
+
+        // |refTime - t| / 1000 <= dtMax, as checked by findEph
+        long fitMsec = (getMaxAge(record) + 1) * 1000 - 1;
+        long from = refTime - fitMsec;
+        long to = refTime + fitMsec;
+        if (unixTime < from || unixTime > to)
+            return null;
+
+        // nearest while 2t > previous + current and 2t <= current + next
+        int last = k;
+        while (last + 1 < refTimes.length && refTimes[last + 1] == refTime)
+            last++;
+        if (k > 0)
+            from = Math.max(from, floorHalf(refTimes[k - 1] + refTime) + 1);
+        if (last + 1 < refTimes.length)
+            to = Math.min(to, floorHalf(refTime + refTimes[last + 1]));
+
+        selections.set(index, new Selection(slot, record, from, to));
+        return (E) record;
+    }
+
+    /**
+     * @param satType
+     * @param satID
+     * @return true if at least one record of the satellite is indexed
+     */
+    public boolean contains(char satType, int satID) {
+        int index = slotIndex(satType, satID);
+        return index >= 0 && slots.get(index) != null;
+    }
+
+    /**
+     * @param satType
+     * @return first and last time (msec) covered by the fit interval of a record of the
+     * system, null if there is none
+     */
+    public long[] getTimeSpan(char satType) {
+        long[] span = null;
+        for (int satID = 0; satID <= MAX_SAT_ID; satID++) {
+            int index = slotIndex(satType, satID);
+            if (index < 0)
+                return null;
+            Slot slot = slots.get(index);
+            if (slot == null)
+                continue;
+            for (int i = 0; i < slot.records.length; i++) {
+                long maxAge = getMaxAge(slot.records[i]) * 1000;
+                if (span == null)
+                    span = new long[]{Long.MAX_VALUE, Long.MIN_VALUE};
+                span[0] = Math.min(span[0], slot.refTimes[i] - maxAge);
+                span[1] = Math.max(span[1], slot.refTimes[i] + maxAge);
+            }
+        }
+        return span;
+    }
+
+    /**
+     * @param eph
+     * @return maximum allowed interval (s) from the ephemeris reference time
+     */
+    public static long getMaxAge(EphemerisRecord eph) {
+        long fitInterval = eph.getFitInt();
+        if (fitInterval != 0)
+            return fitInterval * 3600 / 2;
+        return 7200;
+    }
+
+    private static long floorHalf(long sum) {
+        return sum >> 1;
+    }
+
+    /**
+     * @param refTimes ascending reference times, at least one
+     * @param unixTime
+     * @return index of the (first) reference time closest to unixTime
+     */
+    static int nearestIndex(long[] refTimes, long unixTime) {
+        int pos = Arrays.binarySearch(refTimes, unixTime);
+        if (pos < 0)
+            pos = -pos - 1;
+        if (pos == refTimes.length)
+            return firstWithTime(refTimes, pos - 1);
+        if (pos > 0 && refTimes[pos] - unixTime >= unixTime - refTimes[pos - 1])
+            return firstWithTime(refTimes, pos - 1);
+        return firstWithTime(refTimes, pos);
+    }
+
+    private static int firstWithTime(long[] refTimes, int pos) {
+        while (pos > 0 && refTimes[pos - 1] == refTimes[pos])
+            pos--;
+        return pos;
+    }
+
+    /**
+     * @return number of select() calls answered from the memo
+     */
+    public long getSelectionHits() {
+        return selectionHits.get();
+    }
+
+    /**
+     * @return number of select() calls that had to search the slot
+     */
+    public long getSelectionMisses() {
+        return selectionMisses.get();
+    }
+
+    /**
+     * @return number of indexed records
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
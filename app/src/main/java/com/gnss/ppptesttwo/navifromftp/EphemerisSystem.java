@@ -19,15 +19,12 @@
  */
 package com.gnss.ppptesttwo.navifromftp;
 
-import android.nfc.Tag;
-import android.util.Log;
 
 import com.gnss.ppptesttwo.Constants;
 import com.gnss.ppptesttwo.Time;
 
-import org.ejml.simple.SimpleMatrix;
-
-import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * <p>
@@ -40,6 +37,70 @@ import java.util.Arrays;
 public abstract class EphemerisSystem {
     private static final  String Tag="EphemerisSystem";
 
+    private static final int MAX_KEPLER_ITERATIONS = 10;
+
+    private static final int MAX_LIGHT_TIME_ITERATIONS = 10;
+
+    /* Kepler equation solutions that did not converge */
+    private final AtomicLong keplerNonConvergence = new AtomicLong();
+
+    /* GLONASS integration step (s) */
+    private static final double GLONASS_INTEGRATION_STEP = 60;
+
+    /* last integrated GLONASS state per satellite, see EphemerisStore.slotIndex() */
+    private final AtomicReferenceArray<GlonassTrack> glonassTracks =
+            new AtomicReferenceArray<GlonassTrack>(EphemerisStore.SLOT_COUNT);
+
+    /* GLONASS integrations started again from the ephemeris reference epoch */
+    private final AtomicLong glonassRestarts = new AtomicLong();
+
+    /**
+     * GLONASS orbit integrated up to time t from the ephemeris reference epoch
+     */
+    private static final class GlonassTrack {
+        EphGps eph;
+        int leapSeconds;
+        double t;
+        final double[] state = new double[6];
+        final double[] acc = new double[3];
+        final double[] tmp = new double[6];
+        final double[] k1 = new double[6];
+        final double[] k2 = new double[6];
+        final double[] k3 = new double[6];
+        final double[] k4 = new double[6];
+
+        void restart(EphGps eph, int leapSeconds) {
+            this.eph = eph;
+            this.leapSeconds = leapSeconds;
+            t = 0;
+            state[0] = eph.getX();
+            state[1] = eph.getY();
+            state[2] = eph.getZ();
+            state[3] = eph.getXv();
+            state[4] = eph.getYv();
+            state[5] = eph.getZv();
+            /* NOTE:  Xa,Ya,Za are considered constant within the integration interval (i.e. toe ?}15 minutes) */
+            acc[0] = eph.getXa();
+            acc[1] = eph.getYa();
+            acc[2] = eph.getZa();
+        }
+    }
+
+    /* optional polynomial orbit cache, see setOrbitCache() */
+    private volatile ChebyshevOrbitCache orbitCache;
+
+    /**
+     * @param orbitCache Chebyshev orbit cache used by computeSatState, null to always
+     *                   propagate the broadcast orbit
+     */
+    public void setOrbitCache(ChebyshevOrbitCache orbitCache) {
+        this.orbitCache = orbitCache;
+    }
+
+    public ChebyshevOrbitCache getOrbitCache() {
+        return orbitCache;
+    }
+
 
     /**
      *
@@ -57,319 +118,57 @@ public abstract class EphemerisSystem {
 
         if (satType != 'R') {  // other than GLONASS
 
-//					System.out.println("### other than GLONASS data");
-
-            // Compute satellite clock error
-            double satelliteClockError = computeSatelliteClockError(unixTime, eph,obsPseudorange);//计算卫星钟差
-
-            // Compute clock corrected transmission time
-            double tGPS = computeClockCorrectedTransmissionTime(unixTime, satelliteClockError,obsPseudorange);// 返回经过卫星时钟误差校正后的信号原始发射时间
-
-            double Ek = computeEccentricAnomaly(tGPS, eph);//计算偏近点角
-
-            // Semi-major axis
-            double A = eph.getRootA() * eph.getRootA();//计算椭圆轨道的半长轴
-
-            // Time from the ephemerides reference epoch
-            double tk = checkGpsTime(tGPS - eph.getToe());
-
-            // Position computation
-            double fk = Math.atan2(Math.sqrt(1 - Math.pow(eph.getE(), 2))
-                    * Math.sin(Ek), Math.cos(Ek) - eph.getE());
-            double phi = fk + eph.getOmega();
-            phi = Math.IEEEremainder(phi, 2 * Math.PI);
-            double u = phi + eph.getCuc() * Math.cos(2 * phi) + eph.getCus()
-                    * Math.sin(2 * phi);
-            double r = A * (1 - eph.getE() * Math.cos(Ek)) + eph.getCrc()
-                    * Math.cos(2 * phi) + eph.getCrs() * Math.sin(2 * phi);
-            double ik = eph.getI0() + eph.getiDot() * tk + eph.getCic() * Math.cos(2 * phi)
-                    + eph.getCis() * Math.sin(2 * phi);
-            double Omega = eph.getOmega0()
-                    + (eph.getOmegaDot() - Constants.EARTH_ANGULAR_VELOCITY) * tk
-                    - Constants.EARTH_ANGULAR_VELOCITY * eph.getToe();
-            Omega = Math.IEEEremainder(Omega + 2 * Math.PI, 2 * Math.PI);
-            //轨道平面位置
-            double x1 = Math.cos(u) * r;
-            double y1 = Math.sin(u) * r;
-
-            //GPS是WGS-84
-            SatellitePosition sp = new SatellitePosition(unixTime, satID, satType, x1 * Math.cos(Omega) - y1 * Math.cos(ik) * Math.sin(Omega),
-                    x1 * Math.sin(Omega) + y1 * Math.cos(ik) * Math.cos(Omega),
-                    y1 * Math.sin(ik));
-            sp.setSatelliteClockError(satelliteClockError);
-
-            Log.d(Tag, "时间戳："+unixTime+"gpstime:"+(new Time(unixTime).getGpsTime())+"卫星："+sp.getSatType()+sp.getSatID()+"坐标："+sp.getX()+"   "+sp.getY()+"   "+sp.getZ());
-
-            // 信号传播时间引起的地球自转修正
-            SimpleMatrix R = computeEarthRotationCorrection(unixTime, receiverClockError, tGPS);
-            sp.setSMMultXYZ(R);
-
-            ///////////////////////////
-            // compute satellite speeds
-            // The technical paper which describes the bc_velo.c program is published in
-            // GPS Solutions, Volume 8, Number 2, 2004 (in press). "Computing Satellite Velocity using the Broadcast Ephemeris", by Benjamin W. Remondi
-            double cus = eph.getCus();
-            double cuc = eph.getCuc();
-            double cis = eph.getCis();
-            double crs = eph.getCrs();
-            double crc = eph.getCrc();
-            double cic = eph.getCic();
-            double idot = eph.getiDot(); // 0.342514267094e-09;
-            double e = eph.getE();
-
-            double ek = Ek;
-            double tak = fk;
-
-            // Computed mean motion [rad/sec]
-            double n0 = Math.sqrt(Constants.EARTH_GRAVITATIONAL_CONSTANT / Math.pow(A, 3));
-
-            // Corrected mean motion [rad/sec]
-            double n = n0 + eph.getDeltaN();
-
-            // Mean anomaly
-            double Mk = eph.getM0() + n * tk;
-
-            double mkdot = n;
-            double ekdot = mkdot / (1.0 - e * Math.cos(ek));
-            double takdot = Math.sin(ek) * ekdot * (1.0 + e * Math.cos(tak)) / (Math.sin(tak) * (1.0 - e * Math.cos(ek)));
-            double omegakdot = (eph.getOmegaDot() - Constants.EARTH_ANGULAR_VELOCITY);
-
-            double phik = phi;
-            double corr_u = cus * Math.sin(2.0 * phik) + cuc * Math.cos(2.0 * phik);
-            double corr_r = crs * Math.sin(2.0 * phik) + crc * Math.cos(2.0 * phik);
-
-            double uk = phik + corr_u;
-            double rk = A * (1.0 - e * Math.cos(ek)) + corr_r;
-
-            double ukdot = takdot + 2.0 * (cus * Math.cos(2.0 * uk) - cuc * Math.sin(2.0 * uk)) * takdot;
-            double rkdot = A * e * Math.sin(ek) * n / (1.0 - e * Math.cos(ek)) + 2.0 * (crs * Math.cos(2.0 * uk) - crc * Math.sin(2.0 * uk)) * takdot;
-            double ikdot = idot + (cis * Math.cos(2.0 * uk) - cic * Math.sin(2.0 * uk)) * 2.0 * takdot;
-
-            double xpk = rk * Math.cos(uk);
-            double ypk = rk * Math.sin(uk);
-
-            double xpkdot = rkdot * Math.cos(uk) - ypk * ukdot;
-            double ypkdot = rkdot * Math.sin(uk) + xpk * ukdot;
-
-            double xkdot = (xpkdot - ypk * Math.cos(ik) * omegakdot) * Math.cos(Omega)
-                    - (xpk * omegakdot + ypkdot * Math.cos(ik) - ypk * Math.sin(ik) * ikdot) * Math.sin(Omega);
-            double ykdot = (xpkdot - ypk * Math.cos(ik) * omegakdot) * Math.sin(Omega)
-                    + (xpk * omegakdot + ypkdot * Math.cos(ik) - ypk * Math.sin(ik) * ikdot) * Math.cos(Omega);
-            double zkdot = ypkdot * Math.sin(ik) + ypk * Math.cos(ik) * ikdot;
-
-            sp.setSpeed(xkdot, ykdot, zkdot);
-
-            //Log.d(Tag, "时间戳："+unixTime+"卫星："+sp.getSatType()+sp.getSatID()+"  速度："+sp.getSpeed().get(0)+"   "+sp.getSpeed().get(1)+"   "+sp.getSpeed().get(2));
-
-            return sp;
+            SatelliteState state = new SatelliteState();
+            computeSatState(unixTime, obsPseudorange, eph, receiverClockError, state);
+            return state.toSatellitePosition(unixTime, satID, satType);
 
         }
         else {   // GLONASS
 
-
             satID = eph.getSatID();
-            double X = eph.getX();  // satellite X coordinate at ephemeris reference time
-            double Y = eph.getY();  // satellite Y coordinate at ephemeris reference time
-            double Z = eph.getZ();  // satellite Z coordinate at ephemeris reference time
-            double Xv = eph.getXv();  // satellite velocity along X at ephemeris reference time
-            double Yv = eph.getYv();  // satellite velocity along Y at ephemeris reference time
-            double Zv = eph.getZv();  // satellite velocity along Z at ephemeris reference time
-            double Xa = eph.getXa();  // acceleration due to lunar-solar gravitational perturbation along X at ephemeris reference time
-            double Ya = eph.getYa();  // acceleration due to lunar-solar gravitational perturbation along Y at ephemeris reference time
-            double Za = eph.getZa();  // acceleration due to lunar-solar gravitational perturbation along Z at ephemeris reference time
-            /* NOTE:  Xa,Ya,Za are considered constant within the integration interval (i.e. toe ?}15 minutes) */
-
-            double tn = eph.getTauN();//钟差
-            float gammaN = eph.getGammaN();//相对频率偏差
-            double tk = eph.gettk();//电文帧时间
-            double En = eph.getEn();//运行年龄
-            double toc = eph.getToc();//钟时间(GPS周内秒)
-            double toe = eph.getToe();//星历时间(GPS周内秒)
-            int freqNum = eph.getfreq_num();//频率数
-
-
-            /* integration step */
-            int int_step = 60; // [s]
 
             /* Compute satellite clock error */
             double satelliteClockError = computeSatelliteClockError(unixTime, eph,obsPseudorange);
-//				    System.out.println("satelliteClockError: " + satelliteClockError);
 
             /* Compute clock corrected transmission time */
             double tGPS = computeClockCorrectedTransmissionTime(unixTime, satelliteClockError,obsPseudorange);
-//				    System.out.println("tGPS: " + tGPS);
-
-            /* Time from the ephemerides reference epoch */
-            Time reftime = new Time(eph.getWeek(), tGPS);
-            double tk2 = checkGpsTime(tGPS - toe - reftime.getLeapSeconds());
-//					System.out.println("tk2: " + tk2);
-
-            /* number of iterations on "full" steps */
-            int n = (int) Math.floor(Math.abs(tk2 / int_step));
-//					System.out.println("Number of iterations: " + n);
-
-            /* array containing integration steps (same sign as tk) */
-            double[] array = new double[n];
-            Arrays.fill(array, 1);
-            SimpleMatrix tkArray = new SimpleMatrix(n, 1, true, array);
-
-//					SimpleMatrix tkArray2  = tkArray.scale(2);
-            tkArray = tkArray.scale(int_step);
-            tkArray = tkArray.scale(tk2 / Math.abs(tk2));
-//					tkArray.print();
-            //double ii = tkArray * int_step * (tk2/Math.abs(tk2));
-
-            /* check residual iteration step (i.e. remaining fraction of int_step) */
-            double int_step_res = tk2 % int_step;
-//				    System.out.println("int_step_res: " + int_step_res);
-
-            double[] intStepRes = new double[]{int_step_res};
-            SimpleMatrix int_stepArray = new SimpleMatrix(1, 1, false, intStepRes);
-//					int_stepArray.print();
-
-            /* adjust the total number of iterations and the array of iteration steps */
-            if (int_step_res != 0) {
-                tkArray = tkArray.combine(n, 0, int_stepArray);
-//				        tkArray.print();
-                n = n + 1;
-                // tkArray = [ii; int_step_res];
-            }
-//				    System.out.println("n: " + n);
-
-            // numerical integration steps (i.e. re-calculation of satellite positions from toe to tk)
-            double[] pos = {X, Y, Z};
-            double[] vel = {Xv, Yv, Zv};
-            double[] acc = {Xa, Ya, Za};
-            double[] pos1;
-            double[] vel1;
-
-            SimpleMatrix posArray = new SimpleMatrix(1, 3, true, pos);
-            SimpleMatrix velArray = new SimpleMatrix(1, 3, true, vel);
-            SimpleMatrix accArray = new SimpleMatrix(1, 3, true, acc);
-            SimpleMatrix pos1Array;
-            SimpleMatrix vel1Array;
-            SimpleMatrix pos2Array;
-            SimpleMatrix vel2Array;
-            SimpleMatrix pos3Array;
-            SimpleMatrix vel3Array;
-            SimpleMatrix pos4Array;
-            SimpleMatrix vel4Array;
-            SimpleMatrix pos1dotArray;
-            SimpleMatrix vel1dotArray;
-            SimpleMatrix pos2dotArray;
-            SimpleMatrix vel2dotArray;
-            SimpleMatrix pos3dotArray;
-            SimpleMatrix vel3dotArray;
-            SimpleMatrix pos4dotArray;
-            SimpleMatrix vel4dotArray;
-            SimpleMatrix subPosArray;
-            SimpleMatrix subVelArray;
-
-            for (int i = 0; i < n; i++) {
-
-                /* Runge-Kutta numerical integration algorithm */
-                // step 1
-                pos1Array = posArray;
-                //pos1 = pos;
-                vel1Array = velArray;
-                //vel1 = vel;
-
-                // differential position
-                pos1dotArray = velArray;
-                //double[] pos1_dot = vel;
-                vel1dotArray = satellite_motion_diff_eq(pos1Array, vel1Array, accArray, Constants.ELL_A_GLO, Constants.GM_GLO, Constants.J2_GLO, Constants.OMEGAE_DOT_GLO);
-                //double[] vel1_dot = satellite_motion_diff_eq(pos1, vel1, acc, Constants.ELL_A_GLO, Constants.GM_GLO, Constants.J2_GLO, Constants.OMEGAE_DOT_GLO);
-//							vel1dotArray.print();
-
-                // step 2
-                pos2Array = pos1dotArray.scale(tkArray.get(i)).divide(2);
-                pos2Array = posArray.plus(pos2Array);
-                //double[] pos2 = pos + pos1_dot*ii(i)/2;
-//							System.out.println("## pos2Array: " ); pos2Array.print();
-
-                vel2Array = vel1dotArray.scale(tkArray.get(i)).divide(2);
-                vel2Array = velArray.plus(vel2Array);
-                //double[] vel2 = vel + vel1_dot * tkArray.get(i)/2;
-//							System.out.println("## vel2Array: " ); vel2Array.print();
-
-                pos2dotArray = vel2Array;
-                //double[] pos2_dot = vel2;
-                vel2dotArray = satellite_motion_diff_eq(pos2Array, vel2Array, accArray, Constants.ELL_A_GLO, Constants.GM_GLO, Constants.J2_GLO, Constants.OMEGAE_DOT_GLO);
-                //double[] vel2_dot = satellite_motion_diff_eq(pos2, vel2, acc, Constants.ELL_A_GLO, Constants.GM_GLO, Constants.J2_GLO, Constants.OMEGAE_DOT_GLO);
-//							System.out.println("## vel2dotArray: " ); vel2dotArray.print();
-
-                // step 3
-                pos3Array = pos2dotArray.scale(tkArray.get(i)).divide(2);
-                pos3Array = posArray.plus(pos3Array);
-//							double[] pos3 = pos + pos2_dot * tkArray.get(i)/2;
-//							System.out.println("## pos3Array: " ); pos3Array.print();
-
-                vel3Array = vel2dotArray.scale(tkArray.get(i)).divide(2);
-                vel3Array = velArray.plus(vel3Array);
-//					        double[] vel3 = vel + vel2_dot * tkArray.get(i)/2;
-//							System.out.println("## vel3Array: " ); vel3Array.print();
-
-                pos3dotArray = vel3Array;
-                //double[] pos3_dot = vel3;
-                vel3dotArray = satellite_motion_diff_eq(pos3Array, vel3Array, accArray, Constants.ELL_A_GLO, Constants.GM_GLO, Constants.J2_GLO, Constants.OMEGAE_DOT_GLO);
-                //double[] vel3_dot = satellite_motion_diff_eq(pos3, vel3, acc, Constants.ELL_A_GLO, Constants.GM_GLO, Constants.J2_GLO, Constants.OMEGAE_DOT_GLO);
-//							System.out.println("## vel3dotArray: " ); vel3dotArray.print();
-
-                // step 4
-                pos4Array = pos3dotArray.scale(tkArray.get(i));
-                pos4Array = posArray.plus(pos4Array);
-                //double[] pos4 = pos + pos3_dot * tkArray.get(i);
-//							System.out.println("## pos4Array: " ); pos4Array.print();
-
-                vel4Array = vel3dotArray.scale(tkArray.get(i));
-                vel4Array = velArray.plus(vel4Array);
-                //double[] vel4 = vel + vel3_dot * tkArray.get(i);
-//							System.out.println("## vel4Array: " ); vel4Array.print();
-
-                pos4dotArray = vel4Array;
-                //double[] pos4_dot = vel4;
-                vel4dotArray = satellite_motion_diff_eq(pos4Array, vel4Array, accArray, Constants.ELL_A_GLO, Constants.GM_GLO, Constants.J2_GLO, Constants.OMEGAE_DOT_GLO);
-                //double[] vel4_dot = satellite_motion_diff_eq(pos4, vel4, acc, Constants.ELL_A_GLO, Constants.GM_GLO, Constants.J2_GLO, Constants.OMEGAE_DOT_GLO);
-//							System.out.println("## vel4dotArray: " ); vel4dotArray.print();
-
-                // final position and velocity
-                subPosArray = pos1dotArray.plus(pos2dotArray.scale(2)).plus(pos3dotArray.scale(2)).plus(pos4dotArray);
-                subPosArray = subPosArray.scale(tkArray.get(i)).divide(6);
-                posArray = posArray.plus(subPosArray);
-                //pos = pos + (pos1_dot + 2*pos2_dot + 2*pos3_dot + pos4_dot)*ii(s)/6;
-//							System.out.println("## posArray: " ); posArray.print();
-
-                subVelArray = vel1dotArray.plus(vel2dotArray.scale(2)).plus(vel3dotArray.scale(2)).plus(vel4dotArray);
-                subVelArray = subVelArray.scale(tkArray.get(i)).divide(6);
-                velArray = velArray.plus(subVelArray);
-                //vel = vel + (vel1_dot + 2*vel2_dot + 2*vel3_dot + vel4_dot)*ii(s)/6;
-//							System.out.println("## velArray: " ); velArray.print();
-//							System.out.println(" " );
 
+            double X, Y, Z, Xv, Yv, Zv;
+            GlonassTrack track = getGlonassTrack(satID);
+            synchronized (track) {
+                if (track.eph != eph) {
+                    track.restart(eph, new Time(eph.getWeek(), tGPS).getLeapSeconds());
+                    glonassRestarts.incrementAndGet();
+                }
 
-            }
+                /* Time from the ephemerides reference epoch */
+                double tk2 = checkGpsTime(tGPS - eph.getToe() - track.leapSeconds);
+
+                propagateGlonassOrbit(track, tk2);
+
+                /* transformation from PZ-90.02 to WGS-84 (G1150) */
+                X = track.state[0] - 0.36;
+                Y = track.state[1] + 0.08;
+                Z = track.state[2] + 0.18;
 
-            /* transformation from PZ-90.02 to WGS-84 (G1150) */
-            double x1 = posArray.get(0) - 0.36;
-            double y1 = posArray.get(1) + 0.08;
-            double z1 = posArray.get(2) + 0.18;
+                /* satellite velocity */
+                Xv = track.state[3];
+                Yv = track.state[4];
+                Zv = track.state[5];
+            }
 
-            /* satellite velocity */
-            double Xv1 = velArray.get(0);
-            double Yv1 = velArray.get(1);
-            double Zv1 = velArray.get(2);
+            /* Apply the correction due to the Earth rotation during signal travel time */
+            double omegatau = Constants.EARTH_ANGULAR_VELOCITY * (Time.unixToGpsTime(unixTime) + receiverClockError - tGPS);
+            double sinR = Math.sin(omegatau);
+            double cosR = Math.cos(omegatau);
 
             /* Fill in the satellite position matrix */
-            SatellitePosition sp = new SatellitePosition(unixTime, satID, satType, x1, y1, z1);
+            SatellitePosition sp = new SatellitePosition(unixTime, satID, satType,
+                    cosR * X + sinR * Y, -sinR * X + cosR * Y, Z);
             sp.setSatelliteClockError(satelliteClockError);
-//
-//					/* Apply the correction due to the Earth rotation during signal travel time */
-            SimpleMatrix R = computeEarthRotationCorrection(unixTime, receiverClockError, tGPS);
-            sp.setSMMultXYZ(R);
+            sp.setSpeed(Xv, Yv, Zv);
 
             return sp;
-//					return null ;
-
 
         }
 
@@ -378,193 +177,412 @@ public abstract class EphemerisSystem {
 
     public SatellitePosition computeSatPositionAndVelocitiesGalileo(long unixTime, double obsPseudorange,int satID, char satType, EphGalileo eph, double receiverClockError) {
 
-
-
         if (satType != 'R') {  // other than GLONASS
 
-//					System.out.println("### other than GLONASS data");
-
-            // Compute satellite clock error
-            double satelliteClockError = computeSatelliteClockErrorGalielo(unixTime, eph,obsPseudorange);
+            SatelliteState state = new SatelliteState();
+            computeSatState(unixTime, obsPseudorange, eph, receiverClockError, state);
+            return state.toSatellitePosition(unixTime, satID, satType);
 
-            // Compute clock corrected transmission time
-            double tGPS = computeClockCorrectedTransmissionTime(unixTime, satelliteClockError,obsPseudorange);
+        }
+        else { return null; }
 
-            // Compute eccentric anomaly
-            double Ek = computeEccentricAnomalyGalileo(tGPS, eph);
-
-            // Semi-major axis
-            double A = eph.getRootA() * eph.getRootA();
-
-            // Time from the ephemerides reference epoch
-            double tk = checkGpsTime(tGPS - eph.getToe());
-
-            // Position computation
-            double fk = Math.atan2(Math.sqrt(1 - Math.pow(eph.getE(), 2))
-                    * Math.sin(Ek), Math.cos(Ek) - eph.getE());
-            double phi = fk + eph.getOmega();
-            phi = Math.IEEEremainder(phi, 2 * Math.PI);
-            double u = phi + eph.getCuc() * Math.cos(2 * phi) + eph.getCus()
-                    * Math.sin(2 * phi);
-            double r = A * (1 - eph.getE() * Math.cos(Ek)) + eph.getCrc()
-                    * Math.cos(2 * phi) + eph.getCrs() * Math.sin(2 * phi);
-            double ik = eph.getI0() + eph.getiDot() * tk + eph.getCic() * Math.cos(2 * phi)
-                    + eph.getCis() * Math.sin(2 * phi);
-            double Omega = eph.getOmega0()
-                    + (eph.getOmegaDot() - Constants.EARTH_ANGULAR_VELOCITY) * tk
-                    - Constants.EARTH_ANGULAR_VELOCITY * eph.getToe();
-            Omega = Math.IEEEremainder(Omega + 2 * Math.PI, 2 * Math.PI);
-            double x1 = Math.cos(u) * r;
-            double y1 = Math.sin(u) * r;
-
-            // Coordinates
-            //			double[][] data = new double[3][1];
-            //			data[0][0] = x1 * Math.cos(Omega) - y1 * Math.cos(ik) * Math.sin(Omega);
-            //			data[1][0] = x1 * Math.sin(Omega) + y1 * Math.cos(ik) * Math.cos(Omega);
-            //			data[2][0] = y1 * Math.sin(ik);
-
-            // Fill in the satellite position matrix
-            //this.coord.ecef = new SimpleMatrix(data);
-            //this.coord = Coordinates.globalXYZInstance(new SimpleMatrix(data));
-            SatellitePosition sp = new SatellitePosition(unixTime, satID, satType, x1 * Math.cos(Omega) - y1 * Math.cos(ik) * Math.sin(Omega),
-                    x1 * Math.sin(Omega) + y1 * Math.cos(ik) * Math.cos(Omega),
-                    y1 * Math.sin(ik));
-            sp.setSatelliteClockError(satelliteClockError);
+    }
 
-            Log.d(Tag, "时间戳："+unixTime+"gpstime:"+(new Time(unixTime).getGpsTime())+"卫星：E"+sp.getSatType()+sp.getSatID()+"坐标："+sp.getX()+"   "+sp.getY()+"   "+sp.getZ());
+    /**
+     * Propagate a GPS/Galileo broadcast orbit using primitives only, so that a reused
+     * state buffer makes the computation garbage-free. When an orbit cache is set the
+     * result comes from its Chebyshev fits where they are available.
+     *
+     * @param unixTime           reception time (ms since 1970.1.1)
+     * @param obsPseudorange
+     * @param eph
+     * @param receiverClockError
+     * @param state              filled with position (Earth rotation applied), velocity and clock error
+     */
+    public void computeSatState(long unixTime, double obsPseudorange, KeplerianEphemeris eph,
+                                double receiverClockError, SatelliteState state) {
 
-            // Apply the correction due to the Earth rotation during signal travel time
-            SimpleMatrix R = computeEarthRotationCorrection(unixTime, receiverClockError, tGPS);
-            sp.setSMMultXYZ(R);
+        computeOrbitState(unixTime, obsPseudorange, eph, state);
 
-            ///////////////////////////
-            // compute satellite speeds
-            // The technical paper which describes the bc_velo.c program is published in
-            // GPS Solutions, Volume 8, Number 2, 2004 (in press). "Computing Satellite Velocity using the Broadcast Ephemeris", by Benjamin W. Remondi
-            double cus = eph.getCus();
-            double cuc = eph.getCuc();
-            double cis = eph.getCis();
-            double crs = eph.getCrs();
-            double crc = eph.getCrc();
-            double cic = eph.getCic();
-            double idot = eph.getiDot(); // 0.342514267094e-09;
-            double e = eph.getE();
+        // Earth rotation during signal travel time
+        rotateEarth(state, obsPseudorange / Constants.SPEED_OF_LIGHT + state.satelliteClockError + receiverClockError);
+    }
 
-            double ek = Ek;
-            double tak = fk;
+    /**
+     * Orbit at the signal transmission time, before the Earth rotation correction, from
+     * the orbit cache if one is set
+     */
+    private void computeOrbitState(long unixTime, double obsPseudorange, KeplerianEphemeris eph,
+                                   SatelliteState state) {
 
-            // Computed mean motion [rad/sec]
-            double n0 = Math.sqrt(Constants.EARTH_GRAVITATIONAL_CONSTANT / Math.pow(A, 3));
+        ChebyshevOrbitCache orbitCache = this.orbitCache;
+        if (orbitCache == null || !orbitCache.evaluate(this, unixTime, obsPseudorange, eph, state)) {
 
-            // Corrected mean motion [rad/sec]
-            double n = n0 + eph.getDeltaN();
+            double receptionTime = Time.unixToGpsTime(unixTime);
 
-            // Mean anomaly
-            double Mk = eph.getM0() + n * tk;
+            // Remove signal travel time from observation time
+            computeOrbit(receptionTime - obsPseudorange / Constants.SPEED_OF_LIGHT, eph, state);
+        }
+    }
 
-            double mkdot = n;
-            double ekdot = mkdot / (1.0 - e * Math.cos(ek));
-            double takdot = Math.sin(ek) * ekdot * (1.0 + e * Math.cos(tak)) / (Math.sin(tak) * (1.0 - e * Math.cos(ek)));
-            double omegakdot = (eph.getOmegaDot() - Constants.EARTH_ANGULAR_VELOCITY);
+    /**
+     * Apply the Earth rotation during the signal travel time (rotation about Z)
+     *
+     * @param state
+     * @param traveltime signal travel time (s)
+     */
+    static void rotateEarth(SatelliteState state, double traveltime) {
+        double omegatau = Constants.EARTH_ANGULAR_VELOCITY * traveltime;
+        double sinR = Math.sin(omegatau);
+        double cosR = Math.cos(omegatau);
+        double x = state.x;
+        double y = state.y;
+        state.x = cosR * x + sinR * y;
+        state.y = -sinR * x + cosR * y;
+    }
 
-            double phik = phi;
-            double corr_u = cus * Math.sin(2.0 * phik) + cuc * Math.cos(2.0 * phik);
-            double corr_r = crs * Math.sin(2.0 * phik) + crc * Math.cos(2.0 * phik);
+    /**
+     * Apply the Earth rotation during the signal travel time to the positions of a
+     * batch, in place
+     *
+     * @param x          ECEF X (m) of the satellites
+     * @param y          ECEF Y (m) of the satellites
+     * @param traveltime signal travel time (s) of the satellites
+     * @param valid      satellites to rotate, null for all
+     * @param n          number of satellites
+     */
+    static void rotateEarth(double[] x, double[] y, double[] traveltime, boolean[] valid, int n) {
+        for (int i = 0; i < n; i++) {
+            if (valid != null && !valid[i])
+                continue;
+            // omega tau < 1e-4 rad for travel times up to a second: the truncated series
+            // of sin and cos are exact in double precision
+            double omegatau = Constants.EARTH_ANGULAR_VELOCITY * traveltime[i];
+            double a2 = omegatau * omegatau;
+            double sinR = omegatau * (1 - a2 / 6 * (1 - a2 / 20));
+            double cosR = 1 - a2 / 2 * (1 - a2 / 12);
+            double xi = x[i];
+            double yi = y[i];
+            x[i] = cosR * xi + sinR * yi;
+            y[i] = -sinR * xi + cosR * yi;
+        }
+    }
 
-            double uk = phik + corr_u;
-            double rk = A * (1.0 - e * Math.cos(ek)) + corr_r;
+    /**
+     * Satellite clock error, position and velocity at the signal transmission time,
+     * before the Earth rotation correction
+     *
+     * @param tRaw  transmission time (GPS seconds of week), uncorrected for satellite clock
+     * @param eph
+     * @param state filled with ECEF position and velocity at the clock corrected
+     *              transmission time, clock error and transmission time
+     */
+    protected void computeOrbit(double tRaw, KeplerianEphemeris eph, SatelliteState state) {
 
-            double ukdot = takdot + 2.0 * (cus * Math.cos(2.0 * uk) - cuc * Math.sin(2.0 * uk)) * takdot;
-            double rkdot = A * e * Math.sin(ek) * n / (1.0 - e * Math.cos(ek)) + 2.0 * (crs * Math.cos(2.0 * uk) - crc * Math.sin(2.0 * uk)) * takdot;
-            double ikdot = idot + (cis * Math.cos(2.0 * uk) - cic * Math.sin(2.0 * uk)) * 2.0 * takdot;
+        double e = eph.getE();
+        double cuc = eph.getCuc();
+        double cus = eph.getCus();
+        double crc = eph.getCrc();
+        double crs = eph.getCrs();
+        double cic = eph.getCic();
+        double cis = eph.getCis();
 
-            double xpk = rk * Math.cos(uk);
-            double ypk = rk * Math.sin(uk);
+        // Semi-major axis and corrected mean motion [rad/sec]
+        double A = eph.getRootA() * eph.getRootA();
+        double n = Math.sqrt(Constants.EARTH_GRAVITATIONAL_CONSTANT / (A * A * A)) + eph.getDeltaN();
+
+        // Eccentric anomaly, solved once at the uncorrected transmission time
+        double Ek = solveKeplerEquation(eph.getM0() + n * checkGpsTime(tRaw - eph.getToe()), e);
+        double sinE = Math.sin(Ek);
+        double cosE = Math.cos(Ek);
+
+        // Satellite clock error, relativistic correction included
+        double dtr = -2.0 * ((Math.sqrt(Constants.EARTH_GRAVITATIONAL_CONSTANT) * eph.getRootA()) / (Constants.SPEED_OF_LIGHT * Constants.SPEED_OF_LIGHT)) * e * sinE;
+        double dt = checkGpsTime(tRaw - eph.getToc());
+        double satelliteClockError = (eph.getAf2() * dt + eph.getAf1()) * dt + eph.getAf0() + dtr - eph.getTgd();
+        dt = checkGpsTime(tRaw - satelliteClockError - eph.getToc());
+        satelliteClockError = (eph.getAf2() * dt + eph.getAf1()) * dt + eph.getAf0() + dtr - eph.getTgd();
+
+        // Clock corrected transmission time
+        double tGPS = tRaw - satelliteClockError;
+
+        // Move E to tGPS: the clock error (< 1 ms) changes E by less than 1e-6 rad,
+        // so a first order step keeps the result well below the millimetre
+        double dE = -n * satelliteClockError / (1 - e * cosE);
+        double sinE0 = sinE;
+        sinE = sinE + dE * cosE;
+        cosE = cosE - dE * sinE0;
 
-            double xpkdot = rkdot * Math.cos(uk) - ypk * ukdot;
-            double ypkdot = rkdot * Math.sin(uk) + xpk * ukdot;
+        // Time from the ephemerides reference epoch
+        double tk = checkGpsTime(tGPS - eph.getToe());
+
+        // Position computation
+        double sqrtOneMinusE2 = Math.sqrt(1 - e * e);
+        double oneMinusECosE = 1 - e * cosE;
+        double fk = Math.atan2(sqrtOneMinusE2 * sinE, cosE - e);
+        double phi = Math.IEEEremainder(fk + eph.getOmega(), 2 * Math.PI);
+        double sin2phi = Math.sin(2 * phi);
+        double cos2phi = Math.cos(2 * phi);
+        double u = phi + cuc * cos2phi + cus * sin2phi;
+        double r = A * oneMinusECosE + crc * cos2phi + crs * sin2phi;
+        double ik = eph.getI0() + eph.getiDot() * tk + cic * cos2phi + cis * sin2phi;
+        double omegakdot = eph.getOmegaDot() - Constants.EARTH_ANGULAR_VELOCITY;
+        double Omega = eph.getOmega0() + omegakdot * tk
+                - Constants.EARTH_ANGULAR_VELOCITY * eph.getToe();
+        Omega = Math.IEEEremainder(Omega + 2 * Math.PI, 2 * Math.PI);
+
+        double sinU = Math.sin(u);
+        double cosU = Math.cos(u);
+        double sinI = Math.sin(ik);
+        double cosI = Math.cos(ik);
+        double sinO = Math.sin(Omega);
+        double cosO = Math.cos(Omega);
+
+        // Position in the orbital plane
+        double xpk = cosU * r;
+        double ypk = sinU * r;
+
+        double x = xpk * cosO - ypk * cosI * sinO;
+        double y = xpk * sinO + ypk * cosI * cosO;
+        double z = ypk * sinI;
+
+        state.x = x;
+        state.y = y;
+        state.z = z;
+
+        // Satellite velocity, see "Computing Satellite Velocity using the Broadcast
+        // Ephemeris", Benjamin W. Remondi, GPS Solutions, Volume 8, Number 2, 2004
+        double ekdot = n / oneMinusECosE;
+        double takdot = sqrtOneMinusE2 * ekdot / oneMinusECosE;
+
+        double sin2u = Math.sin(2.0 * u);
+        double cos2u = Math.cos(2.0 * u);
+        double ukdot = takdot + 2.0 * (cus * cos2u - cuc * sin2u) * takdot;
+        double rkdot = A * e * sinE * ekdot + 2.0 * (crs * cos2u - crc * sin2u) * takdot;
+        double ikdot = eph.getiDot() + (cis * cos2u - cic * sin2u) * 2.0 * takdot;
+
+        double xpkdot = rkdot * cosU - ypk * ukdot;
+        double ypkdot = rkdot * sinU + xpk * ukdot;
+
+        double a = xpkdot - ypk * cosI * omegakdot;
+        double b = xpk * omegakdot + ypkdot * cosI - ypk * sinI * ikdot;
+        state.vx = a * cosO - b * sinO;
+        state.vy = a * sinO + b * cosO;
+        state.vz = ypkdot * sinI + ypk * cosI * ikdot;
+
+        state.satelliteClockError = satelliteClockError;
+        state.transmissionTime = tGPS;
+    }
 
-            double xkdot = (xpkdot - ypk * Math.cos(ik) * omegakdot) * Math.cos(Omega)
-                    - (xpk * omegakdot + ypkdot * Math.cos(ik) - ypk * Math.sin(ik) * ikdot) * Math.sin(Omega);
-            double ykdot = (xpkdot - ypk * Math.cos(ik) * omegakdot) * Math.sin(Omega)
-                    + (xpk * omegakdot + ypkdot * Math.cos(ik) - ypk * Math.sin(ik) * ikdot) * Math.cos(Omega);
-            double zkdot = ypkdot * Math.sin(ik) + ypk * Math.cos(ik) * ikdot;
+    /**
+     * Propagate all the satellites of one epoch: the ephemerides are selected first,
+     * then a single loop fills the position, velocity and clock arrays of the batch and
+     * a final loop applies the Earth rotation to the position arrays.
+     *
+     * The transmission time always comes from the pseudorange, t - P/c - dt_sat. If the
+     * batch holds a receiver position, the travel time that sets the Earth rotation
+     * angle is iterated on the geometric range, |R(w tau) r - r_rx| = c tau, so that a
+     * receiver clock bias in the pseudoranges does not reach the rotation; otherwise it
+     * is the pseudorange over c, corrected for the clocks.
+     * A satellite without pseudorange (0) has no transmission time and is invalid, as
+     * in the Galileo getSatPositionAndVelocities.
+     *
+     * @param unixTime           reception time (ms since 1970.1.1), common to the batch
+     * @param satType
+     * @param receiverClockError
+     * @param batch              satellite IDs and pseudoranges in, states out
+     * @return number of satellites with a valid state
+     */
+    public int computeSatStates(long unixTime, char satType, double receiverClockError, SatelliteBatch batch) {
 
-            sp.setSpeed(xkdot, ykdot, zkdot);
+        int n = batch.size;
+        KeplerianEphemeris[] eph = batch.eph;
+        for (int i = 0; i < n; i++) {
+            eph[i] = batch.pseudorange[i] == 0 ? null : findKeplerianEphemeris(unixTime, batch.satID[i], satType);
+        }
 
-            //Log.d(Tag, "时间戳："+unixTime+"卫星："+sp.getSatType()+sp.getSatID()+"  速度："+sp.getSpeed().get(0)+"   "+sp.getSpeed().get(1)+"   "+sp.getSpeed().get(2));
+        int valid = 0;
+        SatelliteState state = batch.state;
+        for (int i = 0; i < n; i++) {
+            if (eph[i] == null) {
+                batch.invalidate(i);
+                continue;
+            }
+            double pseudorange = batch.pseudorange[i];
+            computeOrbitState(unixTime, pseudorange, eph[i], state);
+            double travelTime = pseudorange / Constants.SPEED_OF_LIGHT + state.satelliteClockError + receiverClockError;
+            if (batch.hasReceiverPosition) {
+                travelTime = solveLightTime(state, batch.rxX, batch.rxY, batch.rxZ, travelTime);
+            }
+            batch.x[i] = state.x;
+            batch.y[i] = state.y;
+            batch.z[i] = state.z;
+            batch.vx[i] = state.vx;
+            batch.vy[i] = state.vy;
+            batch.vz[i] = state.vz;
+            batch.satelliteClockError[i] = state.satelliteClockError;
+            batch.travelTime[i] = travelTime;
+            batch.valid[i] = true;
+            eph[i] = null;
+            valid++;
+        }
 
-            return sp;
+        rotateEarth(batch.x, batch.y, batch.travelTime, batch.valid, n);
+        return valid;
+    }
 
+    /**
+     * Iterate the signal travel time on the geometric range to the satellite at its
+     * transmission time. Only the Earth rotation angle depends on it: the orbit stays at
+     * the transmission time given by the pseudorange.
+     *
+     * @param state      orbit state (no Earth rotation) at the transmission time
+     * @param rxX        approximate receiver position (ECEF, m)
+     * @param rxY
+     * @param rxZ
+     * @param travelTime initial travel time (s), from the pseudorange
+     * @return travel time (s)
+     */
+    private static double solveLightTime(SatelliteState state, double rxX, double rxY, double rxZ,
+                                         double travelTime) {
+
+        for (int i = 0; i < MAX_LIGHT_TIME_ITERATIONS; i++) {
+            double omegatau = Constants.EARTH_ANGULAR_VELOCITY * travelTime;
+            double sinR = Math.sin(omegatau);
+            double cosR = Math.cos(omegatau);
+            double dx = cosR * state.x + sinR * state.y - rxX;
+            double dy = -sinR * state.x + cosR * state.y - rxY;
+            double dz = state.z - rxZ;
+            double tau = Math.sqrt(dx * dx + dy * dy + dz * dz) / Constants.SPEED_OF_LIGHT;
+
+            double change = tau - travelTime;
+            travelTime = tau;
+            if (Math.abs(change) < 1e-13)
+                break;
         }
-        else { return null; }
-
+        return travelTime;
     }
 
+    /**
+     * Ephemeris lookup used by {@link #computeSatStates}, to be provided by the
+     * navigation sources holding Keplerian ephemerides.
+     *
+     * @param unixTime
+     * @param satID
+     * @param satType
+     * @return healthy Keplerian ephemeris valid at unixTime, null if none
+     */
+    protected KeplerianEphemeris findKeplerianEphemeris(long unixTime, int satID, char satType) {
+        return null;
+    }
 
+    /**
+     * @param satID GLONASS slot number
+     * @return propagation state of the satellite, not shared if the slot is out of range
+     */
+    private GlonassTrack getGlonassTrack(int satID) {
+        int slot = EphemerisStore.slotIndex('R', satID);
+        if (slot < 0)
+            return new GlonassTrack();
+        GlonassTrack track = glonassTracks.get(slot);
+        if (track == null) {
+            glonassTracks.compareAndSet(slot, null, new GlonassTrack());
+            track = glonassTracks.get(slot);
+        }
+        return track;
+    }
 
+    /**
+     * Integrate the GLONASS equations of motion up to tk2, continuing from the last
+     * integrated epoch unless the ephemeris reference time is closer.
+     *
+     * @param track
+     * @param tk2   time from the ephemeris reference epoch (s)
+     */
+    private void propagateGlonassOrbit(GlonassTrack track, double tk2) {
 
+        if (Math.abs(tk2 - track.t) > Math.abs(tk2)) {
+            track.restart(track.eph, track.leapSeconds);
+            glonassRestarts.incrementAndGet();
+        }
 
+        /* equal steps no longer than the integration step */
+        double dt = tk2 - track.t;
+        int n = (int) Math.ceil(Math.abs(dt) / GLONASS_INTEGRATION_STEP);
+        for (int i = 0; i < n; i++) {
+            rungeKuttaStep(track, dt / n);
+        }
+        track.t = tk2;
+    }
 
-    private SimpleMatrix satellite_motion_diff_eq(SimpleMatrix pos1Array,
-                                                  SimpleMatrix vel1Array, SimpleMatrix accArray, long ellAGlo,
-                                                  double gmGlo, double j2Glo, double omegaeDotGlo) {
-        // TODO Auto-generated method stub
-		
-		/* renaming variables for better readability position */
-        double X = pos1Array.get(0);
-        double Y = pos1Array.get(1);
-        double Z = pos1Array.get(2);
-
-//		System.out.println("X: " + X);
-//		System.out.println("Y: " + Y);
-//		System.out.println("Z: " + Z);
-		
-		/* velocity */
-        double Xv = vel1Array.get(0);
-        double Yv = vel1Array.get(1);
-
-//		System.out.println("Xv: " + Xv);
-//		System.out.println("Yv: " + Yv);
-		
-		/* acceleration (i.e. perturbation) */
-        double Xa = accArray.get(0);
-        double Ya = accArray.get(1);
-        double Za = accArray.get(2);
-
-//		System.out.println("Xa: " + Xa);
-//		System.out.println("Ya: " + Ya);
-//		System.out.println("Za: " + Za);
-		
-		/* parameters */
-        double r = Math.sqrt(Math.pow(X, 2) + Math.pow(Y, 2) + Math.pow(Z, 2));
-        double g = -gmGlo / Math.pow(r, 3);
-        double h = j2Glo * 1.5 * Math.pow((ellAGlo / r), 2);
-        double k = 5 * Math.pow(Z, 2) / Math.pow(r, 2);
-
-//		System.out.println("r: " + r);
-//		System.out.println("g: " + g);
-//		System.out.println("h: " + h);
-//		System.out.println("k: " + k);
-		
-		/* differential velocity */
-        double[] vel_dot = new double[3];
-        vel_dot[0] = g * X * (1 - h * (k - 1)) + Xa + Math.pow(omegaeDotGlo, 2) * X + 2 * omegaeDotGlo * Yv;
-//		System.out.println("vel1: " + vel_dot[0]);
-
-        vel_dot[1] = g * Y * (1 - h * (k - 1)) + Ya + Math.pow(omegaeDotGlo, 2) * Y - 2 * omegaeDotGlo * Xv;
-//		System.out.println("vel2: " + vel_dot[1]);
-
-        vel_dot[2] = g * Z * (1 - h * (k - 3)) + Za;
-//		System.out.println("vel3: " + vel_dot[2]);
-
-        SimpleMatrix velDotArray = new SimpleMatrix(1, 3, true, vel_dot);
-//		velDotArray.print();
-
-        return velDotArray;
+    /**
+     * Runge-Kutta (4th order) step of the GLONASS equations of motion
+     *
+     * @param track
+     * @param h     integration step (s)
+     */
+    private static void rungeKuttaStep(GlonassTrack track, double h) {
+        double[] y = track.state;
+        double[] tmp = track.tmp;
+        double[] k1 = track.k1;
+        double[] k2 = track.k2;
+        double[] k3 = track.k3;
+        double[] k4 = track.k4;
+
+        satelliteMotionDiffEq(y, track.acc, k1);
+        for (int i = 0; i < 6; i++) tmp[i] = y[i] + k1[i] * h / 2;
+        satelliteMotionDiffEq(tmp, track.acc, k2);
+        for (int i = 0; i < 6; i++) tmp[i] = y[i] + k2[i] * h / 2;
+        satelliteMotionDiffEq(tmp, track.acc, k3);
+        for (int i = 0; i < 6; i++) tmp[i] = y[i] + k3[i] * h;
+        satelliteMotionDiffEq(tmp, track.acc, k4);
+
+        for (int i = 0; i < 6; i++) {
+            y[i] += (k1[i] + 2 * k2[i] + 2 * k3[i] + k4[i]) * h / 6;
+        }
     }
 
+    /**
+     * GLONASS equations of motion in PZ-90 (J2 and Earth rotation terms)
+     *
+     * @param y     position and velocity
+     * @param acc   lunar-solar acceleration, constant over the integration interval
+     * @param y_dot velocity and acceleration
+     */
+    private static void satelliteMotionDiffEq(double[] y, double[] acc, double[] y_dot) {
+
+        double X = y[0];
+        double Y = y[1];
+        double Z = y[2];
+        double Xv = y[3];
+        double Yv = y[4];
+
+        /* parameters */
+        double r2 = X * X + Y * Y + Z * Z;
+        double r = Math.sqrt(r2);
+        double g = -Constants.GM_GLO / (r2 * r);
+        double h = Constants.J2_GLO * 1.5 * Constants.ELL_A_GLO * Constants.ELL_A_GLO / r2;
+        double k = 5 * Z * Z / r2;
+        double omega = Constants.OMEGAE_DOT_GLO;
+
+        /* differential position */
+        y_dot[0] = Xv;
+        y_dot[1] = Yv;
+        y_dot[2] = y[5];
+
+        /* differential velocity */
+        y_dot[3] = g * X * (1 - h * (k - 1)) + acc[0] + omega * omega * X + 2 * omega * Yv;
+        y_dot[4] = g * Y * (1 - h * (k - 1)) + acc[1] + omega * omega * Y - 2 * omega * Xv;
+        y_dot[5] = g * Z * (1 - h * (k - 3)) + acc[2];
+    }
 
+    /**
+     * @return number of times a GLONASS orbit was integrated again from the ephemeris
+     * reference epoch
+     */
+    public long getGlonassRestartCount() {
+        return glonassRestarts.get();
+    }
 
 
     /**
@@ -582,50 +600,13 @@ public abstract class EphemerisSystem {
         return time;
     }
 
-    /**
-     * @param
-     */
-    protected SimpleMatrix computeEarthRotationCorrection(long unixTime, double receiverClockError, double transmissionTime) {
-
-        // Computation of signal travel time
-        // SimpleMatrix diff = satellitePosition.minusXYZ(approxPos);//this.coord.minusXYZ(approxPos);
-        // double rho2 = Math.pow(diff.get(0), 2) + Math.pow(diff.get(1), 2)
-        // 		+ Math.pow(diff.get(2), 2);
-        // double traveltime = Math.sqrt(rho2) / Constants.SPEED_OF_LIGHT;
-        double receptionTime = (new Time(unixTime)).getGpsTime();
-        double traveltime = receptionTime + receiverClockError - transmissionTime;
-
-        // Compute rotation angle
-        double omegatau = Constants.EARTH_ANGULAR_VELOCITY * traveltime;
-
-        // Rotation matrix
-        double[][] data = new double[3][3];
-        data[0][0] = Math.cos(omegatau);
-        data[0][1] = Math.sin(omegatau);
-        data[0][2] = 0;
-        data[1][0] = -Math.sin(omegatau);
-        data[1][1] = Math.cos(omegatau);
-        data[1][2] = 0;
-        data[2][0] = 0;
-        data[2][1] = 0;
-        data[2][2] = 1;
-        SimpleMatrix R = new SimpleMatrix(data);
-
-        return R;
-        // Apply rotation
-        //this.coord.ecef = R.mult(this.coord.ecef);
-        //this.coord.setSMMultXYZ(R);// = R.mult(this.coord.ecef);
-        //satellitePosition.setSMMultXYZ(R);// = R.mult(this.coord.ecef);
-
-    }
-
     /**
      * @param
      * @return Clock-corrected GPS transmission time
      */
     protected double computeClockCorrectedTransmissionTime(long unixTime, double satelliteClockError,double obsPseudorange) {
 
-        double gpsTime = (new Time(unixTime)).getGpsTime();//GPS周内秒
+        double gpsTime = Time.unixToGpsTime(unixTime);//GPS周内秒
 
         // Remove signal travel time from observation time
         //从观测时间中去除信号传播时间,得到信号的原始发射时间。
@@ -646,7 +627,7 @@ public abstract class EphemerisSystem {
         if (eph.getSatType() == 'R') {   // In case of GLONASS
 
             //直接将导航电文中的时间定位观测瞬间的时间。观测数据的时间
-            double gpsTime = (new Time(unixTime)).getGpsTime();
+            double gpsTime = Time.unixToGpsTime(unixTime);
 
              //Remove signal travel time from observation time
             //从观测时间中减去信号传播时间，得到卫星信号发射时的粗略时间。
@@ -663,25 +644,11 @@ public abstract class EphemerisSystem {
 
         }
         else {        // other than GLONASS
-            double gpsTime = (new Time(unixTime)).getGpsTime();//GPS时间
+            double gpsTime = Time.unixToGpsTime(unixTime);//GPS时间
             //从观测时间中减去信号传播时间，得到卫星信号发射时的粗略时间。
             double tRaw = (gpsTime - obsPseudorange / Constants.SPEED_OF_LIGHT);
 
-            //计算偏近点角（Eccentric Anomaly）
-            double Ek = computeEccentricAnomaly(tRaw, eph);
-
-            //计算相对论修正项
-            double dtr = -2.0 * ((Math.sqrt(Constants.EARTH_GRAVITATIONAL_CONSTANT) * eph.getRootA()) / (Constants.SPEED_OF_LIGHT * Constants.SPEED_OF_LIGHT)) * eph.getE() * Math.sin(Ek);
-
-            // Clock error computation
-            double dt = checkGpsTime(tRaw - eph.getToc());
-            double timeCorrection = (eph.getAf2() * dt + eph.getAf1()) * dt + eph.getAf0() + dtr - eph.getTgd();
-            double tGPS = tRaw - timeCorrection;
-            dt = checkGpsTime(tGPS - eph.getToc());
-
-            timeCorrection = (eph.getAf2() * dt + eph.getAf1())* dt + eph.getAf0() + dtr - eph.getTgd();
-
-            return timeCorrection;
+            return computeSatelliteClockError(tRaw, eph);
         }
     }
 
@@ -694,39 +661,42 @@ public abstract class EphemerisSystem {
 
         }
         else {        // other than GLONASS
-            double gpsTime = (new Time(unixTime)).getGpsTime();
+            double gpsTime = Time.unixToGpsTime(unixTime);
             // Remove signal travel time from observation time
             double tRaw = (gpsTime - obsPseudorange /*this.range*/ / Constants.SPEED_OF_LIGHT);
 
+            return computeSatelliteClockError(tRaw, eph);
+        }
+    }
 
-            //没有考虑到接收信号过程中的时间损耗
-            //double tRaw = gpsTime;
-            // Compute eccentric anomaly
-            double Ek = computeEccentricAnomalyGalileo(tRaw, eph);
-
-            // Relativistic correction term computation
-            //double dtr = Constants.RELATIVISTIC_ERROR_CONSTANT * eph.getE() * eph.getRootA() * Math.sin(Ek);
+    /**
+     * @param tRaw (GPS transmission time in seconds, uncorrected for satellite clock)
+     * @param eph
+     * @return Satellite clock error, relativistic correction included
+     */
+    protected double computeSatelliteClockError(double tRaw, KeplerianEphemeris eph) {
 
-            // Added by Sebastian (20.01.2018)
-            double dtr = -2.0 * ((Math.sqrt(Constants.EARTH_GRAVITATIONAL_CONSTANT) * eph.getRootA()) / (Constants.SPEED_OF_LIGHT * Constants.SPEED_OF_LIGHT)) * eph.getE() * Math.sin(Ek);
+        // Compute eccentric anomaly
+        double Ek = computeEccentricAnomaly(tRaw, eph);
 
+        // Relativistic correction term computation
+        double dtr = -2.0 * ((Math.sqrt(Constants.EARTH_GRAVITATIONAL_CONSTANT) * eph.getRootA()) / (Constants.SPEED_OF_LIGHT * Constants.SPEED_OF_LIGHT)) * eph.getE() * Math.sin(Ek);
 
-            // Clock error computation
-            double dt = checkGpsTime(tRaw - eph.getToc());
-            double timeCorrection = (eph.getAf2() * dt + eph.getAf1()) * dt + eph.getAf0() + dtr - eph.getTgd();
-            double tGPS = tRaw - timeCorrection;
-            dt = checkGpsTime(tGPS - eph.getToc());
-            timeCorrection = (eph.getAf2() * dt + eph.getAf1()) * dt + eph.getAf0() + dtr - eph.getTgd();
+        // Clock error computation
+        double dt = checkGpsTime(tRaw - eph.getToc());
+        double timeCorrection = (eph.getAf2() * dt + eph.getAf1()) * dt + eph.getAf0() + dtr - eph.getTgd();
+        double tGPS = tRaw - timeCorrection;
+        dt = checkGpsTime(tGPS - eph.getToc());
 
-            return timeCorrection;
-        }
+        return (eph.getAf2() * dt + eph.getAf1()) * dt + eph.getAf0() + dtr - eph.getTgd();
     }
+
     /**
      * @param time (GPS time in seconds)
      * @param eph
      * @return Eccentric anomaly
      */
-    protected double computeEccentricAnomaly(double time, EphGps eph) {
+    protected double computeEccentricAnomaly(double time, KeplerianEphemeris eph) {
 
         // Semi-major axis
         double A = eph.getRootA() * eph.getRootA();
@@ -735,7 +705,7 @@ public abstract class EphemerisSystem {
         double tk = checkGpsTime(time - eph.getToe());
 
         // Computed mean motion [rad/sec]
-        double n0 = Math.sqrt(Constants.EARTH_GRAVITATIONAL_CONSTANT / Math.pow(A, 3));
+        double n0 = Math.sqrt(Constants.EARTH_GRAVITATIONAL_CONSTANT / (A * A * A));
 
         // Corrected mean motion [rad/sec]
         double n = n0 + eph.getDeltaN();
@@ -743,70 +713,45 @@ public abstract class EphemerisSystem {
         // Mean anomaly
         double Mk = eph.getM0() + n * tk;
 
-        // Eccentric anomaly starting value
-        Mk = Math.IEEEremainder(Mk + 2 * Math.PI, 2 * Math.PI);
-        double Ek = Mk;
-
-        int i;
-        double EkOld, dEk;
-
-        // Eccentric anomaly iterative computation
-        int maxNumIter = 12;
-        for (i = 0; i < maxNumIter; i++) {
-            EkOld = Ek;
-            Ek = Mk + eph.getE() * Math.sin(Ek);
-            dEk = Math.IEEEremainder(Ek - EkOld, 2 * Math.PI);
-            if (Math.abs(dEk) < 1e-12)
-                break;
-        }
-
-        // TODO Display/log warning message
-        if (i == maxNumIter)
-            System.out.println("Warning: Eccentric anomaly does not converge.");
-
-        return Ek;
-
+        return solveKeplerEquation(Mk, eph.getE());
     }
-    protected double computeEccentricAnomalyGalileo(double time, EphGalileo eph) {
-
-        // Semi-major axis
-        double A = eph.getRootA() * eph.getRootA();
-
-        // Time from the ephemerides reference epoch
-        double tk = checkGpsTime(time - eph.getToe());
-
-        // Computed mean motion [rad/sec]
-        double n0 = Math.sqrt(Constants.EARTH_GRAVITATIONAL_CONSTANT / Math.pow(A, 3));
-
-        // Corrected mean motion [rad/sec]
-        double n = n0 + eph.getDeltaN();
 
-        // Mean anomaly
-        double Mk = eph.getM0() + n * tk;
+    /**
+     * Newton-Raphson solution of Kepler's equation M = E - e sin(E), which converges
+     * in 2-3 steps for GNSS orbits. Failures are counted, see
+     * {@link #getKeplerNonConvergenceCount()}.
+     *
+     * @param Mk mean anomaly
+     * @param e  eccentricity
+     * @return Eccentric anomaly
+     */
+    protected double solveKeplerEquation(double Mk, double e) {
 
-        // Eccentric anomaly starting value
         Mk = Math.IEEEremainder(Mk + 2 * Math.PI, 2 * Math.PI);
-        double Ek = Mk;
 
-        int i;
-        double EkOld, dEk;
+        // Starting value (first order in e)
+        double Ek = Mk + e * Math.sin(Mk);
 
-        // Eccentric anomaly iterative computation
-        int maxNumIter = 12;
-        for (i = 0; i < maxNumIter; i++) {
-            EkOld = Ek;
-            Ek = Mk + eph.getE() * Math.sin(Ek);
-            dEk = Math.IEEEremainder(Ek - EkOld, 2 * Math.PI);
+        for (int i = 0; i < MAX_KEPLER_ITERATIONS; i++) {
+            double dEk = (Ek - e * Math.sin(Ek) - Mk) / (1 - e * Math.cos(Ek));
+            Ek -= dEk;
             if (Math.abs(dEk) < 1e-12)
-                break;
+                return Ek;
         }
 
-        // TODO Display/log warning message
-        if (i == maxNumIter)
-            System.out.println("Warning: Eccentric anomaly does not converge.");
-
+        keplerNonConvergence.incrementAndGet();
         return Ek;
+    }
+
+    /**
+     * @return number of Kepler equation solutions that did not converge
+     */
+    public long getKeplerNonConvergenceCount() {
+        return keplerNonConvergence.get();
+    }
 
+    protected double computeEccentricAnomalyGalileo(double time, EphGalileo eph) {
+        return computeEccentricAnomaly(time, eph);
     }
 
 }
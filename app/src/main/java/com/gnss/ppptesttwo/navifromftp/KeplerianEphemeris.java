@@ -0,0 +1,52 @@
+package com.gnss.ppptesttwo.navifromftp;
+
+/**
+ * Broadcast Keplerian orbit and clock parameters shared by GPS ({@link EphGps})
+ * and Galileo ({@link EphGalileo}) ephemerides
+ */
+public interface KeplerianEphemeris extends EphemerisRecord {
+
+    /* clock parameters */
+    public double getToc();
+
+    public double getAf0();
+
+    public double getAf1();
+
+    public double getAf2();
+
+    public double getTgd();
+
+    /* orbital parameters */
+    public double getToe();
+
+    public double getRootA();
+
+    public double getE();
+
+    public double getI0();
+
+    public double getiDot();
+
+    public double getOmega();
+
+    public double getOmega0();
+
+    public double getOmegaDot();
+
+    public double getM0();
+
+    public double getDeltaN();
+
+    public double getCrc();
+
+    public double getCrs();
+
+    public double getCuc();
+
+    public double getCus();
+
+    public double getCic();
+
+    public double getCis();
+}
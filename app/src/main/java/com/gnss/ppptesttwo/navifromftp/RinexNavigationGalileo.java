@@ -94,8 +94,11 @@ public class RinexNavigationGalileo implements NavigationIono {
 	
 	private RinexNavigationParserGalileo rnp;
 	
+	/**
+	 * @return GPS to Galileo time offset of the navigation file, null if none was parsed
+	 */
 	public BroadcastGGTO getRnpGgto(){
-		return rnp.ggto;
+		return rnp != null ? rnp.ggto : null;
 	}
 
 	
@@ -261,4 +264,23 @@ public class RinexNavigationGalileo implements NavigationIono {
         return null;
     }
 
+    /**
+     * Propagate all the satellites of a batch at once
+     *
+     * @param unixTime  reception time (ms since 1970.1.1)
+     * @param satType
+     * @param receiverClockError
+     * @param batch
+     * @return number of satellites with a valid state, 0 if no navigation data is loaded
+     */
+    public int computeSatStates(long unixTime, char satType, double receiverClockError, SatelliteBatch batch) {
+        RinexNavigationParserGalileo rnp = this.rnp;
+        if (rnp == null || !rnp.isTimestampInEpocsRange(unixTime)) {
+            for (int i = 0; i < batch.size; i++)
+                batch.invalidate(i);
+            return 0;
+        }
+        return rnp.computeSatStates(unixTime, satType, receiverClockError, batch);
+    }
+
 }
@@ -282,9 +282,29 @@ public class RinexNavigationGps  implements NavigationIono {
         return null;
     }
 
+    /**
+     * Propagate all the satellites of a batch at once
+     *
+     * @param unixTime  reception time (ms since 1970.1.1)
+     * @param satType
+     * @param receiverClockError
+     * @param batch
+     * @return number of satellites with a valid state, 0 if no navigation data is loaded
+     */
+    public int computeSatStates(long unixTime, char satType, double receiverClockError, SatelliteBatch batch) {
+        RinexNavigationParserGps rnp = this.rnp;
+        if (rnp == null || !rnp.isTimestampInEpocsRange(unixTime)) {
+            for (int i = 0; i < batch.size; i++)
+                batch.invalidate(i);
+            return 0;
+        }
+        return rnp.computeSatStates(unixTime, satType, receiverClockError, batch);
+    }
+
     @Override
     public IonoGps getIonoGps() {
-        return this.rnp.getIonoGps();
+        // no coefficients before the first navigation file
+        return this.rnp == null ? null : this.rnp.getIonoGps();
     }
 
     @Override
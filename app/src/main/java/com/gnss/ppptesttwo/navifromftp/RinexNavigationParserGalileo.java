@@ -48,6 +48,7 @@ public class RinexNavigationParserGalileo extends EphemerisSystem implements Nav
     public BroadcastGGTO ggto;
 
     private ArrayList<EphGalileo> eph = new ArrayList<EphGalileo>(); /* GPS broadcast ephemerides */
+    private final EphemerisStore<EphGalileo> ephStore = new EphemerisStore<EphGalileo>(); /* eph indexed by satellite and reference time */
     //private double[] iono = new double[8]; /* Ionosphere model parameters */
     private IonoGalileo iono = null; /* Ionosphere model parameters */
     //	private double A0; /* Delta-UTC parameters: A0 */
@@ -85,7 +86,7 @@ public class RinexNavigationParserGalileo extends EphemerisSystem implements Nav
     public RinexNavigationParserGalileo(EphemerisResponse ephResponse) {
         for (GnssEphemeris eph : ephResponse.ephList) {
             if (eph instanceof GalEphemeris) {
-                this.eph.add(new EphGalileo((GalEphemeris) eph));
+                addEph(new EphGalileo((GalEphemeris) eph));
             }
         }
 
@@ -115,6 +116,7 @@ public class RinexNavigationParserGalileo extends EphemerisSystem implements Nav
                 parseDataNavV3();
 
             }
+            ephStore.addAll(eph);
             close();
         } else {
             close();
@@ -459,7 +461,7 @@ public class RinexNavigationParserGalileo extends EphemerisSystem implements Nav
                 char satType = 'E';
 
                 eph = new EphGalileo();
-                addEph(eph);
+                this.eph.add(eph);
                 eph.setSatType(satType);
 
                 // read 8 lines
@@ -696,7 +698,7 @@ public class RinexNavigationParserGalileo extends EphemerisSystem implements Nav
 
                                     eph = new EphGalileo();
                                     //Navigation.eph.add(eph);
-                                    addEph(eph);
+                                    this.eph.add(eph);
 
                                     eph.setSatType(satType);
 
@@ -886,37 +888,14 @@ public class RinexNavigationParserGalileo extends EphemerisSystem implements Nav
      */
     public EphGalileo findEph(long unixTime, int satID, char satType) {
 
-        long dt = 0;
-        long dtMin = 0;
-        long dtMax = 0;
-        long delta = 0;
-        EphGalileo refEph = null;
-
-        //long gpsTime = (new Time(unixTime)).getGpsTime();
-
-        for (int i = 0; i < eph.size(); i++) {
-            // Find ephemeris sets for given satellite
-            if (eph.get(i).getSatID() == satID && eph.get(i).getSatType() == satType) {
-                // Consider BeiDou time (BDT) for BeiDou satellites (14 sec difference wrt GPS time)
-                if (satType == 'C') {
-                    delta = 14000;
-                    unixTime = unixTime - delta;
-                }
-                // Compare current time and ephemeris reference time
-                dt = Math.abs(eph.get(i).getRefTime().getMsec() - unixTime /*getGpsTime() - gpsTime*/) / 1000;
-
-
-                System.out.println("E"+eph.get(i).getSatID()+"   "+eph.get(i).getRefTime().getMsec()+"   "+unixTime);
-                // If it's the first round, set the minimum time difference and
-                // select the first ephemeris set candidate; if the current ephemeris set
-                // is closer in time than the previous candidate, select new candidate
-                if (refEph == null || dt < dtMin) {
-                    dtMin = dt;
-                    refEph = eph.get(i);
-                }
-            }
+        // Consider BeiDou time (BDT) for BeiDou satellites (14 sec difference wrt GPS time)
+        if (satType == 'C') {
+            unixTime = unixTime - 14000;
         }
 
+        // Closest ephemeris set within its fit interval (memoized per satellite)
+        EphGalileo refEph = ephStore.select(satType, satID, unixTime);
+
         if (refEph == null)
             return null;
 
@@ -924,34 +903,31 @@ public class RinexNavigationParserGalileo extends EphemerisSystem implements Nav
             return EphGalileo.UnhealthyEph;
         }
 
-        //maximum allowed interval from ephemeris reference time
-        long fitInterval = refEph.getFitInt();
+        return refEph;
+    }
 
-        if (fitInterval != 0) {
-            dtMax = fitInterval * 3600 / 2;
-        } else {
-            switch (refEph.getSatType()) {
-                case 'R':
-                    dtMax = 950;
-                case 'J':
-                    dtMax = 3600;
-                default:
-                    dtMax = 7200;
-            }
-        }
-        if (dtMin > dtMax) {
-            refEph = null;
-        }
+    @Override
+    protected KeplerianEphemeris findKeplerianEphemeris(long unixTime, int satID, char satType) {
+        EphGalileo eph = findEph(unixTime, satID, satType);
+        if (eph == null || eph == EphGalileo.UnhealthyEph)
+            return null;
+        return eph;
+    }
 
-        return refEph;
+    public EphemerisStore<EphGalileo> getEphemerisStore() {
+        return ephStore;
     }
 
     public int getEphSize() {
         return eph.size();
     }
 
+    /**
+     * Add a complete ephemeris record and index it for {@link #findEph}
+     */
     public void addEph(EphGalileo eph) {
         this.eph.add(eph);
+        ephStore.add(eph);
     }
 
     //	public void setIono(int i, double val){
@@ -1055,6 +1031,28 @@ public class RinexNavigationParserGalileo extends EphemerisSystem implements Nav
 
     }
 
+    /**
+     * Allocation-free variant of {@link #getSatPositionAndVelocities}
+     *
+     * @param unixTime  reception time (ms since 1970.1.1)
+     * @param range  pseudorange
+     * @param satID
+     * @param satType
+     * @param receiverClockError
+     * @param state  reusable buffer receiving position, velocity and clock error
+     * @return false if no healthy ephemeris is available for the satellite
+     */
+    public boolean getSatState(long unixTime, double range, int satID, char satType, double receiverClockError, SatelliteState state) {
+
+        EphGalileo eph = findEph(unixTime, satID, satType);
+
+        if (eph == null || eph == EphGalileo.UnhealthyEph)
+            return false;
+
+        computeSatState(unixTime, range, eph, receiverClockError, state);
+        return true;
+    }
+
 
     public String getFileName() {
         if (fileNav == null)
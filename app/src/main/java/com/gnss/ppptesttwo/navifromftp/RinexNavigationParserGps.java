@@ -39,6 +39,7 @@ public class RinexNavigationParserGps extends EphemerisSystem implements Navigat
     private final String TAG = this.getClass().getSimpleName();
 
     private ArrayList<EphGps> eph = new ArrayList<EphGps>(); /* GPS broadcast ephemerides */
+    private final EphemerisStore<EphGps> ephStore = new EphemerisStore<EphGps>(); /* eph indexed by satellite and reference time */
     //private double[] iono = new double[8]; /* Ionosphere model parameters */
     private IonoGps iono = null; /* Ionosphere model parameters */
     //	private double A0; /* Delta-UTC parameters: A0 */
@@ -99,6 +100,7 @@ public class RinexNavigationParserGps extends EphemerisSystem implements Navigat
                 parseDataNavV3();
 
             }
+            ephStore.addAll(eph);
             close();
         } else {
             close();
@@ -480,7 +482,7 @@ public class RinexNavigationParserGps extends EphemerisSystem implements Navigat
                 char satType = 'G';
 
                 eph = new EphGps();
-                addEph(eph);//加到eph列表
+                this.eph.add(eph);//加到eph列表
                 eph.setSatType(satType);
 
                 // read 8 lines
@@ -719,7 +721,7 @@ public class RinexNavigationParserGps extends EphemerisSystem implements Navigat
 
                                     eph = new EphGps();
                                     //Navigation.eph.add(eph);
-                                    addEph(eph);
+                                    this.eph.add(eph);
 
                                     eph.setSatType(satType);
 
@@ -905,7 +907,7 @@ public class RinexNavigationParserGps extends EphemerisSystem implements Navigat
                                     //Navigation.eph.get(j).refTime = new Time();
 
                                     eph = new EphGps();
-                                    addEph(eph);
+                                    this.eph.add(eph);
 
                                     eph.setSatType(satType);
 
@@ -1096,36 +1098,14 @@ public class RinexNavigationParserGps extends EphemerisSystem implements Navigat
      */
     public EphGps findEph(long unixTime, int satID, char satType) {
 
-        long dt = 0;
-        long dtMin = 0;
-        long dtMax = 0;
-        long delta = 0;
-        EphGps refEph = null;
-
-        //long gpsTime = (new Time(unixTime)).getGpsTime();
-
-        for (int i = 0; i < eph.size(); i++) {
-            // Find ephemeris sets for given satellite
-            if (eph.get(i).getSatID() == satID && eph.get(i).getSatType() == satType) {
-                // Consider BeiDou time (BDT) for BeiDou satellites (14 sec difference wrt GPS time)
-                if (satType == 'C') {
-                    delta = 14000;
-                    unixTime = unixTime - delta;
-                }
-                // Compare current time and ephemeris reference time
-                dt = Math.abs(eph.get(i).getRefTime().getMsec() - unixTime /*getGpsTime() - gpsTime*/) / 1000;
-
-                System.out.println("G"+eph.get(i).getSatID()+"   "+eph.get(i).getRefTime().getMsec()+"   "+unixTime);
-                // If it's the first round, set the minimum time difference and
-                // select the first ephemeris set candidate; if the current ephemeris set
-                // is closer in time than the previous candidate, select new candidate
-                if (refEph == null || dt < dtMin) {
-                    dtMin = dt;
-                    refEph = eph.get(i);
-                }
-            }
+        // Consider BeiDou time (BDT) for BeiDou satellites (14 sec difference wrt GPS time)
+        if (satType == 'C') {
+            unixTime = unixTime - 14000;
         }
 
+        // Closest ephemeris set within its fit interval (memoized per satellite)
+        EphGps refEph = ephStore.select(satType, satID, unixTime);
+
         if (refEph == null)
             return null;
 
@@ -1133,34 +1113,31 @@ public class RinexNavigationParserGps extends EphemerisSystem implements Navigat
             return EphGps.UnhealthyEph;
         }
 
-        //maximum allowed interval from ephemeris reference time
-        long fitInterval = refEph.getFitInt();
+        return refEph;
+    }
 
-        if (fitInterval != 0) {
-            dtMax = fitInterval * 3600 / 2;
-        } else {
-            switch (refEph.getSatType()) {
-                case 'R':
-                    dtMax = 950;
-                case 'J':
-                    dtMax = 3600;
-                default:
-                    dtMax = 7200;
-            }
-        }
-        if (dtMin > dtMax) {
-            refEph = null;
-        }
+    @Override
+    protected KeplerianEphemeris findKeplerianEphemeris(long unixTime, int satID, char satType) {
+        EphGps eph = findEph(unixTime, satID, satType);
+        if (eph == null || eph == EphGps.UnhealthyEph)
+            return null;
+        return eph;
+    }
 
-        return refEph;
+    public EphemerisStore<EphGps> getEphemerisStore() {
+        return ephStore;
     }
 
     public int getEphSize() {
         return eph.size();
     }
 
+    /**
+     * Add a complete ephemeris record and index it for {@link #findEph}
+     */
     public void addEph(EphGps eph) {
         this.eph.add(eph);
+        ephStore.add(eph);
     }
 
 
@@ -1220,6 +1197,28 @@ public class RinexNavigationParserGps extends EphemerisSystem implements Navigat
         return sp;// new SatellitePosition(eph, unixTime, satID, range);
     }
 
+    /**
+     * Allocation-free variant of {@link #getSatPositionAndVelocities}
+     *
+     * @param unixTime  reception time (ms since 1970.1.1)
+     * @param range  pseudorange
+     * @param satID
+     * @param satType
+     * @param receiverClockError
+     * @param state  reusable buffer receiving position, velocity and clock error
+     * @return false if no healthy ephemeris is available for the satellite
+     */
+    public boolean getSatState(long unixTime, double range, int satID, char satType, double receiverClockError, SatelliteState state) {
+
+        EphGps eph = findEph(unixTime, satID, satType);
+
+        if (eph == null || eph == EphGps.UnhealthyEph)
+            return false;
+
+        computeSatState(unixTime, range, eph, receiverClockError, state);
+        return true;
+    }
+
     @Override
     public IonoGps getIonoGps() {
         return this.iono;
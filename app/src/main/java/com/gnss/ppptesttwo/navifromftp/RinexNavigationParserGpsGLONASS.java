@@ -38,6 +38,7 @@ public class RinexNavigationParserGpsGLONASS extends EphemerisSystem implements
     private final String TAG = this.getClass().getSimpleName();
 
     private ArrayList<EphGps> eph = new ArrayList<EphGps>(); /* GPS broadcast ephemerides */
+    private final EphemerisStore<EphGps> ephStore = new EphemerisStore<EphGps>(); /* eph indexed by satellite and reference time */
     private int count=0;
     private int count_glonass=0;
     //private double[] iono = new double[8]; /* Ionosphere model parameters */
@@ -97,6 +98,7 @@ public class RinexNavigationParserGpsGLONASS extends EphemerisSystem implements
                 System.out.println("Ver. 3.01");
                 parseDataNavV3();
             }
+            ephStore.addAll(eph);
             close();
         } else {
             close();
@@ -322,7 +324,7 @@ public class RinexNavigationParserGpsGLONASS extends EphemerisSystem implements
                 char satType = 'G';
 
                 eph = new EphGps();
-                addEph(eph);//加到eph列表
+                this.eph.add(eph);//加到eph列表
                 eph.setSatType(satType);
 
                 // read 8 lines
@@ -545,7 +547,7 @@ public class RinexNavigationParserGpsGLONASS extends EphemerisSystem implements
                             if (len != 0) {
                                 if (i == 0) { // LINE 1
                                     eph = new EphGps();
-                                    addEph(eph);
+                                    this.eph.add(eph);
 
                                     eph.setSatType(satType);
 
@@ -715,7 +717,7 @@ public class RinexNavigationParserGpsGLONASS extends EphemerisSystem implements
                             if (len != 0) {
                                 if (i == 0) { // LINE 1
                                     eph = new EphGps();
-                                    addEph(eph);
+                                    this.eph.add(eph);
 
                                     eph.setSatType(satType);
 
@@ -884,7 +886,7 @@ public class RinexNavigationParserGpsGLONASS extends EphemerisSystem implements
                             if (len != 0) {
                                 if (i == 0) { // LINE 1
                                     eph = new EphGps();
-                                    addEph(eph);
+                                    this.eph.add(eph);
 
                                     eph.setSatType(satType);
 
@@ -1058,7 +1060,7 @@ public class RinexNavigationParserGpsGLONASS extends EphemerisSystem implements
                             if (len != 0) {
                                 if (i == 0) { // LINE 1
                                     eph = new EphGps();
-                                    addEph(eph);
+                                    this.eph.add(eph);
                                     count_glonass++;
                                     eph.setSatType(satType);
 
@@ -1234,37 +1236,16 @@ public class RinexNavigationParserGpsGLONASS extends EphemerisSystem implements
      */
     public EphGps findEph(long unixTime, int satID, char satType) {
 
-        long dt = 0;
-        long dtMin = 0;
-        long dtMax = 0;
-        long delta = 0;
-        EphGps refEph = null;
-
-        //long gpsTime = (new Time(unixTime)).getGpsTime();
-
-        for (int i = 0; i < eph.size(); i++) {
-            // Find ephemeris sets for given satellite
-            if (eph.get(i).getSatID() == satID && eph.get(i).getSatType() == satType) {
-                // Consider BeiDou time (BDT) for BeiDou satellites (14 sec difference wrt GPS time)
-                if (satType == 'C') {
-                    delta = 14000;
-                    unixTime = unixTime - delta;
-                }
-                // Compare current time and ephemeris reference time
-                dt = Math.abs(eph.get(i).getRefTime().getMsec() - unixTime /*getGpsTime() - gpsTime*/) / 1000;
-
-                System.out.println("G"+eph.get(i).getSatID()+"   "+eph.get(i).getRefTime().getMsec()+"   "+unixTime);
-                // If it's the first round, set the minimum time difference and
-                // select the first ephemeris set candidate; if the current ephemeris set
-                // is closer in time than the previous candidate, select new candidate
-                //查找星历数组中距离观测时间最近的星历
-                if (refEph == null || dt < dtMin) {
-                    dtMin = dt;
-                    refEph = eph.get(i);
-                }
-            }
+        // Consider BeiDou time (BDT) for BeiDou satellites (14 sec difference wrt GPS time)
+        if (satType == 'C') {
+            unixTime = unixTime - 14000;
         }
 
+        // Closest ephemeris set within its fit interval (memoized per satellite)
+        //查找星历数组中距离观测时间最近的星历
+        EphGps refEph = ephStore.select(satType, satID, unixTime);
+
+        //如果找到的最小时间差异超过了允许的最大时间差异，select返回null
         if (refEph == null)
             return null;
 
@@ -1274,35 +1255,31 @@ public class RinexNavigationParserGpsGLONASS extends EphemerisSystem implements
             return EphGps.UnhealthyEph;
         }
 
-        //maximum allowed interval from ephemeris reference time
-        long fitInterval = refEph.getFitInt();
+        return refEph;
+    }
 
-        if (fitInterval != 0) {
-            dtMax = fitInterval * 3600 / 2;
-        } else {
-            switch (refEph.getSatType()) {
-                case 'R':
-                    dtMax = 950;
-                case 'J':
-                    dtMax = 3600;
-                default:
-                    dtMax = 7200;
-            }
-        }
-        if (dtMin > dtMax) {
-            //如果找到的最小时间差异超过了允许的最大时间差异
-            refEph = null;
-        }
+    @Override
+    protected KeplerianEphemeris findKeplerianEphemeris(long unixTime, int satID, char satType) {
+        EphGps eph = findEph(unixTime, satID, satType);
+        if (eph == null || eph == EphGps.UnhealthyEph || eph.getSatType() == 'R')
+            return null;
+        return eph;
+    }
 
-        return refEph;
+    public EphemerisStore<EphGps> getEphemerisStore() {
+        return ephStore;
     }
 
     public int getEphSize() {
         return eph.size();
     }
 
+    /**
+     * Add a complete ephemeris record and index it for {@link #findEph}
+     */
     public void addEph(EphGps eph) {
         this.eph.add(eph);
+        ephStore.add(eph);
         count++;
     }
 
@@ -0,0 +1,167 @@
+package com.gnss.ppptesttwo.navifromftp;
+
+/**
+ * <p>
+ * Struct-of-arrays buffer for the satellites of one epoch
+ * ({@link EphemerisSystem#computeSatStates})
+ * </p>
+ *
+ * Inputs are the satellite IDs and pseudoranges; the propagation fills the parallel
+ * position, velocity and clock arrays. The arrays only grow, so a batch reused from
+ * epoch to epoch does not allocate.
+ *
+ * When an approximate receiver position is set, the signal travel time is solved from
+ * the geometric range instead of being taken from the pseudorange.
+ */
+public class SatelliteBatch {
+
+    public int size;
+
+    /* inputs */
+    public int[] satID;
+    public double[] pseudorange;
+
+    /* outputs: ECEF position (m, Earth rotation applied) and velocity (m/s) */
+    public double[] x;
+    public double[] y;
+    public double[] z;
+    public double[] vx;
+    public double[] vy;
+    public double[] vz;
+
+    /* satellite clock bias (s) */
+    public double[] satelliteClockError;
+
+    /* signal travel time used for the Earth rotation correction (s) */
+    public double[] travelTime;
+
+    /* false if no healthy ephemeris was available or the pseudorange is 0 */
+    public boolean[] valid;
+
+    /* ephemerides selected for the epoch */
+    KeplerianEphemeris[] eph;
+
+    /* scratch buffer of the propagator */
+    final SatelliteState state = new SatelliteState();
+
+    /* approximate receiver position (ECEF, m) for the Earth rotation travel time */
+    boolean hasReceiverPosition;
+    double rxX;
+    double rxY;
+    double rxZ;
+
+    public SatelliteBatch() {
+        this(32);
+    }
+
+    public SatelliteBatch(int capacity) {
+        allocate(Math.max(capacity, 1));
+    }
+
+    private void allocate(int capacity) {
+        satID = grow(satID, capacity);
+        pseudorange = grow(pseudorange, capacity);
+        x = grow(x, capacity);
+        y = grow(y, capacity);
+        z = grow(z, capacity);
+        vx = grow(vx, capacity);
+        vy = grow(vy, capacity);
+        vz = grow(vz, capacity);
+        satelliteClockError = grow(satelliteClockError, capacity);
+        travelTime = grow(travelTime, capacity);
+        boolean[] newValid = new boolean[capacity];
+        KeplerianEphemeris[] newEph = new KeplerianEphemeris[capacity];
+        if (valid != null) {
+            System.arraycopy(valid, 0, newValid, 0, size);
+            System.arraycopy(eph, 0, newEph, 0, size);
+        }
+        valid = newValid;
+        eph = newEph;
+    }
+
+    private double[] grow(double[] array, int capacity) {
+        double[] grown = new double[capacity];
+        if (array != null)
+            System.arraycopy(array, 0, grown, 0, size);
+        return grown;
+    }
+
+    private int[] grow(int[] array, int capacity) {
+        int[] grown = new int[capacity];
+        if (array != null)
+            System.arraycopy(array, 0, grown, 0, size);
+        return grown;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Solve the signal travel time of the Earth rotation correction from the geometric
+     * range to this position; the transmission time still comes from the pseudorange
+     *
+     * @param x approximate receiver position (ECEF, m)
+     * @param y
+     * @param z
+     */
+    public void setReceiverPosition(double x, double y, double z) {
+        rxX = x;
+        rxY = y;
+        rxZ = z;
+        hasReceiverPosition = true;
+    }
+
+    /**
+     * Take the signal travel time of the Earth rotation correction from the pseudoranges
+     */
+    public void clearReceiverPosition() {
+        hasReceiverPosition = false;
+    }
+
+    /**
+     * @param satID
+     * @param pseudorange
+     * @return index of the satellite in the batch
+     */
+    public int add(int satID, double pseudorange) {
+        if (size == this.satID.length)
+            allocate(2 * size);
+        this.satID[size] = satID;
+        this.pseudorange[size] = pseudorange;
+        valid[size] = false;
+        return size++;
+    }
+
+    /**
+     * Mark satellite i as invalid and clear its outputs, so that nothing of a previous
+     * epoch is left in the arrays
+     *
+     * @param i
+     */
+    void invalidate(int i) {
+        valid[i] = false;
+        eph[i] = null;
+        x[i] = 0;
+        y[i] = 0;
+        z[i] = 0;
+        vx[i] = 0;
+        vy[i] = 0;
+        vz[i] = 0;
+        satelliteClockError[i] = 0;
+        travelTime[i] = 0;
+    }
+
+    /**
+     * @param i
+     * @param unixTime
+     * @param satType
+     * @return a new SatellitePosition holding the state of satellite i
+     */
+    public SatellitePosition toSatellitePosition(int i, long unixTime, char satType) {
+        SatellitePosition sp = new SatellitePosition(unixTime, satID[i], satType, x[i], y[i], z[i]);
+        sp.setSatelliteClockError(satelliteClockError[i]);
+        sp.setSpeed(vx[i], vy[i], vz[i]);
+        return sp;
+    }
+}
@@ -0,0 +1,42 @@
+package com.gnss.ppptesttwo.navifromftp;
+
+/**
+ * <p>
+ * Reusable output buffer of the primitive orbit propagation
+ * ({@link EphemerisSystem#computeSatState})
+ * </p>
+ *
+ * Unlike {@link SatellitePosition} it holds no matrices, so one instance per caller
+ * can be filled again at every epoch without producing garbage.
+ */
+public class SatelliteState {
+
+    /* ECEF position (m), corrected for Earth rotation during signal travel time */
+    public double x;
+    public double y;
+    public double z;
+
+    /* ECEF velocity (m/s) */
+    public double vx;
+    public double vy;
+    public double vz;
+
+    /* Correction due to satellite clock error in seconds */
+    public double satelliteClockError;
+
+    /* Clock-corrected GPS transmission time (seconds of week) */
+    public double transmissionTime;
+
+    /**
+     * @param unixTime
+     * @param satID
+     * @param satType
+     * @return a new SatellitePosition holding this state
+     */
+    public SatellitePosition toSatellitePosition(long unixTime, int satID, char satType) {
+        SatellitePosition sp = new SatellitePosition(unixTime, satID, satType, x, y, z);
+        sp.setSatelliteClockError(satelliteClockError);
+        sp.setSpeed(vx, vy, vz);
+        return sp;
+    }
+}
@@ -0,0 +1,159 @@
+package com.gnss.ppptesttwo.navifromftp;
+
+import com.gnss.ppptesttwo.Time;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>
+ * Precomputes the orbits and clocks of all the satellites of a navigation file on a
+ * fixed time grid, for post-processing of recorded sessions
+ * </p>
+ *
+ * The satellites are propagated in parallel on a ForkJoin pool; the resulting
+ * {@link SatelliteTracks} answer the per-epoch states by interpolation.
+ */
+public class SatelliteTrackBuilder {
+
+    private final EphemerisSystem navigation;
+    private final EphemerisStore<?> store;
+    private final char satType;
+
+    private int stepSeconds = 30;
+    private int points = 10;
+
+    public SatelliteTrackBuilder(RinexNavigationParserGps navigation, char satType) {
+        this(navigation, navigation.getEphemerisStore(), satType);
+    }
+
+    public SatelliteTrackBuilder(RinexNavigationParserGalileo navigation) {
+        this(navigation, navigation.getEphemerisStore(), 'E');
+    }
+
+    SatelliteTrackBuilder(EphemerisSystem navigation, EphemerisStore<?> store, char satType) {
+        this.navigation = navigation;
+        this.store = store;
+        this.satType = satType;
+    }
+
+    /**
+     * @param stepSeconds grid spacing, 30 s by default
+     * @return this builder
+     * @throws IllegalArgumentException if the spacing is not positive
+     */
+    public SatelliteTrackBuilder setStep(int stepSeconds) {
+        if (stepSeconds <= 0)
+            throw new IllegalArgumentException("step " + stepSeconds + " s");
+        this.stepSeconds = stepSeconds;
+        return this;
+    }
+
+    /**
+     * @param points number of nodes of the interpolating polynomials, 10 by default
+     * @return this builder
+     * @throws IllegalArgumentException if fewer than 2 nodes, which give no velocity
+     */
+    public SatelliteTrackBuilder setPoints(int points) {
+        if (points < 2)
+            throw new IllegalArgumentException(points + " points");
+        this.points = points;
+        return this;
+    }
+
+    /**
+     * Tabulate the whole validity span of the navigation data
+     *
+     * @return tracks, null if the navigation data holds no record of the system
+     */
+    public SatelliteTracks build() {
+        long[] span = store.getTimeSpan(satType);
+        if (span == null)
+            return null;
+        return build(span[0], span[1], ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param startTime first epoch (ms since 1970.1.1)
+     * @param endTime   last epoch (ms since 1970.1.1), rounded up to the grid
+     * @param pool
+     * @return tracks covering the interval
+     */
+    public SatelliteTracks build(long startTime, long endTime, ForkJoinPool pool) {
+        long stepMsec = stepSeconds * 1000L;
+        int epochs = (int) ((endTime - startTime + stepMsec - 1) / stepMsec) + 1;
+        epochs = Math.max(epochs, points);
+
+        double[][] nodes = new double[EphemerisStore.MAX_SAT_ID + 1][];
+        KeplerianEphemeris[][] records = new KeplerianEphemeris[EphemerisStore.MAX_SAT_ID + 1][];
+        pool.invoke(new TrackTask(navigation, store, satType, 1, EphemerisStore.MAX_SAT_ID + 1,
+                startTime, stepMsec, epochs, nodes, records));
+
+        return new SatelliteTracks(navigation, satType, startTime, stepMsec, epochs, points, nodes, records);
+    }
+
+    /**
+     * Propagation of the satellites [from, to), split down to single satellites
+     */
+    private static final class TrackTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final EphemerisSystem navigation;
+        private final EphemerisStore<?> store;
+        private final char satType;
+        private final int from;
+        private final int to;
+        private final long startTime;
+        private final long stepMsec;
+        private final int epochs;
+        private final double[][] nodes;
+        private final KeplerianEphemeris[][] records;
+
+        TrackTask(EphemerisSystem navigation, EphemerisStore<?> store, char satType, int from, int to,
+                  long startTime, long stepMsec, int epochs, double[][] nodes, KeplerianEphemeris[][] records) {
+            this.navigation = navigation;
+            this.store = store;
+            this.satType = satType;
+            this.from = from;
+            this.to = to;
+            this.startTime = startTime;
+            this.stepMsec = stepMsec;
+            this.epochs = epochs;
+            this.nodes = nodes;
+            this.records = records;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new TrackTask(navigation, store, satType, from, mid, startTime, stepMsec, epochs, nodes, records),
+                        new TrackTask(navigation, store, satType, mid, to, startTime, stepMsec, epochs, nodes, records));
+                return;
+            }
+            if (!store.contains(satType, from))
+                return;
+
+            double[] y = new double[4 * epochs];
+            KeplerianEphemeris[] eph = new KeplerianEphemeris[epochs];
+            SatelliteState state = new SatelliteState();
+            boolean found = false;
+            for (int i = 0; i < epochs; i++) {
+                long time = startTime + i * stepMsec;
+                eph[i] = navigation.findKeplerianEphemeris(time, from, satType);
+                if (eph[i] == null)
+                    continue;
+                navigation.computeOrbit(Time.unixToGpsTime(time), eph[i], state);
+                y[4 * i] = state.x;
+                y[4 * i + 1] = state.y;
+                y[4 * i + 2] = state.z;
+                y[4 * i + 3] = state.satelliteClockError;
+                found = true;
+            }
+            if (found) {
+                nodes[from] = y;
+                records[from] = eph;
+            }
+        }
+    }
+}
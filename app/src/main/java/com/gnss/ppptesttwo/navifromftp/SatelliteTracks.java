@@ -0,0 +1,200 @@
+package com.gnss.ppptesttwo.navifromftp;
+
+import com.gnss.ppptesttwo.Constants;
+import com.gnss.ppptesttwo.Time;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Satellite orbits and clocks precomputed on a regular time grid
+ * </p>
+ *
+ * Built by {@link SatelliteTrackBuilder}. Positions (before the Earth rotation
+ * correction) and clock errors are tabulated against the transmission time uncorrected
+ * for the satellite clock, as in {@link EphemerisSystem#computeOrbit}, and are
+ * interpolated with Lagrange polynomials over the nodes around the requested time;
+ * velocities are the derivative of the interpolating polynomials. A window spanning two
+ * ephemeris records, a missing record or a time outside the grid is answered by the
+ * exact propagation.
+ */
+public class SatelliteTracks {
+
+    private final EphemerisSystem navigation;
+    private final char satType;
+    private final long startMsec;
+    private final long stepMsec;
+    private final int epochs;
+    private final int points;
+
+    /* per satellite ID, null if the satellite has no record on the grid */
+    private final double[][] nodes; /* x, y, z, clock interleaved per epoch */
+    private final KeplerianEphemeris[][] records;
+
+    /* 1 / prod(j - k), k != j, of the equally spaced nodes 0 .. points-1 */
+    private final double[] weights;
+
+    private final AtomicLong interpolated = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    SatelliteTracks(EphemerisSystem navigation, char satType, long startMsec, long stepMsec, int epochs,
+                    int points, double[][] nodes, KeplerianEphemeris[][] records) {
+        this.navigation = navigation;
+        this.satType = satType;
+        this.startMsec = startMsec;
+        this.stepMsec = stepMsec;
+        this.epochs = epochs;
+        this.points = points;
+        this.nodes = nodes;
+        this.records = records;
+
+        weights = new double[points];
+        for (int j = 0; j < points; j++) {
+            double w = 1;
+            for (int k = 0; k < points; k++) {
+                if (k != j)
+                    w *= j - k;
+            }
+            weights[j] = 1 / w;
+        }
+    }
+
+    /**
+     * Same result as {@link RinexNavigationParserGps#getSatState}, from the grid where
+     * possible
+     *
+     * @param unixTime           reception time (ms since 1970.1.1)
+     * @param range              pseudorange
+     * @param satID
+     * @param receiverClockError
+     * @param state              reusable buffer receiving position, velocity and clock error
+     * @return false if no healthy ephemeris is available for the satellite
+     */
+    public boolean getSatState(long unixTime, double range, int satID, double receiverClockError,
+                               SatelliteState state) {
+
+        double travelTime = range / Constants.SPEED_OF_LIGHT;
+        if (!interpolate(unixTime, travelTime, satID, state)) {
+            KeplerianEphemeris eph = navigation.findKeplerianEphemeris(unixTime, satID, satType);
+            if (eph == null)
+                return false;
+            fallbacks.incrementAndGet();
+            navigation.computeSatState(unixTime, range, eph, receiverClockError, state);
+            return true;
+        }
+        interpolated.incrementAndGet();
+
+        state.transmissionTime = Time.unixToGpsTime(unixTime) - travelTime - state.satelliteClockError;
+        EphemerisSystem.rotateEarth(state, travelTime + state.satelliteClockError + receiverClockError);
+        return true;
+    }
+
+    private boolean interpolate(long unixTime, double travelTime, int satID, SatelliteState state) {
+        if (satID < 0 || satID >= nodes.length || nodes[satID] == null)
+            return false;
+
+        // position on the grid of the transmission time
+        double u = (unixTime - startMsec - travelTime * 1000) / stepMsec;
+        if (u < 0 || u > epochs - 1)
+            return false;
+        int first = (int) Math.floor(u) - (points / 2 - 1);
+        first = Math.max(0, Math.min(first, epochs - points));
+
+        KeplerianEphemeris[] eph = records[satID];
+        for (int j = first; j < first + points; j++) {
+            if (eph[j] == null || eph[j] != eph[first])
+                return false;
+        }
+
+        double[] y = nodes[satID];
+        double s = u - first;
+        double x = 0, yy = 0, z = 0, clk = 0, vx = 0, vy = 0, vz = 0;
+
+        int node = (int) Math.round(s);
+        if (Math.abs(s - node) < 1e-9) {
+            // at a node: L_j(s) is 0 or 1, L_j'(s) = w_j / (w_node (node - j))
+            int k = 4 * (first + node);
+            x = y[k];
+            yy = y[k + 1];
+            z = y[k + 2];
+            clk = y[k + 3];
+            double dNode = 0;
+            for (int j = 0; j < points; j++) {
+                if (j == node)
+                    continue;
+                double d = weights[j] / (weights[node] * (node - j));
+                dNode += 1.0 / (node - j);
+                k = 4 * (first + j);
+                vx += d * y[k];
+                vy += d * y[k + 1];
+                vz += d * y[k + 2];
+            }
+            k = 4 * (first + node);
+            vx += dNode * y[k];
+            vy += dNode * y[k + 1];
+            vz += dNode * y[k + 2];
+        } else {
+            // L_j(s) = w_j l(s) / (s - j), L_j'(s) = L_j(s) (sum 1 / (s - k) - 1 / (s - j))
+            double l = 1;
+            double sum = 0;
+            for (int j = 0; j < points; j++) {
+                l *= s - j;
+                sum += 1 / (s - j);
+            }
+            for (int j = 0; j < points; j++) {
+                double L = weights[j] * l / (s - j);
+                double d = L * (sum - 1 / (s - j));
+                int k = 4 * (first + j);
+                x += L * y[k];
+                yy += L * y[k + 1];
+                z += L * y[k + 2];
+                clk += L * y[k + 3];
+                vx += d * y[k];
+                vy += d * y[k + 1];
+                vz += d * y[k + 2];
+            }
+        }
+
+        double scale = 1000.0 / stepMsec;
+        state.x = x;
+        state.y = yy;
+        state.z = z;
+        state.vx = vx * scale;
+        state.vy = vy * scale;
+        state.vz = vz * scale;
+        state.satelliteClockError = clk;
+        return true;
+    }
+
+    public char getSatType() {
+        return satType;
+    }
+
+    /**
+     * @return first epoch of the grid (ms since 1970.1.1)
+     */
+    public long getStartTime() {
+        return startMsec;
+    }
+
+    /**
+     * @return last epoch of the grid (ms since 1970.1.1)
+     */
+    public long getEndTime() {
+        return startMsec + (epochs - 1) * stepMsec;
+    }
+
+    /**
+     * @return number of states answered by interpolation
+     */
+    public long getInterpolatedCount() {
+        return interpolated.get();
+    }
+
+    /**
+     * @return number of states answered by the exact propagation
+     */
+    public long getFallbackCount() {
+        return fallbacks.get();
+    }
+}
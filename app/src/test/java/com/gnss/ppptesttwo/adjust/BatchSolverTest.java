@@ -0,0 +1,155 @@
+package com.gnss.ppptesttwo.adjust;
+
+import com.gnss.ppptesttwo.navifromftp.Coordinates;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.RX_X;
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.RX_Y;
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.RX_Z;
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.SATELLITE_DISTANCE;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * {@link BatchSolver} against the sequential solution of the same recorded epochs, and
+ * its speed-up on several processors as an opt-in benchmark
+ */
+public class BatchSolverTest {
+
+    private static final int SATELLITES = 16;
+    private static final int EPOCHS = 20000;
+    private static final int CHUNK_SIZE = 256;
+
+    private static final long START = 1586228400000L;
+
+    @Test
+    public void parallelSolutionsAreOrderedAndDeterministic() {
+        List<ObservationBuffer> epochs = new ArrayList<>();
+        long[] times = new long[2000];
+        double[][] truth = record(epochs, times);
+        Coordinates pose = Coordinates.globalXYZInstance(RX_X + 1e4, RX_Y - 1e4, RX_Z + 1e4);
+
+        BatchSolver sequential = new BatchSolver(1);
+        sequential.setChunkSize(100);
+        PositionSolution[] reference = sequential.solve(epochs, times, pose);
+        sequential.shutdown();
+
+        BatchSolver parallel = new BatchSolver(4);
+        parallel.setChunkSize(100);
+        PositionSolution[] solutions = parallel.solve(epochs, times, pose);
+        parallel.shutdown();
+
+        assertEquals(times.length, solutions.length);
+        for (int e = 0; e < times.length; e++) {
+            assertTrue(solutions[e].isValid());
+            assertEquals(reference[e].getPosition().getX(), solutions[e].getPosition().getX(), 0);
+            assertEquals(reference[e].getPosition().getY(), solutions[e].getPosition().getY(), 0);
+            assertEquals(reference[e].getPosition().getZ(), solutions[e].getPosition().getZ(), 0);
+            assertEquals(truth[e][0], solutions[e].getPosition().getX(), 10);
+            assertEquals(truth[e][3], solutions[e].getClockBias(), 30);
+        }
+    }
+
+    @Test
+    public void allProcessorsMatchTheSerialSolves() {
+        List<ObservationBuffer> epochs = new ArrayList<>();
+        long[] times = new long[EPOCHS];
+        record(epochs, times);
+        Coordinates pose = Coordinates.globalXYZInstance(RX_X, RX_Y, RX_Z);
+        PositionSolution[] reference = solveSerially(epochs, times, pose);
+
+        BatchSolver solver = new BatchSolver(Runtime.getRuntime().availableProcessors());
+        solver.setChunkSize(CHUNK_SIZE);
+        PositionSolution[] solutions = solver.solve(epochs, times, pose);
+        solver.shutdown();
+
+        for (int e = 0; e < EPOCHS; e++) {
+            assertTrue(solutions[e].isValid());
+            assertEquals(reference[e].getPosition().getX(), solutions[e].getPosition().getX(), 0);
+            assertEquals(reference[e].getPosition().getY(), solutions[e].getPosition().getY(), 0);
+            assertEquals(reference[e].getPosition().getZ(), solutions[e].getPosition().getZ(), 0);
+            assertEquals(reference[e].getClockBias(), solutions[e].getClockBias(), 0);
+        }
+    }
+
+    /**
+     * Wall-clock benchmark, run only with -Dbenchmark=true on a machine with idle cores
+     */
+    @Test
+    public void allProcessorsSpeedUp() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        int processors = Runtime.getRuntime().availableProcessors();
+        assumeTrue(processors > 1);
+        List<ObservationBuffer> epochs = new ArrayList<>();
+        long[] times = new long[EPOCHS];
+        record(epochs, times);
+        Coordinates pose = Coordinates.globalXYZInstance(RX_X, RX_Y, RX_Z);
+
+        long serial = Long.MAX_VALUE;
+        for (int pass = 0; pass < 3; pass++) {
+            long t0 = System.nanoTime();
+            solveSerially(epochs, times, pose);
+            serial = Math.min(serial, System.nanoTime() - t0);
+        }
+        BatchSolver solver = new BatchSolver(processors);
+        solver.setChunkSize(CHUNK_SIZE);
+        long parallel = Long.MAX_VALUE;
+        for (int pass = 0; pass < 3; pass++) {
+            long t0 = System.nanoTime();
+            solver.solve(epochs, times, pose);
+            parallel = Math.min(parallel, System.nanoTime() - t0);
+        }
+        solver.shutdown();
+        assertTrue("serial " + serial / 1000000 + " ms, " + processors + " threads " + parallel / 1000000 + " ms",
+                1.3 * parallel < serial);
+    }
+
+    /**
+     * One workspace in the calling thread, warm started within each chunk
+     */
+    private static PositionSolution[] solveSerially(List<ObservationBuffer> epochs, long[] times, Coordinates pose) {
+        WeightedLeastSquares wls = new WeightedLeastSquares();
+        PositionSolution[] solutions = new PositionSolution[times.length];
+        for (int e = 0; e < times.length; e++) {
+            if (e % CHUNK_SIZE == 0)
+                wls.resetWarmStart();
+            solutions[e] = wls.solve(epochs.get(e), times[e], pose);
+        }
+        return solutions;
+    }
+
+    /**
+     * Receiver moving north-east at 10 m/s with a drifting clock; satellites spread over
+     * the sky, redrawn every epoch
+     *
+     * @param epochs filled with one buffer per epoch
+     * @param times  filled, 1 s apart
+     * @return x, y, z and clock bias of each epoch
+     */
+    private static double[][] record(List<ObservationBuffer> epochs, long[] times) {
+        Random random = new Random(17);
+        double[] u = new double[3];
+        double[][] truth = new double[times.length][];
+        for (int e = 0; e < times.length; e++) {
+            times[e] = START + 1000L * e;
+            double rx = RX_X + 7.0 * e;
+            double ry = RX_Y + 7.0 * e;
+            double clock = 1e4 + 20.0 * e;
+            truth[e] = new double[]{rx, ry, RX_Z, clock};
+
+            ObservationBuffer epoch = new ObservationBuffer(SATELLITES);
+            for (int i = 0; i < SATELLITES; i++) {
+                SyntheticEpochs.nextLineOfSight(random, 0.2, u);
+                double d = SATELLITE_DISTANCE;
+                epoch.add(i + 1, rx + d * u[0], ry + d * u[1], RX_Z + d * u[2], d + clock + 3 * random.nextGaussian());
+            }
+            epochs.add(epoch);
+        }
+        return truth;
+    }
+}
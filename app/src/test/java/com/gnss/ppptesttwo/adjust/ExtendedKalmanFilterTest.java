@@ -0,0 +1,54 @@
+package com.gnss.ppptesttwo.adjust;
+
+import com.gnss.ppptesttwo.navifromftp.Coordinates;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.RX_CLOCK;
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.RX_X;
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.RX_Y;
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.RX_Z;
+import static org.junit.Assert.*;
+
+/**
+ * {@link ExtendedKalmanFilter} on a static receiver tracking GPS and Galileo satellites
+ */
+public class ExtendedKalmanFilterTest {
+
+    private static final int SATELLITES = 16;
+    private static final int EPOCHS = 600;
+    private static final long START = 1586228400000L;
+
+    @Test
+    public void systemBiasIsTracked() {
+        Random random = new Random(23);
+        double[] satPos = SyntheticEpochs.sky(random, SATELLITES);
+        ExtendedKalmanFilter ekf = new ExtendedKalmanFilter();
+        Coordinates pose = Coordinates.globalXYZInstance(RX_X + 100, RX_Y - 100, RX_Z + 100);
+        ObservationBuffer epoch = new ObservationBuffer();
+
+        // the Galileo clock moves away from the GPS one by 2 cm/s after the start
+        double galileoBias = 0;
+        for (int e = 0; e < EPOCHS; e++) {
+            double clock = RX_CLOCK + 5.0 * e;
+            galileoBias = -25.0 + 0.02 * e;
+            epoch.clear();
+            for (int i = 0; i < SATELLITES; i++) {
+                int system = i % 2 == 0 ? ObservationBuffer.SYSTEM_GPS : ObservationBuffer.SYSTEM_GALILEO;
+                int k = SyntheticEpochs.addPseudorange(epoch, satPos, i,
+                        system == ObservationBuffer.SYSTEM_GPS ? clock : clock + galileoBias, system);
+                epoch.pseudorange[k] += 0.5 * random.nextGaussian();
+            }
+            PositionSolution solution = ekf.solve(epoch, START + 1000L * e, pose);
+            assertTrue(solution.isValid());
+            pose = solution.getPosition();
+        }
+        // 12 m since the start, followed within the noise
+        assertEquals(galileoBias, ekf.getClockBias(ObservationBuffer.SYSTEM_GALILEO) - ekf.getClockBias(), 0.5);
+        assertEquals(RX_X, pose.getX(), 0.5);
+        assertEquals(RX_Y, pose.getY(), 0.5);
+        assertEquals(RX_Z, pose.getZ(), 0.5);
+    }
+}
@@ -0,0 +1,176 @@
+package com.gnss.ppptesttwo.adjust;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * {@link FaultDetection} against leave-one-out least squares solved from scratch, and its
+ * cost as an opt-in benchmark
+ */
+public class FaultDetectionTest {
+
+    private static final int SATELLITES = 32;
+    private static final int FAULTY = 5;
+    private static final int EPOCHS = 5000;
+
+    /* geodetic position of SyntheticEpochs.RX_X, RX_Y, RX_Z */
+    private static final double LATITUDE = Math.toRadians(39.6);
+    private static final double LONGITUDE = Math.toRadians(115.9);
+
+    private final Random random = new Random(13);
+    private final double[] h = new double[4 * SATELLITES];
+    private final double[] z = new double[SATELLITES];
+    private final double[] w = new double[SATELLITES];
+
+    @Test
+    public void biasedPseudorangeIsExcluded() {
+        fillEpoch(60.0);
+        LeastSquaresKernel kernel = new LeastSquaresKernel();
+        load(kernel, -1);
+        assertTrue(kernel.solve());
+
+        FaultDetection fde = new FaultDetection();
+        assertTrue(fde.check(kernel, LATITUDE, LONGITUDE));
+        assertEquals(1, fde.getExcludedCount());
+        assertEquals(FAULTY, fde.getExcluded(0));
+        assertTrue(fde.getTestStatistic() <= fde.getThreshold());
+
+        // downdated solution equals the one solved without the observation
+        LeastSquaresKernel reference = new LeastSquaresKernel();
+        load(reference, FAULTY);
+        assertTrue(reference.solve());
+        for (int j = 0; j < 4; j++) {
+            assertEquals(reference.getSolution(j), fde.getSolution(j), 1e-8);
+        }
+
+        double hpl = fde.getHorizontalProtectionLevel();
+        double vpl = fde.getVerticalProtectionLevel();
+        assertTrue(hpl > 0 && hpl < 100);
+        assertTrue(vpl > 0 && vpl < 100);
+    }
+
+    @Test
+    public void consistentEpochIsKept() {
+        fillEpoch(0.0);
+        LeastSquaresKernel kernel = new LeastSquaresKernel();
+        load(kernel, -1);
+        assertTrue(kernel.solve());
+
+        FaultDetection fde = new FaultDetection();
+        assertTrue(fde.check(kernel, LATITUDE, LONGITUDE));
+        assertEquals(0, fde.getExcludedCount());
+        for (int j = 0; j < 4; j++) {
+            assertEquals(kernel.getSolution(j), fde.getSolution(j), 0);
+        }
+    }
+
+    @Test
+    public void choleskyDowndateMatchesRefactorization() {
+        fillEpoch(0.0);
+        LeastSquaresKernel kernel = new LeastSquaresKernel();
+        load(kernel, -1);
+        assertTrue(kernel.solve());
+        double[] l = kernel.getFactor().clone();
+        double[] v = new double[4];
+        for (int j = 0; j < 4; j++)
+            v[j] = Math.sqrt(w[FAULTY]) * h[4 * FAULTY + j];
+        assertTrue(LeastSquaresKernel.choleskyDowndate(l, 4, v));
+
+        LeastSquaresKernel reference = new LeastSquaresKernel();
+        load(reference, FAULTY);
+        assertTrue(reference.solve());
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j <= i; j++) {
+                assertEquals(reference.getFactor()[i * 4 + j], l[i * 4 + j], 1e-12);
+            }
+        }
+    }
+
+    /**
+     * Wall-clock benchmark, run only with -Dbenchmark=true
+     */
+    @Test
+    public void fdeCostsAFewSolves() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        fillEpoch(60.0);
+        LeastSquaresKernel kernel = new LeastSquaresKernel();
+        LeastSquaresKernel candidate = new LeastSquaresKernel();
+        FaultDetection fde = new FaultDetection();
+        long solveNanos = Long.MAX_VALUE;
+        long fdeNanos = Long.MAX_VALUE;
+        long resolveNanos = Long.MAX_VALUE;
+        double sum = 0;
+        // best of five passes, the first ones warm up
+        for (int pass = 0; pass < 5; pass++) {
+            long t0 = System.nanoTime();
+            for (int e = 0; e < EPOCHS; e++) {
+                load(kernel, -1);
+                kernel.solve();
+                sum += kernel.getSolution(0);
+            }
+            long t1 = System.nanoTime();
+            for (int e = 0; e < EPOCHS; e++) {
+                fde.check(kernel, LATITUDE, LONGITUDE);
+                sum += fde.getSolution(0);
+            }
+            long t2 = System.nanoTime();
+            // the obvious FDE: one solve per candidate exclusion
+            for (int e = 0; e < EPOCHS; e++) {
+                for (int i = 0; i < SATELLITES; i++) {
+                    load(candidate, i);
+                    candidate.solve();
+                    sum += candidate.getSolution(0);
+                }
+            }
+            long t3 = System.nanoTime();
+            solveNanos = Math.min(solveNanos, t1 - t0);
+            fdeNanos = Math.min(fdeNanos, t2 - t1);
+            resolveNanos = Math.min(resolveNanos, t3 - t2);
+        }
+        assertFalse(Double.isNaN(sum));
+        assertEquals(1, fde.getExcludedCount());
+        // about three solves with one exclusion, against 32 re-solves
+        String timings = "solve " + solveNanos / 1000000 + " ms, FDE " + fdeNanos / 1000000
+                + " ms, re-solves " + resolveNanos / 1000000 + " ms";
+        assertTrue(timings, fdeNanos < 6 * solveNanos);
+        assertTrue(timings, 4 * fdeNanos < resolveNanos);
+    }
+
+    /**
+     * Linearized pseudoranges at the true position: noise, plus a bias on one satellite
+     */
+    private void fillEpoch(double bias) {
+        double[] u = new double[3];
+        for (int i = 0; i < SATELLITES; i++) {
+            double dot = SyntheticEpochs.nextLineOfSight(random, 0.1, u);
+            h[4 * i] = -u[0];
+            h[4 * i + 1] = -u[1];
+            h[4 * i + 2] = -u[2];
+            h[4 * i + 3] = 1;
+            double sigma = 5 * (0.13 + 0.53 * Math.exp(-Math.asin(dot) / 10.0));
+            w[i] = 1 / (sigma * sigma);
+            z[i] = sigma * random.nextGaussian();
+        }
+        z[FAULTY] += bias;
+    }
+
+    /**
+     * @param skip observation left out, -1 for none
+     */
+    private void load(LeastSquaresKernel kernel, int skip) {
+        kernel.reset(4, skip < 0 ? SATELLITES : SATELLITES - 1);
+        int k = 0;
+        for (int i = 0; i < SATELLITES; i++) {
+            if (i == skip)
+                continue;
+            kernel.setObservation(k, z[i], w[i]);
+            for (int j = 0; j < 4; j++)
+                kernel.setDesign(k, j, h[4 * i + j]);
+            k++;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.gnss.ppptesttwo.adjust;
+
+import com.gnss.ppptesttwo.navifromftp.Coordinates;
+
+import org.ejml.simple.SimpleMatrix;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.RX_CLOCK;
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.RX_X;
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.RX_Y;
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.RX_Z;
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.SATELLITE_DISTANCE;
+import static org.junit.Assert.*;
+
+/**
+ * {@link LeastSquaresKernel} against the former SimpleMatrix formulation of
+ * {@link WeightedLeastSquares}, on a synthetic multi-constellation epoch
+ */
+public class LeastSquaresKernelTest {
+
+    private static final int SATELLITES = 36;
+
+    @Test
+    public void kernelMatchesSimpleMatrix() {
+        Random random = new Random(3);
+        double[] h = new double[SATELLITES * 4];
+        double[] z = new double[SATELLITES];
+        double[] variance = new double[SATELLITES];
+        double[] satPos = new double[3 * SATELLITES];
+        fillEpoch(random, satPos, z, variance);
+        for (int i = 0; i < SATELLITES; i++) {
+            double dx = satPos[3 * i] - RX_X;
+            double dy = satPos[3 * i + 1] - RX_Y;
+            double dz = satPos[3 * i + 2] - RX_Z;
+            double d = Math.sqrt(dx * dx + dy * dy + dz * dz);
+            h[4 * i] = -dx / d;
+            h[4 * i + 1] = -dy / d;
+            h[4 * i + 2] = -dz / d;
+            h[4 * i + 3] = 1;
+            z[i] = 5 * random.nextGaussian();
+        }
+
+        SimpleMatrix reference = solveSimpleMatrix(h, z, variance);
+        LeastSquaresKernel kernel = new LeastSquaresKernel();
+        kernel.reset(4, SATELLITES);
+        for (int i = 0; i < SATELLITES; i++) {
+            kernel.setObservation(i, z[i], 1.0 / variance[i]);
+            for (int j = 0; j < 4; j++)
+                kernel.setDesign(i, j, h[4 * i + j]);
+        }
+        assertTrue(kernel.solve());
+        for (int j = 0; j < 4; j++) {
+            assertEquals(reference.get(j), kernel.getSolution(j), 1e-8);
+        }
+    }
+
+    @Test
+    public void positionIsRecoveredFromPseudoranges() {
+        Random random = new Random(5);
+        double[] satPos = new double[3 * SATELLITES];
+        double[] pseudorange = new double[SATELLITES];
+        double[] variance = new double[SATELLITES];
+        fillEpoch(random, satPos, pseudorange, variance);
+        double[] correction = new double[SATELLITES];
+        for (int i = 0; i < SATELLITES; i++) {
+            correction[i] = 10 * random.nextDouble();
+            double dx = satPos[3 * i] - RX_X;
+            double dy = satPos[3 * i + 1] - RX_Y;
+            double dz = satPos[3 * i + 2] - RX_Z;
+            pseudorange[i] = Math.sqrt(dx * dx + dy * dy + dz * dz) + correction[i] + RX_CLOCK;
+        }
+
+        WeightedLeastSquares wls = new WeightedLeastSquares();
+        wls.setEpoch(SATELLITES, satPos, pseudorange, correction, variance);
+        // start 100 km away: the design matrix has to follow the estimate
+        double[] state = {RX_X + 1e5, RX_Y - 1e5, RX_Z + 1e5, 0};
+        assertTrue(wls.estimate(state));
+        assertEquals(RX_X, state[0], 1e-6);
+        assertEquals(RX_Y, state[1], 1e-6);
+        assertEquals(RX_Z, state[2], 1e-6);
+        assertEquals(RX_CLOCK, state[3], 1e-6);
+    }
+
+    @Test
+    public void warmStartCutsIterations() {
+        Random random = new Random(7);
+        double[] satPos = new double[3 * SATELLITES];
+        double[] pseudorange = new double[SATELLITES];
+        double[] variance = new double[SATELLITES];
+        double[] correction = new double[SATELLITES];
+        fillEpoch(random, satPos, pseudorange, variance);
+
+        WeightedLeastSquares wls = new WeightedLeastSquares();
+        Coordinates pose = Coordinates.globalXYZInstance(RX_X + 1e5, RX_Y - 1e5, RX_Z + 1e5);
+        double[] state = new double[4];
+        double drift = 150.0; // m/s
+        int cold = 0;
+        for (int epoch = 0; epoch < 10; epoch++) {
+            long time = 1586228400000L + 1000L * epoch;
+            double clock = RX_CLOCK + drift * epoch;
+            for (int i = 0; i < SATELLITES; i++) {
+                double dx = satPos[3 * i] - RX_X;
+                double dy = satPos[3 * i + 1] - RX_Y;
+                double dz = satPos[3 * i + 2] - RX_Z;
+                pseudorange[i] = Math.sqrt(dx * dx + dy * dy + dz * dz) + clock;
+            }
+            wls.setEpoch(SATELLITES, satPos, pseudorange, correction, variance);
+            wls.initState(time, pose, state);
+            assertTrue(wls.estimate(state));
+            wls.updatePrevious(time, state);
+
+            assertEquals(RX_X, state[0], 1e-3);
+            assertEquals(clock, state[3], 1e-3);
+            if (epoch == 0)
+                cold = wls.getIterations();
+            else if (epoch > 1)
+                // position and drift-predicted clock are already within the threshold
+                assertEquals(1, wls.getIterations());
+        }
+        assertTrue(cold > 2);
+    }
+
+    @Test
+    public void degenerateGeometryIsRejected() {
+        LeastSquaresKernel kernel = new LeastSquaresKernel();
+        kernel.reset(4, 3);
+        for (int i = 0; i < 3; i++) {
+            kernel.setObservation(i, 1, 1);
+            kernel.setDesign(i, i, 1);
+            kernel.setDesign(i, 3, 1);
+        }
+        assertFalse(kernel.solve());
+    }
+
+    @Test
+    public void covarianceAndDilutionMatchSimpleMatrix() {
+        Random random = new Random(9);
+        double[] satPos = new double[3 * SATELLITES];
+        double[] z = new double[SATELLITES];
+        double[] variance = new double[SATELLITES];
+        fillEpoch(random, satPos, z, variance);
+
+        LeastSquaresKernel kernel = new LeastSquaresKernel();
+        kernel.reset(4, SATELLITES);
+        SimpleMatrix H = new SimpleMatrix(SATELLITES, 4);
+        SimpleMatrix W = new SimpleMatrix(SATELLITES, SATELLITES);
+        for (int i = 0; i < SATELLITES; i++) {
+            double dx = satPos[3 * i] - RX_X;
+            double dy = satPos[3 * i + 1] - RX_Y;
+            double dz = satPos[3 * i + 2] - RX_Z;
+            double d = Math.sqrt(dx * dx + dy * dy + dz * dz);
+            double[] row = {-dx / d, -dy / d, -dz / d, 1};
+            kernel.setObservation(i, random.nextGaussian(), 1.0 / variance[i]);
+            W.set(i, i, 1.0 / variance[i]);
+            for (int j = 0; j < 4; j++) {
+                kernel.setDesign(i, j, row[j]);
+                H.set(i, j, row[j]);
+            }
+        }
+        assertTrue(kernel.solve());
+
+        double[] covariance = new double[16];
+        double[] cofactor = new double[16];
+        kernel.computeCovariance(null, covariance);
+        assertTrue(kernel.computeCofactor(null, cofactor));
+        SimpleMatrix cov = H.transpose().mult(W).mult(H).invert();
+        SimpleMatrix q = H.transpose().mult(H).invert();
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                assertEquals(cov.get(i, j), covariance[i * 4 + j], 1e-9 * Math.abs(cov.get(i, i)));
+                assertEquals(q.get(i, j), cofactor[i * 4 + j], 1e-9 * Math.abs(q.get(i, i)));
+            }
+        }
+
+        Coordinates rx = Coordinates.globalXYZInstance(RX_X, RX_Y, RX_Z);
+        double phi = Math.toRadians(rx.getGeodeticLatitude());
+        double lam = Math.toRadians(rx.getGeodeticLongitude());
+        PositionSolution solution = new PositionSolution(rx, 0, true, SATELLITES);
+        solution.setCovariance(covariance, 4);
+        solution.setDilution(cofactor, 4, phi, lam);
+
+        SimpleMatrix R = new SimpleMatrix(new double[][]{
+                {-Math.sin(lam), Math.cos(lam), 0},
+                {-Math.sin(phi) * Math.cos(lam), -Math.sin(phi) * Math.sin(lam), Math.cos(phi)},
+                {Math.cos(phi) * Math.cos(lam), Math.cos(phi) * Math.sin(lam), Math.sin(phi)}});
+        SimpleMatrix qEnu = R.mult(q.extractMatrix(0, 3, 0, 3)).mult(R.transpose());
+        assertEquals(Math.sqrt(q.extractMatrix(0, 4, 0, 4).trace()), solution.getGdop(), 1e-9);
+        assertEquals(Math.sqrt(q.extractMatrix(0, 3, 0, 3).trace()), solution.getPdop(), 1e-9);
+        assertEquals(Math.sqrt(qEnu.get(0, 0) + qEnu.get(1, 1)), solution.getHdop(), 1e-9);
+        assertEquals(Math.sqrt(qEnu.get(2, 2)), solution.getVdop(), 1e-9);
+        assertEquals(Math.sqrt(q.get(3, 3)), solution.getTdop(), 1e-9);
+        assertEquals(cov.get(0, 2), solution.getPositionCovariance()[2], 1e-9 * cov.get(0, 0));
+    }
+
+    @Test
+    public void uniformWeightsTakeTheCofactorFromTheFactor() {
+        Random random = new Random(19);
+        double[] satPos = new double[3 * SATELLITES];
+        double[] z = new double[SATELLITES];
+        double[] variance = new double[SATELLITES];
+        fillEpoch(random, satPos, z, variance);
+
+        LeastSquaresKernel kernel = new LeastSquaresKernel();
+        kernel.reset(4, SATELLITES);
+        SimpleMatrix H = new SimpleMatrix(SATELLITES, 4);
+        for (int i = 0; i < SATELLITES; i++) {
+            double dx = satPos[3 * i] - RX_X;
+            double dy = satPos[3 * i + 1] - RX_Y;
+            double dz = satPos[3 * i + 2] - RX_Z;
+            double d = Math.sqrt(dx * dx + dy * dy + dz * dz);
+            double[] row = {-dx / d, -dy / d, -dz / d, 1};
+            kernel.setObservation(i, random.nextGaussian(), 1.0 / 9);
+            for (int j = 0; j < 4; j++) {
+                kernel.setDesign(i, j, row[j]);
+                H.set(i, j, row[j]);
+            }
+        }
+        assertTrue(kernel.solve());
+
+        double[] cofactor = new double[16];
+        assertTrue(kernel.computeCofactor(null, cofactor));
+        SimpleMatrix q = H.transpose().mult(H).invert();
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                assertEquals(q.get(i, j), cofactor[i * 4 + j], 1e-9 * Math.abs(q.get(i, i)));
+            }
+        }
+    }
+
+    /**
+     * Satellites spread over the sky above the receiver, with the elevation weighting
+     * of WeightedLeastSquares
+     */
+    private static void fillEpoch(Random random, double[] satPos, double[] pseudorange, double[] variance) {
+        double[] u = new double[3];
+        for (int i = 0; i < pseudorange.length; i++) {
+            double dot = SyntheticEpochs.nextLineOfSight(random, 0.1, u);
+            satPos[3 * i] = RX_X + SATELLITE_DISTANCE * u[0];
+            satPos[3 * i + 1] = RX_Y + SATELLITE_DISTANCE * u[1];
+            satPos[3 * i + 2] = RX_Z + SATELLITE_DISTANCE * u[2];
+            double elevation = Math.asin(dot);
+            variance[i] = 25 * Math.pow(0.13 + 0.53 * Math.exp(-elevation / 10.0), 2);
+        }
+    }
+
+    /**
+     * Normal equations as formed by the former WeightedLeastSquares
+     */
+    private static SimpleMatrix solveSimpleMatrix(double[] h, double[] z, double[] variance) {
+        int n = z.length;
+        SimpleMatrix sigma2 = new SimpleMatrix(n, 1);
+        SimpleMatrix zVect = new SimpleMatrix(n, 1);
+        SimpleMatrix H = new SimpleMatrix(n, 4);
+        for (int i = 0; i < n; i++) {
+            sigma2.set(i, variance[i]);
+            zVect.set(i, z[i]);
+            for (int j = 0; j < 4; j++)
+                H.set(i, j, h[4 * i + j]);
+        }
+        SimpleMatrix W = sigma2.diag().invert();
+        SimpleMatrix Cov = H.transpose().mult(W).mult(H);
+        return Cov.invert().mult(H.transpose()).mult(W).mult(zVect);
+    }
+}
@@ -0,0 +1,250 @@
+package com.gnss.ppptesttwo.adjust;
+
+import com.gnss.ppptesttwo.GNSSData;
+import com.gnss.ppptesttwo.PositioningData;
+import com.gnss.ppptesttwo.Time;
+import com.gnss.ppptesttwo.WeightedLeastSquares1;
+import com.gnss.ppptesttwo.constellations.GnssConstellation;
+import com.gnss.ppptesttwo.constellations.Pseudorange;
+import com.gnss.ppptesttwo.constellations.SatelliteParameters;
+import com.gnss.ppptesttwo.navifromftp.Coordinates;
+import com.gnss.ppptesttwo.navifromftp.RinexNavigationParserGps;
+import com.gnss.ppptesttwo.navifromftp.SatelliteBatch;
+import com.gnss.ppptesttwo.navifromftp.SatellitePosition;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.RX_X;
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.RX_Y;
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.RX_Z;
+import static org.junit.Assert.*;
+
+/**
+ * Replays a simulated drive through {@link WeightedLeastSquares} and
+ * {@link ExtendedKalmanFilter}: GPS orbits from the broadcast ephemerides, a receiver
+ * moving at constant speed with a drifting clock, and elevation weighted noise on the
+ * pseudoranges and their rates
+ */
+public class PositioningReplayTest {
+
+    private static final int EPOCHS = 600;
+    private static final double MASK_ELEVATION = 10;
+
+    private static final double SPEED = 10.0;       // m/s, eastwards
+    private static final double CLOCK_DRIFT = 50.0; // m/s
+    private static final double RATE_SIGMA = 0.05;  // m/s
+
+    @Test
+    public void filterTracksTheReplayedDrive() throws Exception {
+        long startTime = new Time("2020 04 07 03 00 00.0").getMsec();
+        double[][] truth = new double[EPOCHS][];
+        List<List<SatelliteParameters>> epochs = simulate(startTime, truth, false);
+
+        Coordinates start = Coordinates.globalXYZInstance(RX_X + 3000, RX_Y - 3000, RX_Z + 3000);
+        double wlsError = replay(new WeightedLeastSquares(), epochs, truth, startTime, start);
+        double ekfError = replay(new ExtendedKalmanFilter(), epochs, truth, startTime, start);
+
+        assertTrue(wlsError < 15);
+        assertTrue(ekfError < wlsError);
+    }
+
+    @Test
+    public void dopplerVelocityIsSolvedWithThePosition() throws Exception {
+        long startTime = new Time("2020 04 07 03 00 00.0").getMsec();
+        double[][] truth = new double[EPOCHS][];
+        List<List<SatelliteParameters>> withRates = simulate(startTime, truth, true);
+
+        double r = Math.sqrt(RX_X * RX_X + RX_Y * RX_Y);
+        double[] velocity = {-RX_Y / r * SPEED, RX_X / r * SPEED, 0};
+
+        ReplayConstellation constellation = new ReplayConstellation();
+        WeightedLeastSquares wls = new WeightedLeastSquares();
+        Coordinates pose = Coordinates.globalXYZInstance(RX_X, RX_Y, RX_Z);
+        double sum = 0;
+        for (int e = 0; e < EPOCHS; e++) {
+            constellation.setEpoch(new Time(startTime + 1000L * e), withRates.get(e));
+            pose = wls.calculatePose(constellation, pose);
+            double[] v = wls.getVelocity();
+            assertNotNull(v);
+            for (int j = 0; j < 3; j++)
+                sum += (v[j] - velocity[j]) * (v[j] - velocity[j]);
+            assertEquals(CLOCK_DRIFT, wls.getClockDrift(), 0.5);
+        }
+        double rms = Math.sqrt(sum / EPOCHS);
+        assertTrue(rms < 0.3);
+    }
+
+    @Test
+    public void bothDataModelsShareTheSolverCore() throws Exception {
+        long startTime = new Time("2020 04 07 03 00 00.0").getMsec();
+        double[][] truth = new double[EPOCHS][];
+        List<List<SatelliteParameters>> epochs = simulate(startTime, truth, false);
+
+        ReplayConstellation constellation = new ReplayConstellation();
+        WeightedLeastSquares1 wls1 = new WeightedLeastSquares1();
+        for (int e = 0; e < EPOCHS; e += 60) {
+            constellation.setEpoch(new Time(startTime + 1000L * e), epochs.get(e));
+            PositioningData positioningData = new PositioningData();
+            for (SatelliteParameters satellite : epochs.get(e)) {
+                GNSSData data = new GNSSData();
+                data.setSATID(satellite.getSatId());
+                data.setpseudorange(satellite.getPseudorange());
+                // the replayed satellite clocks are already in the pseudoranges
+                SatellitePosition position = (SatellitePosition) satellite.getSatellitePosition().clone();
+                position.setSatelliteClockError(satellite.getClockBias());
+                data.setSp(position);
+                data.setAccumulatedCorrection(satellite.getAccumulatedCorrection());
+                positioningData.computDataList.add(data);
+            }
+
+            // same cold start for both
+            WeightedLeastSquares wls = new WeightedLeastSquares();
+            wls.setFaultDetection(false);
+            Coordinates start = Coordinates.globalXYZInstance(RX_X + 3000, RX_Y - 3000, RX_Z + 3000);
+            Coordinates pose = wls.calculatePose(constellation, start);
+            Coordinates pose1 = wls1.calculatePose(positioningData, start);
+            assertEquals(pose.getX(), pose1.getX(), 1e-6);
+            assertEquals(pose.getY(), pose1.getY(), 1e-6);
+            assertEquals(pose.getZ(), pose1.getZ(), 1e-6);
+            assertEquals(wls.getClockBias(), wls1.getClockBias(), 1e-6);
+            assertEquals(truth[e][0], pose.getX(), 30);
+        }
+    }
+
+    /**
+     * GPS satellites above the mask along the drive: 10 m/s east, 1e5 m clock bias
+     * drifting by 50 m/s, elevation weighted pseudorange noise
+     *
+     * @param truth receiver positions, filled
+     * @param rates true to simulate the pseudorange rates too
+     */
+    private static List<List<SatelliteParameters>> simulate(long startTime, double[][] truth, boolean rates) throws Exception {
+        RinexNavigationParserGps rnp = new RinexNavigationParserGps(new File("brdc0980.20n"));
+        rnp.init();
+
+        double r = Math.sqrt(RX_X * RX_X + RX_Y * RX_Y);
+        double ex = -RX_Y / r, ey = RX_X / r;
+
+        Random random = new Random(11);
+        WeightedLeastSquares variance = new WeightedLeastSquares();
+        List<List<SatelliteParameters>> epochs = new ArrayList<>();
+        for (int e = 0; e < EPOCHS; e++) {
+            long time = startTime + 1000L * e;
+            double x = RX_X + ex * SPEED * e;
+            double y = RX_Y + ey * SPEED * e;
+            double z = RX_Z;
+            double clock = 1e5 + CLOCK_DRIFT * e;
+            truth[e] = new double[]{x, y, z};
+
+            SatelliteBatch batch = new SatelliteBatch();
+            batch.setReceiverPosition(x, y, z);
+            for (int satID = 1; satID <= 32; satID++)
+                batch.add(satID, 2.2e7);
+            rnp.computeSatStates(time, 'G', 0.0, batch);
+
+            Coordinates rx = Coordinates.globalXYZInstance(x, y, z);
+            double phi = Math.toRadians(rx.getGeodeticLatitude());
+            double lam = Math.toRadians(rx.getGeodeticLongitude());
+            List<SatelliteParameters> satellites = new ArrayList<>();
+            for (int i = 0; i < batch.size; i++) {
+                if (!batch.valid[i])
+                    continue;
+                double dx = batch.x[i] - x;
+                double dy = batch.y[i] - y;
+                double dz = batch.z[i] - z;
+                double range = Math.sqrt(dx * dx + dy * dy + dz * dz);
+                double elevation = Math.asin((dx * Math.cos(phi) * Math.cos(lam)
+                        + dy * Math.cos(phi) * Math.sin(lam) + dz * Math.sin(phi)) / range);
+                if (Math.toDegrees(elevation) < MASK_ELEVATION)
+                    continue;
+                double sigma = Math.sqrt(variance.getMeasurementVariance(elevation));
+                double pseudorange = range + clock + sigma * random.nextGaussian();
+                double rate = 0;
+                if (rates) {
+                    rate = ((batch.vx[i] - ex * SPEED) * dx + (batch.vy[i] - ey * SPEED) * dy + batch.vz[i] * dz) / range
+                            + CLOCK_DRIFT + RATE_SIGMA * random.nextGaussian();
+                }
+                SatelliteParameters satellite = new SatelliteParameters(batch.satID[i],
+                        new Pseudorange(pseudorange, rate));
+                satellite.setSatellitePosition(batch.toSatellitePosition(i, time, 'G'));
+                satellite.setClockBias(0);
+                satellites.add(satellite);
+            }
+            epochs.add(satellites);
+        }
+        return epochs;
+    }
+
+    /**
+     * @return RMS of the 3D position error after the first minute
+     */
+    private static double replay(PositioningEngine engine, List<List<SatelliteParameters>> epochs,
+                                 double[][] truth, long startTime, Coordinates start) {
+        ReplayConstellation constellation = new ReplayConstellation();
+        Coordinates pose = start;
+        double sum = 0;
+        int count = 0;
+        for (int e = 0; e < epochs.size(); e++) {
+            constellation.setEpoch(new Time(startTime + 1000L * e), epochs.get(e));
+            PositionSolution solution = engine.solve(constellation, pose);
+            assertTrue(solution.isValid());
+            assertTrue(solution.getPdop() > 0.5 && solution.getPdop() < 10);
+            assertTrue(solution.getHdop() < solution.getPdop());
+            assertTrue(solution.getCovariance(0, 0) > 0);
+            for (int i = 0; i < 4; i++) {
+                for (int j = 0; j < i; j++)
+                    assertEquals(solution.getCovariance(i, j), solution.getCovariance(j, i), 0);
+            }
+            pose = solution.getPosition();
+            if (e >= 60) {
+                double dx = pose.getX() - truth[e][0];
+                double dy = pose.getY() - truth[e][1];
+                double dz = pose.getZ() - truth[e][2];
+                sum += dx * dx + dy * dy + dz * dz;
+                count++;
+            }
+        }
+        return Math.sqrt(sum / count);
+    }
+
+    /**
+     * Constellation serving recorded epochs
+     */
+    private static class ReplayConstellation extends GnssConstellation {
+        private Time time;
+        private List<SatelliteParameters> satellites;
+
+        ReplayConstellation() {
+            super(true, false, false, false);
+        }
+
+        void setEpoch(Time time, List<SatelliteParameters> satellites) {
+            this.time = time;
+            this.satellites = satellites;
+        }
+
+        @Override
+        public SatelliteParameters getSatellite(int index) {
+            return satellites.get(index);
+        }
+
+        @Override
+        public int getUsedConstellationSize() {
+            return satellites.size();
+        }
+
+        @Override
+        public Time getTime() {
+            return time;
+        }
+
+        @Override
+        public void setRxPos(Coordinates rxPos) {
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.gnss.ppptesttwo.adjust;
+
+import com.gnss.ppptesttwo.navifromftp.Coordinates;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.RX_CLOCK;
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.RX_X;
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.RX_Y;
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.RX_Z;
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.SATELLITE_DISTANCE;
+import static org.junit.Assert.*;
+
+/**
+ * {@link RobustEstimator} inside the {@link WeightedLeastSquares} iterations, on
+ * synthetic epochs with one multipath outlier
+ */
+public class RobustEstimatorTest {
+
+    private static final int SATELLITES = 12;
+    private static final int EPOCHS = 200;
+
+    @Test
+    public void outlierIsDownweighted() {
+        Random random = new Random(21);
+        WeightedLeastSquares plain = new WeightedLeastSquares();
+        plain.setFaultDetection(false);
+        WeightedLeastSquares huber = new WeightedLeastSquares();
+        huber.setFaultDetection(false);
+        huber.setRobustEstimator(new RobustEstimator(RobustEstimator.HUBER));
+        RobustEstimator igg = new RobustEstimator(RobustEstimator.IGG_III);
+        WeightedLeastSquares igg3 = new WeightedLeastSquares();
+        igg3.setFaultDetection(false);
+        igg3.setRobustEstimator(igg);
+
+        Coordinates start = Coordinates.globalXYZInstance(RX_X + 1e4, RX_Y - 1e4, RX_Z + 1e4);
+        ObservationBuffer epoch = new ObservationBuffer();
+        double plainSum = 0, huberSum = 0, iggSum = 0;
+        int rejected = 0;
+        for (int e = 0; e < EPOCHS; e++) {
+            int outlier = fillEpoch(random, epoch);
+            plainSum += squaredError(plain.solve(epoch, 0, start));
+            huberSum += squaredError(huber.solve(epoch, 0, start));
+            iggSum += squaredError(igg3.solve(epoch, 0, start));
+            // unless the geometry hides it
+            if (igg.getFactor(outlier) < 0.01)
+                rejected++;
+        }
+        double plainRms = Math.sqrt(plainSum / EPOCHS);
+        double huberRms = Math.sqrt(huberSum / EPOCHS);
+        double iggRms = Math.sqrt(iggSum / EPOCHS);
+        assertTrue(rejected > 0.95 * EPOCHS);
+        assertTrue(huberRms < plainRms / 2);
+        assertTrue(iggRms < plainRms / 2);
+    }
+
+    @Test
+    public void factorsFollowTheFunctions() {
+        RobustEstimator huber = new RobustEstimator(RobustEstimator.HUBER);
+        assertEquals(1, huber.factor(1.0), 0);
+        assertEquals(0.5, huber.factor(3.0), 1e-12);
+
+        RobustEstimator igg = new RobustEstimator(RobustEstimator.IGG_III);
+        igg.setThresholds(1.0, 3.0);
+        assertEquals(1, igg.factor(0.5), 0);
+        assertEquals(0.5 * 0.25, igg.factor(2.0), 1e-12);
+        assertTrue(igg.factor(3.5) < 1e-3);
+    }
+
+    private static double squaredError(PositionSolution solution) {
+        assertTrue(solution.isValid());
+        double dx = solution.getPosition().getX() - RX_X;
+        double dy = solution.getPosition().getY() - RX_Y;
+        double dz = solution.getPosition().getZ() - RX_Z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * Satellites above the receiver with 3 m noise at 40 dB-Hz and one 60 m multipath error
+     *
+     * @return index of the outlier
+     */
+    private static int fillEpoch(Random random, ObservationBuffer epoch) {
+        epoch.clear();
+        double[] u = new double[3];
+        int outlier = random.nextInt(SATELLITES);
+        for (int i = 0; i < SATELLITES; i++) {
+            SyntheticEpochs.nextLineOfSight(random, 0.2, u);
+            double d = SATELLITE_DISTANCE;
+            double error = 3 * random.nextGaussian() + (i == outlier ? 60 : 0);
+            int k = epoch.add(i + 1, RX_X + d * u[0], RX_Y + d * u[1], RX_Z + d * u[2], d + RX_CLOCK + error);
+            epoch.cn0[k] = 40;
+        }
+        return outlier;
+    }
+}
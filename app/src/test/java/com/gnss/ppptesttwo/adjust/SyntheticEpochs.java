@@ -0,0 +1,86 @@
+package com.gnss.ppptesttwo.adjust;
+
+import java.util.Random;
+
+/**
+ * Receiver and sky geometry shared by the synthetic epochs of the solver tests
+ */
+final class SyntheticEpochs {
+
+    /* receiver position (ECEF, m), 39.6 N 115.9 E */
+    static final double RX_X = -2148744.0;
+    static final double RX_Y = 4426641.0;
+    static final double RX_Z = 4044655.0;
+
+    /* receiver clock bias (m) */
+    static final double RX_CLOCK = 1234.5;
+
+    /* distance of the simulated satellites from the receiver (m) */
+    static final double SATELLITE_DISTANCE = 2.2e7;
+
+    private SyntheticEpochs() {
+    }
+
+    /**
+     * Random line of sight above the receiver, uniform over the sphere
+     *
+     * @param random
+     * @param minDot smallest cosine with the geocentric vertical of the receiver
+     * @param u      filled with the unit vector from the receiver to the satellite
+     * @return cosine of the line of sight with the vertical, about the sine of the elevation
+     */
+    static double nextLineOfSight(Random random, double minDot, double[] u) {
+        double r = Math.sqrt(RX_X * RX_X + RX_Y * RX_Y + RX_Z * RX_Z);
+        double ux = RX_X / r, uy = RX_Y / r, uz = RX_Z / r;
+        double x, y, z, dot;
+        do {
+            x = 2 * random.nextDouble() - 1;
+            y = 2 * random.nextDouble() - 1;
+            z = 2 * random.nextDouble() - 1;
+            double n = Math.sqrt(x * x + y * y + z * z);
+            x /= n;
+            y /= n;
+            z /= n;
+            dot = x * ux + y * uy + z * uz;
+        } while (dot < minDot);
+        u[0] = x;
+        u[1] = y;
+        u[2] = z;
+        return dot;
+    }
+
+    /**
+     * @param random
+     * @param satellites number of satellites
+     * @return positions (ECEF, m) of satellites spread over the sky above the receiver,
+     * x, y, z interleaved
+     */
+    static double[] sky(Random random, int satellites) {
+        double[] satPos = new double[3 * satellites];
+        double[] u = new double[3];
+        for (int i = 0; i < satellites; i++) {
+            nextLineOfSight(random, 0.1, u);
+            satPos[3 * i] = RX_X + SATELLITE_DISTANCE * u[0];
+            satPos[3 * i + 1] = RX_Y + SATELLITE_DISTANCE * u[1];
+            satPos[3 * i + 2] = RX_Z + SATELLITE_DISTANCE * u[2];
+        }
+        return satPos;
+    }
+
+    /**
+     * Add the error-free pseudorange of satellite i of {@link #sky} to an epoch
+     *
+     * @param clock  receiver clock bias of the system of the satellite (m)
+     * @param system one of the ObservationBuffer systems
+     * @return index of the observation in the epoch
+     */
+    static int addPseudorange(ObservationBuffer epoch, double[] satPos, int i, double clock, int system) {
+        double dx = satPos[3 * i] - RX_X;
+        double dy = satPos[3 * i + 1] - RX_Y;
+        double dz = satPos[3 * i + 2] - RX_Z;
+        int k = epoch.add(i + 1, satPos[3 * i], satPos[3 * i + 1], satPos[3 * i + 2],
+                Math.sqrt(dx * dx + dy * dy + dz * dz) + clock);
+        epoch.system[k] = system;
+        return k;
+    }
+}
@@ -0,0 +1,70 @@
+package com.gnss.ppptesttwo.adjust;
+
+import com.gnss.ppptesttwo.navifromftp.Coordinates;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.RX_CLOCK;
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.RX_X;
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.RX_Y;
+import static com.gnss.ppptesttwo.adjust.SyntheticEpochs.RX_Z;
+import static org.junit.Assert.*;
+
+/**
+ * Receiver clocks of {@link WeightedLeastSquares} on synthetic GPS and Galileo epochs,
+ * and the weighting of the pseudoranges
+ */
+public class WeightedLeastSquaresTest {
+
+    private static final int SATELLITES = 36;
+
+    @Test
+    public void eachSystemGetsItsClock() {
+        double[] satPos = SyntheticEpochs.sky(new Random(13), SATELLITES);
+        double galileoClock = RX_CLOCK - 25.0;
+
+        // GPS and Galileo halves: both clocks are estimated
+        ObservationBuffer epoch = new ObservationBuffer();
+        for (int i = 0; i < SATELLITES; i++) {
+            int system = i % 2 == 0 ? ObservationBuffer.SYSTEM_GPS : ObservationBuffer.SYSTEM_GALILEO;
+            SyntheticEpochs.addPseudorange(epoch, satPos, i,
+                    system == ObservationBuffer.SYSTEM_GPS ? RX_CLOCK : galileoClock, system);
+        }
+        Coordinates start = Coordinates.globalXYZInstance(RX_X + 1e4, RX_Y - 1e4, RX_Z + 1e4);
+        WeightedLeastSquares wls = new WeightedLeastSquares();
+        PositionSolution solution = wls.solve(epoch, 0, start);
+        assertTrue(solution.isValid());
+        assertEquals(2, wls.getClockCount());
+        assertEquals(RX_X, solution.getPosition().getX(), 1e-4);
+        assertEquals(RX_CLOCK, solution.getClockBias(), 1e-4);
+        assertEquals(galileoClock, wls.getClockBias(ObservationBuffer.SYSTEM_GALILEO), 1e-4);
+        assertEquals(0, wls.getFaultDetection().getExcludedCount());
+
+        // a single Galileo satellite shares the GPS clock through the broadcast offset
+        epoch.clear();
+        for (int i = 0; i < SATELLITES; i++) {
+            int system = i == 0 ? ObservationBuffer.SYSTEM_GALILEO : ObservationBuffer.SYSTEM_GPS;
+            SyntheticEpochs.addPseudorange(epoch, satPos, i,
+                    system == ObservationBuffer.SYSTEM_GPS ? RX_CLOCK : galileoClock, system);
+        }
+        epoch.systemOffset[ObservationBuffer.SYSTEM_GALILEO] = galileoClock - RX_CLOCK;
+        solution = wls.solve(epoch, 0, start);
+        assertEquals(1, wls.getClockCount());
+        assertEquals(RX_X, solution.getPosition().getX(), 1e-4);
+        assertEquals(galileoClock, wls.getClockBias(ObservationBuffer.SYSTEM_GALILEO), 1e-4);
+    }
+
+    @Test
+    public void cn0WeightingIsOptIn() {
+        WeightedLeastSquares wls = new WeightedLeastSquares();
+        assertEquals(wls.getMeasurementVariance(0.3), wls.getMeasurementVariance(40, 0.3), 0);
+
+        wls.setCn0Weighting(true);
+        assertEquals(25, wls.getMeasurementVariance(40, 0.3), 1e-9);
+        assertEquals(250, wls.getMeasurementVariance(30, 0.3), 1e-9);
+        // unknown CN0: elevation model
+        assertEquals(wls.getMeasurementVariance(0.3), wls.getMeasurementVariance(0, 0.3), 0);
+    }
+}
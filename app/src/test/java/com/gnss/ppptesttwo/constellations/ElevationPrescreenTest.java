@@ -0,0 +1,100 @@
+package com.gnss.ppptesttwo.constellations;
+
+import com.gnss.ppptesttwo.Time;
+import com.gnss.ppptesttwo.corrections.SatelliteGeometry;
+import com.gnss.ppptesttwo.navifromftp.Coordinates;
+import com.gnss.ppptesttwo.navifromftp.EphemerisStore;
+import com.gnss.ppptesttwo.navifromftp.RinexNavigationParserGps;
+import com.gnss.ppptesttwo.navifromftp.SatellitePosition;
+import com.gnss.ppptesttwo.navifromftp.SatelliteState;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ElevationPrescreen} on a GPS replay of brdc0980.20n, and the cases in which it
+ * must leave the satellite to the exact path
+ */
+public class ElevationPrescreenTest {
+
+    private static final double MASK = 20;
+
+    private static final Coordinates RECEIVER = Coordinates.globalXYZInstance(-2148744.0, 4426641.0, 4044655.0);
+
+    @Test
+    public void screenedSatellitesAreBelowTheMask() throws Exception {
+        RinexNavigationParserGps rnp = new RinexNavigationParserGps(new File("brdc0980.20n"));
+        rnp.init();
+        ElevationPrescreen prescreen = new ElevationPrescreen(MASK, 2, 60000);
+        SatelliteState state = new SatelliteState();
+        SatelliteGeometry geometry = new SatelliteGeometry();
+        geometry.setReceiver(RECEIVER);
+
+        // 1 Hz over six hours, all GPS satellites, as the constellation loop does
+        long start = new Time("2020 04 07 03 00 00.0").getMsec();
+        int healthy = 0;
+        for (long unixTime = start; unixTime < start + 6 * 3600000L; unixTime += 1000) {
+            for (int satID = 1; satID <= 32; satID++) {
+                boolean screened = prescreen.isBelowMask(satID, unixTime, RECEIVER);
+                if (!rnp.getSatState(unixTime, 2.2e7, satID, 'G', 0, state))
+                    continue;
+                healthy++;
+                geometry.setSatellite(new SatellitePosition(unixTime, satID, 'G', state.x, state.y, state.z));
+                if (screened) {
+                    assertTrue("G" + satID + " at " + unixTime, geometry.getElevation() < MASK);
+                } else {
+                    prescreen.update(satID, unixTime, state.x, state.y, state.z, state.vx, state.vy, state.vz);
+                }
+            }
+        }
+        // about three quarters of the satellite-epochs are well below a 20 degree mask
+        assertTrue(healthy > 500000);
+        assertTrue(prescreen.getSkipped() + " of " + healthy, prescreen.getSkipped() > 0.7 * healthy);
+    }
+
+    @Test
+    public void exactPathWhenThePredictionIsUnreliable() {
+        ElevationPrescreen prescreen = new ElevationPrescreen(MASK, 2, 60000);
+        long t0 = 1586217600000L;
+        // straight below the receiver, on the other side of the Earth
+        prescreen.update(5, t0, 2148744.0 * 4, -4426641.0 * 4, -4044655.0 * 4, 0, 0, 0);
+        assertTrue(prescreen.isBelowMask(5, t0 + 1000, RECEIVER));
+        assertEquals(1, prescreen.getSkipped());
+
+        // no state yet, state too old, or older than the epoch
+        assertFalse(prescreen.isBelowMask(6, t0 + 1000, RECEIVER));
+        assertFalse(prescreen.isBelowMask(5, t0 + 60001, RECEIVER));
+        assertFalse(prescreen.isBelowMask(5, t0 - 1, RECEIVER));
+        // receiver position not solved yet
+        assertFalse(prescreen.isBelowMask(5, t0 + 1000, Coordinates.globalXYZInstance(0, 0, 0)));
+        assertEquals(1, prescreen.getSkipped());
+
+        // within the margin of the mask: 19 degrees above the local horizon
+        double[] up = unit(RECEIVER);
+        double[] north = unit(new double[]{-up[0] * up[2], -up[1] * up[2], 1 - up[2] * up[2]});
+        double e = Math.toRadians(MASK - 1);
+        double d = 2.2e7;
+        prescreen.update(7, t0, RECEIVER.getX() + d * (Math.cos(e) * north[0] + Math.sin(e) * up[0]),
+                RECEIVER.getY() + d * (Math.cos(e) * north[1] + Math.sin(e) * up[1]),
+                RECEIVER.getZ() + d * (Math.cos(e) * north[2] + Math.sin(e) * up[2]), 0, 0, 0);
+        assertFalse(prescreen.isBelowMask(7, t0 + 1000, RECEIVER));
+
+        // IDs of every system are kept
+        prescreen.update(EphemerisStore.MAX_SAT_ID, t0, 2148744.0 * 4, -4426641.0 * 4, -4044655.0 * 4, 0, 0, 0);
+        assertTrue(prescreen.isBelowMask(EphemerisStore.MAX_SAT_ID, t0 + 1000, RECEIVER));
+        prescreen.update(EphemerisStore.MAX_SAT_ID + 1, t0, 2148744.0 * 4, -4426641.0 * 4, -4044655.0 * 4, 0, 0, 0);
+        assertFalse(prescreen.isBelowMask(EphemerisStore.MAX_SAT_ID + 1, t0 + 1000, RECEIVER));
+    }
+
+    private static double[] unit(Coordinates c) {
+        return unit(new double[]{c.getX(), c.getY(), c.getZ()});
+    }
+
+    private static double[] unit(double[] v) {
+        double n = Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+        return new double[]{v[0] / n, v[1] / n, v[2] / n};
+    }
+}
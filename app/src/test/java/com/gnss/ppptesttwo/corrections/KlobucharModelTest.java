@@ -0,0 +1,203 @@
+package com.gnss.ppptesttwo.corrections;
+
+import com.gnss.ppptesttwo.Constants;
+import com.gnss.ppptesttwo.Time;
+import com.gnss.ppptesttwo.navifromftp.Coordinates;
+import com.gnss.ppptesttwo.navifromftp.IonoGalileo;
+import com.gnss.ppptesttwo.navifromftp.IonoGps;
+import com.gnss.ppptesttwo.navifromftp.NavigationIono;
+import com.gnss.ppptesttwo.navifromftp.SatellitePosition;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * {@link KlobucharModel} against the per satellite formula {@link IonoCorrection} used to
+ * evaluate, its coefficient cache, the missing coefficients, and its cost per epoch as an
+ * opt-in benchmark
+ */
+public class KlobucharModelTest {
+
+    private static final int SATELLITES = 12;
+    private static final int EPOCHS = 20000;
+
+    private static final float[] ALPHA = {1.1176e-8f, 7.4506e-9f, -5.9605e-8f, -5.9605e-8f};
+    private static final float[] BETA = {90112f, 0f, -196608f, -65536f};
+
+    @Test
+    public void batchMatchesTheFormula() {
+        Random random = new Random(19);
+        KlobucharModel model = new KlobucharModel();
+        assertTrue(model.update(navigation(ionoGps(ALPHA, BETA))));
+        double[] azimuth = new double[SATELLITES];
+        double[] elevation = new double[SATELLITES];
+        double[] delay = new double[SATELLITES];
+        for (int e = 0; e < 500; e++) {
+            double lat = 170 * random.nextDouble() - 85;
+            double lon = 360 * random.nextDouble() - 180;
+            double time = 604800 * random.nextDouble();
+            for (int i = 0; i < SATELLITES; i++) {
+                azimuth[i] = 360 * random.nextDouble();
+                elevation[i] = 90 * random.nextDouble();
+            }
+            model.evaluate(lat, lon, time, azimuth, elevation, SATELLITES, delay);
+            for (int i = 0; i < SATELLITES; i++) {
+                double expected = formula(lat, lon, time, azimuth[i], elevation[i]);
+                assertEquals(expected, delay[i], 1e-9);
+                assertEquals(delay[i], model.getDelay(lat, lon, time, azimuth[i], elevation[i]), 0);
+                assertTrue(delay[i] > 0);
+            }
+        }
+    }
+
+    @Test
+    public void coefficientsAreCachedPerNavigationData() {
+        KlobucharModel model = new KlobucharModel();
+        IonoGps first = ionoGps(ALPHA, BETA);
+        NavigationIono navigation = navigation(first);
+        model.update(navigation);
+        double delay = model.getDelay(45, 10, 50400, 0, 30);
+
+        // same object: not read again
+        first.setAlpha(new float[]{0, 0, 0, 0});
+        model.update(navigation);
+        assertEquals(delay, model.getDelay(45, 10, 50400, 0, 30), 0);
+
+        // new navigation file
+        model.update(navigation(ionoGps(new float[]{0, 0, 0, 0}, BETA)));
+        assertTrue(model.getDelay(45, 10, 50400, 0, 30) < delay);
+    }
+
+    @Test
+    public void missingCoefficientsGiveNoCorrection() {
+        KlobucharModel model = new KlobucharModel();
+        assertFalse(model.update(null));
+        assertFalse(model.update(navigation(null)));
+        assertEquals(0, model.getDelay(45, 10, 50400, 0, 30), 0);
+        assertFalse(model.update(navigation(ionoGps(ALPHA, new float[]{0, 0, 0, 0}))));
+        double[] delay = {1, 1};
+        model.evaluate(45, 10, 50400, new double[]{0, 90}, new double[]{30, 60}, 2, delay);
+        assertEquals(0, delay[0], 0);
+        assertEquals(0, delay[1], 0);
+
+        // Galileo navigation data has no Klobuchar coefficients
+        IonoCorrection correction = new IonoCorrection();
+        SatelliteGeometry geometry = new SatelliteGeometry();
+        geometry.compute(Coordinates.globalXYZInstance(-2148744.0, 4426641.0, 4044655.0),
+                new SatellitePosition(0, 1, 'E', -2148744.0, 4426641.0 + 2e7, 4044655.0 + 1e7));
+        correction.calculateCorrection(new Time(1586228400000L), geometry, navigation(null));
+        assertEquals(0, correction.getCorrection(), 0);
+    }
+
+    /**
+     * Wall-clock benchmark, run only with -Dbenchmark=true
+     */
+    @Test
+    public void batchIsCheaper() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        Random random = new Random(23);
+        double[] azimuth = new double[SATELLITES];
+        double[] elevation = new double[SATELLITES];
+        double[] delay = new double[SATELLITES];
+        for (int i = 0; i < SATELLITES; i++) {
+            azimuth[i] = 360 * random.nextDouble();
+            elevation[i] = 10 + 80 * random.nextDouble();
+        }
+        KlobucharModel model = new KlobucharModel();
+        NavigationIono navigation = navigation(ionoGps(ALPHA, BETA));
+
+        // best of five passes on the same input, the first one warms up
+        double formulaSum = 0;
+        double batchSum = 0;
+        long formulaNanos = Long.MAX_VALUE;
+        long batchNanos = Long.MAX_VALUE;
+        for (int pass = 0; pass < 5; pass++) {
+            long t0 = System.nanoTime();
+            for (int e = 0; e < EPOCHS; e++) {
+                for (int i = 0; i < SATELLITES; i++) {
+                    formulaSum += formula(39.6, 116.3, 3600.0 * e / 100, azimuth[i], elevation[i]);
+                }
+            }
+            long t1 = System.nanoTime();
+            for (int e = 0; e < EPOCHS; e++) {
+                model.update(navigation);
+                model.evaluate(39.6, 116.3, 3600.0 * e / 100, azimuth, elevation, SATELLITES, delay);
+                for (int i = 0; i < SATELLITES; i++) {
+                    batchSum += delay[i];
+                }
+            }
+            long t2 = System.nanoTime();
+            formulaNanos = Math.min(formulaNanos, t1 - t0);
+            batchNanos = Math.min(batchNanos, t2 - t1);
+        }
+        assertEquals(formulaSum, batchSum, 1e-9 * formulaSum);
+        // 2.1 to 2.5 times cheaper when measured alone
+        assertTrue("formula " + formulaNanos / EPOCHS + " ns/epoch, batch " + batchNanos / EPOCHS + " ns/epoch",
+                1.3 * batchNanos < formulaNanos);
+    }
+
+    /**
+     * Klobuchar as formerly evaluated by {@link IonoCorrection}, angles in degrees
+     */
+    private static double formula(double latitude, double longitude, double gpsTime, double azimuth, double elevation) {
+        elevation = Math.abs(elevation);
+        double lon = longitude / 180;
+        double lat = latitude / 180;
+        azimuth = azimuth / 180;
+        elevation = elevation / 180;
+
+        double f = 1 + 16 * Math.pow((0.53 - elevation), 3);
+        double psi = 0.0137 / (elevation + 0.11) - 0.022;
+        double phi = lat + psi * Math.cos(azimuth * Math.PI);
+        if (phi > 0.416) {
+            phi = 0.416;
+        }
+        if (phi < -0.416) {
+            phi = -0.416;
+        }
+        double lambda = lon + (psi * Math.sin(azimuth * Math.PI)) / Math.cos(phi * Math.PI);
+        double ro = phi + 0.064 * Math.cos((lambda - 1.617) * Math.PI);
+        double t = lambda * 43200 + gpsTime;
+        while (t >= 86400)
+            t = t - 86400;
+        while (t < 0)
+            t = t + 86400;
+
+        double p = BETA[0] + BETA[1] * ro + BETA[2] * Math.pow(ro, 2) + BETA[3] * Math.pow(ro, 3);
+        if (p < 72000)
+            p = 72000;
+        double a = ALPHA[0] + ALPHA[1] * ro + ALPHA[2] * Math.pow(ro, 2) + ALPHA[3] * Math.pow(ro, 3);
+        if (a < 0)
+            a = 0;
+        double x = (2 * Math.PI * (t - 50400)) / p;
+        if (Math.abs(x) < 1.57) {
+            return Constants.SPEED_OF_LIGHT * f * (5e-9 + a * (1 - (Math.pow(x, 2)) / 2 + (Math.pow(x, 4)) / 24));
+        }
+        return Constants.SPEED_OF_LIGHT * f * 5e-9;
+    }
+
+    private static IonoGps ionoGps(float[] alpha, float[] beta) {
+        IonoGps ionoGps = new IonoGps();
+        ionoGps.setAlpha(alpha.clone());
+        ionoGps.setBeta(beta.clone());
+        return ionoGps;
+    }
+
+    private static NavigationIono navigation(final IonoGps ionoGps) {
+        return new NavigationIono() {
+            @Override
+            public IonoGps getIonoGps() {
+                return ionoGps;
+            }
+
+            @Override
+            public IonoGalileo getIonoGalileo() {
+                return null;
+            }
+        };
+    }
+}
@@ -0,0 +1,113 @@
+package com.gnss.ppptesttwo.corrections;
+
+import com.gnss.ppptesttwo.Constants;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link SaastamoinenModel} against the per satellite Saastamoinen formula that
+ * {@link TropoCorrection} used to evaluate, its height cache and the error of the cached
+ * terms under a drifting height
+ */
+public class SaastamoinenModelTest {
+
+    private static final int SATELLITES = 12;
+    private static final int EPOCHS = 20000;
+
+    @Test
+    public void delayMatchesTheFormula() {
+        SaastamoinenModel model = new SaastamoinenModel();
+        model.setHeightThreshold(0);
+        double[] heights = {-50, 0, 120, 499.5, 500, 1733, 4999};
+        double[] elevations = {0, 0.05, 0.2, 0.7, 1.2, Math.PI / 2, -0.3};
+        for (double height : heights) {
+            model.setHeight(height);
+            for (double elevation : elevations) {
+                double expected = formula(height, elevation);
+                assertEquals(expected, model.getDelay(elevation), 1e-9 * Math.abs(expected));
+            }
+        }
+        // zenith delay at sea level
+        model.setHeight(0);
+        assertEquals(2.4, model.getDelay(Math.PI / 2), 0.1);
+
+        model.setHeight(SaastamoinenModel.MAX_HEIGHT + 1);
+        assertEquals(0, model.getDelay(0.5), 0);
+    }
+
+    @Test
+    public void receiverTermsFollowTheThreshold() {
+        SaastamoinenModel model = new SaastamoinenModel();
+        model.setHeightThreshold(5);
+        model.setHeight(100);
+        double delay = model.getDelay(0.4);
+        model.setHeight(104);
+        assertEquals(1, model.getUpdates());
+        assertEquals(100, model.getHeight(), 0);
+        assertEquals(delay, model.getDelay(0.4), 0);
+        model.setHeight(106);
+        assertEquals(2, model.getUpdates());
+        assertEquals(formula(106, 0.4), model.getDelay(0.4), 1e-9);
+    }
+
+    @Test
+    public void heightDriftWithinTheThresholdCostsMillimetres() {
+        Random random = new Random(11);
+        double[] elevations = new double[SATELLITES];
+        for (int i = 0; i < SATELLITES; i++) {
+            elevations[i] = 0.1 + 1.4 * random.nextDouble();
+        }
+        SaastamoinenModel model = new SaastamoinenModel();
+
+        // 2 m of height drift, recomputed once per metre by default
+        double worst = 0;
+        for (int e = 0; e < EPOCHS; e++) {
+            double height = 250 + 1e-4 * e;
+            model.setHeight(height);
+            for (int i = 0; i < SATELLITES; i++) {
+                worst = Math.max(worst, Math.abs(model.getDelay(elevations[i]) - formula(height, elevations[i])));
+            }
+        }
+        // 2.4 mm at the lowest elevation, up to 1 m below the receiver
+        assertTrue("worst " + worst, worst < 3e-3);
+        assertEquals(2, model.getUpdates());
+    }
+
+    /**
+     * Saastamoinen as formerly evaluated for every satellite
+     */
+    private static double formula(double height, double elevation) {
+        elevation = Math.abs(elevation);
+        if (elevation == 0) {
+            elevation = elevation + 0.01;
+        }
+
+        final double hr = 50.0;
+        final int[] ha = {0, 500, 1000, 1500, 2000, 2500, 3000, 4000, 5000};
+        final double[] ba = {1.156, 1.079, 1.006, 0.938, 0.874, 0.813, 0.757, 0.654, 0.563};
+
+        double P = Constants.STANDARD_PRESSURE * Math.pow((1 - 0.0000226 * height), 5.225);
+        double T = Constants.STANDARD_TEMPERATURE - 0.0065 * height;
+        double H = hr * Math.exp(-0.0006396 * height);
+
+        double B = ba[0];
+        if (height >= 0) {
+            int i = 1;
+            while (height > ha[i]) {
+                i++;
+            }
+            double m = (ba[i] - ba[i - 1]) / (ha[i] - ha[i - 1]);
+            B = ba[i - 1] + m * (height - ha[i - 1]);
+        }
+
+        double e = 0.01 * H * Math.exp(-37.2465 + 0.213166 * T - 0.000256908 * Math.pow(T, 2));
+
+        return ((0.002277 / Math.sin(elevation))
+                * (P - (B / Math.pow(Math.tan(elevation), 2))) + (0.002277 / Math.sin(elevation))
+                * (1255 / T + 0.05) * e);
+    }
+}
@@ -0,0 +1,213 @@
+package com.gnss.ppptesttwo.corrections;
+
+import com.gnss.ppptesttwo.Time;
+import com.gnss.ppptesttwo.navifromftp.Coordinates;
+import com.gnss.ppptesttwo.navifromftp.IonoGalileo;
+import com.gnss.ppptesttwo.navifromftp.IonoGps;
+import com.gnss.ppptesttwo.navifromftp.NavigationIono;
+import com.gnss.ppptesttwo.navifromftp.SatellitePosition;
+
+import org.ejml.simple.SimpleMatrix;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * {@link SatelliteGeometry} against {@link TopocentricCoordinates}, the corrections
+ * computed from a shared geometry against the coordinates path, the corrections of a
+ * whole epoch against the per satellite calls, and the cost of the geometry of one epoch
+ * as an opt-in benchmark
+ */
+public class SatelliteGeometryTest {
+
+    private static final int SATELLITES = 12;
+    private static final int EPOCHS = 20000;
+
+    private static final double RX_X = -2148744.0;
+    private static final double RX_Y = 4426641.0;
+    private static final double RX_Z = 4044655.0;
+
+    private static final Time TIME = new Time(1586228400000L);
+
+    @Test
+    public void geometryMatchesTopocentricCoordinates() {
+        Coordinates rx = Coordinates.globalXYZInstance(RX_X, RX_Y, RX_Z);
+        SatellitePosition[] satellites = sky(new Random(3));
+        SatelliteGeometry geometry = new SatelliteGeometry();
+        geometry.setReceiver(rx);
+        for (SatellitePosition satellite : satellites) {
+            geometry.setSatellite(satellite);
+            TopocentricCoordinates topo = new TopocentricCoordinates(rx, satellite);
+            assertEquals(topo.getAzimuth(), geometry.getAzimuth(), 1e-9);
+            assertEquals(topo.getElevation(), geometry.getElevation(), 1e-9);
+            assertEquals(topo.getDistance(), geometry.getRange(), 1e-6);
+            assertEquals(rx.getE(), geometry.getE(), 1e-6);
+            assertEquals(rx.getN(), geometry.getN(), 1e-6);
+            assertEquals(rx.getU(), geometry.getU(), 1e-6);
+
+            SimpleMatrix diff = rx.minusXYZ(satellite);
+            assertEquals(diff.normF(), geometry.getRange(), 1e-6);
+        }
+        assertEquals(rx.getGeodeticLatitude(), geometry.getLatitude(), 0);
+        assertEquals(rx.getGeodeticHeight(), geometry.getHeight(), 0);
+        SimpleMatrix rotation = Coordinates.rotationMatrix(rx);
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 3; c++) {
+                assertEquals(rotation.get(r, c), geometry.getRotation(r, c), 0);
+            }
+        }
+    }
+
+    @Test
+    public void sharedGeometryGivesTheSameCorrections() {
+        Coordinates rx = Coordinates.globalXYZInstance(RX_X, RX_Y, RX_Z);
+        SatellitePosition[] satellites = sky(new Random(5));
+        NavigationIono iono = klobuchar();
+        Correction[] corrections = {new IonoCorrection(), new TropoCorrection(), new ShapiroCorrection()};
+        SatelliteGeometry geometry = new SatelliteGeometry();
+        geometry.setReceiver(rx);
+        for (SatellitePosition satellite : satellites) {
+            geometry.setSatellite(satellite);
+            for (Correction correction : corrections) {
+                correction.calculateCorrection(TIME, rx, satellite, iono);
+                double expected = correction.getCorrection();
+                correction.calculateCorrection(TIME, geometry, iono);
+                assertEquals(correction.getName(), expected, correction.getCorrection(), 0);
+                assertTrue(correction.getName(), expected > 0);
+            }
+        }
+    }
+
+    @Test
+    public void epochCorrectionsMatchThePerSatelliteCalls() {
+        Coordinates rx = Coordinates.globalXYZInstance(RX_X, RX_Y, RX_Z);
+        SatellitePosition[] satellites = sky(new Random(11));
+        NavigationIono iono = klobuchar();
+        TropoCorrection niell = new TropoCorrection();
+        niell.setTroposphereModel(new TroposphereModel());
+        List<Correction> corrections = Arrays.asList(new IonoCorrection(), new TropoCorrection(),
+                niell, new ShapiroCorrection());
+        SatelliteGeometry geometry = new SatelliteGeometry();
+        geometry.setReceiver(rx);
+
+        // fewer slots than satellites, so the arrays grow
+        EpochCorrections epochCorrections = new EpochCorrections(4);
+        for (SatellitePosition satellite : satellites) {
+            geometry.setSatellite(satellite);
+            assertEquals(epochCorrections.size,
+                    epochCorrections.add(satellite, geometry.getAzimuth(), geometry.getElevation()));
+        }
+        epochCorrections.apply(corrections, TIME, geometry, iono);
+        assertEquals(SATELLITES, epochCorrections.size);
+        for (int i = 0; i < SATELLITES; i++) {
+            geometry.setSatellite(satellites[i]);
+            double expected = 0;
+            for (Correction correction : corrections) {
+                correction.calculateCorrection(TIME, geometry, iono);
+                expected += correction.getCorrection();
+            }
+            assertEquals(expected, epochCorrections.total[i], 1e-9);
+        }
+
+        epochCorrections.clear();
+        assertEquals(0, epochCorrections.size);
+        assertNull(epochCorrections.satellite[0]);
+    }
+
+    /**
+     * Wall-clock benchmark, run only with -Dbenchmark=true
+     */
+    @Test
+    public void sharedGeometryIsCheaper() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        Coordinates rx = Coordinates.globalXYZInstance(RX_X, RX_Y, RX_Z);
+        SatellitePosition[] satellites = sky(new Random(7));
+        NavigationIono iono = klobuchar();
+        Correction[] corrections = {new IonoCorrection(), new TropoCorrection(), new ShapiroCorrection()};
+        SatelliteGeometry geometry = new SatelliteGeometry();
+
+        // best of five passes on the same input, the first one warms up
+        double perCorrectionSum = 0;
+        double sharedSum = 0;
+        long perCorrectionNanos = Long.MAX_VALUE;
+        long sharedNanos = Long.MAX_VALUE;
+        for (int pass = 0; pass < 5; pass++) {
+            long t0 = System.nanoTime();
+            for (int e = 0; e < EPOCHS; e++) {
+                for (SatellitePosition satellite : satellites) {
+                    for (Correction correction : corrections) {
+                        correction.calculateCorrection(TIME, rx, satellite, iono);
+                        perCorrectionSum += correction.getCorrection();
+                    }
+                }
+            }
+            long t1 = System.nanoTime();
+            for (int e = 0; e < EPOCHS; e++) {
+                geometry.setReceiver(rx);
+                for (SatellitePosition satellite : satellites) {
+                    geometry.setSatellite(satellite);
+                    for (Correction correction : corrections) {
+                        correction.calculateCorrection(TIME, geometry, iono);
+                        sharedSum += correction.getCorrection();
+                    }
+                }
+            }
+            long t2 = System.nanoTime();
+            perCorrectionNanos = Math.min(perCorrectionNanos, t1 - t0);
+            sharedNanos = Math.min(sharedNanos, t2 - t1);
+        }
+        assertEquals(perCorrectionSum, sharedSum, 1e-6 * Math.abs(perCorrectionSum));
+        // about 6 times cheaper when measured alone
+        assertTrue("geometry per correction " + perCorrectionNanos / EPOCHS + " ns/epoch, shared "
+                + sharedNanos / EPOCHS + " ns/epoch", 3 * sharedNanos < perCorrectionNanos);
+    }
+
+    /**
+     * GPS-like satellites above the receiver
+     */
+    private static SatellitePosition[] sky(Random random) {
+        double r = Math.sqrt(RX_X * RX_X + RX_Y * RX_Y + RX_Z * RX_Z);
+        double ux = RX_X / r, uy = RX_Y / r, uz = RX_Z / r;
+        SatellitePosition[] satellites = new SatellitePosition[SATELLITES];
+        for (int i = 0; i < SATELLITES; i++) {
+            double x, y, z;
+            do {
+                x = 2 * random.nextDouble() - 1;
+                y = 2 * random.nextDouble() - 1;
+                z = 2 * random.nextDouble() - 1;
+                double n = Math.sqrt(x * x + y * y + z * z);
+                x /= n;
+                y /= n;
+                z /= n;
+            } while (x * ux + y * uy + z * uz < 0.2);
+            double d = 2.2e7;
+            satellites[i] = new SatellitePosition(TIME.getMsec(), i + 1, 'G', RX_X + d * x, RX_Y + d * y, RX_Z + d * z);
+        }
+        return satellites;
+    }
+
+    /**
+     * Broadcast Klobuchar coefficients of a quiet day
+     */
+    private static NavigationIono klobuchar() {
+        final IonoGps ionoGps = new IonoGps();
+        ionoGps.setAlpha(new float[]{1.1176e-8f, 7.4506e-9f, -5.9605e-8f, -5.9605e-8f});
+        ionoGps.setBeta(new float[]{90112f, 0f, -196608f, -65536f});
+        return new NavigationIono() {
+            @Override
+            public IonoGps getIonoGps() {
+                return ionoGps;
+            }
+
+            @Override
+            public IonoGalileo getIonoGalileo() {
+                return null;
+            }
+        };
+    }
+}
@@ -0,0 +1,227 @@
+package com.gnss.ppptesttwo.corrections;
+
+import com.gnss.ppptesttwo.PositioningData;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link SphericalHarmonicIonosphere} against the closed forms of the low degree Legendre
+ * functions, the stability of its recursion at high degree, the packed coefficients of
+ * {@link PositioningData.IonoData}, the pierce points near both poles, and an epoch of
+ * degree 15 against the VTEC of each pierce point
+ */
+public class SphericalHarmonicIonosphereTest {
+
+    private static final int SATELLITES = 12;
+
+    /* 6370 km sphere */
+    private static final double EARTH_RADIUS = 6370000;
+
+    @Test
+    public void lowDegreesMatchClosedForms() {
+        double phi = Math.toRadians(39.6);
+        double t = Math.sin(phi);
+        double u = Math.cos(phi);
+        double[][] expected = {
+                {1},
+                {Math.sqrt(3) * t, Math.sqrt(3) * u},
+                {Math.sqrt(5) / 2 * (3 * t * t - 1), Math.sqrt(15) * t * u, Math.sqrt(15) / 2 * u * u},
+                {Math.sqrt(7) / 2 * (5 * t * t * t - 3 * t), Math.sqrt(42) / 4 * u * (5 * t * t - 1),
+                        Math.sqrt(105) / 2 * t * u * u, Math.sqrt(70) / 4 * u * u * u}};
+        for (int n = 0; n < expected.length; n++) {
+            for (int m = 0; m <= n; m++) {
+                SphericalHarmonicIonosphere ionosphere = new SphericalHarmonicIonosphere();
+                PositioningData.IonoData ionoData = new PositioningData().new IonoData();
+                ionoData.setCosineC1(1, n, m);
+                ionoData.setSineS1(0.5, n, m);
+                ionosphere.setCoefficients(ionoData);
+                // at lambda_s = 0.3 rad
+                double lam = 0.3 - (43200 - 50400) * Math.PI / 43200;
+                double vtec = ionosphere.vtec(phi, lam, 43200);
+                assertEquals(expected[n][m] * (Math.cos(m * 0.3) + 0.5 * Math.sin(m * 0.3)), vtec, 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void recursionIsStableAtHighDegree() {
+        PositioningData.IonoData ionoData = new PositioningData().new IonoData();
+        ionoData.setCosineC1(1, 90, 90);
+        SphericalHarmonicIonosphere ionosphere = new SphericalHarmonicIonosphere();
+        ionosphere.setCoefficients(ionoData);
+        assertEquals(90, ionosphere.getDegree());
+        for (double latitude : new double[]{0, 12.5, 45, 80, 89.9}) {
+            double phi = Math.toRadians(latitude);
+            ionosphere.legendre(Math.sin(phi), Math.cos(phi));
+            // addition theorem: sum over m of P_nm^2 = 2n + 1
+            for (int n = 0; n <= 90; n++) {
+                double sum = 0;
+                for (int m = 0; m <= n; m++) {
+                    sum += ionosphere.normalizedLegendre(n, m) * ionosphere.normalizedLegendre(n, m);
+                }
+                assertEquals(2 * n + 1, sum, 1e-9 * (2 * n + 1));
+            }
+        }
+    }
+
+    @Test
+    public void coefficientsArePackedByDegree() {
+        PositioningData.IonoData ionoData = new PositioningData().new IonoData();
+        ionoData.setLayers(1);
+        ionoData.setHeight(450000, 0);
+        ionoData.setDegree(4, 0);
+        ionoData.setOrder(2, 0);
+        assertEquals(15, ionoData.getPackedCosineC().length);
+        ionoData.setCosineC1(2.5, 3, 1);
+        ionoData.setSineS1(-1.5, 4, 2);
+        assertEquals(2.5, ionoData.getCosineC(3, 1), 0);
+        assertEquals(2.5, ionoData.getPackedCosineC()[ionoData.packedIndex(3, 1)], 0);
+        assertEquals(-1.5, ionoData.getSineS(4, 2), 0);
+        assertEquals(0, ionoData.getCosineC(10, 3), 0);
+        assertEquals(4, ionoData.getCoefficientDegree());
+        ionoData.setCosineC1(1, 6, 6);
+        assertEquals(28, ionoData.getPackedCosineC().length);
+
+        SphericalHarmonicIonosphere ionosphere = new SphericalHarmonicIonosphere();
+        ionosphere.setCoefficients(ionoData);
+        assertEquals(4, ionosphere.getDegree());
+        assertEquals(2, ionosphere.getOrder());
+    }
+
+    @Test
+    public void zenithDelayOfAConstantLayer() {
+        PositioningData.IonoData ionoData = new PositioningData().new IonoData();
+        ionoData.setCosineC1(20, 0, 0);
+        SphericalHarmonicIonosphere ionosphere = new SphericalHarmonicIonosphere();
+        ionosphere.setCoefficients(ionoData);
+        double[] vtec = new double[2];
+        double[] delay = new double[2];
+        ionosphere.evaluate(39.6, 116.3, 3600, new double[]{0, 90}, new double[]{90, 10}, 2, vtec, delay);
+        assertEquals(20, vtec[0], 1e-12);
+        assertEquals(20, vtec[1], 1e-12);
+        // 0.162 m per TECU on L1, 2.55 times more at 10 degrees through a 450 km layer
+        assertEquals(0.1624 * 20, delay[0], 1e-3);
+        assertEquals(2.55 * delay[0], delay[1], 0.01 * delay[1]);
+        // 10 degrees above the southern horizon
+        ionosphere.evaluate(39.6, 116.3, 3600, new double[]{180}, new double[]{10}, 1, vtec, delay);
+        double psi = 80 - Math.toDegrees(Math.asin(6370.0 / 6820.0 * Math.cos(Math.toRadians(10))));
+        assertEquals(39.6 - psi, Math.toDegrees(ionosphere.getPierceLatitude()), 1e-9);
+        assertEquals(116.3, Math.toDegrees(ionosphere.getPierceLongitude()), 1e-9);
+
+        SphericalHarmonicIonosphere empty = new SphericalHarmonicIonosphere();
+        empty.evaluate(39.6, 116.3, 3600, new double[]{0}, new double[]{45}, 1, vtec, delay);
+        assertEquals(0, vtec[0], 0);
+    }
+
+    @Test
+    public void piercePointsAcrossThePoles() {
+        SphericalHarmonicIonosphere ionosphere = new SphericalHarmonicIonosphere();
+        double[] vtec = new double[1];
+        double[] latitudes = {80, -80, 85, -85, 60, -60};
+        for (double latitude : latitudes) {
+            for (int a = 0; a < 360; a += 15) {
+                ionosphere.evaluate(latitude, 0, 3600, new double[]{a}, new double[]{10}, 1, vtec, null);
+                assertPiercePoint(ionosphere, latitude, a, 10, 450000);
+            }
+        }
+        // 80 S: east of the receiver, or across the pole towards the south
+        ionosphere.evaluate(-80, 0, 3600, new double[]{0}, new double[]{10}, 1, vtec, null);
+        assertEquals(0, Math.toDegrees(ionosphere.getPierceLongitude()), 1e-9);
+        ionosphere.evaluate(-80, 0, 3600, new double[]{90}, new double[]{10}, 1, vtec, null);
+        assertEquals(53.3, Math.toDegrees(ionosphere.getPierceLongitude()), 0.05);
+        ionosphere.evaluate(-80, 0, 3600, new double[]{180}, new double[]{10}, 1, vtec, null);
+        assertEquals(180, Math.toDegrees(ionosphere.getPierceLongitude()), 1e-9);
+
+        // a 1000 km layer at the horizon: psi is 30 degrees, so receivers below 70 degrees
+        // see pierce points beyond the pole too
+        PositioningData.IonoData ionoData = new PositioningData().new IonoData();
+        ionoData.setCosineC1(20, 0, 0);
+        ionoData.setLayers(1);
+        ionoData.setHeight(1000000, 0);
+        ionosphere.setCoefficients(ionoData);
+        double[] lowLatitudes = {65, -65, 69.5, -69.5, 30, -30};
+        double[] elevations = {0, 5};
+        for (double latitude : lowLatitudes) {
+            for (double elevation : elevations) {
+                for (int a = 0; a < 360; a += 15) {
+                    ionosphere.evaluate(latitude, 0, 3600, new double[]{a}, new double[]{elevation}, 1, vtec, null);
+                    assertPiercePoint(ionosphere, latitude, a, elevation, 1000000);
+                }
+            }
+        }
+        ionosphere.evaluate(65, 0, 3600, new double[]{0}, new double[]{0}, 1, vtec, null);
+        assertEquals(180, Math.toDegrees(ionosphere.getPierceLongitude()), 1e-9);
+    }
+
+    /**
+     * Pierce point of the last satellite evaluated against {@link #piercePoint}
+     */
+    private static void assertPiercePoint(SphericalHarmonicIonosphere ionosphere, double latitude,
+                                          double azimuth, double elevation, double layerHeight) {
+        String message = latitude + " " + azimuth + " " + elevation;
+        double[] expected = piercePoint(latitude, azimuth, elevation, layerHeight);
+        assertEquals(message, expected[0], Math.toDegrees(ionosphere.getPierceLatitude()), 1e-9);
+        double dLon = Math.toDegrees(ionosphere.getPierceLongitude()) - expected[1];
+        dLon -= 360 * Math.floor(dLon / 360 + 0.5);
+        assertEquals(message, 0, dLon, 1e-9);
+    }
+
+    @Test
+    public void epochMatchesThePiercePoints() {
+        Random random = new Random(29);
+        PositioningData.IonoData ionoData = new PositioningData().new IonoData();
+        for (int n = 0; n <= 15; n++) {
+            for (int m = 0; m <= n; m++) {
+                ionoData.setCosineC1(random.nextGaussian(), n, m);
+                if (m > 0)
+                    ionoData.setSineS1(random.nextGaussian(), n, m);
+            }
+        }
+        SphericalHarmonicIonosphere ionosphere = new SphericalHarmonicIonosphere();
+        ionosphere.setCoefficients(ionoData);
+        double[] azimuth = new double[SATELLITES];
+        double[] elevation = new double[SATELLITES];
+        double[] vtec = new double[SATELLITES];
+        double[] delay = new double[SATELLITES];
+        for (int i = 0; i < SATELLITES; i++) {
+            azimuth[i] = 360 * random.nextDouble();
+            elevation[i] = 10 + 80 * random.nextDouble();
+        }
+        ionosphere.evaluate(39.6, 116.3, 3600, azimuth, elevation, SATELLITES, vtec, delay);
+        double[] one = new double[1];
+        for (int i = 0; i < SATELLITES; i++) {
+            ionosphere.evaluate(39.6, 116.3, 3600, new double[]{azimuth[i]}, new double[]{elevation[i]},
+                    1, one, null);
+            assertEquals(vtec[i], one[0], 0);
+            assertEquals(vtec[i], ionosphere.vtec(ionosphere.getPierceLatitude(),
+                    ionosphere.getPierceLongitude(), 3600), 0);
+            assertFalse(Double.isNaN(delay[i]));
+        }
+    }
+
+    /**
+     * Pierce point by rotating the receiver vertical towards the azimuth
+     *
+     * @param layerHeight (m)
+     * @return latitude and longitude (deg)
+     */
+    private static double[] piercePoint(double latitude, double azimuth, double elevation, double layerHeight) {
+        double e = Math.toRadians(elevation);
+        double psi = Math.PI / 2 - e - Math.asin(EARTH_RADIUS / (EARTH_RADIUS + layerHeight) * Math.cos(e));
+        double phi = Math.toRadians(latitude);
+        double a = Math.toRadians(azimuth);
+        // receiver at longitude 0: up, north and east unit vectors
+        double[] up = {Math.cos(phi), 0, Math.sin(phi)};
+        double[] north = {-Math.sin(phi), 0, Math.cos(phi)};
+        double[] east = {0, 1, 0};
+        double[] p = new double[3];
+        for (int k = 0; k < 3; k++) {
+            p[k] = Math.cos(psi) * up[k] + Math.sin(psi) * (Math.cos(a) * north[k] + Math.sin(a) * east[k]);
+        }
+        return new double[]{Math.toDegrees(Math.asin(p[2])), Math.toDegrees(Math.atan2(p[1], p[0]))};
+    }
+}
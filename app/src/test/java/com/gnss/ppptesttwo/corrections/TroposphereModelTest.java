@@ -0,0 +1,187 @@
+package com.gnss.ppptesttwo.corrections;
+
+import com.gnss.ppptesttwo.Time;
+import com.gnss.ppptesttwo.navifromftp.Coordinates;
+import com.gnss.ppptesttwo.navifromftp.SatellitePosition;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link TroposphereModel} with the {@link NiellMapping} and {@link SbasMapping}: values
+ * of the mapping functions, the ZWD partial, one instance shared by parallel epochs, and
+ * the model in {@link TropoCorrection}
+ */
+public class TroposphereModelTest {
+
+    private static final double LATITUDE = Math.toRadians(39.6);
+    private static final double DOY = 98.5;
+
+    @Test
+    public void mappingFunctionsAgree() {
+        double[] elevation = new double[90];
+        for (int i = 0; i < elevation.length; i++) {
+            elevation[i] = Math.toRadians(i + 1);
+        }
+        int n = elevation.length;
+        double[] niellHydrostatic = new double[n];
+        double[] niellWet = new double[n];
+        double[] sbasHydrostatic = new double[n];
+        double[] sbasWet = new double[n];
+        new NiellMapping().map(LATITUDE, 0, DOY, elevation, n, niellHydrostatic, niellWet);
+        new SbasMapping().map(LATITUDE, 0, DOY, elevation, n, sbasHydrostatic, sbasWet);
+
+        assertEquals(1, niellHydrostatic[n - 1], 1e-12);
+        assertEquals(1, niellWet[n - 1], 1e-12);
+        assertEquals(1.001 / Math.sqrt(1.002001), sbasHydrostatic[n - 1], 1e-12);
+        // about 10 at 5 degrees, wet above hydrostatic
+        assertEquals(10.1, niellHydrostatic[4], 0.3);
+        assertTrue(niellWet[4] > niellHydrostatic[4]);
+        for (int i = 9; i < n; i++) {
+            assertEquals(niellHydrostatic[i], sbasHydrostatic[i], 0.02 * niellHydrostatic[i]);
+            assertTrue(niellHydrostatic[i] <= 1 / Math.sin(elevation[i]) + 1e-12);
+        }
+        for (int i = 1; i < n; i++) {
+            assertTrue(niellHydrostatic[i] < niellHydrostatic[i - 1]);
+        }
+    }
+
+    @Test
+    public void delaysFollowTheZenithWetDelay() {
+        TroposphereModel model = new TroposphereModel();
+        double[] elevation = {0.1, 0.3, 0.6, 1.0, 1.5};
+        int n = elevation.length;
+        double[] delay = new double[n];
+        double[] wet = new double[n];
+        double[] shifted = new double[n];
+        double[] wet2 = new double[n];
+        model.evaluate(LATITUDE, 120, DOY, elevation, n, 0.15, delay, wet);
+        model.evaluate(LATITUDE, 120, DOY, elevation, n, 0.25, shifted, wet2);
+        for (int i = 0; i < n; i++) {
+            assertEquals(wet[i], (shifted[i] - delay[i]) / 0.1, 1e-9);
+        }
+
+        // a-priori ZWD against the Saastamoinen slant delay
+        SaastamoinenModel saastamoinen = new SaastamoinenModel();
+        saastamoinen.setHeight(120);
+        model.evaluate(LATITUDE, 120, DOY, elevation, n, Double.NaN, delay, wet);
+        for (int i = 1; i < n; i++) {
+            assertEquals(saastamoinen.getDelay(elevation[i]), delay[i], 0.03 * delay[i]);
+        }
+        assertEquals(2.3, TroposphereModel.getZenithHydrostaticDelay(LATITUDE, 0), 0.05);
+    }
+
+    @Test
+    public void sharedInstanceIsReentrant() throws Exception {
+        final TroposphereModel model = new TroposphereModel();
+        final int epochs = 2000;
+        final int satellites = 12;
+        Random random = new Random(13);
+        final double[][] elevations = new double[epochs][satellites];
+        final double[] heights = new double[epochs];
+        for (int e = 0; e < epochs; e++) {
+            heights[e] = 1000 * random.nextDouble();
+            for (int i = 0; i < satellites; i++) {
+                elevations[e][i] = 0.1 + 1.4 * random.nextDouble();
+            }
+        }
+        double[][] expected = new double[epochs][satellites];
+        double[] wet = new double[satellites];
+        for (int e = 0; e < epochs; e++) {
+            model.evaluate(LATITUDE, heights[e], DOY, elevations[e], satellites, Double.NaN, expected[e], wet);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<double[][]>> results = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            results.add(executor.submit(new Callable<double[][]>() {
+                @Override
+                public double[][] call() {
+                    double[][] delay = new double[epochs][satellites];
+                    double[] wet = new double[satellites];
+                    for (int e = 0; e < epochs; e++) {
+                        model.evaluate(LATITUDE, heights[e], DOY, elevations[e], satellites, Double.NaN, delay[e], wet);
+                    }
+                    return delay;
+                }
+            }));
+        }
+        for (Future<double[][]> result : results) {
+            double[][] delay = result.get();
+            for (int e = 0; e < epochs; e++) {
+                for (int i = 0; i < satellites; i++) {
+                    assertEquals(expected[e][i], delay[e][i], 0);
+                }
+            }
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void dayOfYearIsFractional() {
+        // 2020-01-01 00:00 and 2020-04-07 12:00 UTC
+        assertEquals(1, TroposphereModel.getDayOfYear(1577836800000L), 1e-12);
+        assertEquals(98.5, TroposphereModel.getDayOfYear(1586260800000L), 1e-9);
+        // against the calendar, around the year boundaries and at random from 1980 to 2100
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        Random random = new Random(5);
+        for (int i = 0; i < 10000; i++) {
+            long unixTime;
+            if (i < 240) {
+                calendar.clear();
+                calendar.set(1980 + i / 2, Calendar.JANUARY, 1);
+                unixTime = calendar.getTimeInMillis() - 1 + i % 2;
+            } else {
+                unixTime = 315964800000L + (long) (3786825600000L * random.nextDouble());
+            }
+            calendar.setTimeInMillis(unixTime);
+            double expected = calendar.get(Calendar.DAY_OF_YEAR)
+                    + (unixTime % 86400000L) / 86400000.0;
+            assertEquals(expected, TroposphereModel.getDayOfYear(unixTime), 1e-9);
+        }
+    }
+
+    @Test
+    public void tropoCorrectionUsesTheModelWhenSet() {
+        SatelliteGeometry geometry = new SatelliteGeometry();
+        geometry.compute(Coordinates.globalXYZInstance(-2148744.0, 4426641.0, 4044655.0),
+                new SatellitePosition(0, 1, 'G', -2148744.0, 4426641.0 + 2e7, 4044655.0 + 1e7));
+        Time time = new Time(1586260800000L);
+        TropoCorrection correction = new TropoCorrection();
+
+        // Saastamoinen by default
+        correction.calculateCorrection(time, geometry, null);
+        SaastamoinenModel saastamoinen = new SaastamoinenModel();
+        saastamoinen.setHeight(geometry.getHeight());
+        assertEquals(saastamoinen.getDelay(Math.toRadians(geometry.getElevation())),
+                correction.getCorrection(), 0);
+
+        TroposphereModel model = new TroposphereModel(new SbasMapping());
+        correction.setTroposphereModel(model);
+        double[] elevation = {Math.toRadians(geometry.getElevation())};
+        double[] delay = new double[1];
+        double[] wet = new double[1];
+        model.evaluate(Math.toRadians(geometry.getLatitude()), geometry.getHeight(), 98.5,
+                elevation, 1, Double.NaN, delay, wet);
+        correction.calculateCorrection(time, geometry, null);
+        assertEquals(delay[0], correction.getCorrection(), 1e-12);
+
+        // a ZWD estimate
+        correction.setZenithWetDelay(0.3);
+        model.evaluate(Math.toRadians(geometry.getLatitude()), geometry.getHeight(), 98.5,
+                elevation, 1, 0.3, delay, wet);
+        correction.calculateCorrection(time, geometry, null);
+        assertEquals(delay[0], correction.getCorrection(), 1e-12);
+    }
+}
@@ -0,0 +1,116 @@
+package com.gnss.ppptesttwo.navifromftp;
+
+import com.gnss.ppptesttwo.Constants;
+import com.gnss.ppptesttwo.Time;
+
+/**
+ * GPS/Galileo broadcast orbit as computed before the allocation-free propagator: two
+ * fixed-point solutions of Kepler's equation (for the relativistic clock term, then at
+ * the clock corrected transmission time), the velocity of Remondi's bc_velo and the
+ * Earth rotation over P/c + dt_sat + dt_rx. Kept apart from the production code so the
+ * propagator is not tested against itself.
+ */
+final class BroadcastOrbitReference {
+
+    /* x, y, z (Earth rotation applied), vx, vy, vz, satellite clock error */
+    static final int X = 0, Y = 1, Z = 2, VX = 3, VY = 4, VZ = 5, CLOCK = 6;
+
+    private BroadcastOrbitReference() {
+    }
+
+    static double[] compute(long unixTime, double obsPseudorange, KeplerianEphemeris eph,
+                            double receiverClockError) {
+        double gpsTime = new Time(unixTime).getGpsTime();
+        double tRaw = gpsTime - obsPseudorange / Constants.SPEED_OF_LIGHT;
+
+        // Satellite clock error
+        double Ek = eccentricAnomaly(tRaw, eph);
+        double dtr = -2.0 * ((Math.sqrt(Constants.EARTH_GRAVITATIONAL_CONSTANT) * eph.getRootA())
+                / (Constants.SPEED_OF_LIGHT * Constants.SPEED_OF_LIGHT)) * eph.getE() * Math.sin(Ek);
+        double dt = checkGpsTime(tRaw - eph.getToc());
+        double clock = (eph.getAf2() * dt + eph.getAf1()) * dt + eph.getAf0() + dtr - eph.getTgd();
+        dt = checkGpsTime(tRaw - clock - eph.getToc());
+        clock = (eph.getAf2() * dt + eph.getAf1()) * dt + eph.getAf0() + dtr - eph.getTgd();
+
+        double tGPS = tRaw - clock;
+        Ek = eccentricAnomaly(tGPS, eph);
+
+        double A = eph.getRootA() * eph.getRootA();
+        double e = eph.getE();
+        double tk = checkGpsTime(tGPS - eph.getToe());
+
+        // Position
+        double fk = Math.atan2(Math.sqrt(1 - Math.pow(e, 2)) * Math.sin(Ek), Math.cos(Ek) - e);
+        double phi = Math.IEEEremainder(fk + eph.getOmega(), 2 * Math.PI);
+        double u = phi + eph.getCuc() * Math.cos(2 * phi) + eph.getCus() * Math.sin(2 * phi);
+        double r = A * (1 - e * Math.cos(Ek)) + eph.getCrc() * Math.cos(2 * phi) + eph.getCrs() * Math.sin(2 * phi);
+        double ik = eph.getI0() + eph.getiDot() * tk + eph.getCic() * Math.cos(2 * phi) + eph.getCis() * Math.sin(2 * phi);
+        double Omega = eph.getOmega0() + (eph.getOmegaDot() - Constants.EARTH_ANGULAR_VELOCITY) * tk
+                - Constants.EARTH_ANGULAR_VELOCITY * eph.getToe();
+        Omega = Math.IEEEremainder(Omega + 2 * Math.PI, 2 * Math.PI);
+        double x1 = Math.cos(u) * r;
+        double y1 = Math.sin(u) * r;
+        double x = x1 * Math.cos(Omega) - y1 * Math.cos(ik) * Math.sin(Omega);
+        double y = x1 * Math.sin(Omega) + y1 * Math.cos(ik) * Math.cos(Omega);
+        double z = y1 * Math.sin(ik);
+
+        // Earth rotation during the signal travel time
+        double omegatau = Constants.EARTH_ANGULAR_VELOCITY * (gpsTime + receiverClockError - tGPS);
+        double[] result = new double[7];
+        result[X] = Math.cos(omegatau) * x + Math.sin(omegatau) * y;
+        result[Y] = -Math.sin(omegatau) * x + Math.cos(omegatau) * y;
+        result[Z] = z;
+
+        // Velocity (bc_velo)
+        double n = Math.sqrt(Constants.EARTH_GRAVITATIONAL_CONSTANT / Math.pow(A, 3)) + eph.getDeltaN();
+        double ekdot = n / (1.0 - e * Math.cos(Ek));
+        double takdot = Math.sin(Ek) * ekdot * (1.0 + e * Math.cos(fk)) / (Math.sin(fk) * (1.0 - e * Math.cos(Ek)));
+        double omegakdot = eph.getOmegaDot() - Constants.EARTH_ANGULAR_VELOCITY;
+        double cus = eph.getCus(), cuc = eph.getCuc(), crs = eph.getCrs(), crc = eph.getCrc();
+        double cis = eph.getCis(), cic = eph.getCic();
+        double uk = phi + cus * Math.sin(2.0 * phi) + cuc * Math.cos(2.0 * phi);
+        double rk = A * (1.0 - e * Math.cos(Ek)) + crs * Math.sin(2.0 * phi) + crc * Math.cos(2.0 * phi);
+        double ukdot = takdot + 2.0 * (cus * Math.cos(2.0 * uk) - cuc * Math.sin(2.0 * uk)) * takdot;
+        double rkdot = A * e * Math.sin(Ek) * n / (1.0 - e * Math.cos(Ek)) + 2.0 * (crs * Math.cos(2.0 * uk) - crc * Math.sin(2.0 * uk)) * takdot;
+        double ikdot = eph.getiDot() + (cis * Math.cos(2.0 * uk) - cic * Math.sin(2.0 * uk)) * 2.0 * takdot;
+        double xpk = rk * Math.cos(uk);
+        double ypk = rk * Math.sin(uk);
+        double xpkdot = rkdot * Math.cos(uk) - ypk * ukdot;
+        double ypkdot = rkdot * Math.sin(uk) + xpk * ukdot;
+        result[VX] = (xpkdot - ypk * Math.cos(ik) * omegakdot) * Math.cos(Omega)
+                - (xpk * omegakdot + ypkdot * Math.cos(ik) - ypk * Math.sin(ik) * ikdot) * Math.sin(Omega);
+        result[VY] = (xpkdot - ypk * Math.cos(ik) * omegakdot) * Math.sin(Omega)
+                + (xpk * omegakdot + ypkdot * Math.cos(ik) - ypk * Math.sin(ik) * ikdot) * Math.cos(Omega);
+        result[VZ] = ypkdot * Math.sin(ik) + ypk * Math.cos(ik) * ikdot;
+
+        result[CLOCK] = clock;
+        return result;
+    }
+
+    /**
+     * Fixed-point iteration E = M + e sin(E), at most 12 steps
+     */
+    static double eccentricAnomaly(double time, KeplerianEphemeris eph) {
+        double A = eph.getRootA() * eph.getRootA();
+        double tk = checkGpsTime(time - eph.getToe());
+        double n = Math.sqrt(Constants.EARTH_GRAVITATIONAL_CONSTANT / Math.pow(A, 3)) + eph.getDeltaN();
+        double Mk = Math.IEEEremainder(eph.getM0() + n * tk + 2 * Math.PI, 2 * Math.PI);
+        double Ek = Mk;
+        for (int i = 0; i < 12; i++) {
+            double EkOld = Ek;
+            Ek = Mk + eph.getE() * Math.sin(Ek);
+            if (Math.abs(Math.IEEEremainder(Ek - EkOld, 2 * Math.PI)) < 1e-12)
+                break;
+        }
+        return Ek;
+    }
+
+    static double checkGpsTime(double time) {
+        if (time > Constants.SEC_IN_HALF_WEEK) {
+            time = time - 2 * Constants.SEC_IN_HALF_WEEK;
+        } else if (time < -Constants.SEC_IN_HALF_WEEK) {
+            time = time + 2 * Constants.SEC_IN_HALF_WEEK;
+        }
+        return time;
+    }
+}
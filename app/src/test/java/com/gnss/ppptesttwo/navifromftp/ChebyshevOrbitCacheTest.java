@@ -0,0 +1,115 @@
+package com.gnss.ppptesttwo.navifromftp;
+
+import com.gnss.ppptesttwo.Constants;
+import com.gnss.ppptesttwo.Time;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ChebyshevOrbitCache} against the direct Keplerian propagation on the
+ * ephemerides of brdc0980.20n, and the change of segment along an orbit
+ */
+public class ChebyshevOrbitCacheTest {
+
+    private RinexNavigationParserGps rnp;
+
+    @Before
+    public void setUp() {
+        rnp = new RinexNavigationParserGps(new File("brdc0980.20n"));
+        rnp.init();
+    }
+
+    @Test
+    public void fitsMatchTheKeplerianOrbit() throws Exception {
+        ChebyshevOrbitCache cache = new ChebyshevOrbitCache();
+        long start = new Time("2020 04 07 00 00 00.0").getMsec();
+        Random random = new Random(5);
+        SatelliteState exact = new SatelliteState();
+        SatelliteState cached = new SatelliteState();
+
+        double worstPosition = 0;
+        double worstVelocity = 0;
+        double worstClock = 0;
+        int compared = 0;
+        for (int i = 0; i < 20000; i++) {
+            long unixTime = start + (long) (86400000L * random.nextDouble());
+            int satID = 1 + random.nextInt(32);
+            double pseudorange = 2.0e7 + 6.0e6 * random.nextDouble();
+            EphGps eph = rnp.findEph(unixTime, satID, 'G');
+            if (eph == null || eph == EphGps.UnhealthyEph)
+                continue;
+
+            rnp.setOrbitCache(null);
+            rnp.computeSatState(unixTime, pseudorange, eph, 1e-4, exact);
+            rnp.setOrbitCache(cache);
+            rnp.computeSatState(unixTime, pseudorange, eph, 1e-4, cached);
+
+            worstPosition = Math.max(worstPosition, distance(exact.x - cached.x, exact.y - cached.y, exact.z - cached.z));
+            worstVelocity = Math.max(worstVelocity, distance(exact.vx - cached.vx, exact.vy - cached.vy, exact.vz - cached.vz));
+            worstClock = Math.max(worstClock, Math.abs(exact.satelliteClockError - cached.satelliteClockError));
+            // seconds of week from Time.unixToGpsTime() carry its round-off, 2.4e-7 s in 2020
+            assertEquals(exact.transmissionTime, cached.transmissionTime, 3e-7);
+            compared++;
+        }
+        assertTrue(compared > 5000);
+        assertEquals(0, cache.getRejectedFits());
+        assertTrue(cache.getHits() > 10 * cache.getFits());
+        // well inside the 1 mm bound of the default cache: 0.4 mm, 4e-6 m/s
+        assertTrue("position " + worstPosition, worstPosition < 5e-4);
+        assertTrue("velocity " + worstVelocity, worstVelocity < 5e-6);
+        assertTrue("clock " + worstClock, worstClock < 1e-17);
+    }
+
+    @Test
+    public void segmentRollover() throws Exception {
+        ChebyshevOrbitCache cache = new ChebyshevOrbitCache(1e-3, 1800, 2);
+        rnp.setOrbitCache(cache);
+        long toe = new Time("2020 04 07 06 00 00.0").getMsec();
+        EphGps eph = rnp.findEph(toe, 5, 'G');
+        assertNotNull(eph);
+        SatelliteState state = new SatelliteState();
+        SatelliteState exact = new SatelliteState();
+
+        // 2 h before toe the window opens: segments start at toe - 7200 s + k * 1800 s
+        long boundary = toe - 7200000 + 2 * 1800000;
+        double pseudorange = 2.1e7;
+        assertTrue(cache.evaluate(rnp, boundary - 1, pseudorange, eph, state));
+        assertEquals(1, cache.getFits());
+        // the next segment is fitted, continuously across the boundary
+        assertTrue(cache.evaluate(rnp, boundary + 1, pseudorange, eph, exact));
+        assertEquals(2, cache.getFits());
+        assertEquals(state.x, exact.x, 10);
+        assertEquals(state.y, exact.y, 10);
+        assertEquals(state.z, exact.z, 10);
+        // back to the first one: kept in the LRU
+        assertTrue(cache.evaluate(rnp, boundary - 1000, pseudorange, eph, state));
+        assertEquals(2, cache.getFits());
+        assertEquals(1, cache.getHits());
+
+        // both sides of every boundary of the window against the direct propagation
+        for (int k = 1; k < 8; k++) {
+            long t = toe - 7200000 + k * 1800000L;
+            for (long unixTime = t - 2000; unixTime <= t + 2000; unixTime += 500) {
+                assertTrue(cache.evaluate(rnp, unixTime, pseudorange, eph, state));
+                rnp.computeOrbit(Time.unixToGpsTime(unixTime) - pseudorange / Constants.SPEED_OF_LIGHT, eph, exact);
+                assertEquals(0, distance(state.x - exact.x, state.y - exact.y, state.z - exact.z), 1e-3);
+            }
+        }
+        // two segments kept at most
+        assertEquals(2, cache.size());
+
+        // outside the window of the record
+        assertFalse(cache.evaluate(rnp, toe - 7201000, pseudorange, eph, state));
+        assertFalse(cache.evaluate(rnp, toe + 7201000, pseudorange, eph, state));
+    }
+
+    private static double distance(double dx, double dy, double dz) {
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+}
@@ -0,0 +1,121 @@
+package com.gnss.ppptesttwo.navifromftp;
+
+import com.gnss.ppptesttwo.Constants;
+import com.gnss.ppptesttwo.Time;
+
+import org.ejml.simple.SimpleMatrix;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Earth rotation correction on the batch arrays ({@link EphemerisSystem#rotateEarth})
+ * against the former rotation matrix path, and the light-time solution of
+ * {@link EphemerisSystem#computeSatStates}
+ */
+public class EarthRotationTest {
+
+    private static final int SATELLITES = 32;
+
+    @Test
+    public void batchRotationMatchesMatrixRotation() {
+        Random random = new Random(1);
+        double[] x = new double[SATELLITES];
+        double[] y = new double[SATELLITES];
+        double[] z = new double[SATELLITES];
+        double[] travelTime = new double[SATELLITES];
+        for (int i = 0; i < SATELLITES; i++) {
+            x[i] = 2.6e7 * (2 * random.nextDouble() - 1);
+            y[i] = 2.6e7 * (2 * random.nextDouble() - 1);
+            z[i] = 2.6e7 * (2 * random.nextDouble() - 1);
+            travelTime[i] = 0.065 + 0.02 * random.nextDouble();
+        }
+
+        double[] rx = x.clone();
+        double[] ry = y.clone();
+        EphemerisSystem.rotateEarth(rx, ry, travelTime, null, SATELLITES);
+
+        for (int i = 0; i < SATELLITES; i++) {
+            SatellitePosition sp = new SatellitePosition(0, i + 1, 'G', x[i], y[i], z[i]);
+            sp.setSMMultXYZ(rotationMatrix(travelTime[i]));
+            assertEquals(sp.getX(), rx[i], 1e-7);
+            assertEquals(sp.getY(), ry[i], 1e-7);
+            assertEquals(sp.getZ(), z[i], 1e-7);
+        }
+    }
+
+    @Test
+    public void lightTimeIsSolvedFromGeometricRange() throws Exception {
+        RinexNavigationParserGps rnp = new RinexNavigationParserGps(new File("brdc0980.20n"));
+        rnp.init();
+        long unixTime = new Time("2020 04 07 03 00 00.0").getMsec();
+        double rxX = -2148744.0, rxY = 4426641.0, rxZ = 4044655.0;
+        double receiverClockError = 1e-3;
+
+        // pseudoranges carrying a 1 ms receiver clock bias
+        SatelliteBatch batch = new SatelliteBatch();
+        batch.setReceiverPosition(rxX, rxY, rxZ);
+        for (int satID = 1; satID <= SATELLITES; satID++) {
+            batch.add(satID, 2.2e7 + 1e5 * satID + receiverClockError * Constants.SPEED_OF_LIGHT);
+        }
+        int valid = rnp.computeSatStates(unixTime, 'G', receiverClockError, batch);
+        assertTrue(valid > 20);
+
+        SatelliteState state = new SatelliteState();
+        for (int i = 0; i < batch.size; i++) {
+            if (!batch.valid[i])
+                continue;
+            // orbit at the transmission time of the pseudorange, t - P/c - dt_sat, which
+            // keeps the receiver clock bias
+            EphGps eph = rnp.findEph(unixTime, batch.satID[i], 'G');
+            rnp.computeOrbit(Time.unixToGpsTime(unixTime) - batch.pseudorange[i] / Constants.SPEED_OF_LIGHT,
+                    eph, state);
+            assertEquals(state.satelliteClockError, batch.satelliteClockError[i], 1e-15);
+            assertEquals(state.vx, batch.vx[i], 1e-9);
+
+            // rotated by the geometric travel time, c tau = |R(w tau) r - r_rx|
+            double tau = 0.07;
+            for (int k = 0; k < 10; k++) {
+                double dx = rotateX(state.x, state.y, tau) - rxX;
+                double dy = rotateY(state.x, state.y, tau) - rxY;
+                double dz = state.z - rxZ;
+                tau = Math.sqrt(dx * dx + dy * dy + dz * dz) / Constants.SPEED_OF_LIGHT;
+            }
+            assertEquals(tau, batch.travelTime[i], 1e-12);
+            assertEquals(rotateX(state.x, state.y, tau), batch.x[i], 1e-4);
+            assertEquals(rotateY(state.x, state.y, tau), batch.y[i], 1e-4);
+            assertEquals(state.z, batch.z[i], 1e-4);
+        }
+    }
+
+    private static double rotateX(double x, double y, double traveltime) {
+        double omegatau = Constants.EARTH_ANGULAR_VELOCITY * traveltime;
+        return Math.cos(omegatau) * x + Math.sin(omegatau) * y;
+    }
+
+    private static double rotateY(double x, double y, double traveltime) {
+        double omegatau = Constants.EARTH_ANGULAR_VELOCITY * traveltime;
+        return -Math.sin(omegatau) * x + Math.cos(omegatau) * y;
+    }
+
+    /**
+     * Rotation matrix of the former EphemerisSystem.computeEarthRotationCorrection
+     */
+    private static SimpleMatrix rotationMatrix(double traveltime) {
+        double omegatau = Constants.EARTH_ANGULAR_VELOCITY * traveltime;
+        double[][] data = new double[3][3];
+        data[0][0] = Math.cos(omegatau);
+        data[0][1] = Math.sin(omegatau);
+        data[0][2] = 0;
+        data[1][0] = -Math.sin(omegatau);
+        data[1][1] = Math.cos(omegatau);
+        data[1][2] = 0;
+        data[2][0] = 0;
+        data[2][1] = 0;
+        data[2][2] = 1;
+        return new SimpleMatrix(data);
+    }
+}
@@ -0,0 +1,169 @@
+package com.gnss.ppptesttwo.navifromftp;
+
+import com.gnss.ppptesttwo.Time;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link EphemerisStore}: limits of the selection window, records of a new issue of
+ * data, satellites without ephemerides, and the memo of {@link EphemerisStore#select}
+ */
+public class EphemerisStoreTest {
+
+    /* 2020-04-07 00:00:00 UTC */
+    private static final long T0 = 1586217600000L;
+
+    @Test
+    public void selectionWindowBoundaries() {
+        EphemerisStore<EphGps> store = new EphemerisStore<EphGps>();
+        EphGps first = eph('G', 5, T0, 1, 4);
+        EphGps second = eph('G', 5, T0 + 7200000, 2, 4);
+        store.add(second);
+        store.add(first);
+
+        // the earlier record wins at the midpoint
+        assertSame(first, store.select('G', 5, T0 + 3600000));
+        assertSame(second, store.select('G', 5, T0 + 3600001));
+        assertSame(first, store.findNearest('G', 5, T0 + 3600000));
+
+        // 4 h fit interval: 7200 s on either side, in whole seconds as findEph did
+        assertSame(first, store.select('G', 5, T0 - 7200999));
+        assertNull(store.select('G', 5, T0 - 7201000));
+        assertSame(second, store.select('G', 5, T0 + 7200000 + 7200999));
+        assertNull(store.select('G', 5, T0 + 7200000 + 7201000));
+
+        // without a fit interval: 2 h
+        store.add(eph('E', 11, T0, 1, 0));
+        assertNotNull(store.select('E', 11, T0 + 7200999));
+        assertNull(store.select('E', 11, T0 + 7201000));
+
+        long[] span = store.getTimeSpan('G');
+        assertEquals(T0 - 7200000, span[0]);
+        assertEquals(T0 + 14400000, span[1]);
+    }
+
+    @Test
+    public void newIssueOfDataIsSelected() {
+        EphemerisStore<EphGps> store = new EphemerisStore<EphGps>();
+        EphGps old = eph('G', 12, T0, 40, 4);
+        store.add(old);
+        assertSame(old, store.select('G', 12, T0 + 1800000));
+
+        // a new IODE uploaded mid-session, closer to the epoch
+        EphGps upload = eph('G', 12, T0 + 3000000, 41, 4);
+        store.add(upload);
+        assertSame(upload, store.select('G', 12, T0 + 1800000));
+        assertSame(old, store.select('G', 12, T0 + 1000000));
+
+        // same reference time from another file: the first one indexed is kept
+        EphGps duplicate = eph('G', 12, T0 + 3000000, 42, 4);
+        store.add(duplicate);
+        assertSame(upload, store.select('G', 12, T0 + 3000000));
+        assertEquals(3, store.size());
+    }
+
+    @Test
+    public void missingEphemerides() {
+        EphemerisStore<EphGps> store = new EphemerisStore<EphGps>();
+        assertNull(store.select('G', 1, T0));
+        assertNull(store.findNearest('G', 1, T0));
+        assertNull(store.getTimeSpan('G'));
+
+        store.add(eph('G', 1, T0, 1, 4));
+        assertFalse(store.contains('G', 2));
+        assertNull(store.select('G', 2, T0));
+        assertNull(store.select('E', 1, T0));
+
+        // not indexable
+        assertFalse(store.add(null));
+        assertFalse(store.add(eph('X', 1, T0, 1, 4)));
+        assertFalse(store.add(eph('G', EphemerisStore.MAX_SAT_ID + 1, T0, 1, 4)));
+        EphGps noTime = new EphGps();
+        noTime.setSatType('G');
+        noTime.setSatID(3);
+        assertFalse(store.add(noTime));
+        assertNull(store.select('X', 1, T0));
+        assertNull(store.select('G', -1, T0));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void findEphReportsHealthAndGaps() {
+        RinexNavigationParserGpsGLONASS parser = new RinexNavigationParserGpsGLONASS((File) null);
+        EphGps healthy = eph('G', 7, T0, 1, 4);
+        EphGps unhealthy = eph('G', 8, T0, 1, 4);
+        unhealthy.setSvHealth(63);
+        parser.addEph(healthy);
+        parser.addEph(unhealthy);
+        // BeiDou reference times are in BDT, 14 s behind
+        parser.addEph(eph('C', 7, T0 - 14000 - 7200000, 1, 0));
+
+        assertSame(healthy, parser.findEph(T0 + 60000, 7, 'G'));
+        assertSame(EphGps.UnhealthyEph, parser.findEph(T0, 8, 'G'));
+        assertNull(parser.findEph(T0, 9, 'G'));
+        assertNull(parser.findEph(T0 + 8 * 3600000L, 7, 'G'));
+        assertNotNull(parser.findEph(T0, 7, 'C'));
+        assertNull(parser.findEph(T0 + 1000, 7, 'C'));
+        assertEquals(3, parser.getEphSize());
+    }
+
+    @Test
+    public void consecutiveEpochsHitTheMemo() {
+        EphemerisStore<EphGps> store = new EphemerisStore<EphGps>();
+        for (int k = 0; k < 12; k++) {
+            store.add(eph('G', 3, T0 + k * 7200000L, k, 4));
+        }
+        // 1 Hz over one hour inside the window of the second record
+        for (long t = T0 + 3600001; t <= T0 + 3600000 + 3600000; t += 1000) {
+            assertEquals(1, store.select('G', 3, t).getIode());
+        }
+        assertEquals(1, store.getSelectionMisses());
+        assertEquals(3599, store.getSelectionHits());
+
+        // the next window is searched once, and so is every record added
+        assertEquals(2, store.select('G', 3, T0 + 3 * 3600000L + 1).getIode());
+        assertEquals(2, store.getSelectionMisses());
+        store.add(eph('G', 3, T0 + 100 * 7200000L, 99, 4));
+        assertEquals(2, store.select('G', 3, T0 + 3 * 3600000L + 2).getIode());
+        assertEquals(3, store.getSelectionMisses());
+    }
+
+    @Test
+    public void memoAgreesWithTheSearch() {
+        Random random = new Random(3);
+        EphemerisStore<EphGps> store = new EphemerisStore<EphGps>();
+        long t = T0;
+        for (int k = 0; k < 40; k++) {
+            // irregular reference times, repeated ones and gaps beyond the fit interval
+            t += random.nextInt(4) == 0 ? 0 : 1000L * random.nextInt(6 * 3600);
+            store.add(eph('E', 20, t, k, random.nextBoolean() ? 4 : 0));
+        }
+        long now = T0 - 3 * 3600000L;
+        for (int i = 0; i < 20000; i++) {
+            // mostly small steps forward, sometimes jumps in either direction
+            now += random.nextInt(10) == 0 ? random.nextInt(14400000) - 7200000 : random.nextInt(3000);
+            EphGps nearest = store.findNearest('E', 20, now);
+            long dt = Math.abs(nearest.getRefTime().getMsec() - now) / 1000;
+            EphGps expected = dt > EphemerisStore.getMaxAge(nearest) ? null : nearest;
+            assertSame("at " + now, expected, store.select('E', 20, now));
+        }
+        // both the memo and the search were exercised
+        assertTrue(store.getSelectionHits() > 1000);
+        assertTrue(store.getSelectionMisses() > 1000);
+    }
+
+    private static EphGps eph(char satType, int satID, long refTime, int iode, long fitInterval) {
+        EphGps eph = new EphGps();
+        eph.setSatType(satType);
+        eph.setSatID(satID);
+        eph.setRefTime(new Time(refTime));
+        eph.setIode(iode);
+        eph.setFitInt(fitInterval);
+        return eph;
+    }
+}
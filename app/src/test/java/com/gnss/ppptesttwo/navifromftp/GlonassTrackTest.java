@@ -0,0 +1,110 @@
+package com.gnss.ppptesttwo.navifromftp;
+
+import com.gnss.ppptesttwo.Constants;
+import com.gnss.ppptesttwo.Time;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * GLONASS orbits continued from the last integrated epoch against the integration from
+ * the ephemeris reference epoch at every call
+ */
+public class GlonassTrackTest {
+
+    private static final int WEEK = 2100;
+    private static final double TOE = 194400; /* 2020-04-07 06:00 */
+    private static final double PSEUDORANGE = 2.0e7;
+
+    @Test
+    public void trackMatchesDirectIntegration() {
+        EphGps eph = glonassEph(7);
+        RinexNavigationParserGps tracked = new RinexNavigationParserGps((File) null);
+
+        double worst = 0;
+        int compared = 0;
+        // 1 Hz through the reference epoch, 2 h on either side
+        for (int k = -7200; k <= 7200; k++) {
+            long unixTime = receptionTime(k);
+            SatellitePosition sp = tracked.computeSatPositionAndVelocities(unixTime, PSEUDORANGE, 7, 'R', eph, 0);
+            if (k % 60 != 0)
+                continue;
+            // a new instance integrates from toe
+            SatellitePosition direct = new RinexNavigationParserGps((File) null)
+                    .computeSatPositionAndVelocities(unixTime, PSEUDORANGE, 7, 'R', eph, 0);
+            double dx = sp.getX() - direct.getX();
+            double dy = sp.getY() - direct.getY();
+            double dz = sp.getZ() - direct.getZ();
+            worst = Math.max(worst, Math.sqrt(dx * dx + dy * dy + dz * dz));
+            assertEquals(direct.getSpeed().get(0), sp.getSpeed().get(0), 1e-5);
+            assertEquals(direct.getSpeed().get(1), sp.getSpeed().get(1), 1e-5);
+            assertEquals(direct.getSpeed().get(2), sp.getSpeed().get(2), 1e-5);
+            compared++;
+        }
+        assertEquals(241, compared);
+        // the step sequences differ: RK4 truncation of a few mm after 2 h
+        assertTrue("worst " + worst, worst < 5e-3);
+        // from toe at the first epoch, and at the epochs within a second of toe, where
+        // toe is the closer start
+        assertEquals(3, tracked.getGlonassRestartCount());
+    }
+
+    @Test
+    public void newEphemerisRestartsTheTrack() {
+        RinexNavigationParserGps tracked = new RinexNavigationParserGps((File) null);
+        EphGps first = glonassEph(3);
+        tracked.computeSatPositionAndVelocities(receptionTime(600), PSEUDORANGE, 3, 'R', first, 0);
+        tracked.computeSatPositionAndVelocities(receptionTime(601), PSEUDORANGE, 3, 'R', first, 0);
+        assertEquals(1, tracked.getGlonassRestartCount());
+
+        // new record for the satellite, e.g. the next half-hour upload
+        EphGps second = glonassEph(3);
+        second.setX(second.getX() + 100);
+        SatellitePosition sp = tracked.computeSatPositionAndVelocities(receptionTime(602), PSEUDORANGE, 3, 'R', second, 0);
+        assertEquals(2, tracked.getGlonassRestartCount());
+        SatellitePosition direct = new RinexNavigationParserGps((File) null)
+                .computeSatPositionAndVelocities(receptionTime(602), PSEUDORANGE, 3, 'R', second, 0);
+        assertEquals(direct.getX(), sp.getX(), 1e-6);
+
+        // other satellites keep their own track
+        tracked.computeSatPositionAndVelocities(receptionTime(603), PSEUDORANGE, 4, 'R', glonassEph(4), 0);
+        tracked.computeSatPositionAndVelocities(receptionTime(603), PSEUDORANGE, 3, 'R', second, 0);
+        assertEquals(3, tracked.getGlonassRestartCount());
+    }
+
+    /**
+     * Reception time k seconds after the reference epoch, reached by a signal with
+     * {@link #PSEUDORANGE} (GLONASS time is UTC, 18 s behind GPS in 2020)
+     */
+    private static long receptionTime(int k) {
+        return new Time(WEEK, TOE + 18 + k + PSEUDORANGE / Constants.SPEED_OF_LIGHT).getMsec();
+    }
+
+    /**
+     * Near-circular GLONASS orbit (25510 km, 64.8 deg) in the rotating PZ-90 frame
+     */
+    private static EphGps glonassEph(int satID) {
+        double r = 25510000;
+        double inclination = Math.toRadians(64.8);
+        double v = Math.sqrt(Constants.GM_GLO / r);
+        EphGps eph = new EphGps();
+        eph.setSatType('R');
+        eph.setSatID(satID);
+        eph.setWeek(WEEK);
+        eph.setToe(TOE);
+        eph.setToc(TOE);
+        eph.setX(r * Math.cos(satID));
+        eph.setY(r * Math.sin(satID));
+        eph.setZ(0);
+        eph.setXv(-v * Math.cos(inclination) * Math.sin(satID) + Constants.OMEGAE_DOT_GLO * r * Math.sin(satID));
+        eph.setYv(v * Math.cos(inclination) * Math.cos(satID) - Constants.OMEGAE_DOT_GLO * r * Math.cos(satID));
+        eph.setZv(v * Math.sin(inclination));
+        eph.setXa(1e-6);
+        eph.setYa(-2e-6);
+        eph.setZa(-1.5e-6);
+        return eph;
+    }
+}
@@ -0,0 +1,69 @@
+package com.gnss.ppptesttwo.navifromftp;
+
+import com.gnss.ppptesttwo.Time;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Newton-Raphson solution of Kepler's equation
+ * ({@link EphemerisSystem#solveKeplerEquation}) and the single solve per satellite of
+ * {@link EphemerisSystem#computeSatState}
+ */
+public class KeplerEquationTest {
+
+    @Test
+    public void residualIsAtRoundOff() {
+        RinexNavigationParserGps rnp = new RinexNavigationParserGps((File) null);
+        for (double e = 0; e <= 0.9; e += 0.05) {
+            for (int k = -360; k <= 360; k++) {
+                double M = Math.toRadians(k + 0.37);
+                double E = rnp.solveKeplerEquation(M, e);
+                double residual = Math.IEEEremainder(E - e * Math.sin(E) - M, 2 * Math.PI);
+                assertEquals("e = " + e + ", M = " + M, 0, residual, 1e-14);
+            }
+        }
+        assertEquals(0, rnp.getKeplerNonConvergenceCount());
+    }
+
+    @Test
+    public void matchesTheFixedPointIteration() {
+        RinexNavigationParserGps rnp = new RinexNavigationParserGps(new File("brdc0980.20n"));
+        rnp.init();
+        double worst = 0;
+        for (int satID = 1; satID <= 32; satID++) {
+            EphGps eph = rnp.findEph(1586239200000L, satID, 'G'); // 2020-04-07 06:00
+            if (eph == null || eph == EphGps.UnhealthyEph)
+                continue;
+            for (double t = eph.getToe() - 7200; t <= eph.getToe() + 7200; t += 60) {
+                double fixedPoint = BroadcastOrbitReference.eccentricAnomaly(t, eph);
+                double newton = rnp.computeEccentricAnomaly(t, eph);
+                worst = Math.max(worst, Math.abs(Math.IEEEremainder(newton - fixedPoint, 2 * Math.PI)));
+            }
+        }
+        assertEquals(0, worst, 1e-12);
+        assertEquals(0, rnp.getKeplerNonConvergenceCount());
+    }
+
+    @Test
+    public void firstOrderStepCoversLargeClockErrors() throws Exception {
+        RinexNavigationParserGps rnp = new RinexNavigationParserGps(new File("brdc0980.20n"));
+        rnp.init();
+        long unixTime = new Time("2020 04 07 06 30 00.0").getMsec();
+        EphGps eph = rnp.findEph(unixTime, 5, 'G');
+        assertNotNull(eph);
+        // 1 ms satellite clock offset on an eccentric orbit: E moves by about 1.5e-7 rad
+        eph.setAf0(1e-3);
+        eph.setE(0.05);
+        SatelliteState state = new SatelliteState();
+        rnp.computeSatState(unixTime, 2.2e7, eph, 0, state);
+        double[] expected = BroadcastOrbitReference.compute(unixTime, 2.2e7, eph, 0);
+        assertEquals(expected[BroadcastOrbitReference.X], state.x, 1e-4);
+        assertEquals(expected[BroadcastOrbitReference.Y], state.y, 1e-4);
+        assertEquals(expected[BroadcastOrbitReference.Z], state.z, 1e-4);
+        assertEquals(expected[BroadcastOrbitReference.CLOCK], state.satelliteClockError, 1e-15);
+    }
+}
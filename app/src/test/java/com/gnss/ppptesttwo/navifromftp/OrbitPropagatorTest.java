@@ -0,0 +1,86 @@
+package com.gnss.ppptesttwo.navifromftp;
+
+import com.gnss.ppptesttwo.Time;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link EphemerisSystem#computeSatState} against the former broadcast orbit formulas
+ * ({@link BroadcastOrbitReference}) on the ephemerides of brdc0980.20n, and without
+ * allocation once warmed up
+ */
+public class OrbitPropagatorTest {
+
+    private RinexNavigationParserGps rnp;
+
+    @Before
+    public void setUp() {
+        rnp = new RinexNavigationParserGps(new File("brdc0980.20n"));
+        rnp.init();
+    }
+
+    @Test
+    public void matchesTheFormerFormulas() throws Exception {
+        long start = new Time("2020 04 07 00 00 00.0").getMsec();
+        SatelliteState state = new SatelliteState();
+        double receiverClockError = 2e-4;
+
+        int compared = 0;
+        for (long unixTime = start; unixTime < start + 86400000L; unixTime += 900013L) {
+            for (int satID = 1; satID <= 32; satID++) {
+                EphGps eph = rnp.findEph(unixTime, satID, 'G');
+                if (eph == null || eph == EphGps.UnhealthyEph)
+                    continue;
+                double pseudorange = 2.0e7 + 1.0e5 * satID;
+                rnp.computeSatState(unixTime, pseudorange, eph, receiverClockError, state);
+                double[] expected = BroadcastOrbitReference.compute(unixTime, pseudorange, eph, receiverClockError);
+
+                assertEquals(expected[BroadcastOrbitReference.X], state.x, 1e-6);
+                assertEquals(expected[BroadcastOrbitReference.Y], state.y, 1e-6);
+                assertEquals(expected[BroadcastOrbitReference.Z], state.z, 1e-6);
+                assertEquals(expected[BroadcastOrbitReference.VX], state.vx, 1e-9);
+                assertEquals(expected[BroadcastOrbitReference.VY], state.vy, 1e-9);
+                assertEquals(expected[BroadcastOrbitReference.VZ], state.vz, 1e-9);
+                assertEquals(expected[BroadcastOrbitReference.CLOCK], state.satelliteClockError, 1e-15);
+                compared++;
+            }
+        }
+        assertTrue(compared > 1000);
+    }
+
+    @Test
+    public void reusedStateDoesNotAllocate() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported())
+            return;
+
+        long unixTime = new Time("2020 04 07 06 00 00.0").getMsec();
+        EphGps eph = rnp.findEph(unixTime, 5, 'G');
+        assertNotNull(eph);
+        SatelliteState state = new SatelliteState();
+        double sum = 0;
+        for (int i = 0; i < 20000; i++) {
+            rnp.computeSatState(unixTime + i, 2.1e7, eph, 0, state);
+            sum += state.x;
+        }
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < 20000; i++) {
+            rnp.computeSatState(unixTime + i, 2.1e7, eph, 0, state);
+            sum += state.x;
+        }
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+        assertFalse(Double.isNaN(sum));
+        // nothing per call; allow for the counter query itself
+        assertTrue(allocated + " bytes", allocated < 20000);
+    }
+}
@@ -0,0 +1,106 @@
+package com.gnss.ppptesttwo.navifromftp;
+
+import com.gnss.ppptesttwo.Constants;
+import com.gnss.ppptesttwo.Time;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Batch propagation ({@link EphemerisSystem#computeSatStates}) against the former
+ * broadcast orbit formulas ({@link BroadcastOrbitReference}), on the broadcast
+ * ephemerides of brdc0980.20n
+ */
+public class SatelliteBatchTest {
+
+    private RinexNavigationParserGps rnp;
+
+    @Before
+    public void setUp() {
+        rnp = new RinexNavigationParserGps(new File("brdc0980.20n"));
+        rnp.init();
+    }
+
+    @Test
+    public void batchMatchesTheFormerFormulas() throws Exception {
+        long start = new Time("2020 04 07 00 00 00.0").getMsec();
+        SatelliteBatch batch = new SatelliteBatch(4); // grows while adding
+        double receiverClockError = 1e-4;
+
+        int compared = 0;
+        for (long unixTime = start; unixTime < start + 86400000L; unixTime += 1800017L) {
+            batch.clear();
+            for (int satID = 1; satID <= 32; satID++) {
+                batch.add(satID, 2.0e7 + 1.0e5 * satID);
+            }
+            int valid = rnp.computeSatStates(unixTime, 'G', receiverClockError, batch);
+
+            int expectedValid = 0;
+            for (int i = 0; i < batch.size; i++) {
+                EphGps eph = rnp.findEph(unixTime, batch.satID[i], 'G');
+                boolean usable = eph != null && eph != EphGps.UnhealthyEph;
+                assertEquals("validity of G" + batch.satID[i], usable, batch.valid[i]);
+                if (!usable)
+                    continue;
+                expectedValid++;
+                double[] expected = BroadcastOrbitReference.compute(unixTime, batch.pseudorange[i], eph, receiverClockError);
+                assertEquals(expected[BroadcastOrbitReference.X], batch.x[i], 1e-6);
+                assertEquals(expected[BroadcastOrbitReference.Y], batch.y[i], 1e-6);
+                assertEquals(expected[BroadcastOrbitReference.Z], batch.z[i], 1e-6);
+                assertEquals(expected[BroadcastOrbitReference.VX], batch.vx[i], 1e-9);
+                assertEquals(expected[BroadcastOrbitReference.VY], batch.vy[i], 1e-9);
+                assertEquals(expected[BroadcastOrbitReference.VZ], batch.vz[i], 1e-9);
+                assertEquals(expected[BroadcastOrbitReference.CLOCK], batch.satelliteClockError[i], 1e-15);
+                compared++;
+            }
+            assertEquals(expectedValid, valid);
+        }
+        assertTrue(compared > 500);
+    }
+
+    @Test
+    public void knownOrbitAtTheReferenceEpoch() throws Exception {
+        // G05 at 2020-04-07 06:00:00, the reference epoch of its ephemeris, signal
+        // received 70 ms later: independent of the propagation along the orbit
+        long toe = new Time("2020 04 07 06 00 00.0").getMsec();
+        EphGps eph = rnp.findEph(toe, 5, 'G');
+        assertNotNull(eph);
+        double pseudorange = 0.07 * Constants.SPEED_OF_LIGHT;
+        SatelliteBatch batch = new SatelliteBatch();
+        batch.add(5, pseudorange);
+        assertEquals(1, rnp.computeSatStates(toe + 70, 'G', 0.0, batch));
+
+        // radius and speed of a GPS orbit, and the clock polynomial at toc (IS-GPS-200 F)
+        double radius = Math.sqrt(batch.x[0] * batch.x[0] + batch.y[0] * batch.y[0] + batch.z[0] * batch.z[0]);
+        double a = eph.getRootA() * eph.getRootA();
+        assertEquals(a, radius, a * eph.getE() + 1000);
+        double speed = Math.sqrt(batch.vx[0] * batch.vx[0] + batch.vy[0] * batch.vy[0] + batch.vz[0] * batch.vz[0]);
+        assertEquals(3200, speed, 700); // inertial ~3.87 km/s less the Earth rotation
+        double relativistic = -4.442807633e-10 * eph.getE() * eph.getRootA()
+                * Math.sin(BroadcastOrbitReference.eccentricAnomaly(eph.getToe(), eph));
+        assertEquals(eph.getAf0() - eph.getTgd() + relativistic, batch.satelliteClockError[0], 1e-12);
+    }
+
+    @Test
+    public void missingPseudorangeIsInvalid() throws Exception {
+        long unixTime = new Time("2020 04 07 06 00 00.0").getMsec();
+        SatelliteBatch batch = new SatelliteBatch();
+        batch.add(5, 0);
+        batch.add(5, 2.1e7);
+        assertEquals(1, rnp.computeSatStates(unixTime, 'G', 0.0, batch));
+        assertFalse(batch.valid[0]);
+        assertTrue(batch.valid[1]);
+    }
+
+    @Test
+    public void unknownSatellitesAreInvalid() {
+        SatelliteBatch batch = new SatelliteBatch();
+        batch.add(99, 2.0e7);
+        assertEquals(0, rnp.computeSatStates(System.currentTimeMillis(), 'G', 0.0, batch));
+        assertFalse(batch.valid[0]);
+    }
+}
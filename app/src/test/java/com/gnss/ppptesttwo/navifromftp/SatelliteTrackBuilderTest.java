@@ -0,0 +1,137 @@
+package com.gnss.ppptesttwo.navifromftp;
+
+import com.gnss.ppptesttwo.Time;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * {@link SatelliteTracks} interpolated from the grid of {@link SatelliteTrackBuilder}
+ * against the exact propagation on the ephemerides of brdc0980.20n, and their cost as an
+ * opt-in benchmark
+ */
+public class SatelliteTrackBuilderTest {
+
+    private RinexNavigationParserGps rnp;
+
+    @Before
+    public void setUp() {
+        rnp = new RinexNavigationParserGps(new File("brdc0980.20n"));
+        rnp.init();
+    }
+
+    @Test
+    public void interpolationMatchesTheExactPropagation() throws Exception {
+        SatelliteTracks tracks = new SatelliteTrackBuilder(rnp, 'G').build();
+        assertNotNull(tracks);
+        long start = new Time("2020 04 07 00 00 00.0").getMsec();
+        Random random = new Random(9);
+        SatelliteState exact = new SatelliteState();
+        SatelliteState interpolated = new SatelliteState();
+
+        double worstPosition = 0;
+        double worstVelocity = 0;
+        double worstClock = 0;
+        int compared = 0;
+        for (int i = 0; i < 20000; i++) {
+            long unixTime = start + (long) (86400000L * random.nextDouble());
+            int satID = 1 + random.nextInt(32);
+            double pseudorange = 2.0e7 + 6.0e6 * random.nextDouble();
+            boolean found = rnp.getSatState(unixTime, pseudorange, satID, 'G', 1e-4, exact);
+            assertEquals(found, tracks.getSatState(unixTime, pseudorange, satID, 1e-4, interpolated));
+            if (!found)
+                continue;
+            worstPosition = Math.max(worstPosition, distance(exact.x - interpolated.x,
+                    exact.y - interpolated.y, exact.z - interpolated.z));
+            worstVelocity = Math.max(worstVelocity, distance(exact.vx - interpolated.vx,
+                    exact.vy - interpolated.vy, exact.vz - interpolated.vz));
+            worstClock = Math.max(worstClock, Math.abs(exact.satelliteClockError - interpolated.satelliteClockError));
+            compared++;
+        }
+        assertTrue(compared > 5000);
+        // most states come from the grid; record switches fall back to the exact path
+        assertTrue(tracks.getInterpolatedCount() > 10 * tracks.getFallbackCount());
+        // 0.4 mm, 5e-6 m/s, 2e-18 s
+        assertTrue("position " + worstPosition, worstPosition < 5e-4);
+        assertTrue("velocity " + worstVelocity, worstVelocity < 5e-5);
+        assertTrue("clock " + worstClock, worstClock < 5e-18);
+    }
+
+    /**
+     * Wall-clock benchmark, run only with -Dbenchmark=true
+     */
+    @Test
+    public void interpolationIsCheaperThanThePropagation() throws Exception {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        SatelliteTracks tracks = new SatelliteTrackBuilder(rnp, 'G').build();
+        long start = new Time("2020 04 07 00 00 00.0").getMsec();
+        SatelliteState state = new SatelliteState();
+
+        // best of five 1 Hz replays of two hours on each path, after a warm-up
+        replay(tracks, start, 3600, state);
+        replay(null, start, 3600, state);
+        long interpolated = Long.MAX_VALUE;
+        long exact = Long.MAX_VALUE;
+        double sum = 0;
+        for (int i = 0; i < 5; i++) {
+            long t0 = System.nanoTime();
+            sum += replay(tracks, start + i * 7200000L, 7200, state);
+            long t1 = System.nanoTime();
+            sum += replay(null, start + i * 7200000L, 7200, state);
+            long t2 = System.nanoTime();
+            interpolated = Math.min(interpolated, t1 - t0);
+            exact = Math.min(exact, t2 - t1);
+        }
+        assertFalse(Double.isNaN(sum));
+        // 2.3x when measured alone; only ask for a clear gain, the test runs under load
+        assertTrue("tracks " + interpolated / 1e6 + " ms, exact " + exact / 1e6 + " ms",
+                1.5 * interpolated < exact);
+    }
+
+    @Test
+    public void rejectsEmptyGrids() {
+        SatelliteTrackBuilder builder = new SatelliteTrackBuilder(rnp, 'G');
+        int[] steps = {0, -30};
+        for (int step : steps) {
+            try {
+                builder.setStep(step);
+                fail("step " + step);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        int[] points = {1, 0, -10};
+        for (int p : points) {
+            try {
+                builder.setPoints(p);
+                fail("points " + p);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        assertNotNull(builder.setStep(60).setPoints(2).build());
+    }
+
+    private double replay(SatelliteTracks tracks, long start, int seconds, SatelliteState state) {
+        double sum = 0;
+        for (int k = 0; k < seconds; k++) {
+            long unixTime = start + k * 1000L;
+            for (int satID = 1; satID <= 32; satID++) {
+                boolean found = tracks != null
+                        ? tracks.getSatState(unixTime, 2.2e7, satID, 1e-4, state)
+                        : rnp.getSatState(unixTime, 2.2e7, satID, 'G', 1e-4, state);
+                if (found)
+                    sum += state.x;
+            }
+        }
+        return sum;
+    }
+
+    private static double distance(double dx, double dy, double dz) {
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+}